@@ -0,0 +1,539 @@
+package batch;
+
+import capture.captureGIF.FrameLog;
+import capture.captureGIF.GifOptimizer;
+import capture.captureGIF.GifSequenceWriter;
+import capture.captureGIF.TimedFrame;
+import capture.capturePipeline.CapturePipeline;
+import capture.capturePipeline.SizeOptimizer;
+import capture.imageProcessing.Dithering;
+import settings.Config;
+import tools.ExecutionRuntime;
+import upload.StreamingUpload;
+import upload.Upload;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts and uploads recordings and screenshots without a display, with the same encoders and uploads as the tray
+ * program, e.g. to post-process recordings on a build server.
+ * <p>
+ * The 'gif' command encodes a directory of frames or a {@link FrameLog} into a GIF. Frames are decoded ahead of the
+ * encoder on the encode threads of the {@link ExecutionRuntime}, but only a few at a time, so recordings of any length
+ * fit into memory. If '--optimize' is given, the frames after the GIF reaches that size are written by the
+ * {@link GifOptimizer}, and the bytes it saved are printed along with the time it took. '--dither' picks the
+ * {@link Dithering} of frames with more colours than a GIF has. The 'png' command re-encodes a directory of
+ * screenshots through the {@link SizeOptimizer} on all encode threads at once, and prints every result as soon as it
+ * is done.
+ * <p>
+ * With '--upload', every output is uploaded while it is written, with the saved {@link Config}, exactly like a
+ * capture. The process exits with 1 if anything failed.
+ *
+ * @since 1.2
+ */
+public class BatchConverter {
+    /**
+     * The same delay as a recording of {@link capture.captureGIF.CaptureGIF}.
+     */
+    private static final int DEFAULT_FRAME_DELAY = 50;
+
+    /**
+     * Seconds that uploads are given to finish after the last result.
+     */
+    private static final long EXIT_TIMEOUT = 30;
+
+    private static final List<String> IMAGE_TYPES = Arrays.asList("png", "jpg", "jpeg", "gif", "bmp");
+
+    private static final String USAGE = "Usage:\n" +
+            "  gif --input <frame directory|frame log> --output <file.gif> [--delay ms] [--optimize bytes]\n" +
+            "      [--dither none|ordered|diffusion] [--upload]\n" +
+            "  png --input <directory> --output <directory> [--budget bytes] [--upload]";
+
+    /**
+     * Runs a command.
+     * <p>
+     * Arguments: gif --input path --output file [--delay ms] [--optimize bytes] [--dither mode] [--upload], or png
+     * --input directory --output directory [--budget bytes] [--upload]
+     *
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length == 0) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        File input = null;
+        File output = null;
+        int delay = DEFAULT_FRAME_DELAY;
+        long budget = 0;
+        long optimizeThreshold = -1;
+        Dithering dithering = Dithering.NONE;
+        boolean upload = false;
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--upload")) {
+                upload = true;
+                continue;
+            }
+
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value of argument: " + args[i]);
+                System.exit(2);
+            }
+
+            String value = args[++i];
+
+            switch (args[i - 1]) {
+                case "--input":
+                    input = new File(value);
+                    break;
+                case "--output":
+                    output = new File(value);
+                    break;
+                case "--delay":
+                    delay = Integer.parseInt(value);
+                    break;
+                case "--budget":
+                    budget = Long.parseLong(value);
+                    break;
+                case "--optimize":
+                    optimizeThreshold = Long.parseLong(value);
+                    break;
+                case "--dither":
+                    dithering = Dithering.fromName(value);
+                    break;
+                default:
+                    System.err.println("Unknown argument: " + args[i - 1]);
+                    break;
+            }
+        }
+
+        if (input == null || output == null) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        boolean success;
+        try {
+            switch (args[0]) {
+                case "gif":
+                    success = convertToGIF(input, output, delay, optimizeThreshold, dithering, upload);
+                    break;
+                case "png":
+                    success = reencodeImages(input, output, budget, upload);
+                    break;
+                default:
+                    System.err.println(USAGE);
+                    success = false;
+                    break;
+            }
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+
+            success = false;
+        }
+
+        ExecutionRuntime.shutdown(EXIT_TIMEOUT, TimeUnit.SECONDS);
+        System.exit(success ? 0 : 1);
+    }
+
+    /**
+     * Encodes the frames into a GIF through the {@link GifSequenceWriter} of the recordings.
+     *
+     * @param input             A directory of images, which are ordered by their names, or a {@link FrameLog}.
+     * @param output            The GIF file.
+     * @param delay             The time in milliseconds each image of a directory is shown.
+     * @param optimizeThreshold The size of the GIF in bytes after which frames are optimized, or -1 if they never are.
+     * @param dithering         How frames with more colours than a GIF has are dithered.
+     * @param upload            True if the GIF should be uploaded while it is encoded.
+     * @return True if the GIF was written, and uploaded if requested.
+     * @throws IOException If the frames could not be read or the GIF could not be written.
+     */
+    public static boolean convertToGIF(File input, File output, int delay, long optimizeThreshold,
+                                       Dithering dithering, boolean upload) throws IOException {
+        FrameSource frames = input.isDirectory() ? new DirectoryFrameSource(listImages(input), delay)
+                : new FrameLogSource(new FrameLog.Reader(input));
+
+        StreamingUpload streamingUpload = null;
+        OutputStream outputStream;
+        if (upload) {
+            streamingUpload = Upload.beginUpload(output.getName(), output, new Config(), ExecutionRuntime.io());
+            outputStream = streamingUpload.getOutputStream();
+        } else {
+            outputStream = new BufferedOutputStream(new FileOutputStream(output));
+        }
+
+        int frameCount = 0;
+        GifOptimizer optimizer;
+        try {
+            ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(outputStream);
+            GifSequenceWriter writer = new GifSequenceWriter(imageOutputStream, BufferedImage.TYPE_INT_RGB, delay,
+                    true);
+            writer.setOptimizeThreshold(optimizeThreshold);
+            writer.setDithering(dithering);
+
+            TimedFrame frame;
+            while ((frame = frames.next()) != null) {
+                writer.writeToSequence(frame.getImage(), frame.getDelay());
+                frameCount++;
+            }
+
+            writer.close();
+            imageOutputStream.close();
+
+            optimizer = writer.getOptimizer();
+        } catch (IOException | RuntimeException e) {
+            if (streamingUpload != null) {
+                streamingUpload.cancel();
+            } else {
+                outputStream.close();
+                output.delete();
+            }
+
+            throw e;
+        } finally {
+            frames.close();
+        }
+
+        if (streamingUpload == null) {
+            outputStream.close();
+
+            System.out.println(output + ": " + frameCount + " frames, " + output.length() + " bytes" +
+                    describe(optimizer));
+
+            return true;
+        }
+
+        streamingUpload.finish();
+        String url = streamingUpload.getResult().join();
+
+        System.out.println(output + ": " + frameCount + " frames, " + output.length() + " bytes" +
+                describe(optimizer) + ", " + (url.isEmpty() ? "upload failed" : url));
+
+        return !url.isEmpty();
+    }
+
+    /**
+     * @return How many frames the optimizer merged and how many bytes it saved in how much time, or an empty
+     * {@link String} if it did not optimize any frames.
+     */
+    private static String describe(GifOptimizer optimizer) {
+        if (optimizer == null || optimizer.getFrames() == 0) {
+            return "";
+        }
+
+        return ", " + optimizer.getFrames() + " frames optimized (" + optimizer.getFramesMerged() + " merged), " +
+                optimizer.getEstimatedBytesSaved() + " bytes saved in " +
+                TimeUnit.NANOSECONDS.toMillis(optimizer.getOptimizeTime()) + " ms";
+    }
+
+    /**
+     * Re-encodes every image of a directory as a PNG the way a captured image is encoded. At most one image per encode
+     * thread is loaded at a time.
+     *
+     * @param inputDirectory  The directory of images.
+     * @param outputDirectory The directory the PNGs are written to. It must not be the input directory.
+     * @param budget          The size budget of each PNG in bytes, or 0 if there is no budget.
+     * @param upload          True if each PNG should be uploaded while it is encoded.
+     * @return True if every image was written, and uploaded if requested.
+     * @throws IOException If the directories could not be used.
+     */
+    public static boolean reencodeImages(File inputDirectory, File outputDirectory, long budget, boolean upload)
+            throws IOException {
+        if (inputDirectory.getCanonicalFile().equals(outputDirectory.getCanonicalFile())) {
+            throw new IOException("The output directory must differ from the input directory");
+        }
+
+        outputDirectory.mkdirs();
+
+        List<File> files = listImages(inputDirectory);
+        Config config = upload ? new Config() : null;
+
+        Semaphore permits = new Semaphore(Runtime.getRuntime().availableProcessors());
+        AtomicInteger failures = new AtomicInteger();
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+
+        for (File file : files) {
+            permits.acquireUninterruptibly();
+
+            CompletableFuture<Void> result = CompletableFuture
+                    .supplyAsync(() -> {
+                        try {
+                            return reencodeImage(file, outputDirectory, budget, config);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        } finally {
+                            permits.release();
+                        }
+                    }, ExecutionRuntime.compute())
+                    .thenCompose(pending -> pending)
+                    .handle((line, e) -> {
+                        if (e != null) {
+                            Throwable cause = e;
+                            while ((cause instanceof CompletionException || cause instanceof UncheckedIOException) &&
+                                    cause.getCause() != null) {
+                                cause = cause.getCause();
+                            }
+
+                            failures.incrementAndGet();
+                            line = file + ": failed, " + cause;
+                        } else if (line.isEmpty()) {
+                            failures.incrementAndGet();
+                            line = file + ": upload failed";
+                        }
+
+                        synchronized (System.out) {
+                            System.out.println(line);
+                        }
+
+                        return null;
+                    });
+
+            results.add(result);
+        }
+
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+
+        return failures.get() == 0;
+    }
+
+    /**
+     * @return The line that is printed for the image once it is done, or an empty {@link String} if the upload failed.
+     */
+    private static CompletableFuture<String> reencodeImage(File file, File outputDirectory, long budget,
+                                                           Config config) throws IOException {
+        BufferedImage image = readImage(file);
+        SizeOptimizer.OptimizedImage optimized = SizeOptimizer.optimizePNG(image, budget);
+
+        String name = file.getName();
+        int extension = name.lastIndexOf('.');
+        File outputFile = new File(outputDirectory, (extension < 0 ? name : name.substring(0, extension)) + ".png");
+
+        if (config == null) {
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                CapturePipeline.writePNG(optimized.getImage(), optimized.getDeflateLevel(), outputStream);
+            }
+
+            return CompletableFuture.completedFuture(describe(file, outputFile));
+        }
+
+        StreamingUpload streamingUpload = Upload.beginUpload(outputFile.getName(), outputFile, config,
+                ExecutionRuntime.io());
+        try {
+            CapturePipeline.writePNG(optimized.getImage(), optimized.getDeflateLevel(),
+                    streamingUpload.getOutputStream());
+            streamingUpload.finish();
+        } catch (IOException e) {
+            streamingUpload.cancel();
+
+            throw e;
+        }
+
+        return streamingUpload.getResult().thenApply(url -> url.isEmpty() ? "" : describe(file, outputFile) +
+                ", " + url);
+    }
+
+    private static String describe(File input, File output) {
+        return String.format(Locale.ROOT, "%s -> %s: %d -> %d bytes", input, output, input.length(),
+                output.length());
+    }
+
+    /**
+     * Reads an image and converts it to the type of a screen capture, so that it is encoded like one.
+     */
+    private static BufferedImage readImage(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Unsupported image " + file);
+        }
+
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = converted.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+
+        return converted;
+    }
+
+    /**
+     * @param directory A directory.
+     * @return The images of the directory in natural order of their names, so that "frame10" follows "frame9".
+     * @throws IOException If the directory could not be listed.
+     */
+    private static List<File> listImages(File directory) throws IOException {
+        File[] files = directory.listFiles(file -> {
+            String name = file.getName();
+
+            return file.isFile() && IMAGE_TYPES.contains(name.substring(name.lastIndexOf('.') + 1)
+                    .toLowerCase(Locale.ROOT));
+        });
+
+        if (files == null) {
+            throw new IOException("Could not list " + directory);
+        }
+
+        List<File> images = new ArrayList<>(Arrays.asList(files));
+        images.sort((a, b) -> compareNatural(a.getName(), b.getName()));
+
+        return images;
+    }
+
+    /**
+     * Compares names so that runs of digits are compared by their numeric value.
+     */
+    private static int compareNatural(String a, String b) {
+        int i = 0;
+        int j = 0;
+
+        while (i < a.length() && j < b.length()) {
+            char charA = a.charAt(i);
+            char charB = b.charAt(j);
+
+            if (Character.isDigit(charA) && Character.isDigit(charB)) {
+                int endA = i;
+                while (endA < a.length() && Character.isDigit(a.charAt(endA))) {
+                    endA++;
+                }
+
+                int endB = j;
+                while (endB < b.length() && Character.isDigit(b.charAt(endB))) {
+                    endB++;
+                }
+
+                String numberA = a.substring(i, endA).replaceFirst("^0+(?=.)", "");
+                String numberB = b.substring(j, endB).replaceFirst("^0+(?=.)", "");
+
+                int result = numberA.length() != numberB.length() ? numberA.length() - numberB.length()
+                        : numberA.compareTo(numberB);
+                if (result != 0) {
+                    return result;
+                }
+
+                i = endA;
+                j = endB;
+            } else {
+                if (charA != charB) {
+                    return charA - charB;
+                }
+
+                i++;
+                j++;
+            }
+        }
+
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    /**
+     * The frames of a GIF in order.
+     */
+    private interface FrameSource extends Closeable {
+        /**
+         * @return The next frame, or null after the last frame.
+         */
+        TimedFrame next() throws IOException;
+    }
+
+    private static class FrameLogSource implements FrameSource {
+        private final FrameLog.Reader reader;
+
+        private FrameLogSource(FrameLog.Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public TimedFrame next() throws IOException {
+            return reader.read();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Decodes the images of a directory on the encode threads while the frames before them are encoded. Only
+     * {@link #lookAhead} frames are decoded ahead, which bounds the memory that is used.
+     */
+    private static class DirectoryFrameSource implements FrameSource {
+        private final List<File> files;
+        private final int delay;
+        private final int lookAhead = Runtime.getRuntime().availableProcessors();
+        private final Deque<CompletableFuture<BufferedImage>> pending = new ArrayDeque<>();
+        private int nextFile;
+
+        private DirectoryFrameSource(List<File> files, int delay) {
+            this.files = files;
+            this.delay = delay;
+        }
+
+        @Override
+        public TimedFrame next() throws IOException {
+            while (pending.size() < lookAhead && nextFile < files.size()) {
+                File file = files.get(nextFile++);
+
+                pending.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return readImage(file);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, ExecutionRuntime.compute()));
+            }
+
+            CompletableFuture<BufferedImage> image = pending.poll();
+            if (image == null) {
+                return null;
+            }
+
+            try {
+                return new TimedFrame(image.join(), delay);
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            for (CompletableFuture<BufferedImage> image : pending) {
+                image.cancel(false);
+            }
+
+            pending.clear();
+        }
+    }
+}
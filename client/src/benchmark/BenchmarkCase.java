@@ -0,0 +1,105 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One measured operation of the {@link BenchmarkRunner} with fixed parameters, e.g. encoding a 1920x1080 frame of
+ * noise as a GIF.
+ * <p>
+ * The {@link Setup} runs once before the warmup and creates the state of the operation, so that only the operation
+ * itself is timed. The state is closed once the case has been measured.
+ *
+ * @since 1.2
+ */
+public class BenchmarkCase {
+    private final String name;
+    private final Map<String, String> params = new LinkedHashMap<>();
+    private final Setup setup;
+
+    /**
+     * The operation that is timed, together with the state it needs.
+     */
+    public interface Operation extends AutoCloseable {
+        /**
+         * Runs the operation once.
+         *
+         * @return The amount of bytes the operation wrote or read. It is reported per operation and keeps the work
+         * from being optimized away.
+         */
+        long run() throws Exception;
+
+        /**
+         * Releases the state of the operation, such as servers or temporary files.
+         *
+         * @throws IOException If the state could not be released.
+         */
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    /**
+     * Creates the state of an {@link Operation} before it is measured.
+     */
+    public interface Setup {
+        Operation create() throws Exception;
+    }
+
+    /**
+     * @param name  The name of the operation, such as "gif.writeToSequence". Cases with the same name differ in
+     *              their parameters.
+     * @param setup Creates the operation.
+     */
+    public BenchmarkCase(String name, Setup setup) {
+        this.name = name;
+        this.setup = setup;
+    }
+
+    /**
+     * Adds a parameter that is reported with the results and matched by the filter of the {@link BenchmarkRunner}.
+     *
+     * @param name  The name of the parameter.
+     * @param value The value of the parameter.
+     * @return This case.
+     */
+    public BenchmarkCase param(String name, Object value) {
+        params.put(name, String.valueOf(value));
+
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, String> getParams() {
+        return Collections.unmodifiableMap(params);
+    }
+
+    /**
+     * @return The name followed by the parameters, e.g. "gif.writeToSequence:size=800x600,content=noise".
+     */
+    public String getId() {
+        if (params.isEmpty()) {
+            return name;
+        }
+
+        StringBuilder id = new StringBuilder(name).append(':');
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (id.charAt(id.length() - 1) != ':') {
+                id.append(',');
+            }
+
+            id.append(param.getKey()).append('=').append(param.getValue());
+        }
+
+        return id.toString();
+    }
+
+    Operation createOperation() throws Exception {
+        return setup.create();
+    }
+}
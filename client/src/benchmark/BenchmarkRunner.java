@@ -0,0 +1,326 @@
+package benchmark;
+
+import metrics.Histogram;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import tools.Constants;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the {@link BenchmarkCase}s of {@link Benchmarks} and writes the results as JSON, so that every change to a
+ * hot path can be compared with the release before it.
+ * <p>
+ * Each case runs a few warmup iterations for the JIT, then measured iterations of a fixed duration in which the
+ * operation is repeated. The result of a case is the average time per operation over all measured iterations, along
+ * with the variation between iterations, percentiles of single operations and, on HotSpot, the bytes allocated per
+ * operation. The results are meant to be compared between runs on the same machine.
+ *
+ * @since 1.2
+ */
+public class BenchmarkRunner {
+    private static final int DEFAULT_WARMUP_ITERATIONS = 3;
+    private static final int DEFAULT_ITERATIONS = 5;
+    private static final long DEFAULT_ITERATION_TIME = 1000;
+    private static final String DEFAULT_OUTPUT = "benchmark-results.json";
+
+    private static final double[] PERCENTILES = {50, 90, 99, 100};
+
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationTime;
+
+    /**
+     * Keeps the results of the operations so that they are not optimized away.
+     */
+    private static volatile long sink;
+
+    /**
+     * @param warmupIterations The amount of iterations that run before the measurement.
+     * @param iterations       The amount of measured iterations.
+     * @param iterationTime    The duration of an iteration in milliseconds. An iteration runs the operation at least
+     *                         once.
+     */
+    public BenchmarkRunner(int warmupIterations, int iterations, long iterationTime) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationTime = iterationTime;
+    }
+
+    /**
+     * Runs the benchmarks and writes the results.
+     * <p>
+     * Arguments: [--filter regex] [--warmup iterations] [--iterations iterations] [--time ms] [--output path|-]
+     * [--list]
+     * <p>
+     * The filter is searched for in the id of every case, e.g. "gif" or "size=1920x1080". An output of '-' writes the
+     * results to the standard output instead of a file.
+     *
+     * @param args The command line arguments.
+     * @throws IOException If the results could not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        Pattern filter = null;
+        int warmupIterations = DEFAULT_WARMUP_ITERATIONS;
+        int iterations = DEFAULT_ITERATIONS;
+        long iterationTime = DEFAULT_ITERATION_TIME;
+        String output = DEFAULT_OUTPUT;
+        boolean list = false;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--list")) {
+                list = true;
+                continue;
+            }
+
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value of argument: " + args[i]);
+                break;
+            }
+
+            String value = args[++i];
+
+            switch (args[i - 1]) {
+                case "--filter":
+                    filter = Pattern.compile(value);
+                    break;
+                case "--warmup":
+                    warmupIterations = Integer.parseInt(value);
+                    break;
+                case "--iterations":
+                    iterations = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--time":
+                    iterationTime = Long.parseLong(value);
+                    break;
+                case "--output":
+                    output = value;
+                    break;
+                default:
+                    System.err.println("Unknown argument: " + args[i - 1]);
+                    break;
+            }
+        }
+
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        List<BenchmarkCase> cases = new ArrayList<>();
+        for (BenchmarkCase benchmarkCase : Benchmarks.getCases()) {
+            if (filter == null || filter.matcher(benchmarkCase.getId()).find()) {
+                cases.add(benchmarkCase);
+            }
+        }
+
+        if (list) {
+            for (BenchmarkCase benchmarkCase : cases) {
+                System.out.println(benchmarkCase.getId());
+            }
+
+            return;
+        }
+
+        boolean toStandardOutput = output.equals("-");
+        BenchmarkRunner runner = new BenchmarkRunner(warmupIterations, iterations, iterationTime);
+        JSONArray results = new JSONArray();
+
+        for (BenchmarkCase benchmarkCase : cases) {
+            JSONObject result = runner.run(benchmarkCase);
+            results.put(result);
+
+            if (!toStandardOutput) {
+                System.out.println(formatResult(benchmarkCase, result));
+            }
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("program", Constants.PROGRAM_NAME);
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("javaVersion", System.getProperty("java.version"));
+        report.put("vm", System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version"));
+        report.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version"));
+        report.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        report.put("warmupIterations", warmupIterations);
+        report.put("iterations", iterations);
+        report.put("iterationTime", iterationTime);
+        report.put("results", results);
+
+        if (toStandardOutput) {
+            System.out.println(report.toString(4));
+        } else {
+            File outputFile = new File(output);
+            try (BufferedWriter w = new BufferedWriter(new FileWriter(outputFile))) {
+                w.write(report.toString(4));
+                w.newLine();
+            }
+
+            System.out.println("Results written to " + outputFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Creates the operation of the case, runs the warmup and the measured iterations and closes the operation. A
+     * case whose operation fails is reported with the error instead of a score.
+     *
+     * @param benchmarkCase The case to measure.
+     * @return The result as it is written to the output.
+     */
+    public JSONObject run(BenchmarkCase benchmarkCase) {
+        JSONObject result = new JSONObject();
+        result.put("benchmark", benchmarkCase.getName());
+        result.put("params", new JSONObject(benchmarkCase.getParams()));
+        result.put("mode", "avgt");
+        result.put("unit", "ns/op");
+
+        System.gc();
+
+        try (BenchmarkCase.Operation operation = benchmarkCase.createOperation()) {
+            for (int i = 0; i < warmupIterations; i++) {
+                runIteration(operation, null);
+            }
+
+            Histogram histogram = new Histogram();
+            double[] scores = new double[iterations];
+            long operations = 0;
+            long bytes = 0;
+            long allocated = 0;
+            boolean allocationSupported = true;
+
+            for (int i = 0; i < iterations; i++) {
+                Iteration iteration = runIteration(operation, histogram);
+
+                scores[i] = (double) iteration.duration / iteration.operations;
+                operations += iteration.operations;
+                bytes += iteration.bytes;
+
+                if (iteration.allocated < 0) {
+                    allocationSupported = false;
+                } else {
+                    allocated += iteration.allocated;
+                }
+            }
+
+            double mean = 0;
+            for (double score : scores) {
+                mean += score;
+            }
+            mean /= scores.length;
+
+            double variance = 0;
+            for (double score : scores) {
+                variance += (score - mean) * (score - mean);
+            }
+
+            result.put("score", mean);
+            result.put("scoreStdDev", scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0);
+            result.put("operations", operations);
+            result.put("bytesPerOp", bytes / operations);
+            result.put("allocatedBytesPerOp", allocationSupported ? allocated / operations : JSONObject.NULL);
+
+            JSONObject percentiles = new JSONObject();
+            for (double percentile : PERCENTILES) {
+                percentiles.put(String.valueOf(percentile), histogram.getValueAtPercentile(percentile));
+            }
+            result.put("percentiles", percentiles);
+
+            JSONArray rawData = new JSONArray();
+            for (double score : scores) {
+                rawData.put(score);
+            }
+            result.put("rawData", rawData);
+        } catch (Exception e) {
+            e.printStackTrace();
+
+            result.put("error", e.toString());
+        }
+
+        return result;
+    }
+
+    /**
+     * Repeats the operation until the iteration time is up.
+     *
+     * @param operation The operation to run.
+     * @param histogram The histogram that receives the duration of every operation in nanoseconds, or null during the
+     *                  warmup.
+     * @return The totals of the iteration.
+     */
+    private Iteration runIteration(BenchmarkCase.Operation operation, Histogram histogram) throws Exception {
+        Iteration iteration = new Iteration();
+        long allocatedBefore = getAllocatedBytes();
+        long result = 0;
+
+        long startTime = System.nanoTime();
+        long endTime = startTime + TimeUnit.MILLISECONDS.toNanos(iterationTime);
+        long now;
+
+        do {
+            long operationStart = System.nanoTime();
+            long bytes = operation.run();
+            now = System.nanoTime();
+
+            if (histogram != null) {
+                histogram.record(now - operationStart);
+            }
+
+            iteration.operations++;
+            iteration.bytes += bytes;
+            result += bytes;
+        } while (now < endTime);
+
+        iteration.duration = now - startTime;
+
+        long allocatedAfter = getAllocatedBytes();
+        iteration.allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+
+        sink += result;
+
+        return iteration;
+    }
+
+    /**
+     * @return The bytes allocated by the current thread so far, or -1 if the JVM does not count them.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (hotSpotBean.isThreadAllocatedMemorySupported() && hotSpotBean.isThreadAllocatedMemoryEnabled()) {
+                return hotSpotBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+
+        return -1;
+    }
+
+    private static String formatResult(BenchmarkCase benchmarkCase, JSONObject result) {
+        if (result.has("error")) {
+            return String.format(Locale.ROOT, "%-60s failed: %s", benchmarkCase.getId(), result.getString("error"));
+        }
+
+        return String.format(Locale.ROOT, "%-60s %14.1f ns/op  +- %5.1f%%  %10d bytes/op", benchmarkCase.getId(),
+                result.getDouble("score"), 100 * result.getDouble("scoreStdDev") / result.getDouble("score"),
+                result.getLong("bytesPerOp"));
+    }
+
+    /**
+     * The totals of one iteration.
+     */
+    private static class Iteration {
+        private long operations;
+        private long duration;
+        private long bytes;
+        private long allocated;
+    }
+}
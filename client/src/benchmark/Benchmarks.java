@@ -0,0 +1,382 @@
+package benchmark;
+
+import capture.captureGIF.CaptureGIF;
+import capture.captureGIF.GifSequenceWriter;
+import capture.capturePipeline.CapturePipeline;
+import capture.capturePipeline.SizeOptimizer;
+import capture.imageProcessing.BoxDownscaler;
+import capture.imageProcessing.ColorQuantizer;
+import capture.imageProcessing.Dithering;
+import capture.imageProcessing.InverseColorMap;
+import capture.imageProcessing.PixelKernels;
+import localServer.LocalUploadServer;
+import tools.Encryption;
+import upload.Upload;
+
+import javax.crypto.spec.SecretKeySpec;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The {@link BenchmarkCase}s of the hot paths of a capture: capturing and encoding GIF frames, the
+ * {@link PixelKernels} they use, downscaling and encoding PNGs, encrypting the config and uploading to a server on the
+ * loopback interface.
+ *
+ * @since 1.2
+ */
+public class Benchmarks {
+    private static final int[][] SIZES = {{320, 240}, {800, 600}, {1920, 1080}};
+
+    /**
+     * Frames that a GIF benchmark cycles through, so that consecutive frames differ as they do in a recording.
+     */
+    private static final int SEQUENCE_LENGTH = 8;
+
+    private static final int GIF_FRAME_DELAY = 50;
+
+    /**
+     * The PNG size budget of the optimizer benchmark, which the larger frames do not fit into.
+     */
+    private static final long PNG_SIZE_BUDGET = 512 * 1024;
+
+    /**
+     * A capture of a 4K display with 200% scaling, and the sizes it is downscaled to.
+     */
+    private static final int[] HIDPI_SIZE = {3840, 2160};
+    private static final int[][] DOWNSCALED_SIZES = {{1920, 1080}, {2560, 1440}, {1280, 720}};
+
+    private static final int[] PLAINTEXT_LENGTHS = {16, 256};
+
+    /**
+     * @return Every case in the order it is run.
+     */
+    public static List<BenchmarkCase> getCases() {
+        List<BenchmarkCase> cases = new ArrayList<>();
+
+        addGIFCases(cases);
+        addPixelCases(cases);
+        addImageCases(cases);
+        addPNGCases(cases);
+        addEncryptionCases(cases);
+        addUploadCases(cases);
+
+        return cases;
+    }
+
+    private static void addGIFCases(List<BenchmarkCase> cases) {
+        for (int[] size : SIZES) {
+            for (FrameFixtures.Content content : FrameFixtures.Content.values()) {
+                for (boolean optimized : new boolean[]{false, true}) {
+                    for (Dithering dithering : Dithering.values()) {
+                        cases.add(new BenchmarkCase("gif.writeToSequence", () -> {
+                            BufferedImage[] frames = FrameFixtures.createSequence(content, size[0], size[1],
+                                    SEQUENCE_LENGTH);
+                            CountingOutputStream out = new CountingOutputStream();
+                            ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(out);
+                            GifSequenceWriter writer = new GifSequenceWriter(imageOutputStream,
+                                    BufferedImage.TYPE_INT_RGB, GIF_FRAME_DELAY, true);
+                            writer.setOptimizeThreshold(optimized ? 0 : -1);
+                            writer.setDithering(dithering);
+
+                            return new BenchmarkCase.Operation() {
+                                private int frame;
+
+                                @Override
+                                public long run() throws IOException {
+                                    long before = out.count;
+                                    writer.writeToSequence(frames[frame++ % frames.length]);
+
+                                    return out.count - before;
+                                }
+
+                                @Override
+                                public void close() throws IOException {
+                                    writer.close();
+                                    imageOutputStream.close();
+                                }
+                            };
+                        }).param("size", formatSize(size)).param("content", content.getName())
+                                .param("optimized", optimized).param("dithering", dithering.getName()));
+                    }
+                }
+            }
+        }
+
+        BufferedImage cursor = FrameFixtures.loadCursor();
+        for (int[] size : SIZES) {
+            for (boolean inView : new boolean[]{true, false}) {
+                cases.add(new BenchmarkCase("gif.captureAndCheckCursorPosition", () -> {
+                    BufferedImage frame = FrameFixtures.createFrame(FrameFixtures.Content.DESKTOP, size[0], size[1],
+                            0);
+                    Rectangle selection = new Rectangle(100, 100, size[0], size[1]);
+                    Point location = inView ? new Point(100 + size[0] / 2, 100 + size[1] / 2)
+                            : new Point(100 + size[0] + 50, 100 + size[1] + 50);
+
+                    long cursorBytes = inView ? 4L * cursor.getWidth() * cursor.getHeight() : 0;
+
+                    return () -> {
+                        CaptureGIF.captureAndCheckCursorPosition(frame, cursor, selection, location);
+
+                        return cursorBytes;
+                    };
+                }).param("size", formatSize(size)).param("cursor", inView ? "inView" : "outOfView"));
+            }
+        }
+    }
+
+    private static void addPixelCases(List<BenchmarkCase> cases) {
+        List<PixelKernels> implementations = new ArrayList<>();
+        implementations.add(PixelKernels.scalar());
+        if (PixelKernels.get() != PixelKernels.scalar()) {
+            implementations.add(PixelKernels.get());
+        }
+
+        for (int[] size : SIZES) {
+            for (PixelKernels kernels : implementations) {
+                cases.add(new BenchmarkCase("pixels.findChangedBounds", () -> {
+                    int[] previous = getPixels(FrameFixtures.createFrame(FrameFixtures.Content.DESKTOP, size[0],
+                            size[1], 0));
+                    int[] current = getPixels(FrameFixtures.createFrame(FrameFixtures.Content.DESKTOP, size[0],
+                            size[1], 1));
+                    Rectangle bounds = new Rectangle();
+
+                    return () -> {
+                        kernels.findChangedBounds(current, previous, size[0], size[1], bounds);
+
+                        return 8L * current.length;
+                    };
+                }).param("size", formatSize(size)).param("kernels", kernels.getName()));
+            }
+
+            cases.add(new BenchmarkCase("pixels.toRGBBytes", () -> {
+                int[] pixels = getPixels(FrameFixtures.createFrame(FrameFixtures.Content.DESKTOP, size[0], size[1],
+                        0));
+                byte[] bytes = new byte[pixels.length * 3];
+
+                return () -> {
+                    PixelKernels.get().toRGBBytes(pixels, 0, pixels.length, bytes, 0);
+
+                    return 4L * pixels.length;
+                };
+            }).param("size", formatSize(size)));
+
+            for (boolean reused : new boolean[]{false, true}) {
+                cases.add(new BenchmarkCase("pixels.toPaletteIndices", () -> {
+                    BufferedImage frame = FrameFixtures.createFrame(FrameFixtures.Content.GRADIENT, size[0], size[1],
+                            0);
+                    IndexColorModel palette = ColorQuantizer.createPalette(frame, 256);
+                    int[] pixels = getPixels(frame);
+                    byte[] indices = new byte[pixels.length];
+                    InverseColorMap colorMap = new InverseColorMap(palette);
+
+                    return () -> {
+                        PixelKernels.get().toPaletteIndices(pixels, 0, pixels.length,
+                                reused ? colorMap : new InverseColorMap(palette), indices, 0);
+
+                        return 4L * pixels.length;
+                    };
+                }).param("size", formatSize(size)).param("colorMap", reused ? "reused" : "new"));
+            }
+        }
+    }
+
+    private static void addImageCases(List<BenchmarkCase> cases) {
+        for (int[] size : DOWNSCALED_SIZES) {
+            for (boolean parallel : new boolean[]{false, true}) {
+                cases.add(new BenchmarkCase("image.downscale", () -> {
+                    int[] source = getPixels(FrameFixtures.createFrame(FrameFixtures.Content.DESKTOP, HIDPI_SIZE[0],
+                            HIDPI_SIZE[1], 0));
+                    int[] target = new int[size[0] * size[1]];
+
+                    return () -> {
+                        BoxDownscaler.downscale(source, HIDPI_SIZE[0], HIDPI_SIZE[1], target, size[0], size[1],
+                                parallel);
+
+                        return 4L * source.length;
+                    };
+                }).param("size", formatSize(HIDPI_SIZE)).param("target", formatSize(size))
+                        .param("parallel", parallel));
+            }
+        }
+    }
+
+    private static void addPNGCases(List<BenchmarkCase> cases) {
+        for (int[] size : SIZES) {
+            for (FrameFixtures.Content content : FrameFixtures.Content.values()) {
+                cases.add(new BenchmarkCase("png.encode", () -> {
+                    BufferedImage frame = FrameFixtures.createFrame(content, size[0], size[1], 0);
+                    CountingOutputStream out = new CountingOutputStream();
+
+                    return () -> {
+                        long before = out.count;
+                        CapturePipeline.writePNG(frame, SizeOptimizer.DEFAULT_DEFLATE_LEVEL, out);
+
+                        return out.count - before;
+                    };
+                }).param("size", formatSize(size)).param("content", content.getName()));
+            }
+        }
+
+        int[] largest = SIZES[SIZES.length - 1];
+        for (FrameFixtures.Content content : FrameFixtures.Content.values()) {
+            cases.add(new BenchmarkCase("png.optimizeAndEncode", () -> {
+                BufferedImage frame = FrameFixtures.createFrame(content, largest[0], largest[1], 0);
+                CountingOutputStream out = new CountingOutputStream();
+
+                return () -> {
+                    long before = out.count;
+                    SizeOptimizer.OptimizedImage image = SizeOptimizer.optimizePNG(frame, PNG_SIZE_BUDGET);
+                    CapturePipeline.writePNG(image.getImage(), image.getDeflateLevel(), out);
+
+                    return out.count - before;
+                };
+            }).param("size", formatSize(largest)).param("content", content.getName())
+                    .param("budget", PNG_SIZE_BUDGET));
+        }
+    }
+
+    private static void addEncryptionCases(List<BenchmarkCase> cases) {
+        byte[] salt = "1234567890123456".getBytes(StandardCharsets.US_ASCII);
+
+        cases.add(new BenchmarkCase("crypto.deriveSecretKey", () ->
+                () -> Encryption.deriveSecretKey(salt).getEncoded().length));
+
+        cases.add(new BenchmarkCase("crypto.createSecretKey", () -> {
+            Encryption.createSecretKey(salt);
+
+            return () -> Encryption.createSecretKey(salt).getEncoded().length;
+        }).param("cache", "hit"));
+
+        for (int length : PLAINTEXT_LENGTHS) {
+            cases.add(new BenchmarkCase("crypto.encrypt", () -> {
+                SecretKeySpec key = Encryption.createSecretKey(salt);
+                String plaintext = createPlaintext(length);
+
+                return () -> Encryption.encrypt(plaintext, key).length();
+            }).param("length", length));
+
+            cases.add(new BenchmarkCase("crypto.decrypt", () -> {
+                SecretKeySpec key = Encryption.createSecretKey(salt);
+                String ciphertext = Encryption.encrypt(createPlaintext(length), key);
+
+                return () -> Encryption.decrypt(ciphertext, key).length();
+            }).param("length", length));
+        }
+    }
+
+    private static void addUploadCases(List<BenchmarkCase> cases) {
+        for (int[] size : new int[][]{SIZES[0], SIZES[SIZES.length - 1]}) {
+            for (FrameFixtures.Content content : new FrameFixtures.Content[]{FrameFixtures.Content.DESKTOP,
+                    FrameFixtures.Content.NOISE}) {
+                cases.add(new BenchmarkCase("upload.multipartEntity", () -> {
+                    byte[] png = encodePNG(FrameFixtures.createFrame(content, size[0], size[1], 0));
+                    CountingOutputStream out = new CountingOutputStream();
+
+                    return () -> {
+                        long before = out.count;
+                        Upload.createMultipartEntity(new ByteArrayInputStream(png), "benchmark.png",
+                                "-------------" + System.currentTimeMillis()).writeTo(out);
+
+                        return out.count - before;
+                    };
+                }).param("size", formatSize(size)).param("content", content.getName()));
+
+                cases.add(new BenchmarkCase("upload.loopback", () -> {
+                    byte[] png = encodePNG(FrameFixtures.createFrame(content, size[0], size[1], 0));
+                    Path directory = Files.createTempDirectory("benchmark-uploads");
+                    LocalUploadServer server = new LocalUploadServer(0, directory, "", 0, 0, 0);
+                    server.start();
+
+                    String url = "http://127.0.0.1:" + server.getPort() + "/upload";
+
+                    return new BenchmarkCase.Operation() {
+                        @Override
+                        public long run() throws IOException {
+                            String result = Upload.uploadToServer(new ByteArrayInputStream(png), "benchmark.png",
+                                    url, "");
+                            if (result.isEmpty()) {
+                                throw new IOException("The upload to the loopback server failed");
+                            }
+
+                            return png.length;
+                        }
+
+                        @Override
+                        public void close() throws IOException {
+                            server.stop();
+                            deleteDirectory(directory);
+                        }
+                    };
+                }).param("size", formatSize(size)).param("content", content.getName()));
+            }
+        }
+    }
+
+    private static byte[] encodePNG(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CapturePipeline.writePNG(image, SizeOptimizer.DEFAULT_DEFLATE_LEVEL, out);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @param length The length of the text.
+     * @return Text of the length that looks like a config value, such as the URL of a server.
+     */
+    private static String createPlaintext(int length) {
+        String pattern = "https://example.com/upload_image.php?";
+        StringBuilder plaintext = new StringBuilder(length);
+        while (plaintext.length() < length) {
+            plaintext.append(pattern.charAt(plaintext.length() % pattern.length()));
+        }
+
+        return plaintext.toString();
+    }
+
+    private static int[] getPixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static String formatSize(int[] size) {
+        return size[0] + "x" + size[1];
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes written and discards them.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package benchmark;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Creates synthetic screen captures for the benchmarks. Every frame only depends on its {@link Content}, size and
+ * index, so runs on different machines and releases encode exactly the same pixels.
+ * <p>
+ * No fonts are used, since text is rendered differently on every platform. Text is drawn as rows of short bars
+ * instead, which compress about as well.
+ *
+ * @since 1.2
+ */
+public class FrameFixtures {
+    private static final long SEED = 0x4A59415A4FL;
+
+    /**
+     * Pixels that moving content is shifted by from one frame to the next.
+     */
+    private static final int MOTION_STEP = 6;
+
+    /**
+     * What the captured region shows. Real captures lie somewhere between {@link #DESKTOP} and {@link #NOISE}.
+     */
+    public enum Content {
+        /**
+         * Flat windows with title bars and text, with one window that moves and text that scrolls between frames.
+         */
+        DESKTOP("desktop"),
+
+        /**
+         * A smooth gradient that shifts between frames, like a photo or a video, which needs many colors.
+         */
+        GRADIENT("gradient"),
+
+        /**
+         * Random pixels that change completely between frames, the worst case for every encoder.
+         */
+        NOISE("noise");
+
+        private final String name;
+
+        Content(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * @param content The content of the frame.
+     * @param width   The width of the frame.
+     * @param height  The height of the frame.
+     * @param index   The position of the frame in a recording.
+     * @return A new frame of the same type that {@link Robot#createScreenCapture(Rectangle)} returns.
+     */
+    public static BufferedImage createFrame(Content content, int width, int height, int index) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        switch (content) {
+            case DESKTOP:
+                drawDesktop(image, index);
+                break;
+            case GRADIENT:
+                drawGradient(image, index);
+                break;
+            case NOISE:
+                drawNoise(image, index);
+                break;
+        }
+
+        return image;
+    }
+
+    /**
+     * @param content The content of the frames.
+     * @param width   The width of the frames.
+     * @param height  The height of the frames.
+     * @param count   The amount of frames.
+     * @return Consecutive frames of a recording.
+     */
+    public static BufferedImage[] createSequence(Content content, int width, int height, int count) {
+        BufferedImage[] frames = new BufferedImage[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = createFrame(content, width, height, i);
+        }
+
+        return frames;
+    }
+
+    /**
+     * @return The cursor that is drawn onto GIF frames, or a drawn arrow of the same size if the resources are not on
+     * the class path.
+     */
+    public static BufferedImage loadCursor() {
+        try (InputStream inputStream = FrameFixtures.class.getResourceAsStream("/images/cursor.png")) {
+            if (inputStream != null) {
+                return ImageIO.read(inputStream);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        BufferedImage cursor = new BufferedImage(16, 24, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = cursor.createGraphics();
+        Polygon arrow = new Polygon(new int[]{0, 0, 4, 7, 9, 6, 11}, new int[]{0, 16, 12, 19, 18, 11, 11}, 7);
+        graphics.setColor(Color.WHITE);
+        graphics.fillPolygon(arrow);
+        graphics.setColor(Color.BLACK);
+        graphics.drawPolygon(arrow);
+        graphics.dispose();
+
+        return cursor;
+    }
+
+    private static void drawDesktop(BufferedImage image, int index) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Random random = new Random(SEED);
+
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(0x2D5F8A));
+        graphics.fillRect(0, 0, width, height);
+
+        int windows = 3;
+        for (int i = 0; i < windows; i++) {
+            int windowWidth = width / 2 + random.nextInt(width / 3);
+            int windowHeight = height / 2 + random.nextInt(height / 3);
+            int x = random.nextInt(width - windowWidth + 1);
+            int y = random.nextInt(height - windowHeight + 1);
+
+            if (i == windows - 1) {
+                x = (x + index * MOTION_STEP) % Math.max(1, width - windowWidth + 1);
+            }
+
+            int scroll = i == 0 ? index * MOTION_STEP : 0;
+            drawWindow(graphics, random, x, y, windowWidth, windowHeight, scroll);
+        }
+
+        graphics.dispose();
+    }
+
+    private static void drawWindow(Graphics2D graphics, Random random, int x, int y, int width, int height,
+                                   int scroll) {
+        int titleHeight = 24;
+        int lineHeight = 16;
+
+        graphics.setColor(new Color(0xF3F3F3));
+        graphics.fillRect(x, y, width, height);
+        graphics.setColor(new Color(0xDADADA));
+        graphics.fillRect(x, y, width, titleHeight);
+        graphics.setColor(new Color(0x8A8A8A));
+        graphics.drawRect(x, y, width - 1, height - 1);
+
+        Shape clip = graphics.getClip();
+        graphics.clipRect(x + 1, y + titleHeight, width - 2, height - titleHeight - 1);
+
+        long lineSeed = random.nextLong();
+        int firstLine = scroll / lineHeight;
+        int offset = scroll % lineHeight;
+
+        for (int line = 0; line * lineHeight - offset < height - titleHeight; line++) {
+            Random lineRandom = new Random(lineSeed + firstLine + line);
+            int lineY = y + titleHeight + 6 + line * lineHeight - offset;
+            int wordX = x + 8 + lineRandom.nextInt(3) * 16;
+
+            graphics.setColor(lineRandom.nextInt(8) == 0 ? new Color(0x1A5FB4) : new Color(0x303030));
+            while (wordX < x + width - 16 && lineRandom.nextInt(12) != 0) {
+                int wordWidth = 8 + lineRandom.nextInt(40);
+                graphics.fillRect(wordX, lineY, Math.min(wordWidth, x + width - 8 - wordX), 7);
+                wordX += wordWidth + 6;
+            }
+        }
+
+        graphics.setClip(clip);
+    }
+
+    private static void drawGradient(BufferedImage image, int index) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int phase = index * MOTION_STEP;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = (x + phase) * 255 / Math.max(1, width - 1 + phase);
+                int green = y * 255 / Math.max(1, height - 1);
+                int blue = ((x + y + phase) >> 2) & 0xFF;
+
+                pixels[y * width + x] = (red & 0xFF) << 16 | green << 8 | blue;
+            }
+        }
+    }
+
+    private static void drawNoise(BufferedImage image, int index) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(SEED + index);
+
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() & 0xFFFFFF;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import upload.GfycatUpload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The parts of the Gfycat API that a {@link GfycatUpload} uses, on the loopback interface, so that an upload can be
+ * checked without Gfycat: an oAuth key for one pair of credentials, the name and upload URL of a new GIF, the upload
+ * itself and a status that is still encoding for the first {@link #ENCODING_POLLS} checks.
+ *
+ * @since 1.2
+ */
+class GfycatMock implements AutoCloseable {
+    static final String CLIENT_ID = "mock-client";
+    static final String CLIENT_SECRET = "mock-secret";
+    static final String GFY_NAME = "mockgfy";
+
+    private static final String ACCESS_TOKEN = "mock-token";
+    private static final int ENCODING_POLLS = 1;
+
+    private final HttpServer server;
+    private final AtomicInteger polls = new AtomicInteger();
+    private volatile byte[] uploaded;
+
+    /**
+     * Starts the mock on a free port.
+     *
+     * @throws IOException If the server could not be started.
+     */
+    GfycatMock() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        server.createContext("/v1/oauth/token", exchange -> {
+            JSONObject request = new JSONObject(new String(readBody(exchange), StandardCharsets.UTF_8));
+            if (!CLIENT_ID.equals(request.optString("client_id")) ||
+                    !CLIENT_SECRET.equals(request.optString("client_secret"))) {
+                respond(exchange, 401, new JSONObject().put("errorMessage", new JSONObject()
+                        .put("code", "InvalidClient").put("description", "Unknown credentials")));
+
+                return;
+            }
+
+            respond(exchange, 200, new JSONObject().put("access_token", ACCESS_TOKEN).put("expires_in", 3600));
+        });
+
+        server.createContext("/v1/gfycats", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+
+            if (path.equals("/v1/gfycats/fetch/status/" + GFY_NAME)) {
+                JSONObject status = new JSONObject();
+                if (polls.incrementAndGet() <= ENCODING_POLLS) {
+                    status.put("task", "encoding");
+                } else {
+                    status.put("task", "complete").put("gfyname", GFY_NAME);
+                }
+
+                respond(exchange, 200, status);
+            } else if (path.equals("/v1/gfycats") &&
+                    ("Bearer " + ACCESS_TOKEN).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                respond(exchange, 200, new JSONObject().put("gfyname", GFY_NAME).put("uploadType", getURL("/upload")));
+            } else {
+                respond(exchange, 404, new JSONObject().put("error", "Unknown request " + path));
+            }
+        });
+
+        server.createContext("/upload", exchange -> {
+            uploaded = readBody(exchange);
+
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+
+        server.start();
+    }
+
+    /**
+     * @return The base URL of the API, which replaces {@link GfycatUpload#API_ENDPOINT}.
+     */
+    String getAPIEndpoint() {
+        return getURL("/v1/");
+    }
+
+    /**
+     * @return The body of the last upload, which holds the GIF as a part of a multipart form, or null if there was
+     * none.
+     */
+    byte[] getUploaded() {
+        return uploaded;
+    }
+
+    /**
+     * @return How often the status of the GIF was checked.
+     */
+    int getPolls() {
+        return polls.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private String getURL(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+
+        return body.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, JSONObject response) throws IOException {
+        byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
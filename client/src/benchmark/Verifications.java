@@ -0,0 +1,230 @@
+package benchmark;
+
+import capture.imageProcessing.ColorQuantizer;
+import capture.imageProcessing.InverseColorMap;
+import upload.GfycatUpload;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that the fast paths measured by {@link Benchmarks} give the same results as the simple code they replace.
+ * A benchmark only shows that a path is fast, so every path that trades exactness for speed is compared with a brute
+ * force version of it here. Uploads to services that cannot be reached from a build server are checked against a
+ * mock of the service, such as the {@link GfycatMock}.
+ * <p>
+ * Every check is run and reported, and the process exits with status 1 if any of them failed.
+ *
+ * @since 1.2
+ */
+public class Verifications {
+    /**
+     * The seed of the random palettes and colours, so that a failure can be repeated.
+     */
+    private static final long SEED = 0x5EEDL;
+
+    private static final int RANDOM_COLORS = 1 << 20;
+
+    /**
+     * The largest distance of a colour from the centre of its 15-bit bucket, where a channel is at most 4 away.
+     */
+    private static final double MAX_BUCKET_OFFSET = Math.sqrt(3 * 4 * 4);
+
+    /**
+     * Seconds an upload to the {@link GfycatMock} may take, which polls the status twice.
+     */
+    private static final long UPLOAD_TIMEOUT = 30;
+
+    /**
+     * A named check that throws an {@link AssertionError} on the first mismatch it finds.
+     */
+    public interface Check {
+        void run() throws Exception;
+    }
+
+    private final String name;
+    private final Check check;
+
+    private Verifications(String name, Check check) {
+        this.name = name;
+        this.check = check;
+    }
+
+    /**
+     * Runs every check.
+     * <p>
+     * Arguments: [filter], which is searched for in the name of every check, e.g. "colorMap".
+     *
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        String filter = args.length > 0 ? args[0] : "";
+        int failed = 0;
+
+        for (Verifications verification : getVerifications()) {
+            if (!verification.name.contains(filter)) {
+                continue;
+            }
+
+            try {
+                verification.check.run();
+
+                System.out.println(String.format("%-60s ok", verification.name));
+            } catch (Throwable t) {
+                System.out.println(String.format("%-60s failed: %s", verification.name, t));
+                failed++;
+            }
+        }
+
+        if (failed > 0) {
+            System.err.println(failed + " verification(s) failed");
+        }
+
+        System.exit(failed > 0 ? 1 : 0);
+    }
+
+    private static List<Verifications> getVerifications() {
+        List<Verifications> verifications = new ArrayList<>();
+
+        for (FrameFixtures.Content content : FrameFixtures.Content.values()) {
+            verifications.add(new Verifications("colorMap.nearest:palette=" + content.getName(), () -> {
+                BufferedImage frame = FrameFixtures.createFrame(content, 320, 240, 0);
+                verifyColorMap(ColorQuantizer.createPalette(frame, 256));
+            }));
+        }
+
+        verifications.add(new Verifications("colorMap.nearest:palette=random", () ->
+                verifyColorMap(createRandomPalette(256, new Random(SEED)))));
+        verifications.add(new Verifications("colorMap.nearest:palette=twoColors", () ->
+                verifyColorMap(createRandomPalette(2, new Random(SEED)))));
+
+        verifications.add(new Verifications("gfycat.upload:mock", Verifications::verifyGfycatUpload));
+
+        return verifications;
+    }
+
+    /**
+     * Compares an {@link InverseColorMap} of the palette with a search of the whole palette: the centre of every
+     * bucket must map to a nearest colour, and any other colour must map to the same colour as its bucket and be at
+     * most twice the largest offset from a bucket's centre farther away than the nearest colour.
+     */
+    private static void verifyColorMap(IndexColorModel palette) {
+        int[] colors = new int[palette.getMapSize()];
+        palette.getRGBs(colors);
+
+        InverseColorMap colorMap = new InverseColorMap(palette);
+
+        for (int bucket = 0; bucket < 1 << 15; bucket++) {
+            int centre = ((bucket >> 10) << 19) | (((bucket >> 5) & 0x1F) << 11) | ((bucket & 0x1F) << 3) | 0x040404;
+
+            int index = colorMap.getIndex(centre);
+            int nearest = findNearest(colors, centre);
+            if (getDistance(colors[index], centre) != getDistance(colors[nearest], centre)) {
+                throw new AssertionError(String.format("#%06X maps to #%06X instead of #%06X", centre,
+                        colors[index] & 0xFFFFFF, colors[nearest] & 0xFFFFFF));
+            }
+        }
+
+        Random random = new Random(SEED);
+        for (int i = 0; i < RANDOM_COLORS; i++) {
+            int rgb = random.nextInt() & 0xFFFFFF;
+            int centre = (rgb & 0xF8F8F8) | 0x040404;
+
+            int index = colorMap.getIndex(rgb);
+            if (index != colorMap.getIndex(centre)) {
+                throw new AssertionError(String.format("#%06X maps to another colour than its bucket #%06X", rgb,
+                        centre));
+            }
+
+            double error = Math.sqrt(getDistance(colors[index], rgb))
+                    - Math.sqrt(getDistance(colors[findNearest(colors, rgb)], rgb));
+            if (error > 2 * MAX_BUCKET_OFFSET) {
+                throw new AssertionError(String.format("#%06X maps to #%06X, which is %.1f farther than the nearest"
+                        + " colour", rgb, colors[index] & 0xFFFFFF, error));
+            }
+        }
+    }
+
+    /**
+     * Uploads a GIF to a {@link GfycatMock} and checks that it arrived and that the URL is returned once the mock has
+     * finished encoding it.
+     */
+    private static void verifyGfycatUpload() throws Exception {
+        byte[] gif = new byte[64 * 1024];
+        new Random(SEED).nextBytes(gif);
+        System.arraycopy("GIF89a".getBytes(StandardCharsets.US_ASCII), 0, gif, 0, 6);
+
+        try (GfycatMock mock = new GfycatMock()) {
+            String url = new GfycatUpload(mock.getAPIEndpoint()).upload(GfycatMock.CLIENT_ID,
+                    GfycatMock.CLIENT_SECRET, new ByteArrayInputStream(gif), "verification.gif")
+                    .get(UPLOAD_TIMEOUT, TimeUnit.SECONDS);
+
+            if (!url.equals("https://gfycat.com/" + GfycatMock.GFY_NAME)) {
+                throw new AssertionError("The upload returned \"" + url + "\"");
+            }
+
+            if (mock.getUploaded() == null || indexOf(mock.getUploaded(), gif) < 0) {
+                throw new AssertionError("The GIF did not arrive");
+            }
+
+            if (mock.getPolls() < 2) {
+                throw new AssertionError("The URL was returned before the GIF was encoded");
+            }
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] part) {
+        for (int i = 0; i <= data.length - part.length; i++) {
+            int j = 0;
+            while (j < part.length && data[i + j] == part[j]) {
+                j++;
+            }
+
+            if (j == part.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int findNearest(int[] colors, int rgb) {
+        int nearest = 0;
+        for (int i = 1; i < colors.length; i++) {
+            if (getDistance(colors[i], rgb) < getDistance(colors[nearest], rgb)) {
+                nearest = i;
+            }
+        }
+
+        return nearest;
+    }
+
+    private static int getDistance(int a, int b) {
+        int dr = ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF);
+        int dg = ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF);
+        int db = (a & 0xFF) - (b & 0xFF);
+
+        return dr * dr + dg * dg + db * db;
+    }
+
+    private static IndexColorModel createRandomPalette(int size, Random random) {
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        random.nextBytes(r);
+        random.nextBytes(g);
+        random.nextBytes(b);
+
+        return new IndexColorModel(8, size, r, g, b);
+    }
+}
@@ -11,4 +11,11 @@ import java.awt.*;
  */
 public abstract class Callback {
     public abstract void onRelease(Stage stage, Rectangle selection);
+
+    /**
+     * Runs once the {@link Stage} of the capture has been hidden. Captures that use threads or unfinished uploads
+     * should release them here unless they were completed.
+     */
+    public void dispose() {
+    }
 }
@@ -0,0 +1,136 @@
+package capture;
+
+import javafx.application.Platform;
+import javafx.stage.Stage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Makes sure that at most one capture overlay is open at a time, no matter how often the shortcuts, Print Screen or
+ * the tray icon are triggered.
+ * <p>
+ * A capture is active from the moment it is requested until its {@link Stage} is hidden. Requests made while a capture
+ * is active, or shortly after the last capture was requested or closed, are rejected without creating anything. When
+ * the stage of a capture is hidden, {@link Callback#dispose()} is called so the capture releases its threads and
+ * cancels anything it did not finish.
+ * <p>
+ * Uploads are not part of the active capture, so a new capture may be started while the previous one is still
+ * uploading.
+ *
+ * @since 1.2
+ */
+public class CaptureCoordinator {
+    /**
+     * Requests within this time of the last accepted request or of the last closed capture are ignored.
+     */
+    private static final long DEBOUNCE_NANOSECONDS = TimeUnit.MILLISECONDS.toNanos(300);
+
+    private static final Object LOCK = new Object();
+
+    private static Callback activeCapture;
+    private static Stage activeStage;
+    private static long lastChange = System.nanoTime() - DEBOUNCE_NANOSECONDS;
+
+    /**
+     * Opens a capture overlay unless another capture is active or one was requested or closed too recently.
+     *
+     * @param captureFactory Creates the capture. Only called if the request is accepted, so rejected requests do not
+     *                       allocate anything.
+     * @return True if the overlay is being opened.
+     */
+    public static boolean requestCapture(Supplier<? extends Callback> captureFactory) {
+        Callback capture;
+
+        synchronized (LOCK) {
+            long now = System.nanoTime();
+            if (activeCapture != null || now - lastChange < DEBOUNCE_NANOSECONDS) {
+                return false;
+            }
+
+            lastChange = now;
+            capture = captureFactory.get();
+            activeCapture = capture;
+            activeStage = null;
+        }
+
+        try {
+            CaptureScreen.createInstance(capture);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+
+            onCaptureClosed(capture);
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return True if a capture overlay is open.
+     */
+    public static boolean isCaptureActive() {
+        synchronized (LOCK) {
+            return activeCapture != null;
+        }
+    }
+
+    /**
+     * Disposes the active capture, if any, on the calling thread and closes its overlay.
+     */
+    public static void cancelActiveCapture() {
+        Stage stage;
+        Callback capture;
+
+        synchronized (LOCK) {
+            stage = activeStage;
+            capture = activeCapture;
+        }
+
+        if (capture != null) {
+            onCaptureClosed(capture);
+        }
+
+        if (stage != null) {
+            Platform.runLater(stage::close);
+        }
+    }
+
+    /**
+     * Called by {@link CaptureScreen} once the stage of a capture has been created.
+     *
+     * @param capture The capture the stage belongs to.
+     * @param stage   The stage of the capture.
+     */
+    static void onCaptureShown(Callback capture, Stage stage) {
+        synchronized (LOCK) {
+            if (activeCapture == capture) {
+                activeStage = stage;
+                return;
+            }
+        }
+
+        Platform.runLater(stage::close);
+    }
+
+    /**
+     * Called by {@link CaptureScreen} when the stage of a capture is hidden. Disposes the capture and allows the next
+     * capture to be requested. A capture is only disposed once.
+     *
+     * @param capture The capture that was closed.
+     */
+    static void onCaptureClosed(Callback capture) {
+        synchronized (LOCK) {
+            if (activeCapture != capture) {
+                return;
+            }
+
+            activeCapture = null;
+            activeStage = null;
+            lastChange = System.nanoTime();
+        }
+
+        capture.dispose();
+    }
+}
@@ -12,6 +12,8 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
+import metrics.CaptureMetrics;
+import tools.ExecutionRuntime;
 
 import java.awt.*;
 import java.awt.font.FontRenderContext;
@@ -38,6 +40,11 @@ public class CaptureScreen {
 
     private Callback callback;
 
+    /**
+     * The {@link System#nanoTime()} when the capture was requested, for {@link CaptureMetrics.Latency#OVERLAY}.
+     */
+    private final long requestTime = System.nanoTime();
+
     /**
      * Creates an overlay that allows for a visible screen capture region for any image using the mouse.
      *
@@ -132,11 +139,15 @@ public class CaptureScreen {
 
                 Rectangle selection = new Rectangle((int) minX, (int) minY, (int) selectionWidth, (int) selectionHeight);
 
-                new Thread(() -> this.callback.onRelease(stage, selection)).start();
+                ExecutionRuntime.io().execute(() -> this.callback.onRelease(stage, selection));
             }
         });
 
         stage.setScene(scene);
+        stage.setOnShown(e -> CaptureMetrics.recordSince(CaptureMetrics.Latency.OVERLAY, requestTime));
+        stage.setOnHidden(e -> CaptureCoordinator.onCaptureClosed(callback));
+
+        CaptureCoordinator.onCaptureShown(callback, stage);
 
         stage.showAndWait();
     }
@@ -207,16 +218,18 @@ public class CaptureScreen {
      * {@link capture.captureGIF.CaptureGIF}.
      * <p>
      * As of 1.1, also calculates the size of the screen based on the amount of monitors on the client.
+     * <p>
+     * As of 1.2, captures are requested through {@link CaptureCoordinator#requestCapture(java.util.function.Supplier)}
+     * so that only one overlay is open at a time.
      *
      * @param callback The implementation function that runs after the mouse is released on screen capture.
      */
-    public static void createInstance(Callback callback) {
+    static void createInstance(Callback callback) {
         int w = (int) Toolkit.getDefaultToolkit().getScreenSize().getWidth();
         int h = (int) Toolkit.getDefaultToolkit().getScreenSize().getHeight();
 
         Rectangle bounds = new Rectangle(w, h);
 
         new CaptureScreen(callback, bounds);
-
     }
 }
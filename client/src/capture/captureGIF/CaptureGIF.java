@@ -1,26 +1,36 @@
 package capture.captureGIF;
 
 import capture.Callback;
+import capture.capturePipeline.CaptureJob;
+import capture.capturePipeline.CapturePipeline;
+import capture.imageProcessing.BoxDownscaler;
+import capture.imageProcessing.PixelKernels;
 import javafx.application.Platform;
 import javafx.scene.Scene;
+import javafx.scene.control.Label;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
+import metrics.CaptureMetrics;
 import settings.Config;
 import settings.Settings;
-import upload.Upload;
+import tools.ExecutionRuntime;
 
 import javax.imageio.ImageIO;
-import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.IOException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -33,20 +43,79 @@ public class CaptureGIF extends Callback {
     private final int BUTTON_GAP_X = 10;
     private final int BUTTON_GAP_Y = 10;
 
+    /**
+     * The room that is left for the usage of the {@link RecordingBudget} right of the buttons, even if the selection
+     * is narrower.
+     */
+    private final int BUDGET_LABEL_WIDTH = 320;
+
     private Settings settings;
     private Config config;
+    private Stage stage;
 
-    private File tempFile;
+    private CaptureJob job;
+    private ImageOutputStream imageOutputStream;
     private GifSequenceWriter gifWriter;
-    private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(10);
-    private BufferedImage screenImageCapture;
+    private ScheduledFuture<?> frameTask;
+
+    /**
+     * The frame that is being captured, downscaled or written. A tick does not start another frame until it is done,
+     * so that a stalled upload cannot queue up ticks on the {@link ExecutionRuntime#capture()} thread.
+     */
+    private volatile CompletableFuture<Void> currentFrame;
+
+    /**
+     * Guards the {@link #gifWriter} and the frame that waits for the next frame to know how long it is shown.
+     */
+    private final Object frameLock = new Object();
+    private BufferedImage pendingFrame;
+    private long pendingFrameTime;
+    private int pendingFrameInterval;
+
+    /**
+     * The size every frame is downscaled to, which is decided once so that all frames have the same size.
+     */
+    private Dimension outputSize;
 
     private ImageView cancel, pause, resume, complete;
     private BufferedImage cursor;
-    private boolean completed, paused;
+    private volatile boolean completed, paused;
+
+    /**
+     * The budget of the recording and its usage as it was last shown next to the buttons.
+     */
+    private RecordingBudget budget;
+    private final Label budgetLabel = new Label();
+    private String shownBudget;
+
+    /**
+     * Guards the {@link #budget} and the timeline of the recording, which are used by the ticks and the frames.
+     */
+    private final Object budgetLock = new Object();
+
+    /**
+     * Amount of capture ticks left until the next frame is written. Frames are skipped once the recording uses up part
+     * of its {@link RecordingBudget}.
+     */
+    private int ticksUntilNextFrame;
+
+    /**
+     * The time of the last captured frame in the recording in milliseconds, which does not count the time the capture
+     * was paused, and the {@link System#nanoTime()} it was captured at. A frame is shown until the next frame was
+     * captured, so the delays of the GIF follow the measured times instead of the ticks.
+     */
+    private long recordedTime;
+    private long lastCaptureTime;
+    private int lastFrameInterval = 1;
+    private boolean pausedSinceLastFrame;
+
+    /**
+     * The memory of the {@link #gifWriter} and of the frame it holds back, as of the last written frame.
+     */
+    private volatile long writerMemory;
 
     /**
-     * Initialize GIF writer and create GIF temp file as well as load all GUI images.
+     * Load all GUI images. The GIF writer is only created once a region has been selected.
      */
     public CaptureGIF(Settings settings, Config config) {
         this.settings = settings;
@@ -58,28 +127,56 @@ public class CaptureGIF extends Callback {
             pause = new ImageView(new javafx.scene.image.Image(this.getClass().getResourceAsStream("/images/pause.png")));
             complete = new ImageView(new javafx.scene.image.Image(this.getClass().getResourceAsStream("/images/complete.png")));
             resume = new ImageView(new Image(this.getClass().getResourceAsStream("/images/resume.png")));
-
-            tempFile = File.createTempFile("TempGIF" + System.currentTimeMillis(), ".gif");
-            gifWriter = new GifSequenceWriter(new FileImageOutputStream(tempFile), BufferedImage.TYPE_INT_RGB,
-                    DELAY_IN_MILLISECONDS, true);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * On mouse release, create a border overlay for what the GIF is capturing and begin execution new threads to
-     * capture the screen every {@link #DELAY_IN_MILLISECONDS} milliseconds.
+     * On mouse release, create a border overlay for what the GIF is capturing and schedule a tick on the
+     * {@link ExecutionRuntime#scheduler()} every {@link #DELAY_IN_MILLISECONDS} milliseconds, which starts a frame
+     * unless the previous one is still being captured or written, see {@link #tick(Robot, Rectangle)}.
      * <p>
      * Also introduce some buttons that the user can interact with to pause/resume, cancel, and complete the capture.
      *
-     * Upon completion, upload the image to the server or Gfycat depending on {@link Config#isEnableGfycatUpload()}.
+     * The recording is started as a {@link CaptureJob} of the {@link CapturePipeline} as soon as the region is
+     * selected, and the GIF is streamed to the server or Gfycat depending on {@link Config#isEnableGfycatUpload()}
+     * while it is being recorded. Closing the capture without completing it cancels the job in {@link #dispose()}.
+     * The usage of the {@link RecordingBudget} is shown right of the buttons.
      *
      * @param stage     The {@link Stage} from the screen region capture.
      * @param selection The screen region selection from the capture.
      */
     @Override
     public void onRelease(Stage stage, Rectangle selection) {
+        synchronized (this) {
+            if (completed) {
+                return;
+            }
+
+            this.stage = stage;
+
+            Settings.Snapshot snapshot = settings.getSnapshot();
+            outputSize = snapshot.getOutputSize(selection.width, selection.height);
+            budget = RecordingBudget.of(snapshot);
+
+            try {
+                job = CapturePipeline.beginRecording("GIF" + System.currentTimeMillis() + ".gif", selection, settings,
+                        config, null);
+                imageOutputStream = new MemoryCacheImageOutputStream(job.getOutputStream());
+                gifWriter = new GifSequenceWriter(imageOutputStream, BufferedImage.TYPE_INT_RGB,
+                        DELAY_IN_MILLISECONDS, true);
+                gifWriter.setOptimizeThreshold(snapshot.getGIFOptimizeThreshold());
+                gifWriter.setDithering(snapshot.getGIFDithering());
+            } catch (IOException e) {
+                e.printStackTrace();
+
+                Platform.runLater(stage::close);
+
+                return;
+            }
+        }
+
         Rectangle outline = new Rectangle((int) selection.getMinX() - 1, (int) selection.getMinY(),
                 (int) selection.getWidth() + 2, (int) selection.getHeight() + 2);
 
@@ -89,6 +186,7 @@ public class CaptureGIF extends Callback {
             double leftImageX = middleImageX - cancel.getImage().getWidth() - BUTTON_GAP_X;
             double rightImageX = middleImageX + complete.getImage().getWidth() + BUTTON_GAP_X;
 
+            double budgetX = rightImageX + complete.getImage().getWidth() + BUTTON_GAP_X;
             double y = selection.getHeight() + BUTTON_GAP_Y;
 
             Pane pane = new Pane();
@@ -101,7 +199,7 @@ public class CaptureGIF extends Callback {
             outlinePane.setBorder(new Border(new BorderStroke(Color.BLACK,
                     BorderStrokeStyle.SOLID, CornerRadii.EMPTY, BorderWidths.DEFAULT)));
 
-            Scene scene = new Scene(pane, outline.getWidth(),
+            Scene scene = new Scene(pane, Math.max(outline.getWidth(), budgetX + BUDGET_LABEL_WIDTH),
                     outline.getHeight() + pause.getImage().getHeight() + BUTTON_GAP_Y);
             scene.setFill(Color.TRANSPARENT);
 
@@ -125,30 +223,23 @@ public class CaptureGIF extends Callback {
 
             cancel.setTranslateX(leftImageX);
             cancel.setTranslateY(y);
-            cancel.addEventHandler(MouseEvent.MOUSE_CLICKED, e -> Platform.runLater(stage::close));
+            cancel.addEventHandler(MouseEvent.MOUSE_CLICKED, e -> stage.close());
 
             complete.setTranslateX(rightImageX);
             complete.setTranslateY(y);
-            complete.addEventHandler(MouseEvent.MOUSE_CLICKED, e -> {
-                paused = true;
-                completed = true;
-
-                try {
-                    gifWriter.close();
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+            complete.addEventHandler(MouseEvent.MOUSE_CLICKED, e -> complete());
 
-                new Thread(() -> Upload.uploadFile(tempFile, settings, config)).start();
-
-                stage.close();
-                executorService.shutdownNow();
-            });
+            budgetLabel.setTranslateX(budgetX);
+            budgetLabel.setTranslateY(y);
+            budgetLabel.setMinHeight(complete.getImage().getHeight());
+            budgetLabel.setStyle("-fx-text-fill: white; -fx-background-color: rgba(0, 0, 0, 0.6); " +
+                    "-fx-padding: 0 4 0 4;");
 
             pane.getChildren().add(outlinePane);
             pane.getChildren().add(cancel);
             pane.getChildren().add(pause);
             pane.getChildren().add(complete);
+            pane.getChildren().add(budgetLabel);
 
             stage.setX(outline.getMinX());
             stage.setY(outline.getMinY());
@@ -158,40 +249,346 @@ public class CaptureGIF extends Callback {
         try {
             Robot robot = new Robot();
 
-            executorService.scheduleAtFixedRate(() -> {
-                if (!completed && !paused) {
-                    try {
-                        screenImageCapture = captureAndCheckCursorPosition(robot.createScreenCapture(selection),
-                                selection, MouseInfo.getPointerInfo().getLocation());
-
-                        gifWriter.writeToSequence(screenImageCapture);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+            synchronized (this) {
+                if (completed) {
+                    return;
                 }
-            }, 0, DELAY_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+
+                frameTask = ExecutionRuntime.scheduler().scheduleAtFixedRate(() -> tick(robot, selection), 0,
+                        DELAY_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+            }
         } catch (AWTException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Runs on the {@link ExecutionRuntime#scheduler()} for every tick and starts a frame unless the capture is paused,
+     * finished, or skipping frames to stay within its budget. The screen is captured on the
+     * {@link ExecutionRuntime#capture()} thread, downscaled on the {@link ExecutionRuntime#compute()} group and
+     * written on the {@link ExecutionRuntime#io()} group, since writing blocks while the upload is behind. A tick that
+     * finds the previous frame still in progress is dropped instead of queued. Skipped and dropped ticks are counted
+     * in {@link CaptureMetrics}.
+     * <p>
+     * As of 1.2, the {@link RecordingBudget} lowers the frame rate and detail and finally completes the capture as the
+     * recording uses up its duration, size and memory. It is updated on every tick, so that a recording whose upload
+     * stalled still ends once it is out of time.
+     *
+     * @param robot     The robot that captures the screen.
+     * @param selection The screen region selection from the capture.
+     */
+    private void tick(Robot robot, Rectangle selection) {
+        if (completed) {
+            return;
+        }
+
+        RecordingBudget.Step step;
+        boolean capture;
+
+        synchronized (budgetLock) {
+            if (paused) {
+                pausedSinceLastFrame = true;
+                return;
+            }
+
+            step = budget.update(getRecordingTime(System.nanoTime()), job.getBytesWritten(),
+                    writerMemory + job.getBufferedBytes());
+
+            capture = step != RecordingBudget.Step.STOPPED && --ticksUntilNextFrame <= 0;
+            if (capture) {
+                CompletableFuture<Void> frame = currentFrame;
+                if (frame != null && !frame.isDone()) {
+                    CaptureMetrics.increment(CaptureMetrics.Count.FRAMES_DROPPED);
+                    capture = false;
+                } else {
+                    ticksUntilNextFrame = step.getFrameInterval();
+                }
+            } else if (step != RecordingBudget.Step.STOPPED) {
+                CaptureMetrics.increment(CaptureMetrics.Count.FRAMES_SKIPPED);
+            }
+        }
+
+        showBudget();
+
+        if (step == RecordingBudget.Step.STOPPED) {
+            complete();
+            return;
+        }
+
+        if (capture) {
+            synchronized (this) {
+                if (!completed) {
+                    currentFrame = CompletableFuture
+                            .supplyAsync(() -> captureFrame(robot, selection, step), ExecutionRuntime.capture())
+                            .thenApplyAsync(this::scaleFrame, ExecutionRuntime.compute())
+                            .thenAcceptAsync(this::writeFrame, ExecutionRuntime.io())
+                            .exceptionally(e -> {
+                                e.printStackTrace();
+
+                                return null;
+                            });
+                }
+            }
+        }
+    }
+
+    /**
+     * Captures the screen and places the frame on the timeline of the recording.
+     *
+     * @param robot     The robot that captures the screen.
+     * @param selection The screen region selection from the capture.
+     * @param step      The step of the {@link RecordingBudget} the frame is captured at.
+     * @return The captured frame, or null if the capture was finished in the meantime.
+     */
+    private CapturedFrame captureFrame(Robot robot, Rectangle selection, RecordingBudget.Step step) {
+        if (completed) {
+            return null;
+        }
+
+        long captureTime = System.nanoTime();
+        BufferedImage image = captureAndCheckCursorPosition(robot.createScreenCapture(selection), cursor, selection,
+                MouseInfo.getPointerInfo().getLocation());
+
+        CaptureMetrics.recordSince(CaptureMetrics.Latency.FRAME_CAPTURE, captureTime);
+        CaptureMetrics.increment(CaptureMetrics.Count.FRAMES_CAPTURED);
+
+        synchronized (budgetLock) {
+            recordedTime = getRecordingTime(captureTime);
+            lastCaptureTime = captureTime;
+            lastFrameInterval = step.getFrameInterval();
+            pausedSinceLastFrame = false;
+
+            return new CapturedFrame(image, recordedTime, step);
+        }
+    }
+
+    /**
+     * Downscales the frame to the output size of the {@link Settings.Snapshot}, and halves its detail if the
+     * {@link RecordingBudget} asks for it.
+     */
+    private CapturedFrame scaleFrame(CapturedFrame frame) {
+        if (frame != null) {
+            frame.image = BoxDownscaler.downscale(frame.image, outputSize.width, outputSize.height);
+            if (frame.step == RecordingBudget.Step.HALF_DETAIL) {
+                halveDetail(frame.image);
+            }
+        }
+
+        return frame;
+    }
+
+    /**
+     * Writes the frame before this one, which is shown until this one was captured, and holds this one back.
+     */
+    private void writeFrame(CapturedFrame frame) {
+        if (frame == null) {
+            return;
+        }
+
+        synchronized (frameLock) {
+            try {
+                if (pendingFrame != null) {
+                    gifWriter.writeToSequence(pendingFrame, (int) (frame.time - pendingFrameTime));
+                }
+
+                pendingFrame = frame.image;
+                pendingFrameTime = frame.time;
+                pendingFrameInterval = frame.step.getFrameInterval();
+
+                writerMemory = gifWriter.getPendingMemory() + 4L * frame.image.getWidth() * frame.image.getHeight();
+            } catch (IOException e) {
+                if (!completed) {
+                    e.printStackTrace();
+                }
+
+                frameTask.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * @param now The current {@link System#nanoTime()}.
+     * @return The time in the recording in milliseconds. A pause since the last frame counts as one frame interval.
+     */
+    private long getRecordingTime(long now) {
+        if (lastCaptureTime == 0) {
+            return 0;
+        }
+
+        return recordedTime + (pausedSinceLastFrame ? DELAY_IN_MILLISECONDS * lastFrameInterval :
+                TimeUnit.NANOSECONDS.toMillis(now - lastCaptureTime));
+    }
+
+    /**
+     * Shows the usage of the {@link RecordingBudget} next to the buttons if it changed since it was last shown.
+     */
+    private void showBudget() {
+        String description = budget.describe();
+        if (!description.equals(shownBudget)) {
+            shownBudget = description;
+
+            Platform.runLater(() -> budgetLabel.setText(description));
+        }
+    }
+
+    /**
+     * Repeats the top left pixel of every 2x2 block of the frame. The frame keeps its size, since every frame of a GIF
+     * is as large as the first, but LZW compresses the repeated pixels better, and unlike averaging they add no
+     * colours.
+     */
+    private static void halveDetail(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        for (int y = 0; y < height; y++) {
+            int source = (y & ~1) * width;
+            int target = y * width;
+            for (int x = 0; x < width; x++) {
+                pixels[target + x] = pixels[source + (x & ~1)];
+            }
+        }
+
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+    }
+
+    /**
+     * Stops the recording and finishes the GIF, either from the complete button or once the {@link RecordingBudget}
+     * is used up.
+     */
+    private void complete() {
+        synchronized (this) {
+            if (completed) {
+                return;
+            }
+
+            paused = true;
+            completed = true;
+        }
+
+        Platform.runLater(stage::close);
+
+        ExecutionRuntime.io().execute(this::finishCapture);
+    }
+
+    /**
+     * Cancels the recording and its upload if the capture was closed in any way other than the complete button, e.g.
+     * the cancel button or by quitting. The frame ticks are removed from the scheduler here.
+     */
+    @Override
+    public synchronized void dispose() {
+        if (completed) {
+            return;
+        }
+
+        completed = true;
+
+        if (frameTask != null) {
+            frameTask.cancel(false);
+        }
+
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Waits for the frame that is currently in progress, then writes the last frame for one frame interval, ends the
+     * GIF and marks the end of the upload.
+     */
+    private void finishCapture() {
+        CompletableFuture<Void> frame;
+        synchronized (this) {
+            if (frameTask != null) {
+                frameTask.cancel(false);
+            }
+
+            frame = currentFrame;
+        }
+
+        if (frame != null) {
+            try {
+                frame.join();
+            } catch (CancellationException | CompletionException ignored) {
+            }
+        }
+
+        synchronized (frameLock) {
+            try {
+                if (pendingFrame != null) {
+                    gifWriter.writeToSequence(pendingFrame, DELAY_IN_MILLISECONDS * pendingFrameInterval);
+                    pendingFrame = null;
+                }
+
+                gifWriter.close();
+                imageOutputStream.close();
+                job.finishEncoding();
+            } catch (IOException e) {
+                e.printStackTrace();
+
+                job.cancel();
+            }
+        }
+    }
+
     /**
      * Add cursor image if it was in view.
+     * <p>
+     * As of 1.2, this is static and takes the cursor image, so that it can be benchmarked without a recording. The
+     * cursor is blended straight into the pixels of captures as {@link Robot} returns them, with
+     * {@link PixelKernels#drawOver(int[], int, int, int[], int, int, int, int)}.
      *
+     * @param image     The captured frame, which the cursor is drawn onto.
+     * @param cursor    The image of the cursor.
      * @param selection The screen selection
      * @param location  The current location of the mouse when the {@link Robot#createScreenCapture(Rectangle)} was
      *                  called.
      * @return Returns the {@link BufferedImage} after cursor was added if it was in view.
      */
-    private BufferedImage captureAndCheckCursorPosition(BufferedImage image, Rectangle selection, Point location) {
-        Graphics graphics = image.getGraphics();
-        if (location.x - selection.getMinX() < selection.getWidth() &&
-                location.y - selection.getMinY() < selection.getHeight()) {
-            graphics.drawImage(cursor,
-                    (int) (location.x - selection.getMinX()),
-                    (int) (location.y - selection.getMinY()), null);
+    public static BufferedImage captureAndCheckCursorPosition(BufferedImage image, BufferedImage cursor,
+                                                              Rectangle selection, Point location) {
+        if (location.x - selection.getMinX() >= selection.getWidth() ||
+                location.y - selection.getMinY() >= selection.getHeight()) {
+            return image;
         }
 
+        int x = (int) (location.x - selection.getMinX());
+        int y = (int) (location.y - selection.getMinY());
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (image.getType() == BufferedImage.TYPE_INT_RGB &&
+                ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride() == width &&
+                image.getRaster().getDataBuffer().getSize() == width * height) {
+            int[] cursorPixels = cursor.getType() == BufferedImage.TYPE_INT_ARGB &&
+                    ((SinglePixelPackedSampleModel) cursor.getSampleModel()).getScanlineStride() == cursor.getWidth() ?
+                    ((DataBufferInt) cursor.getRaster().getDataBuffer()).getData() :
+                    cursor.getRGB(0, 0, cursor.getWidth(), cursor.getHeight(), null, 0, cursor.getWidth());
+            PixelKernels.get().drawOver(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), width,
+                    height, cursorPixels, cursor.getWidth(), cursor.getHeight(), x, y);
+
+            return image;
+        }
+
+        Graphics graphics = image.getGraphics();
+        graphics.drawImage(cursor, x, y, null);
+        graphics.dispose();
+
         return image;
     }
-}
\ No newline at end of file
+
+    /**
+     * A frame on its way from the {@link ExecutionRuntime#capture()} thread to the {@link #gifWriter}.
+     */
+    private static final class CapturedFrame {
+        private BufferedImage image;
+        private final long time;
+        private final RecordingBudget.Step step;
+
+        private CapturedFrame(BufferedImage image, long time, RecordingBudget.Step step) {
+            this.image = image;
+            this.time = time;
+            this.step = step;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package capture.captureGIF;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads and writes raw frame logs, which hold the uncompressed frames of a recording so that it can be encoded later,
+ * e.g. by {@link batch.BatchConverter}. The {@link InstantReplay} writes one for every clip if
+ * {@link InstantReplay#FRAME_LOG_PROPERTY} is set.
+ * <p>
+ * A frame log starts with the ASCII characters "JYFL", the version of the format, and the width and height of every
+ * frame as 32 bit integers. Each frame follows as the time in milliseconds until the next frame as a 32 bit integer
+ * and then the pixels row by row as 3 bytes of red, green and blue. All integers are big-endian, and the log ends with
+ * the last complete frame.
+ *
+ * @since 1.2
+ */
+public class FrameLog {
+    private static final int MAGIC = 0x4A59464C;
+    private static final int VERSION = 1;
+
+    /**
+     * Reads the frames of a log one at a time, so that a recording never has to fit into memory.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final int width;
+        private final int height;
+        private final byte[] row;
+
+        /**
+         * Reads the header of the log.
+         *
+         * @param file The frame log.
+         * @throws IOException If the file could not be read or is not a frame log of a known version.
+         */
+        public Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException(file + " is not a frame log");
+                }
+
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported frame log version " + version);
+                }
+
+                width = in.readInt();
+                height = in.readInt();
+                if (width <= 0 || height <= 0) {
+                    throw new IOException("Invalid frame size " + width + "x" + height);
+                }
+            } catch (IOException e) {
+                in.close();
+
+                throw e;
+            }
+
+            row = new byte[width * 3];
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return The next frame, or null if there are no more complete frames.
+         * @throws IOException If the log could not be read.
+         */
+        public TimedFrame read() throws IOException {
+            int delay;
+            try {
+                delay = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+            try {
+                for (int y = 0; y < height; y++) {
+                    in.readFully(row);
+
+                    int offset = y * width;
+                    for (int x = 0, i = 0; x < width; x++, i += 3) {
+                        pixels[offset + x] = (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8 | (row[i + 2] & 0xFF);
+                    }
+                }
+            } catch (EOFException e) {
+                return null;
+            }
+
+            return new TimedFrame(image, delay);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Appends frames to a new log one at a time.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final int width;
+        private final int height;
+        private final int[] pixels;
+        private final byte[] row;
+
+        /**
+         * Creates the log and writes its header.
+         *
+         * @param file   The frame log, which is replaced if it exists.
+         * @param width  The width of every frame.
+         * @param height The height of every frame.
+         * @throws IOException If the file could not be written.
+         */
+        public Writer(File file, int width, int height) throws IOException {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+            }
+
+            this.width = width;
+            this.height = height;
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(width);
+                out.writeInt(height);
+            } catch (IOException e) {
+                out.close();
+
+                throw e;
+            }
+
+            pixels = new int[width];
+            row = new byte[width * 3];
+        }
+
+        /**
+         * @param image The frame, which must have the size of the log.
+         * @param delay The time in milliseconds until the next frame.
+         * @throws IOException If the log could not be written.
+         */
+        public void write(BufferedImage image, int delay) throws IOException {
+            if (image.getWidth() != width || image.getHeight() != height) {
+                throw new IllegalArgumentException("The frame is " + image.getWidth() + "x" + image.getHeight() +
+                        " instead of " + width + "x" + height);
+            }
+
+            out.writeInt(delay);
+
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, pixels, 0, width);
+
+                for (int x = 0, i = 0; x < width; x++, i += 3) {
+                    row[i] = (byte) (pixels[x] >> 16);
+                    row[i + 1] = (byte) (pixels[x] >> 8);
+                    row[i + 2] = (byte) pixels[x];
+                }
+
+                out.write(row);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package capture.captureGIF;
+
+import capture.imageProcessing.ColorQuantizer;
+import capture.imageProcessing.Dithering;
+import capture.imageProcessing.InverseColorMap;
+import capture.imageProcessing.PixelKernels;
+import metrics.CaptureMetrics;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes the frames of a {@link GifSequenceWriter} so that they take fewer bytes, while showing the same pixels as far
+ * as the colours of a GIF allow.
+ * <p>
+ * Every frame is compared with the pixels that are currently shown. Only the rectangle around the pixels that changed
+ * is written, the pixels in it that did not change become transparent so that they form long runs for LZW, and a
+ * frame that did not change at all only extends how long the frame before it is shown. Each frame has a colour table
+ * of just the colours it uses, which is exact if the changed pixels have fewer than 256 colours and is built by the
+ * {@link ColorQuantizer} otherwise, in which case the changed pixels are dithered. {@link Dithering#ORDERED} is
+ * aligned to the screen rather than to the rectangle, so pixels that keep their colour keep their pattern as well.
+ * <p>
+ * The optimizer keeps both the colours the GIF shows and the pixels they were written for. Changes are found in the
+ * pixels, so an approximated colour is not written again for as long as its pixel stays the same, and a frame whose
+ * changed pixels are all approximated by the colours they already show is merged.
+ * <p>
+ * A frame is held back until the next one arrives, since only then is it known how long it is shown. Apart from that
+ * frame, the optimizer keeps the shown pixels and buffers of the size of one frame, no matter how long the GIF is. The
+ * buffers are only allocated once they are needed, so an optimizer that never takes over from the plain frames only
+ * keeps the shown colours and their pixels.
+ *
+ * @since 1.2
+ */
+public class GifOptimizer {
+    /**
+     * The transparent index of every frame. The colours of a frame follow it.
+     */
+    private static final int TRANSPARENT_INDEX = 0;
+
+    /**
+     * The most colours of a frame, since one entry of its colour table is transparent.
+     */
+    private static final int MAX_COLORS = 255;
+
+    /**
+     * Slots of the hash table that collects the exact colours of a frame, twice the most colours a frame can have.
+     */
+    private static final int COLOR_SLOTS = 512;
+
+    private final ImageWriter gifWriter;
+    private final ImageWriteParam imageWriteParam;
+    private final ImageOutputStream outputStream;
+
+    private final int width;
+    private final int height;
+    private final Dithering dithering;
+
+    /**
+     * The colours that are shown after the last frame that was written, and the pixels they were written for, or null
+     * before the first frame.
+     */
+    private int[] shown;
+    private int[] sources;
+
+    /**
+     * The pixels of a frame that is not stored as RGB integers, the colours of the changed pixels and the indices of
+     * the frame that is written, each allocated when it is first needed.
+     */
+    private int[] pixels;
+    private int[] changed;
+    private int[] indices;
+
+    private final PixelKernels kernels = PixelKernels.get();
+    private final Rectangle changedBounds = new Rectangle();
+
+    private final int[] colorKeys = new int[COLOR_SLOTS];
+    private final int[] colorIndices = new int[COLOR_SLOTS];
+    private final int[] colors = new int[MAX_COLORS];
+
+    /**
+     * The map of the palette of the last frame that needed one, kept for as long as the palette stays the same.
+     */
+    private InverseColorMap colorMap;
+
+    private BufferedImage pendingImage;
+    private int pendingX, pendingY;
+    private int pendingDelay;
+
+    private long plainFrames, plainBytes;
+    private long frames, framesWritten, framesMerged, bytesWritten, optimizeTime;
+
+    /**
+     * @param gifWriter       The writer of the {@link GifSequenceWriter}, which has written the first frame of its
+     *                        sequence.
+     * @param imageWriteParam The parameters frames are written with.
+     * @param outputStream    The stream the writer writes to.
+     * @param width           The width of every frame.
+     * @param height          The height of every frame.
+     * @param dithering       How frames with more colours than a colour table has are dithered.
+     */
+    GifOptimizer(ImageWriter gifWriter, ImageWriteParam imageWriteParam, ImageOutputStream outputStream,
+                 int width, int height, Dithering dithering) {
+        this.gifWriter = gifWriter;
+        this.imageWriteParam = imageWriteParam;
+        this.outputStream = outputStream;
+        this.width = width;
+        this.height = height;
+        this.dithering = dithering;
+    }
+
+    /**
+     * Takes note of a frame that was written without the optimizer, which is then shown, and of its size, which the
+     * bytes saved by the optimizer are estimated from.
+     *
+     * @param img     The frame.
+     * @param written The frame as it was written, which is indexed if its colours were reduced before writing it.
+     * @param bytes   The bytes the frame took.
+     */
+    void addPlainFrame(BufferedImage img, BufferedImage written, long bytes) {
+        if (shown == null) {
+            shown = new int[width * height];
+            sources = new int[width * height];
+        }
+
+        System.arraycopy(getPixels(img), 0, sources, 0, sources.length);
+        System.arraycopy(written == img ? sources : getPixels(written), 0, shown, 0, shown.length);
+
+        plainFrames++;
+        plainBytes += bytes;
+    }
+
+    /**
+     * Writes the frame that was held back, if it differs from the frame that is shown, and holds back this frame.
+     * The time spent comparing the frame and building its colour table is recorded as
+     * {@link CaptureMetrics.Latency#FRAME_OPTIMIZE}, and the time spent encoding the frame that was held back as
+     * {@link CaptureMetrics.Latency#FRAME_ENCODE}.
+     *
+     * @param img                 The frame, which must be as large as every other frame. At least one frame must have
+     *                            been added with {@link #addPlainFrame(BufferedImage, BufferedImage, long)}
+     *                            before.
+     * @param timeBetweenFramesMS The time until the next frame in milliseconds.
+     * @throws IOException If the frame that was held back could not be written.
+     */
+    void write(BufferedImage img, int timeBetweenFramesMS) throws IOException {
+        long startTime = System.nanoTime();
+        frames++;
+
+        if (indices == null) {
+            changed = new int[width * height];
+            indices = new int[width * height];
+        }
+
+        int[] current = getPixels(img);
+
+        BufferedImage image = null;
+        if (kernels.findChangedBounds(current, sources, width, height, changedBounds)) {
+            image = createFrameImage(current, changedBounds.x, changedBounds.y, changedBounds.width,
+                    changedBounds.height);
+        }
+
+        if (image == null) {
+            framesMerged++;
+            optimizeTime += System.nanoTime() - startTime;
+
+            if (pendingImage == null) {
+                holdEmptyFrame();
+            }
+
+            pendingDelay += timeBetweenFramesMS;
+
+            return;
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        optimizeTime += elapsed;
+        CaptureMetrics.record(CaptureMetrics.Latency.FRAME_OPTIMIZE, elapsed);
+
+        writePending();
+
+        pendingImage = image;
+        pendingX = changedBounds.x;
+        pendingY = changedBounds.y;
+        pendingDelay = timeBetweenFramesMS;
+    }
+
+    /**
+     * Writes the frame that was held back and records how many bytes the optimizer saved in {@link CaptureMetrics}.
+     * The saving is estimated from the average size of the frames that were written without the optimizer, so it is
+     * only recorded if there were any.
+     *
+     * @throws IOException If the frame could not be written.
+     */
+    void finish() throws IOException {
+        writePending();
+
+        CaptureMetrics.add(CaptureMetrics.Count.FRAMES_MERGED, framesMerged);
+
+        long saved = getEstimatedBytesSaved();
+        if (saved > 0) {
+            CaptureMetrics.add(CaptureMetrics.Count.OPTIMIZER_BYTES_SAVED, saved);
+        }
+    }
+
+    /**
+     * @return The amount of frames given to the optimizer.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return The amount of frames that did not change anything and only extended the frame before them.
+     */
+    public long getFramesMerged() {
+        return framesMerged;
+    }
+
+    /**
+     * @return The bytes of the frames the optimizer wrote so far.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return The bytes the frames given to the optimizer would have taken if they were written like the frames
+     * before the optimizer took over, minus the bytes they took, or -1 if no frames were written without it.
+     */
+    public long getEstimatedBytesSaved() {
+        if (plainFrames == 0) {
+            return -1;
+        }
+
+        return plainBytes * frames / plainFrames - bytesWritten;
+    }
+
+    /**
+     * @return The bytes of the frame that is held back until the next frame arrives, or 0 if there is none.
+     */
+    public long getPendingFrameMemory() {
+        return pendingImage == null ? 0 : pendingImage.getRaster().getDataBuffer().getSize();
+    }
+
+    /**
+     * @return The time in nanoseconds spent comparing frames and building their colour tables, without encoding them.
+     */
+    public long getOptimizeTime() {
+        return optimizeTime;
+    }
+
+    /**
+     * @return The pixels of the frame without copying them if they are stored as RGB integers row by row, or
+     * otherwise a copy in {@link #pixels}.
+     */
+    private int[] getPixels(BufferedImage img) {
+        if ((img.getType() == BufferedImage.TYPE_INT_RGB || img.getType() == BufferedImage.TYPE_INT_ARGB) &&
+                ((SinglePixelPackedSampleModel) img.getSampleModel()).getScanlineStride() == width &&
+                img.getRaster().getDataBuffer().getSize() == width * height) {
+            return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        }
+
+        if (pixels == null) {
+            pixels = new int[width * height];
+        }
+
+        img.getRGB(0, 0, width, height, pixels, 0, width);
+
+        return pixels;
+    }
+
+    /**
+     * Builds the indexed image of the changed rectangle and updates the shown pixels. Pixels that did not change
+     * become {@link #TRANSPARENT_INDEX}.
+     *
+     * @return The image, or null if no pixel would show another colour than before.
+     */
+    private BufferedImage createFrameImage(int[] current, int left, int top, int w, int h) {
+        Arrays.fill(colorKeys, -1);
+        int colorCount = 0;
+        int changedCount = 0;
+        boolean quantize = false;
+
+        for (int y = 0, i = 0; y < h; y++) {
+            int offset = (top + y) * width + left;
+            for (int x = 0; x < w; x++, i++) {
+                int rgb = current[offset + x] & 0xFFFFFF;
+                if (rgb == (sources[offset + x] & 0xFFFFFF)) {
+                    indices[i] = TRANSPARENT_INDEX;
+                    continue;
+                }
+
+                sources[offset + x] = current[offset + x];
+                changed[changedCount++] = rgb;
+                indices[i] = -1;
+
+                if (quantize) {
+                    continue;
+                }
+
+                int slot = (rgb * 0x9E3779B1) >>> 23;
+                while (colorKeys[slot] != -1 && colorKeys[slot] != rgb) {
+                    slot = (slot + 1) & (COLOR_SLOTS - 1);
+                }
+
+                if (colorKeys[slot] == -1) {
+                    if (colorCount == MAX_COLORS) {
+                        quantize = true;
+                        continue;
+                    }
+
+                    colorKeys[slot] = rgb;
+                    colors[colorCount++] = rgb;
+                    colorIndices[slot] = colorCount;
+                }
+
+                indices[i] = colorIndices[slot];
+            }
+        }
+
+        IndexColorModel colorModel;
+        if (!quantize) {
+            for (int y = 0, i = 0; y < h; y++) {
+                int offset = (top + y) * width + left;
+                for (int x = 0; x < w; x++, i++) {
+                    if (indices[i] != TRANSPARENT_INDEX) {
+                        shown[offset + x] = current[offset + x];
+                    }
+                }
+            }
+
+            colorModel = createColorModel(colors, colorCount);
+        } else {
+            IndexColorModel palette = ColorQuantizer.createPalette(changed, 0, changedCount, MAX_COLORS);
+            if (colorMap == null || !colorMap.hasColors(palette)) {
+                colorMap = new InverseColorMap(palette);
+            }
+
+            int[] paletteColors = new int[palette.getMapSize()];
+            palette.getRGBs(paletteColors);
+
+            for (int i = 0, length = w * h; i < length; i++) {
+                if (indices[i] != TRANSPARENT_INDEX) {
+                    indices[i] = -1;
+                }
+            }
+
+            dithering.map(current, top * width + left, width, left, top, w, h, colorMap, indices,
+                    TRANSPARENT_INDEX + 1);
+
+            boolean visible = false;
+            for (int y = 0, i = 0; y < h; y++) {
+                int offset = (top + y) * width + left;
+                for (int x = 0; x < w; x++, i++) {
+                    if (indices[i] == TRANSPARENT_INDEX) {
+                        continue;
+                    }
+
+                    int color = paletteColors[indices[i] - TRANSPARENT_INDEX - 1];
+                    visible |= ((color ^ shown[offset + x]) & 0xFFFFFF) != 0;
+                    shown[offset + x] = color;
+                }
+            }
+
+            if (!visible) {
+                return null;
+            }
+
+            colorModel = createColorModel(paletteColors, paletteColors.length);
+        }
+
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(w, h);
+        raster.setSamples(0, 0, w, h, 0, indices);
+
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Creates a colour table of {@link #TRANSPARENT_INDEX} followed by the colours, with as few bits per pixel as
+     * possible so that LZW starts with short codes.
+     */
+    private static IndexColorModel createColorModel(int[] colors, int colorCount) {
+        int size = colorCount + 1;
+        int bits = size <= 2 ? 1 : size <= 4 ? 2 : size <= 16 ? 4 : 8;
+
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        for (int i = 0; i < colorCount; i++) {
+            r[i + 1] = (byte) (colors[i] >> 16);
+            g[i + 1] = (byte) (colors[i] >> 8);
+            b[i + 1] = (byte) colors[i];
+        }
+
+        return new IndexColorModel(bits, size, r, g, b, TRANSPARENT_INDEX);
+    }
+
+    /**
+     * Holds back a transparent pixel, which only shows the frame before it for longer. This is needed when the frame
+     * before it was already written.
+     */
+    private void holdEmptyFrame() {
+        IndexColorModel colorModel = createColorModel(colors, 0);
+
+        pendingImage = new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(1, 1), false, null);
+        pendingX = 0;
+        pendingY = 0;
+        pendingDelay = 0;
+    }
+
+    private void writePending() throws IOException {
+        if (pendingImage == null) {
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        long startPosition = outputStream.getStreamPosition();
+
+        IIOMetadata metadata = gifWriter.getDefaultImageMetadata(new ImageTypeSpecifier(pendingImage),
+                imageWriteParam);
+        String metaFormatName = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(metaFormatName);
+
+        IIOMetadataNode imageDescriptor = GifSequenceWriter.getNode(root, "ImageDescriptor");
+        imageDescriptor.setAttribute("imageLeftPosition", Integer.toString(pendingX));
+        imageDescriptor.setAttribute("imageTopPosition", Integer.toString(pendingY));
+        imageDescriptor.setAttribute("imageWidth", Integer.toString(pendingImage.getWidth()));
+        imageDescriptor.setAttribute("imageHeight", Integer.toString(pendingImage.getHeight()));
+        imageDescriptor.setAttribute("interlaceFlag", "FALSE");
+
+        IIOMetadataNode graphicControlExtension = GifSequenceWriter.getNode(root, "GraphicControlExtension");
+        graphicControlExtension.setAttribute("disposalMethod", "doNotDispose");
+        graphicControlExtension.setAttribute("userInputFlag", "FALSE");
+        graphicControlExtension.setAttribute("transparentColorFlag", "TRUE");
+        graphicControlExtension.setAttribute("transparentColorIndex", Integer.toString(TRANSPARENT_INDEX));
+        graphicControlExtension.setAttribute("delayTime",
+                Integer.toString(GifSequenceWriter.toDelayTime(pendingDelay)));
+
+        metadata.setFromTree(metaFormatName, root);
+
+        gifWriter.writeToSequence(new IIOImage(pendingImage, null, metadata), imageWriteParam);
+        outputStream.flush();
+
+        pendingImage = null;
+        framesWritten++;
+        bytesWritten += outputStream.getStreamPosition() - startPosition;
+
+        CaptureMetrics.recordSince(CaptureMetrics.Latency.FRAME_ENCODE, startTime);
+    }
+}
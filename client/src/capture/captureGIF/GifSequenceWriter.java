@@ -13,18 +13,37 @@
 
 package capture.captureGIF;
 
+import capture.imageProcessing.ColorQuantizer;
+import capture.imageProcessing.Dithering;
+import capture.imageProcessing.InverseColorMap;
+import metrics.CaptureMetrics;
+
 import javax.imageio.*;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataNode;
 import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.util.Iterator;
 
 public class GifSequenceWriter {
+    private ImageOutputStream outputStream;
     private ImageWriter gifWriter;
     private ImageWriteParam imageWriteParam;
     private IIOMetadata imageMetaData;
+    private int currentTimeBetweenFramesMS;
+
+    /**
+     * The size in bytes after which frames are written by the {@link GifOptimizer}, or -1 if they never are.
+     */
+    private long optimizeThreshold = -1;
+    private GifOptimizer optimizer;
+    private Dithering dithering = Dithering.NONE;
+    private InverseColorMap colorMap;
+    private boolean optimizing;
+    private boolean wroteFrame;
 
     /**
      * Creates a new GifSequenceWriter
@@ -40,6 +59,9 @@ public class GifSequenceWriter {
             int imageType,
             int timeBetweenFramesMS,
             boolean loopContinuously) throws IOException {
+        this.outputStream = outputStream;
+        this.currentTimeBetweenFramesMS = timeBetweenFramesMS;
+
         // my method to create a writer
         gifWriter = getWriter();
         imageWriteParam = gifWriter.getDefaultWriteParam();
@@ -66,7 +88,7 @@ public class GifSequenceWriter {
                 "FALSE");
         graphicsControlExtensionNode.setAttribute(
                 "delayTime",
-                Integer.toString(timeBetweenFramesMS / 5));
+                Integer.toString(toDelayTime(timeBetweenFramesMS)));
         graphicsControlExtensionNode.setAttribute(
                 "transparentColorIndex",
                 "0");
@@ -96,13 +118,151 @@ public class GifSequenceWriter {
         gifWriter.prepareWriteSequence(null);
     }
 
+    /**
+     * Makes the frames that are appended once the GIF is at least as large as the threshold be written by a
+     * {@link GifOptimizer}, which only writes what changed between frames. The first frame is always written as it
+     * is, since the bytes saved by the optimizer are estimated from the frames before it. Frames that are not
+     * {@link BufferedImage BufferedImages} are never optimized.
+     *
+     * @param threshold The size of the GIF in bytes, 0 to optimize every frame after the first, or -1 to never
+     *                  optimize frames.
+     * @since 1.2
+     */
+    public void setOptimizeThreshold(long threshold) {
+        optimizeThreshold = threshold;
+    }
+
+    /**
+     * Makes frames with more colours than a GIF has be dithered. With {@link Dithering#NONE}, frames that are not
+     * optimized are reduced to 256 colours by the {@link ImageWriter}, and otherwise by the {@link ColorQuantizer}.
+     * It must be set before the first frame is appended.
+     *
+     * @param dithering How colours that are not in the colour table of a frame are spread.
+     * @since 1.2
+     */
+    public void setDithering(Dithering dithering) {
+        this.dithering = dithering;
+    }
+
+    /**
+     * @return The optimizer, which reports how many bytes it saved and how long it took, or null if no frame was
+     * appended while an optimize threshold was set.
+     * @since 1.2
+     */
+    public GifOptimizer getOptimizer() {
+        return optimizer;
+    }
+
+    /**
+     * @return The bytes that wait in memory for the next frame: the frame the {@link GifOptimizer} holds back and the
+     * encoded bytes that were not flushed to the underlying stream yet. Buffers that keep their size for the whole
+     * sequence are not counted.
+     * @throws IOException If the position of the stream cannot be read.
+     * @since 1.2
+     */
+    public long getPendingMemory() throws IOException {
+        long memory = outputStream.getStreamPosition() - outputStream.getFlushedPosition();
+        if (optimizer != null) {
+            memory += optimizer.getPendingFrameMemory();
+        }
+
+        return memory;
+    }
+
+    /**
+     * Appends a frame and flushes it to the underlying stream so that it can
+     * be consumed while the next frame is being captured. The time it took is
+     * recorded as {@link CaptureMetrics.Latency#FRAME_ENCODE}.
+     *
+     * @param img the frame to append
+     */
     public void writeToSequence(RenderedImage img) throws IOException {
+        writeToSequence(img, currentTimeBetweenFramesMS);
+    }
+
+    /**
+     * Appends a frame that is displayed for a different amount of time than
+     * the frames before it.
+     * <p>
+     * As of 1.2, the frame is given to the {@link GifOptimizer} instead once
+     * the GIF has grown past {@link #setOptimizeThreshold(long)}. The
+     * optimizer holds back each frame until the next one is appended.
+     *
+     * @param img                 the frame to append
+     * @param timeBetweenFramesMS the time until the next frame in miliseconds
+     */
+    public void writeToSequence(RenderedImage img, int timeBetweenFramesMS)
+            throws IOException {
+        if (optimizeThreshold >= 0 && img instanceof BufferedImage) {
+            if (optimizer == null) {
+                optimizer = new GifOptimizer(gifWriter, imageWriteParam,
+                        outputStream, img.getWidth(),
+                        img.getHeight(), dithering);
+            }
+
+            if (optimizing || wroteFrame &&
+                    outputStream.getStreamPosition() >= optimizeThreshold) {
+                optimizing = true;
+                optimizer.write((BufferedImage) img, timeBetweenFramesMS);
+
+                return;
+            }
+        }
+
+        if (timeBetweenFramesMS != currentTimeBetweenFramesMS) {
+            String metaFormatName = imageMetaData.getNativeMetadataFormatName();
+
+            IIOMetadataNode root = (IIOMetadataNode)
+                    imageMetaData.getAsTree(metaFormatName);
+
+            getNode(root, "GraphicControlExtension").setAttribute(
+                    "delayTime",
+                    Integer.toString(toDelayTime(timeBetweenFramesMS)));
+
+            imageMetaData.setFromTree(metaFormatName, root);
+            currentTimeBetweenFramesMS = timeBetweenFramesMS;
+        }
+
+        long startPosition = outputStream.getStreamPosition();
+
+        RenderedImage written = writeFrame(img);
+
+        if (optimizer != null) {
+            optimizer.addPlainFrame((BufferedImage) img, (BufferedImage) written,
+                    outputStream.getStreamPosition() - startPosition);
+        }
+    }
+
+    /**
+     * @return The frame as it was written, which is indexed if it was
+     * dithered.
+     */
+    private RenderedImage writeFrame(RenderedImage img) throws IOException {
+        long startTime = System.nanoTime();
+
+        if (dithering != Dithering.NONE && img instanceof BufferedImage &&
+                ((BufferedImage) img).getType() != BufferedImage.TYPE_BYTE_INDEXED) {
+            IndexColorModel palette = ColorQuantizer.createPalette((BufferedImage) img, 256);
+            if (colorMap == null || !colorMap.hasColors(palette)) {
+                colorMap = new InverseColorMap(palette);
+            }
+
+            img = ColorQuantizer.toIndexed((BufferedImage) img, colorMap, dithering);
+        }
+
         gifWriter.writeToSequence(
                 new IIOImage(
                         img,
                         null,
                         imageMetaData),
                 imageWriteParam);
+
+        outputStream.flush();
+        wroteFrame = true;
+
+        CaptureMetrics.recordSince(CaptureMetrics.Latency.FRAME_ENCODE, startTime);
+
+        return img;
     }
 
     /**
@@ -110,7 +270,22 @@ public class GifSequenceWriter {
      * stream, just finishes off the GIF.
      */
     public void close() throws IOException {
+        if (optimizing) {
+            optimizer.finish();
+        }
+
         gifWriter.endWriteSequence();
+
+        outputStream.flush();
+    }
+
+    /**
+     * @param timeBetweenFramesMS the time until the next frame in miliseconds
+     * @return the delay time of a graphic control extension
+     * @since 1.2
+     */
+    static int toDelayTime(int timeBetweenFramesMS) {
+        return Math.min(timeBetweenFramesMS / 5, 0xFFFF);
     }
 
     /**
@@ -137,7 +312,7 @@ public class GifSequenceWriter {
      * @param nodeName the name of the child node.
      * @return the child node, if found or a new node created with the given name.
      */
-    private static IIOMetadataNode getNode(
+    static IIOMetadataNode getNode(
             IIOMetadataNode rootNode,
             String nodeName) {
         int nNodes = rootNode.getLength();
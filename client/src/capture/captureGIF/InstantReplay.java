@@ -0,0 +1,349 @@
+package capture.captureGIF;
+
+import capture.capturePipeline.CaptureJob;
+import capture.capturePipeline.CapturePipeline;
+import capture.capturePipeline.SizeOptimizer;
+import capture.imageProcessing.BoxDownscaler;
+import settings.Config;
+import settings.Settings;
+import tools.ExecutionRuntime;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Records the screen in the background into a {@link ReplayBuffer}, so that the last seconds can be uploaded as a GIF
+ * with a shortcut after something happened.
+ * <p>
+ * The screen is captured every {@link #MIN_INTERVAL} milliseconds while it changes. Each time nothing changed, the
+ * next capture waits twice as long, up to {@link #MAX_INTERVAL}, so an idle screen costs almost nothing. If capturing
+ * and comparing a frame takes longer than half the interval, the interval is raised as well. Only the memory of the
+ * {@link ReplayBuffer} is used to hold the frames, which are downscaled to the output size of the
+ * {@link Settings.Snapshot} before they are added.
+ * <p>
+ * If the system property {@link #FRAME_LOG_PROPERTY} names a directory, every clip is also written there as a
+ * {@link FrameLog}, so that it can be encoded again by {@link batch.BatchConverter}, e.g. with other dithering.
+ *
+ * @since 1.2
+ */
+public class InstantReplay {
+    /**
+     * The system property with the directory that the frame log of every clip is written to.
+     */
+    public static final String FRAME_LOG_PROPERTY = "jyazo.instantReplay.frameLogDirectory";
+
+    private static final long MIN_INTERVAL = 100;
+    private static final long MAX_INTERVAL = 1000;
+
+    private static InstantReplay instance;
+
+    private final Settings settings;
+    private final Config config;
+    private final Rectangle region;
+    private final ReplayBuffer buffer;
+    private final Robot robot;
+    private final BufferedImage cursor;
+    private final int[] pixels;
+
+    /**
+     * The downscaled pixels, or null if the screen is recorded at its own size.
+     */
+    private final int[] scaled;
+
+    private volatile boolean stopped;
+    private ScheduledFuture<?> nextTick;
+    private long interval = MIN_INTERVAL;
+
+    private InstantReplay(Settings settings, Config config, Rectangle region, Dimension size, int capacity)
+            throws AWTException, IOException {
+        this.settings = settings;
+        this.config = config;
+        this.region = region;
+
+        buffer = new ReplayBuffer(size.width, size.height, capacity);
+        robot = new Robot();
+        cursor = ImageIO.read(InstantReplay.class.getResourceAsStream("/images/cursor.png"));
+        pixels = new int[region.width * region.height];
+        scaled = size.width == region.width && size.height == region.height ? null :
+                new int[size.width * size.height];
+    }
+
+    /**
+     * Starts or stops recording so that it matches {@link Settings#isEnableInstantReplay()}. A running recording is
+     * started again if the memory or the output size of the replay changed. The primary screen is recorded.
+     *
+     * @param settings The settings class retrieved from {@link tray.CreateTrayIcon}.
+     * @param config   The config class retrieved from {@link tray.CreateTrayIcon}.
+     */
+    public static synchronized void update(Settings settings, Config config) {
+        Settings.Snapshot snapshot = settings.getSnapshot();
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, snapshot.getInstantReplayMemory());
+
+        if (!snapshot.isEnableInstantReplay() || GraphicsEnvironment.isHeadless()) {
+            end();
+
+            return;
+        }
+
+        Rectangle region = new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
+        Dimension size = snapshot.getOutputSize(region.width, region.height);
+
+        if (instance != null && (capacity != instance.buffer.getCapacity() ||
+                size.width != instance.buffer.getWidth() || size.height != instance.buffer.getHeight())) {
+            end();
+        }
+
+        if (instance != null) {
+            return;
+        }
+
+        try {
+            instance = new InstantReplay(settings, config, region, size, capacity);
+            instance.schedule(0);
+        } catch (AWTException | IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+
+            instance = null;
+        }
+    }
+
+    /**
+     * Stops recording and releases the memory of the replay.
+     */
+    public static synchronized void end() {
+        if (instance != null) {
+            instance.stop();
+            instance = null;
+        }
+    }
+
+    /**
+     * @return True if the screen is being recorded.
+     */
+    public static synchronized boolean isRecording() {
+        return instance != null;
+    }
+
+    /**
+     * Encodes the last {@link Settings#getInstantReplaySeconds()} seconds as a GIF on an I/O thread and uploads it
+     * like a GIF capture. Recording continues meanwhile. Does nothing if the screen is not being recorded.
+     */
+    public static void save() {
+        InstantReplay replay;
+        synchronized (InstantReplay.class) {
+            replay = instance;
+        }
+
+        if (replay == null) {
+            return;
+        }
+
+        long until = System.currentTimeMillis();
+        ReplayBuffer.Clip clip = replay.buffer.copy(until - replay.settings.getInstantReplaySeconds() * 1000, until);
+
+        ExecutionRuntime.io().execute(() -> replay.encode(clip));
+    }
+
+    private synchronized void schedule(long delay) {
+        if (!stopped) {
+            nextTick = ExecutionRuntime.schedule(ExecutionRuntime.capture(), this::captureFrame, delay,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void stop() {
+        stopped = true;
+
+        if (nextTick != null) {
+            nextTick.cancel(false);
+        }
+    }
+
+    /**
+     * Captures the screen and adds it to the buffer, then schedules the next capture depending on whether the screen
+     * changed and how long this took.
+     */
+    private void captureFrame() {
+        if (stopped) {
+            return;
+        }
+
+        long startTime = System.nanoTime();
+
+        try {
+            BufferedImage image = robot.createScreenCapture(region);
+            CaptureGIF.captureAndCheckCursorPosition(image, cursor, region, MouseInfo.getPointerInfo().getLocation());
+
+            int[] framePixels = getPixels(image);
+            if (scaled != null) {
+                BoxDownscaler.downscale(framePixels, region.width, region.height, scaled, buffer.getWidth(),
+                        buffer.getHeight(), false);
+                framePixels = scaled;
+            }
+
+            if (buffer.add(framePixels, System.currentTimeMillis())) {
+                interval = MIN_INTERVAL;
+            } else {
+                interval = Math.min(interval * 2, MAX_INTERVAL);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+
+            interval = MAX_INTERVAL;
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        interval = Math.max(interval, Math.min(elapsed * 2, MAX_INTERVAL));
+
+        schedule(Math.max(0, interval - elapsed));
+    }
+
+    /**
+     * @return The pixels of the capture without copying them if they are stored as RGB integers row by row, which is
+     * how {@link Robot} usually returns them, or otherwise a copy in {@link #pixels}.
+     */
+    private int[] getPixels(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB &&
+                ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride() == region.width) {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+
+        image.getRGB(0, 0, region.width, region.height, pixels, 0, region.width);
+
+        return pixels;
+    }
+
+    /**
+     * Encodes a clip of the replay into a GIF through the {@link CapturePipeline}. Once the GIF uses up part of
+     * {@link Settings#getGIFSizeBudget()}, frames are merged with the frames after them like in a {@link CaptureGIF}.
+     */
+    private void encode(ReplayBuffer.Clip clip) {
+        if (clip.size() == 0) {
+            return;
+        }
+
+        long timestamp = System.currentTimeMillis();
+
+        CaptureJob job;
+        try {
+            job = CapturePipeline.beginRecording("Replay" + timestamp + ".gif", region, settings, config, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            return;
+        }
+
+        Settings.Snapshot snapshot = settings.getSnapshot();
+        FrameLog.Writer frameLog = openFrameLog("Replay" + timestamp + ".jyfl");
+
+        try {
+            ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(job.getOutputStream());
+            GifSequenceWriter gifWriter = new GifSequenceWriter(imageOutputStream, BufferedImage.TYPE_INT_RGB,
+                    (int) MIN_INTERVAL, true);
+            gifWriter.setOptimizeThreshold(snapshot.getGIFOptimizeThreshold());
+            gifWriter.setDithering(snapshot.getGIFDithering());
+
+            TimedFrame pending = null;
+            int pendingDelay = 0;
+            int framesUntilNextWrite = 0;
+
+            TimedFrame frame;
+            while ((frame = clip.next()) != null) {
+                frameLog = writeFrameLog(frameLog, frame);
+
+                if (pending != null && --framesUntilNextWrite > 0) {
+                    pendingDelay += frame.getDelay();
+                    continue;
+                }
+
+                if (pending != null) {
+                    gifWriter.writeToSequence(pending.getImage(), pendingDelay);
+                }
+
+                framesUntilNextWrite = SizeOptimizer.getGIFFrameInterval(job.getBytesWritten(),
+                        snapshot.getGIFSizeBudget());
+                pending = frame;
+                pendingDelay = frame.getDelay();
+            }
+
+            if (pending != null) {
+                gifWriter.writeToSequence(pending.getImage(), pendingDelay);
+            }
+
+            gifWriter.close();
+            imageOutputStream.close();
+            job.finishEncoding();
+        } catch (IOException | DataFormatException e) {
+            e.printStackTrace();
+
+            job.cancel();
+        } finally {
+            closeFrameLog(frameLog);
+        }
+    }
+
+    /**
+     * @param fileName The name of the frame log in the directory of {@link #FRAME_LOG_PROPERTY}.
+     * @return The new frame log, or null if the property is not set or the log could not be created.
+     */
+    private FrameLog.Writer openFrameLog(String fileName) {
+        String directory = System.getProperty(FRAME_LOG_PROPERTY);
+        if (directory == null || directory.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return new FrameLog.Writer(new File(directory, fileName), buffer.getWidth(), buffer.getHeight());
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * Appends a frame to the frame log. A log that cannot be written is closed, so that it does not keep the clip from
+     * being uploaded.
+     *
+     * @return The frame log, or null if there is none anymore.
+     */
+    private static FrameLog.Writer writeFrameLog(FrameLog.Writer frameLog, TimedFrame frame) {
+        if (frameLog == null) {
+            return null;
+        }
+
+        try {
+            frameLog.write(frame.getImage(), frame.getDelay());
+
+            return frameLog;
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            closeFrameLog(frameLog);
+
+            return null;
+        }
+    }
+
+    private static void closeFrameLog(FrameLog.Writer frameLog) {
+        if (frameLog == null) {
+            return;
+        }
+
+        try {
+            frameLog.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
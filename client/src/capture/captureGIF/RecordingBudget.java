@@ -0,0 +1,167 @@
+package capture.captureGIF;
+
+import settings.Settings;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a GIF recording within its budgets for duration, output bytes and queued memory, so that a recording that
+ * was forgotten ends by itself instead of growing without bound.
+ * <p>
+ * The budget that is used up the most decides how far the recording has degraded, see {@link Step}. A recording never
+ * returns to an earlier step, so a GIF loses frame rate and detail at most once for every step instead of switching
+ * back and forth.
+ *
+ * @since 1.2
+ */
+public class RecordingBudget {
+    /**
+     * The steps a recording degrades through as it uses up its budgets. They begin once half, three quarters, nine
+     * tenths and all of a budget is used up: first the frame rate drops, then the detail, and then the recording
+     * ends.
+     */
+    public enum Step {
+        FULL(0, 1, ""),
+        HALF_RATE(0.5, 2, "1/2 fps"),
+        QUARTER_RATE(0.75, 4, "1/4 fps"),
+
+        /**
+         * Every frame is written at half of its detail, see {@link CaptureGIF}.
+         */
+        HALF_DETAIL(0.9, 8, "1/8 fps, 1/2 detail"),
+
+        /**
+         * The recording is finished as if it had been completed.
+         */
+        STOPPED(1, 8, "stopped");
+
+        private final double threshold;
+        private final int frameInterval;
+        private final String description;
+
+        Step(double threshold, int frameInterval, String description) {
+            this.threshold = threshold;
+            this.frameInterval = frameInterval;
+            this.description = description;
+        }
+
+        /**
+         * @return How many capture ticks every frame covers.
+         */
+        public int getFrameInterval() {
+            return frameInterval;
+        }
+
+        /**
+         * @return What the step does to the recording, or an empty string if it does nothing.
+         */
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private final long maxDuration;
+    private final long maxBytes;
+    private final long maxMemory;
+
+    private long duration;
+    private long bytes;
+    private long memory;
+    private Step step = Step.FULL;
+
+    /**
+     * @param maxDuration The longest the GIF may be in milliseconds, or 0 if there is no limit.
+     * @param maxBytes    The largest the GIF may be in bytes, or 0 if there is no limit.
+     * @param maxMemory   The most memory in bytes that frames and encoded bytes waiting to be written or sent may
+     *                    use, or 0 if there is no limit.
+     */
+    public RecordingBudget(long maxDuration, long maxBytes, long maxMemory) {
+        this.maxDuration = maxDuration;
+        this.maxBytes = maxBytes;
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * @param settings The settings of the recording.
+     * @return The budget of {@link Settings.Snapshot#getGIFMaxSeconds()}, {@link Settings.Snapshot#getGIFSizeBudget()}
+     * and {@link Settings.Snapshot#getGIFMaxMemory()}.
+     */
+    public static RecordingBudget of(Settings.Snapshot settings) {
+        return new RecordingBudget(TimeUnit.SECONDS.toMillis(settings.getGIFMaxSeconds()),
+                settings.getGIFSizeBudget(), settings.getGIFMaxMemory());
+    }
+
+    /**
+     * Takes note of the current state of the recording and moves on to the step of the budget that is used up the
+     * most, unless the recording is already past it.
+     *
+     * @param duration The length of the GIF so far in milliseconds.
+     * @param bytes    The size of the GIF so far.
+     * @param memory   The memory of the frames and encoded bytes that wait to be written or sent. Buffers that keep
+     *                 their size for the whole recording are left out, since no step could reduce them.
+     * @return The step the recording is at now.
+     */
+    public Step update(long duration, long bytes, long memory) {
+        this.duration = duration;
+        this.bytes = bytes;
+        this.memory = memory;
+
+        double usage = getUsage();
+        for (Step next : Step.values()) {
+            if (next.ordinal() > step.ordinal() && usage >= next.threshold) {
+                step = next;
+            }
+        }
+
+        return step;
+    }
+
+    public Step getStep() {
+        return step;
+    }
+
+    /**
+     * @return The fraction of the budget that is used up the most, or 0 if there are no budgets.
+     */
+    public double getUsage() {
+        return Math.max(getUsage(duration, maxDuration), Math.max(getUsage(bytes, maxBytes),
+                getUsage(memory, maxMemory)));
+    }
+
+    /**
+     * @return The usage of every budget and the current step, e.g. "0:42/10:00 3.1/20.0 MB 1/64 MB queued 1/2 fps".
+     */
+    public String describe() {
+        StringBuilder description = new StringBuilder(formatDuration(duration));
+        if (maxDuration > 0) {
+            description.append('/').append(formatDuration(maxDuration));
+        }
+
+        description.append(' ').append(String.format("%.1f", bytes / (1024.0 * 1024.0)));
+        if (maxBytes > 0) {
+            description.append('/').append(String.format("%.1f", maxBytes / (1024.0 * 1024.0)));
+        }
+        description.append(" MB");
+
+        if (maxMemory > 0) {
+            description.append(' ').append(memory / (1024 * 1024)).append('/').append(maxMemory / (1024 * 1024))
+                    .append(" MB queued");
+        }
+
+        if (!step.description.isEmpty()) {
+            description.append(' ').append(step.description);
+        }
+
+        return description.toString();
+    }
+
+    private static double getUsage(long used, long budget) {
+        return budget > 0 ? (double) used / budget : 0;
+    }
+
+    private static String formatDuration(long milliseconds) {
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(milliseconds);
+
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+}
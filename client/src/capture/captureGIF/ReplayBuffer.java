@@ -0,0 +1,477 @@
+package capture.captureGIF;
+
+import capture.imageProcessing.PixelKernels;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps the most recent frames of a recording in a fixed amount of memory, compressed, so that the last seconds can be
+ * encoded after they happened.
+ * <p>
+ * The screen is divided into tiles of {@link #TILE_SIZE} pixels. A keyframe holds every tile and every other frame
+ * only the tiles that changed since the frame before it, and a frame without any changed tiles is not stored at all,
+ * since the frame before it simply stays on screen for longer. The tiles of a frame are deflated at the fastest level
+ * and copied into one byte array that is used as a ring: once it is full, the oldest frames are overwritten, together
+ * with any frames that depend on an overwritten keyframe.
+ * <p>
+ * Adding a frame does not allocate. Everything it needs, including the previous frame to compare against, is
+ * allocated when the buffer is created.
+ *
+ * @since 1.2
+ */
+public class ReplayBuffer {
+    /**
+     * The width and height of a tile in pixels.
+     */
+    public static final int TILE_SIZE = 32;
+
+    /**
+     * The most frames the buffer holds, no matter how small they are.
+     */
+    private static final int MAX_FRAMES = 4096;
+
+    /**
+     * A keyframe is stored after this many frames, so that a replay never has to start far before its first frame.
+     */
+    private static final int KEYFRAME_INTERVAL = 50;
+
+    /**
+     * A frame with more than this share of changed tiles is stored as a keyframe, since it is about as large anyway.
+     */
+    private static final double KEYFRAME_DIRTY_RATIO = 0.6;
+
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final int tileCount;
+
+    private final byte[] ring;
+    private int writePosition;
+
+    private final int[] offsets = new int[MAX_FRAMES];
+    private final int[] lengths = new int[MAX_FRAMES];
+    private final long[] timestamps = new long[MAX_FRAMES];
+    private final boolean[] keyframes = new boolean[MAX_FRAMES];
+    private int first;
+    private int count;
+    private int framesSinceKeyframe;
+
+    private final int[] previous;
+    private final int[] dirtyTiles;
+    private final byte[] raw;
+    private final byte[] compressed;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final PixelKernels kernels = PixelKernels.get();
+
+    /**
+     * @param width    The width of every frame.
+     * @param height   The height of every frame.
+     * @param capacity The memory for the compressed frames in bytes.
+     * @throws IllegalArgumentException If the capacity cannot hold a keyframe that does not compress at all.
+     */
+    public ReplayBuffer(int width, int height, int capacity) {
+        this.width = width;
+        this.height = height;
+
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tileCount = tilesX * ((height + TILE_SIZE - 1) / TILE_SIZE);
+
+        previous = new int[width * height];
+        dirtyTiles = new int[tileCount];
+        raw = new byte[4 + tileCount * 4 + width * height * 3];
+        compressed = new byte[getMaxCompressedSize(raw.length)];
+
+        if (capacity < getMaxCompressedSize(raw.length) * 2) {
+            throw new IllegalArgumentException("A replay buffer of " + width + "x" + height + " needs at least " +
+                    getMaxCompressedSize(raw.length) * 2 + " bytes");
+        }
+
+        ring = new byte[capacity];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The memory for the compressed frames in bytes.
+     */
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * Stores a frame unless it is the same as the frame before it.
+     *
+     * @param pixels    The pixels of the frame row by row, {@link #getWidth()} by {@link #getHeight()}. Only the red,
+     *                  green and blue components are kept.
+     * @param timestamp The time the frame was captured in milliseconds. Must not be before the last frame.
+     * @return False if nothing changed since the last frame, in which case nothing was stored.
+     */
+    public synchronized boolean add(int[] pixels, long timestamp) {
+        int dirtyCount = findDirtyTiles(pixels);
+        if (dirtyCount == 0) {
+            return false;
+        }
+
+        boolean keyframe = count == 0 || framesSinceKeyframe >= KEYFRAME_INTERVAL ||
+                dirtyCount > tileCount * KEYFRAME_DIRTY_RATIO;
+
+        int compressed = compress(serialize(pixels, keyframe, dirtyCount));
+        reserve(compressed);
+
+        if (!keyframe && count == 0) {
+            keyframe = true;
+            compressed = compress(serialize(pixels, true, dirtyCount));
+            reserve(compressed);
+        }
+
+        System.arraycopy(this.compressed, 0, ring, writePosition, compressed);
+
+        int index = (first + count) % MAX_FRAMES;
+        offsets[index] = writePosition;
+        lengths[index] = compressed;
+        timestamps[index] = timestamp;
+        keyframes[index] = keyframe;
+        count++;
+
+        writePosition += compressed;
+        framesSinceKeyframe = keyframe ? 1 : framesSinceKeyframe + 1;
+
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(pixels, y * width, previous, y * width, width);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The time of the oldest frame that can still be replayed, or -1 if the buffer is empty.
+     */
+    public synchronized long getOldestTimestamp() {
+        return count == 0 ? -1 : timestamps[first];
+    }
+
+    /**
+     * @return The amount of frames in the buffer.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return The memory used by the compressed frames in bytes.
+     */
+    public synchronized long getUsedBytes() {
+        long used = 0;
+        for (int i = 0; i < count; i++) {
+            used += lengths[(first + i) % MAX_FRAMES];
+        }
+
+        return used;
+    }
+
+    /**
+     * Copies the frames that were on screen between two times, starting from the keyframe before them, so that they
+     * can be decoded while new frames are added.
+     *
+     * @param from  The start of the replay in milliseconds.
+     * @param until The end of the replay in milliseconds, usually the current time.
+     * @return The frames, which may start later than requested if the buffer does not reach back that far.
+     */
+    public synchronized Clip copy(long from, long until) {
+        int start = 0;
+        while (start + 1 < count && timestamps[(first + start + 1) % MAX_FRAMES] <= from) {
+            start++;
+        }
+
+        while (start > 0 && !keyframes[(first + start) % MAX_FRAMES]) {
+            start--;
+        }
+
+        int end = start;
+        while (end < count && timestamps[(first + end) % MAX_FRAMES] < until) {
+            end++;
+        }
+
+        int frameCount = end - start;
+        int[] clipOffsets = new int[frameCount];
+        int[] clipLengths = new int[frameCount];
+        long[] clipTimestamps = new long[frameCount];
+        boolean[] clipKeyframes = new boolean[frameCount];
+
+        int size = 0;
+        for (int i = 0; i < frameCount; i++) {
+            size += lengths[(first + start + i) % MAX_FRAMES];
+        }
+
+        byte[] data = new byte[size];
+        int position = 0;
+        for (int i = 0; i < frameCount; i++) {
+            int index = (first + start + i) % MAX_FRAMES;
+
+            System.arraycopy(ring, offsets[index], data, position, lengths[index]);
+            clipOffsets[i] = position;
+            clipLengths[i] = lengths[index];
+            clipTimestamps[i] = timestamps[index];
+            clipKeyframes[i] = keyframes[index];
+
+            position += lengths[index];
+        }
+
+        return new Clip(this, data, clipOffsets, clipLengths, clipTimestamps, clipKeyframes, from, until);
+    }
+
+    /**
+     * Compares every tile with the previous frame row by row until the first difference.
+     *
+     * @return The amount of tiles that changed, whose indices are put into {@link #dirtyTiles}.
+     */
+    private int findDirtyTiles(int[] pixels) {
+        int dirtyCount = 0;
+
+        for (int tile = 0; tile < tileCount; tile++) {
+            int x0 = (tile % tilesX) * TILE_SIZE;
+            int y0 = (tile / tilesX) * TILE_SIZE;
+            int x1 = Math.min(x0 + TILE_SIZE, width);
+            int y1 = Math.min(y0 + TILE_SIZE, height);
+
+            for (int y = y0; y < y1; y++) {
+                int offset = y * width + x0;
+                if (kernels.findFirstChange(pixels, offset, previous, offset, x1 - x0) >= 0) {
+                    dirtyTiles[dirtyCount++] = tile;
+                    break;
+                }
+            }
+        }
+
+        return dirtyCount;
+    }
+
+    /**
+     * Writes the tiles of a frame into {@link #raw}: the amount of tiles, the index of each tile unless it is a
+     * keyframe, and then the red, green and blue bytes of each tile row by row.
+     *
+     * @return The length of the serialized frame.
+     */
+    private int serialize(int[] pixels, boolean keyframe, int dirtyCount) {
+        int tiles = keyframe ? tileCount : dirtyCount;
+        int position = writeInt(tiles, 0);
+
+        if (!keyframe) {
+            for (int i = 0; i < dirtyCount; i++) {
+                position = writeInt(dirtyTiles[i], position);
+            }
+        }
+
+        for (int i = 0; i < tiles; i++) {
+            int tile = keyframe ? i : dirtyTiles[i];
+            int x0 = (tile % tilesX) * TILE_SIZE;
+            int y0 = (tile / tilesX) * TILE_SIZE;
+            int x1 = Math.min(x0 + TILE_SIZE, width);
+            int y1 = Math.min(y0 + TILE_SIZE, height);
+
+            for (int y = y0; y < y1; y++) {
+                kernels.toRGBBytes(pixels, y * width + x0, x1 - x0, raw, position);
+                position += (x1 - x0) * 3;
+            }
+        }
+
+        return position;
+    }
+
+    private int writeInt(int value, int position) {
+        raw[position] = (byte) (value >>> 24);
+        raw[position + 1] = (byte) (value >>> 16);
+        raw[position + 2] = (byte) (value >>> 8);
+        raw[position + 3] = (byte) value;
+
+        return position + 4;
+    }
+
+    /**
+     * Deflates the serialized frame in {@link #raw} into {@link #compressed}.
+     *
+     * @param length The length of the serialized frame.
+     * @return The length of the compressed frame.
+     */
+    private int compress(int length) {
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+
+        int size = 0;
+        while (!deflater.finished() && size < compressed.length) {
+            size += deflater.deflate(compressed, size, compressed.length - size);
+        }
+
+        return size;
+    }
+
+    /**
+     * Makes room for a frame at the write position, going back to the start of the ring if it does not fit before the
+     * end. The frames in the way are the oldest ones and are dropped, and so are the frames after them up to the next
+     * keyframe, since they cannot be decoded without it.
+     *
+     * @param length The length of the compressed frame.
+     */
+    private void reserve(int length) {
+        if (writePosition + length > ring.length) {
+            writePosition = 0;
+        }
+
+        while (count > 0 && (count == MAX_FRAMES || overlaps(first, writePosition, length))) {
+            dropOldest();
+        }
+
+        while (count > 0 && !keyframes[first]) {
+            dropOldest();
+        }
+    }
+
+    private boolean overlaps(int index, int position, int length) {
+        return offsets[index] < position + length && offsets[index] + lengths[index] > position;
+    }
+
+    private void dropOldest() {
+        first = (first + 1) % MAX_FRAMES;
+        count--;
+    }
+
+    /**
+     * @return The most bytes that deflating the given amount of bytes can produce, including the zlib header.
+     */
+    private static int getMaxCompressedSize(int length) {
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 64;
+    }
+
+    /**
+     * The frames of a part of the replay, which are decoded one at a time.
+     */
+    public static class Clip {
+        private final int width;
+        private final int height;
+        private final int tilesX;
+
+        private final byte[] data;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final long[] timestamps;
+        private final boolean[] keyframes;
+        private final long from;
+        private final long until;
+
+        private final int[] canvas;
+        private final byte[] raw;
+        private final Inflater inflater = new Inflater();
+        private int next;
+
+        private Clip(ReplayBuffer buffer, byte[] data, int[] offsets, int[] lengths, long[] timestamps,
+                     boolean[] keyframes, long from, long until) {
+            this.width = buffer.width;
+            this.height = buffer.height;
+            this.tilesX = buffer.tilesX;
+            this.data = data;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.timestamps = timestamps;
+            this.keyframes = keyframes;
+            this.from = from;
+            this.until = until;
+
+            canvas = new int[width * height];
+            raw = new byte[buffer.raw.length];
+        }
+
+        /**
+         * @return The amount of stored frames in the clip, including those before its start that are only decoded.
+         */
+        public int size() {
+            return offsets.length;
+        }
+
+        /**
+         * @return The time in milliseconds from the first shown frame to the end of the clip.
+         */
+        public long getDuration() {
+            return offsets.length == 0 ? 0 : until - Math.max(from, timestamps[0]);
+        }
+
+        /**
+         * Decodes the next frame that is on screen during the clip. Frames before its start are decoded and skipped.
+         *
+         * @return The frame and how long it stays on screen, or null if there are no more frames.
+         * @throws DataFormatException If a frame could not be inflated.
+         */
+        public TimedFrame next() throws DataFormatException {
+            while (next < offsets.length) {
+                int index = next++;
+                decode(index);
+
+                long end = index + 1 < offsets.length ? timestamps[index + 1] : until;
+                long start = Math.max(timestamps[index], from);
+                if (end <= start) {
+                    continue;
+                }
+
+                BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                System.arraycopy(canvas, 0, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0,
+                        canvas.length);
+
+                return new TimedFrame(image, (int) Math.min(Integer.MAX_VALUE, end - start));
+            }
+
+            return null;
+        }
+
+        /**
+         * Inflates a frame and draws its tiles onto the canvas.
+         */
+        private void decode(int index) throws DataFormatException {
+            inflater.reset();
+            inflater.setInput(data, offsets[index], lengths[index]);
+
+            int length = 0;
+            while (!inflater.finished() && length < raw.length) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated replay frame");
+                }
+
+                length += inflated;
+            }
+
+            int tiles = readInt(0);
+            int position = keyframes[index] ? 4 : 4 + tiles * 4;
+
+            for (int i = 0; i < tiles; i++) {
+                int tile = keyframes[index] ? i : readInt(4 + i * 4);
+                int x0 = (tile % tilesX) * TILE_SIZE;
+                int y0 = (tile / tilesX) * TILE_SIZE;
+                int x1 = Math.min(x0 + TILE_SIZE, width);
+                int y1 = Math.min(y0 + TILE_SIZE, height);
+
+                for (int y = y0; y < y1; y++) {
+                    for (int j = y * width + x0, rowEnd = y * width + x1; j < rowEnd; j++) {
+                        canvas[j] = (raw[position] & 0xFF) << 16 | (raw[position + 1] & 0xFF) << 8 |
+                                (raw[position + 2] & 0xFF);
+                        position += 3;
+                    }
+                }
+            }
+        }
+
+        private int readInt(int position) {
+            return (raw[position] & 0xFF) << 24 | (raw[position + 1] & 0xFF) << 16 | (raw[position + 2] & 0xFF) << 8 |
+                    (raw[position + 3] & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package capture.captureGIF;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A frame of a recording and how long it is shown, as a {@link ReplayBuffer}, a {@link FrameLog} or
+ * {@link batch.BatchConverter} hands it to a {@link GifSequenceWriter}.
+ *
+ * @since 1.2
+ */
+public class TimedFrame {
+    private final BufferedImage image;
+    private final int delay;
+
+    public TimedFrame(BufferedImage image, int delay) {
+        this.image = image;
+        this.delay = delay;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return The time in milliseconds until the next frame.
+     */
+    public int getDelay() {
+        return delay;
+    }
+}
@@ -1,18 +1,17 @@
 package capture.captureImage;
 
 import capture.Callback;
+import capture.capturePipeline.CaptureJob;
+import capture.capturePipeline.CapturePipeline;
+import capture.capturePipeline.PipelineStage;
+import capture.capturePipeline.ProgressListener;
 import javafx.application.Platform;
 import javafx.stage.Stage;
 import settings.Config;
 import settings.Settings;
-import upload.Upload;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
-import java.util.Objects;
 
 /**
  * This class is specific to capturing a single image based on screen region capture.
@@ -31,35 +30,34 @@ public class CaptureImage extends Callback {
     /**
      * On mouse release, captures a single frame using {@link Robot#createScreenCapture(Rectangle)} based on the
      * parameter 'selection' and then upload to the server.
+     * <p>
+     * The capture is handed to the {@link CapturePipeline} so this method returns immediately. The overlay is closed
+     * as soon as the screen has been captured, or once the capture has ended if it ended before the screen was
+     * captured.
      *
      * @param stage     The {@link Stage} from the screen region capture.
      * @param selection The screen region selection from the capture.
      */
     @Override
     public void onRelease(Stage stage, Rectangle selection) {
-        BufferedImage screenCapture = null;
-        File tempFile;
         try {
-            screenCapture = new Robot().createScreenCapture(selection);
-        } catch (AWTException e) {
+            CapturePipeline.captureImage(selection, settings, config, new ProgressListener() {
+                @Override
+                public void onStageCompleted(CaptureJob job, PipelineStage pipelineStage, long duration) {
+                    if (pipelineStage == PipelineStage.CAPTURE) {
+                        Platform.runLater(stage::close);
+                    }
+                }
+
+                @Override
+                public void onFinished(CaptureJob job) {
+                    Platform.runLater(stage::close);
+                }
+            });
+        } catch (IOException e) {
             e.printStackTrace();
-        }
-
-        try {
-            tempFile = File.createTempFile("screenshot", ".png");
-            ImageIO.write(Objects.requireNonNull(screenCapture), "png", tempFile);
-
-            if (settings.isSaveAllImages()) {
-                String output = settings.getSaveDirectory() + System.currentTimeMillis() + ".png";
 
-                ImageIO.write(screenCapture, "png", new File(output));
-            }
-
-            Upload.uploadFile(tempFile, settings, config);
-        } catch (IOException | NullPointerException e) {
-            e.printStackTrace();
+            Platform.runLater(stage::close);
         }
-
-        Platform.runLater(stage::close);
     }
 }
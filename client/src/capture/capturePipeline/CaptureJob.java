@@ -0,0 +1,249 @@
+package capture.capturePipeline;
+
+import history.CaptureHistory;
+import history.CaptureRecord;
+import history.ThumbnailCache;
+import metrics.CaptureMetrics;
+import settings.Settings;
+import tray.WindowInformation;
+import upload.StreamingUpload;
+import upload.Upload;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single capture that is moving through the {@link CapturePipeline}.
+ * <p>
+ * The job records how long each {@link PipelineStage} took, reports every finished stage to its
+ * {@link ProgressListener} and can be cancelled at any point before the user is notified. The listener is told once
+ * the job has ended, however it ended.
+ *
+ * @since 1.2
+ */
+public class CaptureJob {
+    private final StreamingUpload upload;
+    private final ProgressListener listener;
+    private final CompletableFuture<String> result;
+
+    private final Map<PipelineStage, Long> startTimes = new ConcurrentHashMap<>();
+    private final Map<PipelineStage, Long> durations = new ConcurrentHashMap<>();
+
+    private volatile boolean cancelled;
+
+    /**
+     * The {@link System#nanoTime()} when the region was selected and when the last byte was encoded.
+     */
+    private final long creationTime = System.nanoTime();
+    private volatile long encodedTime;
+
+    /**
+     * The time, window title and size of the capture as they are kept in the {@link CaptureHistory}.
+     */
+    private final long timestamp = System.currentTimeMillis();
+    private final String windowTitle = WindowInformation.ACTIVE_WINDOW;
+    private final Rectangle selection;
+
+    /**
+     * Starts timing the {@link PipelineStage#UPLOAD} stage and chains the {@link PipelineStage#NOTIFY} stage to the
+     * end of the upload. The end-to-end latencies are recorded in {@link CaptureMetrics} once the user was notified,
+     * and the capture is added to the {@link CaptureHistory} if it was uploaded or saved.
+     *
+     * @param upload         The upload the encoder of this job writes to.
+     * @param selection      The screen region selection of the capture.
+     * @param settings       The settings class retrieved from {@link tray.CreateTrayIcon}.
+     * @param listener       The listener that receives the progress of this job, or null.
+     * @param notifyExecutor The {@link Executor} the user is notified on.
+     */
+    CaptureJob(StreamingUpload upload, Rectangle selection, Settings settings, ProgressListener listener,
+               Executor notifyExecutor) {
+        this.upload = upload;
+        this.selection = selection;
+        this.listener = listener;
+
+        startStage(PipelineStage.UPLOAD);
+
+        result = upload.getResult()
+                .whenComplete((url, e) -> completeStage(PipelineStage.UPLOAD))
+                .thenApplyAsync(url -> {
+                    CaptureMetrics.increment(CaptureMetrics.Count.CAPTURES);
+
+                    if (!url.equals("")) {
+                        runStage(PipelineStage.NOTIFY, () -> {
+                            Upload.notifyUploaded(url, settings);
+
+                            return null;
+                        });
+
+                        CaptureMetrics.recordSince(CaptureMetrics.Latency.SELECTION_TO_URL, creationTime);
+                        if (encodedTime != 0) {
+                            CaptureMetrics.recordSince(CaptureMetrics.Latency.ENCODED_TO_URL, encodedTime);
+                        }
+                    } else {
+                        CaptureMetrics.increment(CaptureMetrics.Count.UPLOADS_FAILED);
+                    }
+
+                    recordHistory(url);
+
+                    return url;
+                }, notifyExecutor);
+
+        if (listener != null) {
+            result.whenComplete((url, e) -> listener.onFinished(this));
+        }
+    }
+
+    /**
+     * Adds the capture to the {@link CaptureHistory} unless it was neither uploaded nor saved, and creates the
+     * thumbnail of a saved capture in the background.
+     *
+     * @param url The URL of the upload, or an empty {@link String} if it failed.
+     */
+    private void recordHistory(String url) {
+        File archiveFile = upload.getArchiveFile();
+        if (url.equals("") && (archiveFile == null || !archiveFile.exists())) {
+            return;
+        }
+
+        CaptureHistory.record(new CaptureRecord(timestamp, windowTitle, selection.width, selection.height,
+                getBytesWritten(), upload.getContentHash(), url,
+                archiveFile == null ? "" : archiveFile.getAbsolutePath()));
+
+        if (archiveFile != null && archiveFile.exists()) {
+            ThumbnailCache.generate(archiveFile);
+        }
+    }
+
+    /**
+     * Runs a stage of this job on the current thread and records its duration.
+     *
+     * @param stage The stage that is run.
+     * @param task  The work of the stage.
+     * @return The value returned by the task.
+     * @throws CancellationException If the job was cancelled before the stage began.
+     * @throws CompletionException   If the task threw a checked exception.
+     */
+    <T> T runStage(PipelineStage stage, Callable<T> task) {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+
+        startStage(stage);
+
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        } finally {
+            completeStage(stage);
+        }
+    }
+
+    void startStage(PipelineStage stage) {
+        startTimes.put(stage, System.nanoTime());
+    }
+
+    /**
+     * Records the duration of a stage in {@link CaptureMetrics} and passes it to the {@link ProgressListener}. A stage
+     * is only completed once.
+     *
+     * @param stage The stage that finished.
+     */
+    void completeStage(PipelineStage stage) {
+        Long startTime = startTimes.remove(stage);
+        if (startTime == null) {
+            return;
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        CaptureMetrics.record(stage.getLatency(), elapsed);
+
+        long duration = TimeUnit.NANOSECONDS.toMillis(elapsed);
+        durations.put(stage, duration);
+
+        if (listener != null) {
+            listener.onStageCompleted(this, stage, duration);
+        }
+    }
+
+    /**
+     * @return The stream the encoder writes the image to.
+     */
+    public OutputStream getOutputStream() {
+        return upload.getOutputStream();
+    }
+
+    /**
+     * @return The amount of encoded bytes that were written to {@link #getOutputStream()} so far.
+     */
+    public long getBytesWritten() {
+        return upload.getBytesWritten();
+    }
+
+    /**
+     * @return The amount of encoded bytes that were written to {@link #getOutputStream()} but not sent yet.
+     */
+    public long getBufferedBytes() {
+        return upload.getBufferedBytes();
+    }
+
+    /**
+     * Marks the end of the encoded image and completes the {@link PipelineStage#ENCODE} stage.
+     *
+     * @throws IOException If the archive file could not be written.
+     */
+    public void finishEncoding() throws IOException {
+        try {
+            upload.finish();
+        } finally {
+            encodedTime = System.nanoTime();
+            CaptureMetrics.add(CaptureMetrics.Count.ENCODED_BYTES, getBytesWritten());
+
+            completeStage(PipelineStage.ENCODE);
+        }
+    }
+
+    /**
+     * Aborts the upload and skips every stage that has not begun yet.
+     */
+    public void cancel() {
+        cancelled = true;
+
+        upload.cancel();
+        result.cancel(false);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The URL of the uploaded image once the user has been notified, or an empty {@link String} if the upload
+     * failed.
+     */
+    public CompletableFuture<String> getResult() {
+        return result;
+    }
+
+    /**
+     * @param stage The stage to retrieve the duration of.
+     * @return The duration of the stage in milliseconds, or -1 if the stage has not finished.
+     */
+    public long getDuration(PipelineStage stage) {
+        Long duration = durations.get(stage);
+
+        return duration == null ? -1 : duration;
+    }
+}
@@ -0,0 +1,150 @@
+package capture.capturePipeline;
+
+import capture.imageProcessing.BoxDownscaler;
+import settings.Config;
+import settings.Settings;
+import tools.ExecutionRuntime;
+import upload.StreamingUpload;
+import upload.Upload;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
+
+/**
+ * Runs captures through the capture, encode, upload and notify {@link PipelineStage}s asynchronously.
+ * <p>
+ * Every stage runs on the group of the {@link ExecutionRuntime} that is sized for its work, so several captures may
+ * encode and upload at the same time without blocking the thread that started them.
+ *
+ * @since 1.2
+ */
+public class CapturePipeline {
+    /**
+     * Captures a single PNG of the selected region, then encodes, uploads and notifies the user without blocking the
+     * calling thread.
+     * <p>
+     * The PNG is also saved to {@link Settings#getSaveDirectory()} if {@link Settings#isSaveAllImages()} is true. It is
+     * downscaled to {@link Settings.Snapshot#getOutputSize(int, int)} by the {@link BoxDownscaler} and then reduced to
+     * fit {@link Settings#getPNGSizeBudget()} by the {@link SizeOptimizer} before it is encoded. All settings are read
+     * from the same {@link Settings.Snapshot}, even if the settings are reloaded during the capture.
+     *
+     * @param selection The screen region selection from the capture.
+     * @param settings  The settings class retrieved from {@link tray.CreateTrayIcon}.
+     * @param config    The config class retrieved from {@link tray.CreateTrayIcon}.
+     * @param listener  The listener that receives the progress of the capture, or null.
+     * @return The {@link CaptureJob} of the capture.
+     * @throws IOException If the archive file could not be created.
+     */
+    public static CaptureJob captureImage(Rectangle selection, Settings settings, Config config,
+                                          ProgressListener listener) throws IOException {
+        long timestamp = System.currentTimeMillis();
+        Settings.Snapshot snapshot = settings.getSnapshot();
+
+        File archiveFile = null;
+        if (snapshot.isSaveAllImages()) {
+            archiveFile = new File(snapshot.getSaveDirectory() + timestamp + ".png");
+        }
+
+        StreamingUpload upload = Upload.beginUpload("screenshot" + timestamp + ".png", archiveFile, config,
+                ExecutionRuntime.io());
+        CaptureJob job = new CaptureJob(upload, selection, settings, listener, ExecutionRuntime.notifier());
+
+        CompletableFuture
+                .supplyAsync(() -> job.runStage(PipelineStage.CAPTURE, () ->
+                        new Robot().createScreenCapture(selection)), ExecutionRuntime.capture())
+                .thenAcceptAsync(image -> job.runStage(PipelineStage.ENCODE, () -> {
+                    Dimension size = snapshot.getOutputSize(image.getWidth(), image.getHeight());
+                    BufferedImage scaled = BoxDownscaler.downscale(image, size.width, size.height);
+
+                    encodePNG(SizeOptimizer.optimizePNG(scaled, snapshot.getPNGSizeBudget()), job);
+
+                    return null;
+                }), ExecutionRuntime.compute())
+                .exceptionally(e -> {
+                    if (!job.isCancelled()) {
+                        e.printStackTrace();
+                    }
+
+                    job.cancel();
+
+                    return null;
+                });
+
+        return job;
+    }
+
+    /**
+     * Begins a capture whose frames are captured and encoded by the caller, such as a GIF recording. The upload starts
+     * immediately and the caller writes the encoded frames to {@link CaptureJob#getOutputStream()} and then calls
+     * {@link CaptureJob#finishEncoding()}.
+     *
+     * @param fileName  The name of the uploaded file.
+     * @param selection The screen region selection of the recording.
+     * @param settings  The settings class retrieved from {@link tray.CreateTrayIcon}.
+     * @param config    The config class retrieved from {@link tray.CreateTrayIcon}.
+     * @param listener  The listener that receives the progress of the capture, or null.
+     * @return The {@link CaptureJob} of the recording.
+     * @throws IOException If the upload could not be started.
+     */
+    public static CaptureJob beginRecording(String fileName, Rectangle selection, Settings settings, Config config,
+                                            ProgressListener listener) throws IOException {
+        StreamingUpload upload = Upload.beginUpload(fileName, null, config, ExecutionRuntime.io());
+        CaptureJob job = new CaptureJob(upload, selection, settings, listener, ExecutionRuntime.notifier());
+
+        job.startStage(PipelineStage.ENCODE);
+
+        return job;
+    }
+
+    /**
+     * Encodes the image as a PNG straight into the upload of the job.
+     *
+     * @param image The captured image after it was optimized.
+     * @param job   The job the image belongs to.
+     * @throws IOException If the image could not be encoded.
+     */
+    private static void encodePNG(SizeOptimizer.OptimizedImage image, CaptureJob job) throws IOException {
+        writePNG(image.getImage(), image.getDeflateLevel(), job.getOutputStream());
+
+        job.finishEncoding();
+    }
+
+    /**
+     * Encodes an image as a PNG the same way a captured image is encoded.
+     *
+     * @param image        The image to encode.
+     * @param deflateLevel The deflate level between 0 and 9, such as {@link SizeOptimizer#DEFAULT_DEFLATE_LEVEL}.
+     * @param out          The stream the PNG is written to. It is not closed.
+     * @throws IOException If the image could not be encoded.
+     */
+    public static void writePNG(BufferedImage image, int deflateLevel, OutputStream out) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality((Deflater.BEST_COMPRESSION - deflateLevel) /
+                    (float) Deflater.BEST_COMPRESSION);
+        }
+
+        ImageOutputStream outputStream = new MemoryCacheImageOutputStream(out);
+        try {
+            writer.setOutput(outputStream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        outputStream.close();
+    }
+}
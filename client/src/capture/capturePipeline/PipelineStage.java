@@ -0,0 +1,45 @@
+package capture.capturePipeline;
+
+import metrics.CaptureMetrics;
+
+/**
+ * The stages that every capture passes through on its way from the screen to the user's clipboard.
+ * <p>
+ * The {@link #ENCODE} and {@link #UPLOAD} stages overlap as the encoded image is streamed into the upload.
+ *
+ * @since 1.2
+ */
+public enum PipelineStage {
+    /**
+     * Retrieving the pixels of the selected region from the screen.
+     */
+    CAPTURE(CaptureMetrics.Latency.CAPTURE),
+
+    /**
+     * Encoding the captured pixels into a PNG or GIF. For GIFs, this stage lasts for the whole recording.
+     */
+    ENCODE(CaptureMetrics.Latency.ENCODE),
+
+    /**
+     * Sending the encoded image to the server or Gfycat and waiting for its URL.
+     */
+    UPLOAD(CaptureMetrics.Latency.UPLOAD),
+
+    /**
+     * Playing the sound, copying the URL to the clipboard and opening it in the browser.
+     */
+    NOTIFY(CaptureMetrics.Latency.NOTIFY);
+
+    private final CaptureMetrics.Latency latency;
+
+    PipelineStage(CaptureMetrics.Latency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @return The latency of {@link CaptureMetrics} that the durations of this stage are recorded in.
+     */
+    public CaptureMetrics.Latency getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,31 @@
+package capture.capturePipeline;
+
+/**
+ * Receives the progress of a {@link CaptureJob} as it moves through the {@link PipelineStage}s.
+ * <p>
+ * The listener is called on the thread that ran the stage so implementations should be quick and must hand any GUI
+ * work to the correct thread.
+ *
+ * @since 1.2
+ */
+public interface ProgressListener {
+    /**
+     * Called once a stage has finished, whether it succeeded or not.
+     *
+     * @param job      The capture the stage belongs to.
+     * @param stage    The stage that finished.
+     * @param duration The time the stage took in milliseconds.
+     */
+    void onStageCompleted(CaptureJob job, PipelineStage stage, long duration);
+
+    /**
+     * Called once the job has ended, whether the user was notified, the upload failed or the job was cancelled. Unlike
+     * {@link #onStageCompleted(CaptureJob, PipelineStage, long)} this is also called if the job ended before a stage
+     * began, so anything that is waiting for a stage should be released here as well.
+     *
+     * @param job The capture that ended.
+     * @since 1.2
+     */
+    default void onFinished(CaptureJob job) {
+    }
+}
@@ -0,0 +1,197 @@
+package capture.capturePipeline;
+
+import capture.imageProcessing.BoxDownscaler;
+import capture.imageProcessing.ColorQuantizer;
+import capture.imageProcessing.PixelKernels;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.zip.Deflater;
+
+/**
+ * Keeps captures within the size budgets of {@link settings.Settings} so that the upload time on slow connections is
+ * bounded.
+ * <p>
+ * For PNGs, progressively stronger transforms are tried until the estimated size fits: stronger deflate, a 256 colour
+ * palette and then downscaling. The size of every candidate is estimated by compressing a sample of its rows instead
+ * of encoding the whole image, and the palette is built once and reused for every downscaled candidate.
+ * <p>
+ * GIFs are streamed while they are recorded, so their frame rate is reduced instead as the recording uses up its
+ * budget. Recordings of a {@link capture.captureGIF.CaptureGIF} go through a
+ * {@link capture.captureGIF.RecordingBudget}, which also ends them once the budget is used up.
+ *
+ * @since 1.2
+ */
+public class SizeOptimizer {
+    /**
+     * The deflate level used by the PNG writer when no budget applies.
+     */
+    public static final int DEFAULT_DEFLATE_LEVEL = 4;
+
+    /**
+     * The size of each sampled group of rows and the maximum amount of groups sampled for an estimate.
+     */
+    private static final int SAMPLE_BAND_HEIGHT = 16;
+    private static final int MAX_SAMPLED_BANDS = 12;
+
+    /**
+     * Estimates are increased by this factor since the PNG writer chooses its filters per row while the estimate
+     * always uses the sub filter.
+     */
+    private static final double ESTIMATE_MARGIN = 1.1;
+
+    /**
+     * Every downscaling step multiplies the size of the image by this factor, until either side would be smaller than
+     * {@link #MIN_DIMENSION}.
+     */
+    private static final double DOWNSCALE_STEP = 0.75;
+    private static final int MIN_DIMENSION = 64;
+
+    /**
+     * The fraction of the GIF budget after which the frame rate is halved, quartered and divided by eight.
+     */
+    private static final double[] GIF_BUDGET_THRESHOLDS = {0.5, 0.75, 0.9};
+
+    /**
+     * Chooses the cheapest transform of the image whose estimated PNG size fits within the budget. If nothing fits,
+     * the smallest candidate is returned.
+     *
+     * @param image  The captured image.
+     * @param budget The size budget in bytes, or 0 if there is no budget.
+     * @return The image and the deflate level it should be written with.
+     */
+    public static OptimizedImage optimizePNG(BufferedImage image, long budget) {
+        if (budget <= 0 || estimatePNGSize(image, DEFAULT_DEFLATE_LEVEL) <= budget) {
+            return new OptimizedImage(image, DEFAULT_DEFLATE_LEVEL);
+        }
+
+        if (estimatePNGSize(image, Deflater.BEST_COMPRESSION) <= budget) {
+            return new OptimizedImage(image, Deflater.BEST_COMPRESSION);
+        }
+
+        IndexColorModel palette = ColorQuantizer.createPalette(image, 256);
+        BufferedImage candidate = ColorQuantizer.toIndexed(image, palette);
+
+        double scale = DOWNSCALE_STEP;
+        while (estimatePNGSize(candidate, Deflater.BEST_COMPRESSION) > budget) {
+            int width = (int) (image.getWidth() * scale);
+            int height = (int) (image.getHeight() * scale);
+            if (width < MIN_DIMENSION || height < MIN_DIMENSION) {
+                break;
+            }
+
+            candidate = ColorQuantizer.toIndexed(BoxDownscaler.downscale(image, width, height), palette);
+            scale *= DOWNSCALE_STEP;
+        }
+
+        return new OptimizedImage(candidate, Deflater.BEST_COMPRESSION);
+    }
+
+    /**
+     * Decides how many capture ticks each GIF frame should cover based on how much of the budget has been used.
+     *
+     * @param bytesWritten The size of the GIF so far.
+     * @param budget       The size budget in bytes, or 0 if there is no budget.
+     * @return 1 for the full frame rate, otherwise 2, 4 or 8.
+     */
+    public static int getGIFFrameInterval(long bytesWritten, long budget) {
+        int interval = 1;
+
+        if (budget > 0) {
+            for (double threshold : GIF_BUDGET_THRESHOLDS) {
+                if (bytesWritten >= budget * threshold) {
+                    interval *= 2;
+                }
+            }
+        }
+
+        return interval;
+    }
+
+    /**
+     * Estimates the size of the image as a PNG by deflating a sample of its rows with the sub filter applied.
+     *
+     * @param image        The image to estimate. Either RGB or {@link BufferedImage#TYPE_BYTE_INDEXED}.
+     * @param deflateLevel The deflate level the image would be written with.
+     * @return The estimated size in bytes.
+     */
+    static long estimatePNGSize(BufferedImage image, int deflateLevel) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        boolean indexed = image.getType() == BufferedImage.TYPE_BYTE_INDEXED;
+        int bytesPerPixel = indexed ? 1 : 3;
+
+        int bands = (height + SAMPLE_BAND_HEIGHT - 1) / SAMPLE_BAND_HEIGHT;
+        int bandStride = (bands + MAX_SAMPLED_BANDS - 1) / MAX_SAMPLED_BANDS;
+
+        byte[] indexedPixels = indexed ? ((DataBufferByte) image.getRaster().getDataBuffer()).getData() : null;
+        PixelKernels kernels = PixelKernels.get();
+        int[] row = new int[width];
+        byte[] line = new byte[width * bytesPerPixel + 1];
+        byte[] output = new byte[64 * 1024];
+
+        Deflater deflater = new Deflater(deflateLevel);
+        int sampledRows = 0;
+
+        for (int band = 0; band < bands; band += bandStride) {
+            int end = Math.min((band + 1) * SAMPLE_BAND_HEIGHT, height);
+
+            for (int y = band * SAMPLE_BAND_HEIGHT; y < end; y++) {
+                line[0] = 1;
+
+                if (indexed) {
+                    System.arraycopy(indexedPixels, y * width, line, 1, width);
+                } else {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    kernels.toRGBBytes(row, 0, width, line, 1);
+                }
+
+                for (int i = line.length - 1; i > bytesPerPixel; i--) {
+                    line[i] -= line[i - bytesPerPixel];
+                }
+
+                deflater.setInput(line);
+                while (!deflater.needsInput()) {
+                    deflater.deflate(output);
+                }
+
+                sampledRows++;
+            }
+        }
+
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflater.deflate(output);
+        }
+
+        long compressed = deflater.getBytesWritten();
+        deflater.end();
+
+        long overhead = indexed ? 256 * 3 + 64 : 64;
+
+        return (long) (compressed * ((double) height / sampledRows) * ESTIMATE_MARGIN) + overhead;
+    }
+
+    /**
+     * An image chosen by {@link #optimizePNG(BufferedImage, long)} and the deflate level to write it with.
+     */
+    public static class OptimizedImage {
+        private final BufferedImage image;
+        private final int deflateLevel;
+
+        private OptimizedImage(BufferedImage image, int deflateLevel) {
+            this.image = image;
+            this.deflateLevel = deflateLevel;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        public int getDeflateLevel() {
+            return deflateLevel;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package capture.captureScroll;
+
+import capture.Callback;
+import capture.capturePipeline.CaptureJob;
+import capture.capturePipeline.CapturePipeline;
+import capture.capturePipeline.SizeOptimizer;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.*;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+import metrics.CaptureMetrics;
+import settings.Config;
+import settings.Settings;
+import tools.ExecutionRuntime;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is specific to capturing a region that is taller than the screen by scrolling through it.
+ * <p>
+ * While the user scrolls down through the selected region, it is captured every {@link #DELAY_IN_MILLISECONDS}
+ * milliseconds and each frame is stitched onto the previous ones by a {@link ScrollStitcher}. Once the capture is
+ * completed, the {@link StitchedImage} is encoded as a PNG and uploaded through the {@link CapturePipeline}.
+ *
+ * @since 1.2
+ */
+public class CaptureScroll extends Callback {
+    private final int DELAY_IN_MILLISECONDS = 50;
+    private final int BUTTON_GAP_X = 10;
+    private final int BUTTON_GAP_Y = 10;
+
+    /**
+     * The memory the stitched image may use before it is written to a temporary file.
+     */
+    private static final long MEMORY_LIMIT = 128L << 20;
+
+    private Settings settings;
+    private Config config;
+
+    private StitchedImage image;
+    private ScrollStitcher stitcher;
+    private int[] pixels;
+
+    /**
+     * The delay before the next frame is handed to the {@link ExecutionRuntime#capture()} thread. It is only
+     * scheduled once the frame before it was stitched, so that a slow stitch cannot queue up frames.
+     */
+    private ScheduledFuture<?> frameTask;
+    private final Object frameLock = new Object();
+
+    private ImageView cancel, complete;
+    private volatile boolean completed;
+
+    /**
+     * Load all GUI images. The image is only created once a region has been selected.
+     */
+    public CaptureScroll(Settings settings, Config config) {
+        this.settings = settings;
+        this.config = config;
+
+        cancel = new ImageView(new Image(this.getClass().getResourceAsStream("/images/cancel.png")));
+        complete = new ImageView(new Image(this.getClass().getResourceAsStream("/images/complete.png")));
+    }
+
+    /**
+     * On mouse release, create a border overlay for the region and start capturing it, with buttons to cancel and
+     * complete the capture. A frame is captured on the {@link ExecutionRuntime#capture()} thread and stitched on the
+     * {@link ExecutionRuntime#compute()} group, after which the next frame is scheduled {@link #DELAY_IN_MILLISECONDS}
+     * milliseconds after this one was captured, or immediately if stitching took longer.
+     *
+     * @param stage     The {@link Stage} from the screen region capture.
+     * @param selection The screen region selection from the capture.
+     */
+    @Override
+    public void onRelease(Stage stage, Rectangle selection) {
+        synchronized (frameLock) {
+            if (completed) {
+                return;
+            }
+
+            image = new StitchedImage(selection.width, MEMORY_LIMIT, selection.height);
+            stitcher = new ScrollStitcher(selection.width, selection.height, image);
+            pixels = new int[selection.width * selection.height];
+        }
+
+        Rectangle outline = new Rectangle((int) selection.getMinX() - 1, (int) selection.getMinY(),
+                (int) selection.getWidth() + 2, (int) selection.getHeight() + 2);
+
+        Platform.runLater(() -> {
+            double centerX = selection.getWidth() / 2;
+            double leftImageX = centerX - cancel.getImage().getWidth() - BUTTON_GAP_X / 2.0;
+            double rightImageX = centerX + BUTTON_GAP_X / 2.0;
+
+            double y = selection.getHeight() + BUTTON_GAP_Y;
+
+            Pane pane = new Pane();
+            pane.prefWidthProperty().bind(stage.widthProperty());
+            pane.prefHeightProperty().bind(stage.heightProperty());
+
+            Pane outlinePane = new Pane();
+            outlinePane.setMinWidth(outline.getWidth());
+            outlinePane.setMinHeight(outline.getHeight());
+            outlinePane.setBorder(new Border(new BorderStroke(Color.BLACK,
+                    BorderStrokeStyle.SOLID, CornerRadii.EMPTY, BorderWidths.DEFAULT)));
+
+            Scene scene = new Scene(pane, outline.getWidth(),
+                    outline.getHeight() + complete.getImage().getHeight() + BUTTON_GAP_Y);
+            scene.setFill(Color.TRANSPARENT);
+
+            cancel.setTranslateX(leftImageX);
+            cancel.setTranslateY(y);
+            cancel.addEventHandler(MouseEvent.MOUSE_CLICKED, e -> stage.close());
+
+            complete.setTranslateX(rightImageX);
+            complete.setTranslateY(y);
+            complete.addEventHandler(MouseEvent.MOUSE_CLICKED, e -> {
+                completed = true;
+
+                stage.close();
+
+                ExecutionRuntime.io().execute(() -> finishCapture(selection));
+            });
+
+            pane.getChildren().add(outlinePane);
+            pane.getChildren().add(cancel);
+            pane.getChildren().add(complete);
+
+            stage.setX(outline.getMinX());
+            stage.setY(outline.getMinY());
+            stage.setScene(scene);
+        });
+
+        try {
+            schedule(new Robot(), selection, 0);
+        } catch (AWTException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void schedule(Robot robot, Rectangle selection, long delay) {
+        synchronized (frameLock) {
+            if (!completed) {
+                frameTask = ExecutionRuntime.schedule(ExecutionRuntime.capture(), () -> captureFrame(robot, selection),
+                        delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Captures the region and hands it to the {@link ExecutionRuntime#compute()} group to be stitched, so that the
+     * {@link ExecutionRuntime#capture()} thread is free for other captures while the image grows.
+     *
+     * @param robot     The robot that captures the screen.
+     * @param selection The screen region selection from the capture.
+     */
+    private void captureFrame(Robot robot, Rectangle selection) {
+        if (completed) {
+            return;
+        }
+
+        long captureTime = System.nanoTime();
+        BufferedImage capture = robot.createScreenCapture(selection);
+
+        ExecutionRuntime.compute().execute(() -> stitchFrame(robot, selection, capture, captureTime));
+    }
+
+    /**
+     * Stitches a frame onto the image and schedules the next frame. Frames that could not be matched with the
+     * previous frame, e.g. because the region was scrolled too far at once, are counted as dropped in
+     * {@link CaptureMetrics}.
+     *
+     * @param robot       The robot that captures the next frame.
+     * @param selection   The screen region selection from the capture.
+     * @param capture     The captured region.
+     * @param captureTime The {@link System#nanoTime()} the region was captured at.
+     */
+    private void stitchFrame(Robot robot, Rectangle selection, BufferedImage capture, long captureTime) {
+        synchronized (frameLock) {
+            if (completed) {
+                return;
+            }
+
+            try {
+                int scrolled = stitcher.add(getPixels(capture, selection));
+
+                CaptureMetrics.recordSince(CaptureMetrics.Latency.FRAME_CAPTURE, captureTime);
+                CaptureMetrics.increment(scrolled < 0 ? CaptureMetrics.Count.FRAMES_DROPPED :
+                        CaptureMetrics.Count.FRAMES_CAPTURED);
+            } catch (IOException e) {
+                e.printStackTrace();
+
+                return;
+            }
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - captureTime);
+        schedule(robot, selection, Math.max(0, DELAY_IN_MILLISECONDS - elapsed));
+    }
+
+    /**
+     * @return The pixels of the capture without copying them if they are stored as RGB integers row by row, which is
+     * how {@link Robot} usually returns them, or otherwise a copy in {@link #pixels}.
+     */
+    private int[] getPixels(BufferedImage capture, Rectangle selection) {
+        if (capture.getType() == BufferedImage.TYPE_INT_RGB &&
+                ((SinglePixelPackedSampleModel) capture.getSampleModel()).getScanlineStride() == selection.width) {
+            return ((DataBufferInt) capture.getRaster().getDataBuffer()).getData();
+        }
+
+        capture.getRGB(0, 0, selection.width, selection.height, pixels, 0, selection.width);
+
+        return pixels;
+    }
+
+    /**
+     * Releases the image if the capture was closed in any way other than the complete button.
+     */
+    @Override
+    public void dispose() {
+        synchronized (frameLock) {
+            if (completed) {
+                return;
+            }
+
+            completed = true;
+
+            if (frameTask != null) {
+                frameTask.cancel(false);
+            }
+
+            closeImage();
+        }
+    }
+
+    /**
+     * Waits for the frame that is currently being stitched, then encodes the image as a PNG into the upload. The PNG
+     * is written one row at a time, so an image that was written to a temporary file is never loaded at once.
+     */
+    private void finishCapture(Rectangle selection) {
+        synchronized (frameLock) {
+            if (frameTask != null) {
+                frameTask.cancel(false);
+            }
+
+            if (image == null || image.getHeight() == 0) {
+                closeImage();
+
+                return;
+            }
+
+            CaptureJob job = null;
+            try {
+                job = CapturePipeline.beginRecording("scroll" + System.currentTimeMillis() + ".png",
+                        new Rectangle(selection.x, selection.y, image.getWidth(), image.getHeight()), settings, config,
+                        null);
+                image.writePNG(SizeOptimizer.DEFAULT_DEFLATE_LEVEL, job.getOutputStream());
+                job.finishEncoding();
+            } catch (IOException e) {
+                e.printStackTrace();
+
+                if (job != null) {
+                    job.cancel();
+                }
+            } finally {
+                closeImage();
+            }
+        }
+    }
+
+    private void closeImage() {
+        if (image == null) {
+            return;
+        }
+
+        try {
+            image.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package capture.captureScroll;
+
+import java.io.IOException;
+
+/**
+ * Joins the frames of a region that is being scrolled down into one tall {@link StitchedImage}.
+ * <p>
+ * Every row of a frame is reduced to a 64 bit hash, so frames are compared row by row instead of pixel by pixel. Rows
+ * at the top and bottom that are the same as in the last frame, such as a toolbar or a fixed page header, do not move
+ * and are only kept once. In the rows between them, the first rows of the new frame that are not all alike form an
+ * anchor. A rolling hash of the anchor is compared with a rolling hash over the rows of the last frame, which finds
+ * every position the anchor could have been scrolled from in a single pass. The smallest scroll distance at which the
+ * rows of both frames agree is used, and only the rows that scrolled into view are appended. The image always ends
+ * with the bottom rows of the last frame, which are replaced if they turn out to be a footer that does not scroll.
+ * <p>
+ * Adding a frame does not allocate.
+ *
+ * @since 1.2
+ */
+public class ScrollStitcher {
+    /**
+     * The most rows of an anchor.
+     */
+    private static final int ANCHOR_ROWS = 24;
+
+    /**
+     * The share of rows in the overlap of two frames that may differ, e.g. because of a blinking text cursor.
+     */
+    private static final double MISMATCH_TOLERANCE = 0.02;
+
+    private static final long ROLLING_BASE = 0x100000001B3L;
+
+    private final int width;
+    private final int height;
+    private final StitchedImage image;
+
+    private long[] hashes;
+    private long[] previousHashes;
+    private boolean started;
+
+    private int lostFrames;
+
+    /**
+     * @param width  The width of every frame.
+     * @param height The height of every frame.
+     * @param image  The image the frames are appended to. It must be as wide as the frames and keep at least
+     *               {@code height} rows in memory.
+     */
+    public ScrollStitcher(int width, int height, StitchedImage image) {
+        this.width = width;
+        this.height = height;
+        this.image = image;
+
+        hashes = new long[height];
+        previousHashes = new long[height];
+    }
+
+    /**
+     * Appends the rows of a frame that were scrolled into view since the last frame that was added.
+     *
+     * @param pixels The pixels of the frame row by row.
+     * @return The amount of rows the region was scrolled, 0 if it did not move, or -1 if the frame could not be matched
+     * with the last frame, e.g. because it was scrolled up or further than a whole frame. Such a frame is ignored and
+     * the next frame is compared with the last frame that was added.
+     * @throws IOException If the image could not spill to its temporary file.
+     */
+    public int add(int[] pixels) throws IOException {
+        for (int y = 0; y < height; y++) {
+            hashes[y] = hashRow(pixels, y * width);
+        }
+
+        if (!started) {
+            image.append(pixels, 0, height);
+            started = true;
+
+            swapHashes();
+
+            return 0;
+        }
+
+        int top = 0;
+        while (top < height && hashes[top] == previousHashes[top]) {
+            top++;
+        }
+
+        if (top == height) {
+            return 0;
+        }
+
+        int bottom = 0;
+        while (bottom < height - top && hashes[height - 1 - bottom] == previousHashes[height - 1 - bottom]) {
+            bottom++;
+        }
+
+        int distance = findScrollDistance(top, height - bottom);
+        if (distance <= 0) {
+            lostFrames++;
+
+            return -1;
+        }
+
+        image.truncate(bottom);
+        image.append(pixels, height - bottom - distance, distance + bottom);
+
+        swapHashes();
+
+        return distance;
+    }
+
+    /**
+     * @return The amount of frames that could not be matched with the frame before them.
+     */
+    public int getLostFrames() {
+        return lostFrames;
+    }
+
+    /**
+     * Finds how far the rows between the static top and bottom rows moved up since the last frame.
+     *
+     * @param start The first row that changed.
+     * @param end   The row after the last row that changed.
+     * @return The distance in rows, or -1 if no distance makes the frames agree.
+     */
+    private int findScrollDistance(int start, int end) {
+        int length = end - start;
+        int anchorRows = Math.min(ANCHOR_ROWS, length / 4);
+        if (anchorRows < 2) {
+            return -1;
+        }
+
+        int anchor = findAnchor(start, start + length / 2, anchorRows);
+
+        long power = 1;
+        for (int i = 1; i < anchorRows; i++) {
+            power *= ROLLING_BASE;
+        }
+
+        long anchorHash = 0;
+        long rollingHash = 0;
+        for (int i = 0; i < anchorRows; i++) {
+            anchorHash = anchorHash * ROLLING_BASE + hashes[anchor + i];
+            rollingHash = rollingHash * ROLLING_BASE + previousHashes[start + i];
+        }
+
+        for (int position = start; position + anchorRows <= end; position++) {
+            if (position > start) {
+                rollingHash = (rollingHash - previousHashes[position - 1] * power) * ROLLING_BASE +
+                        previousHashes[position + anchorRows - 1];
+            }
+
+            int distance = position - anchor;
+            if (distance > 0 && rollingHash == anchorHash && matches(start, end, distance)) {
+                return distance;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Picks the first window of rows whose rows are not all alike, since a window of empty rows matches almost
+     * anywhere.
+     *
+     * @return The first row of the anchor.
+     */
+    private int findAnchor(int start, int end, int anchorRows) {
+        for (int row = start; row + anchorRows <= end; row++) {
+            int changes = 0;
+            for (int i = 1; i < anchorRows; i++) {
+                if (hashes[row + i] != hashes[row + i - 1]) {
+                    changes++;
+                }
+            }
+
+            if (changes >= anchorRows / 2) {
+                return row;
+            }
+        }
+
+        return start;
+    }
+
+    /**
+     * @return True if the rows of the new frame are the rows of the last frame moved up by the distance, apart from
+     * {@link #MISMATCH_TOLERANCE}.
+     */
+    private boolean matches(int start, int end, int distance) {
+        int overlap = end - start - distance;
+        int allowed = (int) (overlap * MISMATCH_TOLERANCE);
+
+        for (int y = start; y < end - distance; y++) {
+            if (hashes[y] != previousHashes[y + distance] && --allowed < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void swapHashes() {
+        long[] swap = previousHashes;
+        previousHashes = hashes;
+        hashes = swap;
+    }
+
+    /**
+     * FNV-1a over the RGB components of the pixels of a row.
+     */
+    private long hashRow(int[] pixels, int offset) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = offset, end = offset + width; i < end; i++) {
+            hash = (hash ^ (pixels[i] & 0xFFFFFF)) * 0x100000001B3L;
+        }
+
+        return hash;
+    }
+}
@@ -0,0 +1,352 @@
+package capture.captureScroll;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * An image of a fixed width that grows downwards as rows are appended, which can become far taller than what fits
+ * into memory.
+ * <p>
+ * The rows are kept in strips of {@link #STRIP_HEIGHT} rows. Once the strips use more than the memory they were given,
+ * the oldest full strips are written to a temporary file and read back only when they are needed again, e.g. to
+ * encode the image. The most recent rows always stay in memory, since those are the ones that are replaced while
+ * stitching.
+ *
+ * @since 1.2
+ */
+public class StitchedImage implements Closeable {
+    /**
+     * The amount of rows in a strip.
+     */
+    public static final int STRIP_HEIGHT = 256;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IDAT_SIZE = 1 << 16;
+
+    private final int width;
+    private final int maxStripsInMemory;
+    private final int stripLength;
+
+    private final List<int[]> strips = new ArrayList<>();
+    private int stripsInMemory;
+    private int height;
+
+    /**
+     * The file that strips are written to once there are too many, which are then null in {@link #strips}.
+     */
+    private Path spillFile;
+    private FileChannel spillChannel;
+    private ByteBuffer spillBuffer;
+
+    /**
+     * The strip that was last read from {@link #spillFile}.
+     */
+    private int[] spillStrip;
+    private int spillStripIndex = -1;
+
+    /**
+     * @param width       The width of the image.
+     * @param memoryLimit The memory that the strips may use before they are written to a temporary file, in bytes.
+     * @param keptRows    The amount of rows at the end of the image that are always kept in memory.
+     */
+    public StitchedImage(int width, long memoryLimit, int keptRows) {
+        this.width = width;
+
+        stripLength = width * STRIP_HEIGHT;
+        maxStripsInMemory = (int) Math.max(keptRows / STRIP_HEIGHT + 2, memoryLimit / (stripLength * 4L));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return True if part of the image was written to the temporary file.
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Appends rows to the bottom of the image.
+     *
+     * @param pixels The pixels to copy rows from, {@link #getWidth()} wide.
+     * @param row    The first row in the pixels to append.
+     * @param rows   The amount of rows to append.
+     * @throws IOException If a strip could not be written to the temporary file.
+     */
+    public void append(int[] pixels, int row, int rows) throws IOException {
+        for (int i = 0; i < rows; i++) {
+            int stripIndex = height / STRIP_HEIGHT;
+            if (stripIndex == strips.size()) {
+                strips.add(new int[stripLength]);
+                stripsInMemory++;
+
+                spillOldStrips();
+            }
+
+            System.arraycopy(pixels, (row + i) * width, getStrip(stripIndex), (height % STRIP_HEIGHT) * width, width);
+            height++;
+        }
+    }
+
+    /**
+     * Removes rows from the bottom of the image.
+     *
+     * @param rows The amount of rows to remove.
+     */
+    public void truncate(int rows) {
+        height = Math.max(0, height - rows);
+
+        int neededStrips = (height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+        while (strips.size() > neededStrips) {
+            int last = strips.size() - 1;
+            if (strips.get(last) != null) {
+                stripsInMemory--;
+            }
+
+            strips.remove(last);
+        }
+    }
+
+    /**
+     * Copies a row of the image.
+     *
+     * @param y      The row.
+     * @param pixels The array the row is copied to, at least {@link #getWidth()} long.
+     * @throws IOException If the strip of the row could not be read from the temporary file.
+     */
+    public void getRow(int y, int[] pixels) throws IOException {
+        if (y < 0 || y >= height) {
+            throw new IndexOutOfBoundsException("Row " + y + " of " + height);
+        }
+
+        int[] strip = strips.get(y / STRIP_HEIGHT);
+        if (strip == null) {
+            strip = readSpilledStrip(y / STRIP_HEIGHT);
+        }
+
+        System.arraycopy(strip, (y % STRIP_HEIGHT) * width, pixels, 0, width);
+    }
+
+    /**
+     * Encodes the image as an RGB PNG one row at a time, so that the image never has to be in memory at once. Every row
+     * uses the sub filter.
+     *
+     * @param deflateLevel The deflate level between 0 and 9.
+     * @param out          The stream the PNG is written to. It is not closed.
+     * @throws IOException If the PNG could not be written.
+     */
+    public void writePNG(int deflateLevel, OutputStream out) throws IOException {
+        out.write(PNG_SIGNATURE);
+
+        ByteBuffer ihdr = ByteBuffer.allocate(13).putInt(width).putInt(height).put((byte) 8).put((byte) 2)
+                .put((byte) 0).put((byte) 0).put((byte) 0);
+        writeChunk(out, "IHDR", ihdr.array(), 13);
+
+        Deflater deflater = new Deflater(deflateLevel);
+        try {
+            ChunkOutputStream idat = new ChunkOutputStream(out);
+            DeflaterOutputStream deflated = new DeflaterOutputStream(idat, deflater, IDAT_SIZE);
+
+            int[] row = new int[width];
+            byte[] filtered = new byte[1 + width * 3];
+            filtered[0] = 1;
+
+            for (int y = 0; y < height; y++) {
+                getRow(y, row);
+
+                int previous = 0;
+                for (int x = 0, i = 1; x < width; x++, i += 3) {
+                    int pixel = row[x];
+                    filtered[i] = (byte) ((pixel >> 16) - (previous >> 16));
+                    filtered[i + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+                    filtered[i + 2] = (byte) (pixel - previous);
+                    previous = pixel;
+                }
+
+                deflated.write(filtered);
+            }
+
+            deflated.finish();
+            idat.flush();
+        } finally {
+            deflater.end();
+        }
+
+        writeChunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    /**
+     * Deletes the temporary file.
+     */
+    @Override
+    public void close() throws IOException {
+        strips.clear();
+        stripsInMemory = 0;
+
+        if (spillChannel != null) {
+            spillChannel.close();
+            Files.deleteIfExists(spillFile);
+
+            spillChannel = null;
+        }
+    }
+
+    /**
+     * @return The strip, which is read back into memory if it was written to the temporary file, since it is about to
+     * be changed.
+     */
+    private int[] getStrip(int index) throws IOException {
+        int[] strip = strips.get(index);
+        if (strip == null) {
+            strip = readSpilledStrip(index).clone();
+            strips.set(index, strip);
+            stripsInMemory++;
+            spillStripIndex = -1;
+        }
+
+        return strip;
+    }
+
+    /**
+     * Writes the oldest strips in memory to the temporary file until the strips fit into the memory limit.
+     */
+    private void spillOldStrips() throws IOException {
+        for (int i = 0; stripsInMemory > maxStripsInMemory && i < strips.size() - 1; i++) {
+            int[] strip = strips.get(i);
+            if (strip == null) {
+                continue;
+            }
+
+            if (spillChannel == null) {
+                spillFile = Files.createTempFile("jyazo-scroll", ".raw");
+                spillFile.toFile().deleteOnExit();
+                spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                spillBuffer = ByteBuffer.allocateDirect(stripLength * 4);
+            }
+
+            spillBuffer.clear();
+            spillBuffer.asIntBuffer().put(strip);
+            spillBuffer.limit(stripLength * 4);
+
+            long position = (long) i * stripLength * 4;
+            while (spillBuffer.hasRemaining()) {
+                position += spillChannel.write(spillBuffer, position);
+            }
+
+            strips.set(i, null);
+            stripsInMemory--;
+
+            if (spillStripIndex == i) {
+                spillStripIndex = -1;
+            }
+        }
+    }
+
+    /**
+     * Reads a strip from the temporary file into a buffer that is reused for the next strip that is read.
+     */
+    private int[] readSpilledStrip(int index) throws IOException {
+        if (spillStripIndex == index) {
+            return spillStrip;
+        }
+
+        if (spillStrip == null) {
+            spillStrip = new int[stripLength];
+        }
+
+        spillBuffer.clear();
+        long position = (long) index * stripLength * 4;
+        while (spillBuffer.hasRemaining()) {
+            int read = spillChannel.read(spillBuffer, position);
+            if (read < 0) {
+                throw new IOException("Strip " + index + " is missing from " + spillFile);
+            }
+
+            position += read;
+        }
+
+        spillBuffer.flip();
+        spillBuffer.asIntBuffer().get(spillStrip);
+        spillStripIndex = index;
+
+        return spillStrip;
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        DataOutputStream chunk = new DataOutputStream(out);
+        chunk.writeInt(length);
+        chunk.write(typeBytes);
+        chunk.write(data, 0, length);
+        chunk.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Collects the deflated image data and writes it as IDAT chunks of {@link #IDAT_SIZE} bytes.
+     */
+    private static class ChunkOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[IDAT_SIZE];
+        private int size;
+
+        private ChunkOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == buffer.length) {
+                flush();
+            }
+
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == buffer.length) {
+                    flush();
+                }
+
+                int copied = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, copied);
+                size += copied;
+                off += copied;
+                len -= copied;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size > 0) {
+                writeChunk(out, "IDAT", buffer, size);
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package capture.imageProcessing;
+
+import tools.ExecutionRuntime;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reduces the size of images by averaging the area of the source that every target pixel covers, e.g. to turn the
+ * physical pixels of a display with 200% scaling into the pixels that are seen.
+ * <p>
+ * If the size of the source is a multiple of the size of the target, as with a scaling of 200%, every target pixel is
+ * the exact average of a block of source pixels. Otherwise, every source pixel is weighted by how much of it lies
+ * within a target pixel, in steps of 1/{@link #WEIGHT_ONE} along each axis. Either way, red and blue are summed
+ * together in the two halves of an integer, and the pixels are read straight from the {@code int[]} of the image. A
+ * source row that lies within two target rows is only summed once.
+ * <p>
+ * The target rows are split into bands of {@link #BAND_HEIGHT} rows, which the calling thread and the
+ * {@link ExecutionRuntime#compute()} threads take one at a time until none are left. The calling thread only ever
+ * waits for bands that another thread is already working on, so it may be a compute thread itself.
+ *
+ * @since 1.2
+ */
+public class BoxDownscaler {
+    /**
+     * The amount of target rows that a thread takes at a time.
+     */
+    private static final int BAND_HEIGHT = 16;
+
+    /**
+     * Source images with fewer pixels are downscaled on the calling thread alone.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 19;
+
+    /**
+     * The most pixels of a block whose channels can be summed in 16 bits.
+     */
+    private static final int MAX_BLOCK_PIXELS = 256;
+
+    /**
+     * The sum of the weights along each axis. A channel weighted along both axes then fits into 16 bits before it is
+     * shifted back.
+     */
+    private static final int WEIGHT_ONE = 256;
+    private static final int WEIGHT_SHIFT = 16;
+
+    private final int[] source;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int[] target;
+    private final int width;
+    private final int height;
+
+    /**
+     * True if the size of the source is a multiple of the size of the target.
+     */
+    private final boolean blocks;
+
+    /**
+     * The weights of the source columns and rows that every target column and row covers, if not {@link #blocks}.
+     */
+    private final Weights columns;
+    private final Weights rows;
+
+    private final int bands;
+    private final AtomicInteger nextBand = new AtomicInteger();
+    private final CountDownLatch finishedBands;
+
+    private BoxDownscaler(int[] source, int sourceWidth, int sourceHeight, int[] target, int width, int height) {
+        this.source = source;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.target = target;
+        this.width = width;
+        this.height = height;
+
+        blocks = sourceWidth % width == 0 && sourceHeight % height == 0 &&
+                (sourceWidth / width) * (sourceHeight / height) <= MAX_BLOCK_PIXELS;
+        columns = blocks ? null : new Weights(sourceWidth, width);
+        rows = blocks ? null : new Weights(sourceHeight, height);
+
+        bands = (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+        finishedBands = new CountDownLatch(bands);
+    }
+
+    /**
+     * Downscales an image on the calling thread and the {@link ExecutionRuntime#compute()} threads.
+     *
+     * @param image  The image to downscale.
+     * @param width  The width of the downscaled image, at most the width of the image.
+     * @param height The height of the downscaled image, at most the height of the image.
+     * @return A {@link BufferedImage#TYPE_INT_RGB} image, or the image itself if it already has the size.
+     */
+    public static BufferedImage downscale(BufferedImage image, int width, int height) {
+        if (image.getWidth() == width && image.getHeight() == height) {
+            return image;
+        }
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        downscale(getPixels(image), image.getWidth(), image.getHeight(),
+                ((DataBufferInt) scaled.getRaster().getDataBuffer()).getData(), width, height, true);
+
+        return scaled;
+    }
+
+    /**
+     * Downscales pixels into an array without allocating more than a few rows.
+     *
+     * @param source       The pixels as RGB integers row by row.
+     * @param sourceWidth  The width of the source.
+     * @param sourceHeight The height of the source.
+     * @param target       The array the downscaled pixels are written to row by row, at least width by height long.
+     * @param width        The width of the target, between 1 and the width of the source.
+     * @param height       The height of the target, between 1 and the height of the source.
+     * @param parallel     True if the {@link ExecutionRuntime#compute()} threads should help with large sources.
+     */
+    public static void downscale(int[] source, int sourceWidth, int sourceHeight, int[] target, int width, int height,
+                                 boolean parallel) {
+        if (width < 1 || height < 1 || width > sourceWidth || height > sourceHeight) {
+            throw new IllegalArgumentException("Cannot downscale " + sourceWidth + "x" + sourceHeight + " to " +
+                    width + "x" + height);
+        }
+
+        BoxDownscaler downscaler = new BoxDownscaler(source, sourceWidth, sourceHeight, target, width, height);
+
+        if (parallel && sourceWidth * sourceHeight >= PARALLEL_THRESHOLD) {
+            int helpers = Math.min(Runtime.getRuntime().availableProcessors(), downscaler.bands) - 1;
+            try {
+                for (int i = 0; i < helpers; i++) {
+                    ExecutionRuntime.compute().execute(downscaler::scaleBands);
+                }
+            } catch (RejectedExecutionException ignored) {
+            }
+        }
+
+        downscaler.scaleBands();
+        downscaler.awaitBands();
+    }
+
+    /**
+     * @return The pixels of the image without copying them if they are stored as RGB integers row by row, or
+     * otherwise a copy.
+     */
+    private static int[] getPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if ((image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB) &&
+                ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride() == width &&
+                image.getRaster().getDataBuffer().getSize() == width * height) {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * Takes bands until every band has been taken.
+     */
+    private void scaleBands() {
+        int[] redBlue = null;
+        int[] green = null;
+        int[] sums = null;
+        int summedRow = -1;
+
+        int band;
+        while ((band = nextBand.getAndIncrement()) < bands) {
+            try {
+                if (redBlue == null && !blocks) {
+                    redBlue = new int[width];
+                    green = new int[width];
+                    sums = new int[width * 3];
+                }
+
+                for (int y = band * BAND_HEIGHT, end = Math.min(y + BAND_HEIGHT, height); y < end; y++) {
+                    if (blocks) {
+                        scaleRowByBlocks(y);
+                    } else {
+                        summedRow = scaleRow(y, redBlue, green, sums, summedRow);
+                    }
+                }
+            } finally {
+                finishedBands.countDown();
+            }
+        }
+    }
+
+    private void awaitBands() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finishedBands.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Averages the blocks of source pixels that the pixels of a target row cover, if the size of the source is a
+     * multiple of the size of the target and a block has at most {@link #MAX_BLOCK_PIXELS} pixels. Every source pixel
+     * then has the same weight, and red and blue are summed together in the two halves of an integer.
+     */
+    private void scaleRowByBlocks(int y) {
+        int blockWidth = sourceWidth / width;
+        int blockHeight = sourceHeight / height;
+        float blockScale = 1.0f / (blockWidth * blockHeight);
+
+        int top = y * blockHeight * sourceWidth;
+        for (int x = 0, left = top, offset = y * width; x < width; x++, left += blockWidth) {
+            int redBlue = 0;
+            int green = 0;
+            for (int row = 0, rowStart = left; row < blockHeight; row++, rowStart += sourceWidth) {
+                for (int i = rowStart, end = rowStart + blockWidth; i < end; i++) {
+                    int pixel = source[i];
+                    redBlue += pixel & 0xFF00FF;
+                    green += pixel & 0xFF00;
+                }
+            }
+
+            target[offset + x] = ((int) ((redBlue >>> 16) * blockScale + 0.5f) << 16) |
+                    ((int) ((green >>> 8) * blockScale + 0.5f) << 8) | (int) ((redBlue & 0xFFFF) * blockScale + 0.5f);
+        }
+    }
+
+    /**
+     * Sums the weighted source rows that a target row covers and writes their averages.
+     *
+     * @param summedRow The source row whose sums are in redBlue and green, or -1.
+     * @return The source row whose sums are now in redBlue and green.
+     */
+    private int scaleRow(int y, int[] redBlue, int[] green, int[] sums, int summedRow) {
+        Arrays.fill(sums, 0);
+
+        int sourceY = rows.first[y];
+        for (int k = rows.offsets[y]; k < rows.offsets[y + 1]; k++, sourceY++) {
+            if (sourceY != summedRow) {
+                sumRow(sourceY, redBlue, green);
+                summedRow = sourceY;
+            }
+
+            int weight = rows.weights[k];
+            for (int x = 0, i = 0; x < width; x++, i += 3) {
+                int rb = redBlue[x];
+                sums[i] += (rb >>> 16) * weight;
+                sums[i + 1] += green[x] * weight;
+                sums[i + 2] += (rb & 0xFFFF) * weight;
+            }
+        }
+
+        int round = 1 << (WEIGHT_SHIFT - 1);
+        for (int x = 0, i = 0, offset = y * width; x < width; x++, i += 3) {
+            target[offset + x] = ((sums[i] + round) >>> WEIGHT_SHIFT << 16) |
+                    ((sums[i + 1] + round) >>> WEIGHT_SHIFT << 8) | ((sums[i + 2] + round) >>> WEIGHT_SHIFT);
+        }
+
+        return summedRow;
+    }
+
+    /**
+     * Sums the weighted source pixels that every target column covers in a source row. Red and blue are summed in the
+     * upper and lower half of redBlue.
+     */
+    private void sumRow(int sourceY, int[] redBlue, int[] green) {
+        int offset = sourceY * sourceWidth;
+
+        for (int x = 0; x < width; x++) {
+            int rb = 0;
+            int g = 0;
+            for (int k = columns.offsets[x], end = columns.offsets[x + 1], i = offset + columns.first[x]; k < end;
+                 k++, i++) {
+                int pixel = source[i];
+                int weight = columns.weights[k];
+                rb += (pixel & 0xFF00FF) * weight;
+                g += ((pixel >> 8) & 0xFF) * weight;
+            }
+
+            redBlue[x] = rb;
+            green[x] = g;
+        }
+    }
+
+    /**
+     * The weights of the source pixels along one axis. Target pixel t covers the source pixels from first[t], whose
+     * weights are weights[offsets[t]] up to weights[offsets[t + 1]] and add up to {@link #WEIGHT_ONE}.
+     */
+    private static class Weights {
+        private final int[] first;
+        private final int[] offsets;
+        private final int[] weights;
+
+        private Weights(int sourceSize, int targetSize) {
+            first = new int[targetSize];
+            offsets = new int[targetSize + 1];
+            weights = new int[sourceSize + targetSize];
+
+            int k = 0;
+            for (int t = 0; t < targetSize; t++) {
+                int start = t * sourceSize;
+                int end = start + sourceSize;
+
+                first[t] = start / targetSize;
+                offsets[t] = k;
+
+                int covered = 0;
+                int assigned = 0;
+                for (int s = first[t]; s * targetSize < end; s++) {
+                    covered += Math.min((s + 1) * targetSize, end) - Math.max(s * targetSize, start);
+
+                    int cumulative = (int) (((long) covered * WEIGHT_ONE + sourceSize / 2) / sourceSize);
+                    weights[k++] = cumulative - assigned;
+                    assigned = cumulative;
+                }
+            }
+
+            offsets[targetSize] = k;
+        }
+    }
+}
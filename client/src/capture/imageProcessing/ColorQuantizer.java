@@ -0,0 +1,184 @@
+package capture.imageProcessing;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+/**
+ * Reduces the colours of an image to a palette of at most 256 colours.
+ * <p>
+ * Screenshots are mostly flat areas of a few colours, so a popularity palette over a 15-bit histogram keeps them
+ * almost intact. Every palette entry is the average of the pixels that fell into its histogram bucket rather than the
+ * bucket's centre.
+ *
+ * @since 1.2
+ */
+public class ColorQuantizer {
+    /**
+     * Amount of buckets in the 15-bit (5 bits per channel) histogram.
+     */
+    private static final int BUCKETS = 1 << 15;
+
+    /**
+     * Builds a palette of the most common colours in the image.
+     *
+     * @param image     The image to build the palette for.
+     * @param maxColors The maximum amount of colours in the palette. At most 256.
+     * @return The palette.
+     */
+    public static IndexColorModel createPalette(BufferedImage image, int maxColors) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        Histogram histogram = new Histogram();
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            histogram.add(row, 0, width);
+        }
+
+        return histogram.createPalette(maxColors);
+    }
+
+    /**
+     * Builds a palette of the most common colours of some pixels.
+     *
+     * @param pixels    The pixels as RGB integers.
+     * @param offset    The first pixel.
+     * @param length    The amount of pixels.
+     * @param maxColors The maximum amount of colours in the palette. At most 256.
+     * @return The palette.
+     * @since 1.2
+     */
+    public static IndexColorModel createPalette(int[] pixels, int offset, int length, int maxColors) {
+        Histogram histogram = new Histogram();
+        histogram.add(pixels, offset, length);
+
+        return histogram.createPalette(maxColors);
+    }
+
+    /**
+     * Maps every pixel of the image to the nearest colour in the palette.
+     *
+     * @param image   The image to convert.
+     * @param palette The palette to map to, usually from {@link #createPalette(BufferedImage, int)}.
+     * @return A {@link BufferedImage#TYPE_BYTE_INDEXED} copy of the image.
+     */
+    public static BufferedImage toIndexed(BufferedImage image, IndexColorModel palette) {
+        return toIndexed(image, palette, Dithering.NONE);
+    }
+
+    /**
+     * Maps every pixel of the image to a colour in the palette, spreading the colours that are not in the palette
+     * over the colours around them.
+     *
+     * @param image     The image to convert.
+     * @param palette   The palette to map to, usually from {@link #createPalette(BufferedImage, int)}.
+     * @param dithering How colours that are not in the palette are spread.
+     * @return A {@link BufferedImage#TYPE_BYTE_INDEXED} copy of the image.
+     * @since 1.2
+     */
+    public static BufferedImage toIndexed(BufferedImage image, IndexColorModel palette, Dithering dithering) {
+        return toIndexed(image, new InverseColorMap(palette), dithering);
+    }
+
+    /**
+     * Maps every pixel of the image to a colour in the palette of a map, which keeps the colours it found for the
+     * next image that is mapped with it.
+     *
+     * @param image     The image to convert.
+     * @param colorMap  The map of the palette to map to.
+     * @param dithering How colours that are not in the palette are spread.
+     * @return A {@link BufferedImage#TYPE_BYTE_INDEXED} copy of the image.
+     * @since 1.2
+     */
+    public static BufferedImage toIndexed(BufferedImage image, InverseColorMap colorMap, Dithering dithering) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        BufferedImage indexed = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED,
+                colorMap.getPalette());
+        byte[] pixels = ((DataBufferByte) indexed.getRaster().getDataBuffer()).getData();
+
+        if (dithering != Dithering.NONE) {
+            int[] indices = new int[width * height];
+            Arrays.fill(indices, -1);
+            dithering.map(image.getRGB(0, 0, width, height, null, 0, width), 0, width, 0, 0, width, height, colorMap,
+                    indices, 0);
+
+            for (int i = 0; i < indices.length; i++) {
+                pixels[i] = (byte) indices[i];
+            }
+
+            return indexed;
+        }
+
+        PixelKernels kernels = PixelKernels.get();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            kernels.toPaletteIndices(row, 0, width, colorMap, pixels, y * width);
+        }
+
+        return indexed;
+    }
+
+    /**
+     * @return The 15-bit histogram bucket of a colour, which is also the bucket of an {@link InverseColorMap}.
+     */
+    static int toBucket(int rgb) {
+        return ((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x03E0) | ((rgb >> 3) & 0x001F);
+    }
+
+    /**
+     * Counts the pixels of every bucket along with the sums of their channels.
+     */
+    private static class Histogram {
+        private final int[] counts = new int[BUCKETS];
+        private final long[] red = new long[BUCKETS];
+        private final long[] green = new long[BUCKETS];
+        private final long[] blue = new long[BUCKETS];
+
+        private void add(int[] pixels, int offset, int length) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                int rgb = pixels[i];
+                int bucket = toBucket(rgb);
+
+                counts[bucket]++;
+                red[bucket] += (rgb >> 16) & 0xFF;
+                green[bucket] += (rgb >> 8) & 0xFF;
+                blue[bucket] += rgb & 0xFF;
+            }
+        }
+
+        private IndexColorModel createPalette(int maxColors) {
+            long[] sortable = new long[BUCKETS];
+            int used = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                if (counts[bucket] > 0) {
+                    sortable[used++] = ((long) counts[bucket] << 15) | bucket;
+                }
+            }
+
+            Arrays.sort(sortable, 0, used);
+
+            int size = Math.min(Math.min(maxColors, 256), used);
+            byte[] r = new byte[size];
+            byte[] g = new byte[size];
+            byte[] b = new byte[size];
+
+            for (int i = 0; i < size; i++) {
+                int bucket = (int) (sortable[used - 1 - i] & (BUCKETS - 1));
+                int count = counts[bucket];
+
+                r[i] = (byte) (red[bucket] / count);
+                g[i] = (byte) (green[bucket] / count);
+                b[i] = (byte) (blue[bucket] / count);
+            }
+
+            return new IndexColorModel(8, size, r, g, b);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package capture.imageProcessing;
+
+import java.util.Arrays;
+
+/**
+ * How pixels whose colour is not in a palette are spread over the colours around them.
+ * <p>
+ * Screenshots mostly consist of colours that are in the palette exactly, which every mode leaves as they are. Only
+ * gradients, photos and videos need more colours than a GIF has.
+ *
+ * @since 1.2
+ */
+public enum Dithering {
+    /**
+     * Every pixel becomes the nearest colour, which turns gradients into bands.
+     */
+    NONE("none"),
+
+    /**
+     * Every pixel becomes one of the two colours around it, chosen by a threshold from an 8x8 Bayer matrix at its
+     * position on the screen. A pixel that does not change therefore keeps its colour from frame to frame, and
+     * every pixel is mapped without looking at any other pixel.
+     */
+    ORDERED("ordered"),
+
+    /**
+     * Floyd-Steinberg error diffusion, which passes what is lost on every pixel on to the pixels right of and below
+     * it. It is the most accurate mode, but the noise it adds changes whenever anything above or left of it changes,
+     * which costs LZW compression between frames.
+     */
+    DIFFUSION("diffusion");
+
+    /**
+     * The thresholds of {@link #ORDERED} from 0 to 63.
+     */
+    private static final int[] BAYER = {
+            0, 32, 8, 40, 2, 34, 10, 42,
+            48, 16, 56, 24, 50, 18, 58, 26,
+            12, 44, 4, 36, 14, 46, 6, 38,
+            60, 28, 52, 20, 62, 30, 54, 22,
+            3, 35, 11, 43, 1, 33, 9, 41,
+            51, 19, 59, 27, 49, 17, 57, 25,
+            15, 47, 7, 39, 13, 45, 5, 37,
+            63, 31, 55, 23, 61, 29, 53, 21
+    };
+
+    private final String name;
+
+    Dithering(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return The name in {@link settings.Settings} and on the command line.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name The name of a mode, ignoring case.
+     * @return The mode, or {@link #NONE} if there is no mode of that name.
+     */
+    public static Dithering fromName(String name) {
+        for (Dithering dithering : values()) {
+            if (dithering.name.equalsIgnoreCase(name.trim())) {
+                return dithering;
+            }
+        }
+
+        return NONE;
+    }
+
+    /**
+     * Maps a rectangle of pixels to the entries of a palette.
+     *
+     * @param pixels   The pixels as RGB integers.
+     * @param offset   The index of the top left pixel of the rectangle.
+     * @param scanline The distance between two rows in the pixels.
+     * @param x        The position of the rectangle on the screen, which {@link #ORDERED} is aligned to.
+     * @param y        The position of the rectangle on the screen, which {@link #ORDERED} is aligned to.
+     * @param width    The width of the rectangle.
+     * @param height   The height of the rectangle.
+     * @param colorMap The map of the palette.
+     * @param indices  The palette index plus base of every pixel is written to this array row by row. Only entries that
+     *                 are negative are written, the others are left as they are and take no part in the diffusion.
+     * @param base     The value added to every palette index, e.g. to leave room for a transparent entry.
+     */
+    public void map(int[] pixels, int offset, int scanline, int x, int y, int width, int height,
+                    InverseColorMap colorMap, int[] indices, int base) {
+        switch (this) {
+            case NONE:
+                for (int row = 0, i = 0; row < height; row++) {
+                    for (int p = offset + row * scanline, end = p + width; p < end; p++, i++) {
+                        if (indices[i] < 0) {
+                            indices[i] = colorMap.getIndex(pixels[p]) + base;
+                        }
+                    }
+                }
+                break;
+            case ORDERED:
+                for (int row = 0, i = 0; row < height; row++) {
+                    int thresholds = ((y + row) & 7) << 3;
+                    for (int column = 0, p = offset + row * scanline; column < width; column++, p++, i++) {
+                        if (indices[i] < 0) {
+                            indices[i] = mapOrdered(pixels[p], BAYER[thresholds | ((x + column) & 7)], colorMap) +
+                                    base;
+                        }
+                    }
+                }
+                break;
+            case DIFFUSION:
+                mapDiffusion(pixels, offset, scanline, width, height, colorMap, indices, base);
+                break;
+        }
+    }
+
+    /**
+     * Finds the nearest colour and the colour on the other side of the pixel, and picks the second one if the pixel
+     * lies further towards it than the threshold.
+     *
+     * @param threshold A threshold from 0 to 63.
+     */
+    private static int mapOrdered(int rgb, int threshold, InverseColorMap colorMap) {
+        int nearest = colorMap.getIndex(rgb);
+        int color = colorMap.getColor(nearest);
+
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        int er = r - ((color >> 16) & 0xFF);
+        int eg = g - ((color >> 8) & 0xFF);
+        int eb = b - (color & 0xFF);
+        if ((er | eg | eb) == 0) {
+            return nearest;
+        }
+
+        int other = colorMap.getIndex((clamp(r + er) << 16) | (clamp(g + eg) << 8) | clamp(b + eb));
+        if (other == nearest) {
+            return nearest;
+        }
+
+        int otherColor = colorMap.getColor(other);
+        int dr = ((otherColor >> 16) & 0xFF) - ((color >> 16) & 0xFF);
+        int dg = ((otherColor >> 8) & 0xFF) - ((color >> 8) & 0xFF);
+        int db = (otherColor & 0xFF) - (color & 0xFF);
+
+        int along = er * dr + eg * dg + eb * db;
+        int length = dr * dr + dg * dg + db * db;
+
+        return along * 128 > (threshold * 2 + 1) * length ? other : nearest;
+    }
+
+    /**
+     * Floyd-Steinberg with errors in sixteenths, kept for the current and the next row only.
+     */
+    private static void mapDiffusion(int[] pixels, int offset, int scanline, int width, int height,
+                                     InverseColorMap colorMap, int[] indices, int base) {
+        int[] errors = new int[(width + 2) * 3];
+        int[] nextErrors = new int[(width + 2) * 3];
+
+        for (int row = 0, i = 0; row < height; row++) {
+            for (int column = 0, p = offset + row * scanline, e = 3; column < width; column++, p++, i++, e += 3) {
+                if (indices[i] >= 0) {
+                    continue;
+                }
+
+                int rgb = pixels[p];
+                int r = clamp(((rgb >> 16) & 0xFF) + ((errors[e] + 8) >> 4));
+                int g = clamp(((rgb >> 8) & 0xFF) + ((errors[e + 1] + 8) >> 4));
+                int b = clamp((rgb & 0xFF) + ((errors[e + 2] + 8) >> 4));
+
+                int index = colorMap.getIndex((r << 16) | (g << 8) | b);
+                indices[i] = index + base;
+
+                int color = colorMap.getColor(index);
+                diffuse(r - ((color >> 16) & 0xFF), errors, nextErrors, e);
+                diffuse(g - ((color >> 8) & 0xFF), errors, nextErrors, e + 1);
+                diffuse(b - (color & 0xFF), errors, nextErrors, e + 2);
+            }
+
+            int[] swap = errors;
+            errors = nextErrors;
+            nextErrors = swap;
+            Arrays.fill(nextErrors, 0);
+        }
+    }
+
+    private static void diffuse(int error, int[] errors, int[] nextErrors, int e) {
+        errors[e + 3] += error * 7;
+        nextErrors[e - 3] += error * 3;
+        nextErrors[e] += error * 5;
+        nextErrors[e + 3] += error;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 0xFF ? 0xFF : value;
+    }
+}
@@ -0,0 +1,132 @@
+package capture.imageProcessing;
+
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+/**
+ * Finds the nearest colour of a palette for any colour with a single array load once it has been asked for a similar
+ * colour before.
+ * <p>
+ * Colours are reduced to the same 15-bit buckets as the histogram of the {@link ColorQuantizer}, and the nearest
+ * palette entry of a bucket's centre is only searched for the first time a pixel falls into the bucket. A frame of a
+ * recording usually touches a few hundred of the 32768 buckets, so building the whole table up front would mostly
+ * search for colours that never occur. The map keeps what it found for as long as it is used, so frames that share a
+ * palette, as the frames of a recording often do, share the searches as well.
+ * <p>
+ * Filling a bucket always stores the same value, so a map may be read from several threads at once.
+ *
+ * @since 1.2
+ */
+public class InverseColorMap {
+    private static final int BUCKETS = 1 << 15;
+
+    private static final short UNKNOWN = -1;
+
+    private final IndexColorModel palette;
+    private final int[] colors;
+    private final short[] table = new short[BUCKETS];
+
+    /**
+     * @param palette The palette to map to, with at most 256 colours.
+     */
+    public InverseColorMap(IndexColorModel palette) {
+        this.palette = palette;
+
+        colors = new int[palette.getMapSize()];
+        palette.getRGBs(colors);
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] &= 0xFFFFFF;
+        }
+
+        Arrays.fill(table, UNKNOWN);
+    }
+
+    /**
+     * @return The palette the map was created for.
+     */
+    public IndexColorModel getPalette() {
+        return palette;
+    }
+
+    /**
+     * @param index An index of the palette.
+     * @return The colour at the index as an RGB integer.
+     */
+    public int getColor(int index) {
+        return colors[index];
+    }
+
+    /**
+     * @param palette A palette.
+     * @return True if the palette has the same colours in the same order, so that this map can be used for it.
+     */
+    public boolean hasColors(IndexColorModel palette) {
+        if (palette == this.palette) {
+            return true;
+        }
+
+        if (palette.getMapSize() != colors.length) {
+            return false;
+        }
+
+        for (int i = 0; i < colors.length; i++) {
+            if ((palette.getRGB(i) & 0xFFFFFF) != colors[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param rgb A colour as an RGB integer.
+     * @return The index of the palette colour nearest to the centre of the bucket of the colour.
+     */
+    public int getIndex(int rgb) {
+        int bucket = ColorQuantizer.toBucket(rgb);
+
+        int index = table[bucket];
+        if (index == UNKNOWN) {
+            index = findNearest(bucket);
+            table[bucket] = (short) index;
+        }
+
+        return index;
+    }
+
+    /**
+     * @return The amount of buckets whose nearest colour has been searched for.
+     */
+    public int getFilledBuckets() {
+        int filled = 0;
+        for (short index : table) {
+            if (index != UNKNOWN) {
+                filled++;
+            }
+        }
+
+        return filled;
+    }
+
+    private int findNearest(int bucket) {
+        int r = ((bucket >> 10) << 3) | 4;
+        int g = (((bucket >> 5) & 0x1F) << 3) | 4;
+        int b = ((bucket & 0x1F) << 3) | 4;
+
+        int nearest = 0;
+        int nearestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < colors.length; i++) {
+            int dr = (colors[i] >> 16) - r;
+            int dg = ((colors[i] >> 8) & 0xFF) - g;
+            int db = (colors[i] & 0xFF) - b;
+
+            int distance = dr * dr + dg * dg + db * db;
+            if (distance < nearestDistance) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+
+        return nearest;
+    }
+}
@@ -0,0 +1,277 @@
+package capture.imageProcessing;
+
+import java.awt.Rectangle;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * The loops that touch every pixel of every frame of a recording: finding what changed between two frames, drawing
+ * the cursor, mapping pixels to a palette and splitting pixels into their red, green and blue bytes.
+ * <p>
+ * Every kernel has a plain Java implementation that works on any runtime. Where a newer runtime offers the same loop as
+ * an intrinsic, {@link #get()} uses it instead, which is decided once when the class is loaded. Comparing frames uses
+ * the ranged {@code Arrays.mismatch} of Java 9 and later, which the JIT compiles to vector instructions that compare
+ * many pixels at a time. It is looked up through a {@link MethodHandle}, so the client still runs on Java 8.
+ *
+ * @since 1.2
+ */
+public class PixelKernels {
+    private static final int RGB_MASK = 0xFFFFFF;
+
+    /**
+     * {@code Arrays.mismatch(int[], int, int, int[], int, int)}, or null before Java 9.
+     */
+    private static final MethodHandle MISMATCH = findMismatch();
+
+    private static final PixelKernels SCALAR = new PixelKernels();
+    private static final PixelKernels BEST = MISMATCH != null ? new MismatchKernels() : SCALAR;
+
+    PixelKernels() {
+    }
+
+    /**
+     * @return The fastest kernels of this runtime.
+     */
+    public static PixelKernels get() {
+        return BEST;
+    }
+
+    /**
+     * @return The kernels that are plain Java loops, e.g. to compare them with {@link #get()}.
+     */
+    public static PixelKernels scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return The name of the implementation, "scalar" or "mismatch".
+     */
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Compares the red, green and blue components of two runs of pixels.
+     *
+     * @param a       The first pixels as RGB integers.
+     * @param aOffset The first pixel of the run in a.
+     * @param b       The second pixels as RGB integers.
+     * @param bOffset The first pixel of the run in b.
+     * @param length  The length of both runs.
+     * @return The position of the first pixel that differs relative to the offsets, or -1 if the runs are the same.
+     */
+    public int findFirstChange(int[] a, int aOffset, int[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (((a[aOffset + i] ^ b[bOffset + i]) & RGB_MASK) != 0) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Like {@link #findFirstChange(int[], int, int[], int, int)}, but from the end of the runs.
+     *
+     * @return The position of the last pixel that differs relative to the offsets, or -1 if the runs are the same.
+     */
+    public int findLastChange(int[] a, int aOffset, int[] b, int bOffset, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (((a[aOffset + i] ^ b[bOffset + i]) & RGB_MASK) != 0) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the smallest rectangle around the pixels whose red, green or blue component differs between two frames.
+     * The rows above and below it are compared as a whole with {@link #findFirstChange(int[], int, int[], int, int)},
+     * and the rows within it only up to what is already known to have changed.
+     *
+     * @param current  The pixels of the new frame row by row.
+     * @param previous The pixels of the frame before it row by row.
+     * @param width    The width of both frames.
+     * @param height   The height of both frames.
+     * @param bounds   Set to the rectangle if anything changed, otherwise left as it is.
+     * @return True if anything changed.
+     */
+    public boolean findChangedBounds(int[] current, int[] previous, int width, int height, Rectangle bounds) {
+        int top = 0;
+        int left = -1;
+        while (top < height && (left = findFirstChange(current, top * width, previous, top * width, width)) < 0) {
+            top++;
+        }
+
+        if (top == height) {
+            return false;
+        }
+
+        int bottom = height - 1;
+        while (findFirstChange(current, bottom * width, previous, bottom * width, width) < 0) {
+            bottom--;
+        }
+
+        int right = Math.max(findLastChange(current, bottom * width, previous, bottom * width, width),
+                findLastChange(current, top * width, previous, top * width, width));
+        left = Math.min(left, findFirstChange(current, bottom * width, previous, bottom * width, width));
+
+        for (int y = top + 1; y < bottom && (left > 0 || right < width - 1); y++) {
+            int offset = y * width;
+
+            int first = findFirstChange(current, offset, previous, offset, left);
+            if (first >= 0) {
+                left = first;
+            }
+
+            int last = findLastChange(current, offset + right + 1, previous, offset + right + 1, width - right - 1);
+            if (last >= 0) {
+                right += last + 1;
+            }
+        }
+
+        bounds.setBounds(left, top, right - left + 1, bottom - top + 1);
+
+        return true;
+    }
+
+    /**
+     * Draws an image with an alpha channel over pixels without one, as {@link java.awt.AlphaComposite#SRC_OVER} does.
+     * The parts of the image that lie outside of the pixels are skipped.
+     *
+     * @param pixels      The pixels that are drawn onto as RGB integers row by row.
+     * @param width       The width of the pixels.
+     * @param height      The height of the pixels.
+     * @param image       The image as ARGB integers row by row, not premultiplied.
+     * @param imageWidth  The width of the image.
+     * @param imageHeight The height of the image.
+     * @param x           The position of the left edge of the image in the pixels.
+     * @param y           The position of the top edge of the image in the pixels.
+     */
+    public void drawOver(int[] pixels, int width, int height, int[] image, int imageWidth, int imageHeight, int x,
+                         int y) {
+        int startX = Math.max(0, -x);
+        int endX = Math.min(imageWidth, width - x);
+        int startY = Math.max(0, -y);
+        int endY = Math.min(imageHeight, height - y);
+
+        for (int row = startY; row < endY; row++) {
+            int source = row * imageWidth;
+            int target = (y + row) * width + x;
+
+            for (int column = startX; column < endX; column++) {
+                int argb = image[source + column];
+                int alpha = argb >>> 24;
+                if (alpha == 0) {
+                    continue;
+                }
+
+                if (alpha == 0xFF) {
+                    pixels[target + column] = argb & RGB_MASK;
+                    continue;
+                }
+
+                int pixel = pixels[target + column];
+                int inverse = 0xFF - alpha;
+                int redBlue = (argb & 0xFF00FF) * alpha + (pixel & 0xFF00FF) * inverse + 0x800080;
+                int green = (argb & 0xFF00) * alpha + (pixel & 0xFF00) * inverse + 0x8000;
+
+                redBlue = (redBlue + ((redBlue >>> 8) & 0xFF00FF)) >>> 8;
+                green = (green + ((green >>> 8) & 0xFF00)) >>> 8;
+
+                pixels[target + column] = (redBlue & 0xFF00FF) | (green & 0xFF00);
+            }
+        }
+    }
+
+    /**
+     * Maps pixels to the nearest colours of a palette.
+     *
+     * @param pixels    The pixels as RGB integers.
+     * @param offset    The first pixel.
+     * @param length    The amount of pixels.
+     * @param colorMap  The map of the palette.
+     * @param indices   The palette indices are written to this array.
+     * @param outOffset The index in indices of the first pixel.
+     */
+    public void toPaletteIndices(int[] pixels, int offset, int length, InverseColorMap colorMap, byte[] indices,
+                                 int outOffset) {
+        for (int i = 0; i < length; i++) {
+            indices[outOffset + i] = (byte) colorMap.getIndex(pixels[offset + i]);
+        }
+    }
+
+    /**
+     * Splits pixels into their red, green and blue bytes in that order, as PNG and the frames of a
+     * {@link capture.captureGIF.ReplayBuffer} store them.
+     *
+     * @param pixels    The pixels as RGB integers.
+     * @param offset    The first pixel.
+     * @param length    The amount of pixels.
+     * @param bytes     The array the bytes are written to, at least three times length from outOffset on.
+     * @param outOffset The index in bytes of the red byte of the first pixel.
+     */
+    public void toRGBBytes(int[] pixels, int offset, int length, byte[] bytes, int outOffset) {
+        for (int i = 0; i < length; i++) {
+            int pixel = pixels[offset + i];
+            int j = outOffset + i * 3;
+            bytes[j] = (byte) (pixel >> 16);
+            bytes[j + 1] = (byte) (pixel >> 8);
+            bytes[j + 2] = (byte) pixel;
+        }
+    }
+
+    private static MethodHandle findMismatch() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Arrays.class, "mismatch",
+                    MethodType.methodType(int.class, int[].class, int.class, int.class, int[].class, int.class,
+                            int.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compares frames with the {@code Arrays.mismatch} intrinsic. Pixels whose alpha component is all that differs
+     * are skipped, so the results are the same as those of the scalar kernels.
+     */
+    private static class MismatchKernels extends PixelKernels {
+        @Override
+        public String getName() {
+            return "mismatch";
+        }
+
+        @Override
+        public int findFirstChange(int[] a, int aOffset, int[] b, int bOffset, int length) {
+            int i = 0;
+            while (i < length) {
+                int mismatch = mismatch(a, aOffset + i, b, bOffset + i, length - i);
+                if (mismatch < 0) {
+                    return -1;
+                }
+
+                i += mismatch;
+                if (((a[aOffset + i] ^ b[bOffset + i]) & RGB_MASK) != 0) {
+                    return i;
+                }
+
+                i++;
+            }
+
+            return -1;
+        }
+
+        private static int mismatch(int[] a, int aOffset, int[] b, int bOffset, int length) {
+            try {
+                return (int) MISMATCH.invokeExact(a, aOffset, aOffset + length, b, bOffset, bOffset + length);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -47,10 +47,10 @@ public class CaptureSettings {
         stage.setTitle(Constants.PROGRAM_NAME + " Settings");
         stage.centerOnScreen();
 
-        keys = settings.getKeys();
-        keys2 = settings.getKeys2();
-        imageShortcutKeycodes = settings.getKeyCodes();
-        gifShortcutKeycodes = settings.getKeyCodes2();
+        keys = new ArrayList<>(settings.getKeys());
+        keys2 = new ArrayList<>(settings.getKeys2());
+        imageShortcutKeycodes = new ArrayList<>(settings.getKeyCodes());
+        gifShortcutKeycodes = new ArrayList<>(settings.getKeyCodes2());
 
         /* ENABLE GIF START */
         CheckBox enableGIF = new CheckBox();
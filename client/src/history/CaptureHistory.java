@@ -0,0 +1,616 @@
+package history;
+
+import tools.Constants;
+import tools.ExecutionRuntime;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a record of every capture, including the window it was taken of and the URL it was uploaded to, so that
+ * captures can be found again without browsing the save directory.
+ * <p>
+ * The records are appended to {@link Constants#HISTORY_FILE}, which is never rewritten. Every record is prefixed with
+ * its length and a CRC-32, so a record that was cut off by a crash is detected and removed when the history is loaded.
+ * All records are also kept in memory, ordered by time, so that a time range is found by a binary search. Records are
+ * grouped by the title of their window as well. Since most captures are taken of a few windows, a search for a part of
+ * a title only compares the distinct titles, and the matching records are then collected newest first until the limit
+ * is reached.
+ *
+ * @since 1.2
+ */
+public class CaptureHistory {
+    private static final int MAGIC = 0x4A59484C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * The largest record that is accepted when loading. Anything larger is the result of a damaged length.
+     */
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    /**
+     * The names of the files that {@link capture.capturePipeline.CapturePipeline} saves, which are imported when the
+     * history is created.
+     */
+    private static final Pattern CAPTURE_FILE = Pattern.compile("(\\d{10,})\\.(png|gif)");
+
+    private static CompletableFuture<CaptureHistory> loading;
+
+    private final FileChannel channel;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<CaptureRecord> records = new ArrayList<>();
+    private long[] timestamps = new long[1024];
+
+    /**
+     * The records of every distinct title, keyed by the title.
+     */
+    private final Map<String, TitleGroup> titleGroups = new HashMap<>();
+
+    /**
+     * Opens the history file and loads every record. If the file does not exist yet, the captures that were saved to
+     * the given directory before there was a history are imported.
+     *
+     * @param file            The history file.
+     * @param importDirectory The directory to import saved captures from, or null.
+     * @throws IOException If the history file could not be opened.
+     */
+    public CaptureHistory(Path file, File importDirectory) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+
+        boolean exists = Files.exists(file) && Files.size(file) > 0;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        try {
+            if (exists && !readRecords(file)) {
+                exists = false;
+            }
+
+            if (!exists) {
+                channel.truncate(0);
+                channel.position(0);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                writeFully(header);
+
+                if (importDirectory != null) {
+                    importCaptures(importDirectory);
+                }
+            }
+        } catch (IOException e) {
+            channel.close();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Loads {@link Constants#HISTORY_FILE} on the I/O group of the {@link ExecutionRuntime} once.
+     *
+     * @param importDirectory The directory to import saved captures from if the history is new, or null.
+     * @return The history once it is loaded.
+     */
+    public static synchronized CompletableFuture<CaptureHistory> load(String importDirectory) {
+        if (loading == null) {
+            loading = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new CaptureHistory(Paths.get(Constants.HISTORY_FILE),
+                            importDirectory == null ? null : new File(importDirectory));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, ExecutionRuntime.io());
+        }
+
+        return loading;
+    }
+
+    /**
+     * Adds a capture to the history once it is loaded, without blocking the calling thread.
+     *
+     * @param record The capture.
+     */
+    public static void record(CaptureRecord record) {
+        load(null).thenAcceptAsync(history -> {
+            try {
+                history.add(record);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, ExecutionRuntime.io()).exceptionally(e -> {
+            e.printStackTrace();
+
+            return null;
+        });
+    }
+
+    /**
+     * Closes the history file if it was loaded.
+     */
+    public static synchronized void close() {
+        if (loading == null || !loading.isDone() || loading.isCompletedExceptionally()) {
+            return;
+        }
+
+        try {
+            loading.join().channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Appends a capture to the history file and the index.
+     *
+     * @param record The capture.
+     * @throws IOException If the record could not be written.
+     */
+    public void add(CaptureRecord record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(encode(record));
+
+        lock.writeLock().lock();
+        try {
+            writeFully(buffer);
+            index(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param from The earliest time in milliseconds since the epoch, inclusive.
+     * @param to   The latest time in milliseconds since the epoch, exclusive.
+     * @return The captures in the time range, oldest first.
+     */
+    public List<CaptureRecord> getRange(long from, long to) {
+        lock.readLock().lock();
+        try {
+            int start = lowerBound(from);
+            int end = Math.max(start, lowerBound(to));
+
+            return new ArrayList<>(records.subList(start, end));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param limit The maximum amount of captures.
+     * @return The latest captures, newest first.
+     */
+    public List<CaptureRecord> getLatest(int limit) {
+        return search(null, Long.MIN_VALUE, Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * Finds the captures of windows whose title contains the text, ignoring case.
+     *
+     * @param text  The text to search the titles for, or null or empty to match every capture.
+     * @param from  The earliest time in milliseconds since the epoch, inclusive.
+     * @param to    The latest time in milliseconds since the epoch, exclusive.
+     * @param limit The maximum amount of captures.
+     * @return The matching captures, newest first.
+     */
+    public List<CaptureRecord> search(String text, long from, long to, int limit) {
+        lock.readLock().lock();
+        try {
+            List<CaptureRecord> matches = new ArrayList<>();
+
+            if (text == null || text.isEmpty()) {
+                int start = lowerBound(from);
+                for (int i = lowerBound(to) - 1; i >= start && matches.size() < limit; i--) {
+                    matches.add(records.get(i));
+                }
+
+                return matches;
+            }
+
+            String key = text.toLowerCase(Locale.ROOT);
+            Set<String> titles = Collections.newSetFromMap(new IdentityHashMap<>());
+            TitleGroup lastMatch = null;
+
+            for (TitleGroup group : titleGroups.values()) {
+                if (group.key.contains(key)) {
+                    titles.add(group.title);
+                    lastMatch = group;
+                }
+            }
+
+            if (titles.size() == 1) {
+                lastMatch.addLatest(from, to, limit, matches);
+
+                return matches;
+            }
+
+            int start = lowerBound(from);
+            for (int i = lowerBound(to) - 1; i >= start && matches.size() < limit && !titles.isEmpty(); i--) {
+                CaptureRecord record = records.get(i);
+                if (titles.contains(record.getTitle())) {
+                    matches.add(record);
+                }
+            }
+
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The distinct window titles of all captures.
+     */
+    public List<String> getTitles() {
+        lock.readLock().lock();
+        try {
+            List<String> titles = new ArrayList<>();
+            for (TitleGroup group : titleGroups.values()) {
+                titles.add(group.title);
+            }
+
+            return titles;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return records.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads every record of the file into the index and cuts off a damaged end. A file with an unknown header is moved
+     * aside, so that it is not overwritten.
+     *
+     * @param file The history file.
+     * @return False if the file was moved aside and a new history has to be started.
+     */
+    private boolean readRecords(Path file) throws IOException {
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new EOFException();
+            }
+        } catch (EOFException e) {
+            Path damaged = Paths.get(file + ".damaged");
+            System.err.println("Unknown capture history, moving it to " + damaged);
+
+            Files.copy(file, damaged, StandardCopyOption.REPLACE_EXISTING);
+
+            return false;
+        }
+
+        long validLength = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+
+        while (true) {
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                index(decode(payload));
+                validLength += 8 + length;
+            } catch (EOFException e) {
+                break;
+            }
+        }
+
+        if (validLength < channel.size()) {
+            System.err.println("Removing " + (channel.size() - validLength) + " damaged bytes from the capture history");
+
+            channel.truncate(validLength);
+        }
+
+        channel.position(validLength);
+
+        return true;
+    }
+
+    /**
+     * Adds a record for every saved capture in the directory, with the time from its name and the size of its image.
+     */
+    private void importCaptures(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        List<CaptureRecord> imported = new ArrayList<>();
+
+        for (File file : files) {
+            Matcher matcher = CAPTURE_FILE.matcher(file.getName());
+            if (!file.isFile() || !matcher.matches()) {
+                continue;
+            }
+
+            int[] dimensions = readDimensions(file);
+            CaptureRecord record = new CaptureRecord(Long.parseLong(matcher.group(1)), "", dimensions[0],
+                    dimensions[1], file.length(), null, "", file.getAbsolutePath());
+
+            batch.write(encode(record));
+            imported.add(record);
+        }
+
+        writeFully(ByteBuffer.wrap(batch.toByteArray()));
+
+        imported.sort(Comparator.comparingLong(CaptureRecord::getTimestamp));
+
+        lock.writeLock().lock();
+        try {
+            for (CaptureRecord record : imported) {
+                index(record);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The width and height of the image from its header, or zeros if it could not be read.
+     */
+    private static int[] readDimensions(File file) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(in);
+
+                    return new int[]{reader.getWidth(0), reader.getHeight(0)};
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+
+        return new int[]{0, 0};
+    }
+
+    /**
+     * Inserts the record at its position in time. Captures are almost always added in order, so this is usually an
+     * append.
+     */
+    private void index(CaptureRecord record) {
+        TitleGroup group = titleGroups.get(record.getTitle());
+        if (group == null) {
+            group = new TitleGroup(record.getTitle());
+            titleGroups.put(group.title, group);
+        }
+
+        record = record.withTitle(group.title);
+
+        int size = records.size();
+        int position = upperBound(record.getTimestamp());
+
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+        }
+
+        System.arraycopy(timestamps, position, timestamps, position + 1, size - position);
+        timestamps[position] = record.getTimestamp();
+        records.add(position, record);
+
+        group.add(record);
+    }
+
+    /**
+     * @return The position of the first record at or after the time.
+     */
+    private int lowerBound(long timestamp) {
+        int low = 0;
+        int high = records.size();
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * @return The position of the first record after the time.
+     */
+    private int upperBound(long timestamp) {
+        int size = records.size();
+        if (size == 0 || timestamps[size - 1] <= timestamp) {
+            return size;
+        }
+
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return The record with its length and CRC-32 in front.
+     */
+    private static byte[] encode(CaptureRecord record) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(payload);
+
+        byte[] hash = record.getHash();
+
+        out.writeLong(record.getTimestamp());
+        out.writeInt(record.getWidth());
+        out.writeInt(record.getHeight());
+        out.writeLong(record.getSize());
+        out.writeByte(hash.length);
+        out.write(hash);
+        writeString(out, record.getTitle());
+        writeString(out, record.getUrl());
+        writeString(out, record.getFile());
+        out.close();
+
+        byte[] bytes = payload.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        return ByteBuffer.allocate(8 + bytes.length)
+                .putInt(bytes.length)
+                .putInt((int) crc.getValue())
+                .put(bytes)
+                .array();
+    }
+
+    private static CaptureRecord decode(byte[] payload) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+
+        long timestamp = in.getLong();
+        int width = in.getInt();
+        int height = in.getInt();
+        long size = in.getLong();
+
+        byte[] hash = new byte[in.get() & 0xFF];
+        in.get(hash);
+
+        String title = readString(in);
+        String url = readString(in);
+        String file = readString(in);
+
+        return new CaptureRecord(timestamp, title, width, height, size, hash, url, file);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Invalid string length " + length);
+        }
+
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+
+        return value;
+    }
+
+    /**
+     * The captures of one window title, ordered by time.
+     */
+    private static class TitleGroup {
+        private final String title;
+        private final String key;
+        private final List<CaptureRecord> records = new ArrayList<>();
+
+        private TitleGroup(String title) {
+            this.title = title;
+            this.key = title.toLowerCase(Locale.ROOT);
+        }
+
+        private void add(CaptureRecord record) {
+            int position = records.size();
+            while (position > 0 && records.get(position - 1).getTimestamp() > record.getTimestamp()) {
+                position--;
+            }
+
+            records.add(position, record);
+        }
+
+        /**
+         * Adds the latest records of the time range to the matches, newest first.
+         */
+        private void addLatest(long from, long to, int limit, List<CaptureRecord> matches) {
+            int low = 0;
+            int high = records.size();
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (records.get(middle).getTimestamp() < to) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            for (int i = low - 1; i >= 0 && matches.size() < limit && records.get(i).getTimestamp() >= from; i--) {
+                matches.add(records.get(i));
+            }
+        }
+    }
+}
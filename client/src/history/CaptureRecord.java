@@ -0,0 +1,100 @@
+package history;
+
+/**
+ * A capture as it is stored in the {@link CaptureHistory}.
+ *
+ * @since 1.2
+ */
+public class CaptureRecord {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final long timestamp;
+    private final String title;
+    private final int width;
+    private final int height;
+    private final long size;
+    private final byte[] hash;
+    private final String url;
+    private final String file;
+
+    /**
+     * @param timestamp The time of the capture in milliseconds since the epoch.
+     * @param title     The title of the window that was active during the capture.
+     * @param width     The width of the captured region.
+     * @param height    The height of the captured region.
+     * @param size      The size of the encoded capture in bytes.
+     * @param hash      The SHA-1 hash of the encoded capture, or an empty array if it is not known.
+     * @param url       The URL of the upload, or an empty {@link String} if the upload failed.
+     * @param file      The path of the saved capture, or an empty {@link String} if it was not saved.
+     */
+    public CaptureRecord(long timestamp, String title, int width, int height, long size, byte[] hash, String url,
+                         String file) {
+        this.timestamp = timestamp;
+        this.title = title == null ? "" : title;
+        this.width = width;
+        this.height = height;
+        this.size = size;
+        this.hash = hash == null ? new byte[0] : hash.clone();
+        this.url = url == null ? "" : url;
+        this.file = file == null ? "" : file;
+    }
+
+    /**
+     * @param title The title to use instead, which is shared with other records of the same window.
+     * @return This record with the given title.
+     */
+    CaptureRecord withTitle(String title) {
+        return title == this.title ? this : new CaptureRecord(timestamp, title, width, height, size, hash, url, file);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public byte[] getHash() {
+        return hash.clone();
+    }
+
+    /**
+     * @return The hash as lowercase hexadecimal digits, or an empty {@link String} if it is not known.
+     */
+    public String getHashString() {
+        char[] digits = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            digits[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            digits[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+
+        return new String(digits);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureRecord{timestamp=" + timestamp + ", title='" + title + "', size=" + width + "x" + height +
+                ", bytes=" + size + ", hash=" + getHashString() + ", url='" + url + "', file='" + file + "'}";
+    }
+}
@@ -0,0 +1,659 @@
+package history;
+
+import tools.Constants;
+import tools.ExecutionRuntime;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Creates small previews of saved captures, so that a gallery of thousands of captures never has to decode the full
+ * images more than once.
+ * <p>
+ * A thumbnail is decoded with source subsampling, which skips most of the pixels of the capture instead of decoding
+ * them at full size, and is then scaled down smoothly. Every thumbnail is appended as a JPEG to
+ * {@link Constants#THUMBNAIL_FILE} together with the modification time of its capture, and the position of each one in
+ * that file is indexed when the cache is loaded, so it is read with a single positioned read. The file grows with the
+ * number of captures: it is compacted once half of it holds thumbnails that were replaced, which also drops those of
+ * deleted captures, and the thumbnails of the oldest captures are only dropped once it grows past its maximum size.
+ * The decoded thumbnails that were looked at last are also kept in memory, up to {@link #MEMORY_BUDGET} bytes of
+ * pixels.
+ *
+ * @since 1.2
+ */
+public class ThumbnailCache {
+    /**
+     * The largest width or height of a thumbnail.
+     */
+    public static final int THUMBNAIL_SIZE = 256;
+
+    /**
+     * The largest the file may grow by default. Even right after the oldest thumbnails were dropped, it holds those of
+     * about 20000 captures.
+     */
+    public static final long DEFAULT_MAX_FILE_SIZE = 512L << 20;
+
+    private static final int MAGIC = 0x4A595450;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * The size of an entry before its key and image: the length and CRC-32, the modification time of the capture and
+     * the size of the thumbnail and its key.
+     */
+    private static final int ENTRY_HEADER_SIZE = 28;
+
+    /**
+     * The size of the file up to which it is never compacted, since compacting a small file saves little.
+     */
+    private static final long MIN_COMPACT_SIZE = 16L << 20;
+
+    private static final long MEMORY_BUDGET = 32L << 20;
+    private static final int MAX_ENTRY_SIZE = 4 << 20;
+    private static final float JPEG_QUALITY = 0.85f;
+
+    private static CompletableFuture<ThumbnailCache> loading;
+
+    private final Path file;
+    private final long maxFileSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+
+    /**
+     * The position of the newest entry of every capture in the file, keyed by the path of the capture.
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long liveBytes;
+
+    private final LinkedHashMap<String, Thumbnail> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+
+    /**
+     * The thumbnails that are being read or created, so that a capture is only decoded once when it is requested
+     * several times before its thumbnail is ready.
+     */
+    private final Map<String, CompletableFuture<BufferedImage>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Opens the thumbnail file and indexes its entries.
+     *
+     * @param file        The thumbnail file.
+     * @param maxFileSize The largest the file may grow in bytes before the thumbnails of the oldest captures are
+     *                    dropped, e.g. {@link #DEFAULT_MAX_FILE_SIZE}.
+     * @throws IOException If the file could not be opened.
+     */
+    public ThumbnailCache(Path file, long maxFileSize) throws IOException {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        channel = open(file);
+
+        try {
+            if (!readEntries()) {
+                startFile();
+            } else if (needsCompaction()) {
+                compact();
+            }
+        } catch (IOException e) {
+            channel.close();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Loads {@link Constants#THUMBNAIL_FILE} on the I/O group of the {@link ExecutionRuntime} once.
+     *
+     * @return The cache once it is loaded.
+     */
+    public static synchronized CompletableFuture<ThumbnailCache> load() {
+        if (loading == null) {
+            loading = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new ThumbnailCache(Paths.get(Constants.THUMBNAIL_FILE), DEFAULT_MAX_FILE_SIZE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, ExecutionRuntime.io());
+        }
+
+        return loading;
+    }
+
+    /**
+     * Creates the thumbnail of a new capture in the background, so that it is ready before the gallery asks for it.
+     * The thumbnail is only written to the file, since it may never be looked at.
+     *
+     * @param source The saved capture.
+     */
+    public static void generate(File source) {
+        load().thenCompose(cache -> cache.fetch(source.getAbsolutePath(), source.lastModified(), source))
+                .exceptionally(e -> {
+                    e.printStackTrace();
+
+                    return null;
+                });
+    }
+
+    /**
+     * Closes the thumbnail file if it was loaded.
+     */
+    public static synchronized void close() {
+        if (loading == null || !loading.isDone() || loading.isCompletedExceptionally()) {
+            return;
+        }
+
+        ThumbnailCache cache = loading.join();
+
+        cache.lock.writeLock().lock();
+        try {
+            cache.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            cache.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the thumbnail of a capture from memory, from the thumbnail file, or by decoding the capture, whichever
+     * is the first to have it. A thumbnail is created again if the capture was modified since.
+     *
+     * @param source The saved capture.
+     * @return The thumbnail once it is available, which completes immediately if it is in memory.
+     */
+    public CompletableFuture<BufferedImage> getThumbnail(File source) {
+        String key = source.getAbsolutePath();
+        long lastModified = source.lastModified();
+
+        BufferedImage cached = getCachedThumbnail(key, lastModified);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return fetch(key, lastModified, source).whenComplete((image, e) -> {
+            if (image != null) {
+                remember(key, lastModified, image);
+            }
+        });
+    }
+
+    /**
+     * @param source The saved capture.
+     * @return The thumbnail if it is in memory, or null, without waiting for anything.
+     */
+    public BufferedImage getCachedThumbnail(File source) {
+        return getCachedThumbnail(source.getAbsolutePath(), source.lastModified());
+    }
+
+    /**
+     * @return The number of captures that have a thumbnail in the file.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Decodes a capture into a thumbnail that fits into {@link #THUMBNAIL_SIZE}. The capture is read with every n-th
+     * pixel of every n-th row, which leaves an image of no more than twice the size of the thumbnail, and that is then
+     * scaled down with interpolation. Only the first frame of an animation is read.
+     *
+     * @param source The saved capture.
+     * @param size   The largest width or height of the thumbnail.
+     * @return The thumbnail.
+     * @throws IOException If the capture could not be read.
+     */
+    public static BufferedImage createThumbnail(File source, int size) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source)) {
+            if (in == null) {
+                throw new IOException("Could not open " + source);
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unknown image format of " + source);
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+
+                int step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / (size * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+
+                return scale(reader.read(0, param), size);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Scales an image down to fit into a square while keeping its aspect ratio, onto a white background for
+     * transparent pixels.
+     */
+    private static BufferedImage scale(BufferedImage image, int size) {
+        double ratio = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+
+        return thumbnail;
+    }
+
+    /**
+     * Reads the thumbnail of a capture from the file, or creates and writes it if the file has none, without keeping
+     * it in memory.
+     */
+    private CompletableFuture<BufferedImage> fetch(String key, long lastModified, File source) {
+        CompletableFuture<BufferedImage> future = pending.computeIfAbsent(key, k ->
+                CompletableFuture.supplyAsync(() -> read(key, lastModified), ExecutionRuntime.io())
+                        .thenCompose(image -> image != null ? CompletableFuture.completedFuture(image) :
+                                CompletableFuture.supplyAsync(() -> create(source), ExecutionRuntime.compute())
+                                        .thenApplyAsync(thumbnail -> {
+                                            write(key, lastModified, thumbnail);
+
+                                            return thumbnail;
+                                        }, ExecutionRuntime.io())));
+
+        return future.whenComplete((image, e) -> pending.remove(key, future));
+    }
+
+    private BufferedImage create(File source) {
+        try {
+            return createThumbnail(source, THUMBNAIL_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private BufferedImage getCachedThumbnail(String key, long lastModified) {
+        synchronized (memory) {
+            Thumbnail thumbnail = memory.get(key);
+
+            return thumbnail != null && thumbnail.lastModified == lastModified ? thumbnail.image : null;
+        }
+    }
+
+    /**
+     * Keeps a thumbnail in memory and forgets the least recently used ones until the pixels fit into the budget.
+     */
+    private void remember(String key, long lastModified, BufferedImage image) {
+        synchronized (memory) {
+            Thumbnail thumbnail = new Thumbnail(image, lastModified);
+            Thumbnail previous = memory.put(key, thumbnail);
+            if (previous != null) {
+                memoryBytes -= previous.getBytes();
+            }
+
+            memoryBytes += thumbnail.getBytes();
+
+            Iterator<Thumbnail> eldest = memory.values().iterator();
+            while (memoryBytes > MEMORY_BUDGET && memory.size() > 1) {
+                memoryBytes -= eldest.next().getBytes();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Reads the thumbnail of a capture from the file.
+     *
+     * @return The thumbnail, or null if the file has none for this version of the capture or it is damaged.
+     */
+    private BufferedImage read(String key, long lastModified) {
+        lock.readLock().lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.lastModified != lastModified || !channel.isOpen()) {
+                return null;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+            for (long position = entry.position; buffer.hasRemaining(); ) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    return null;
+                }
+
+                position += read;
+            }
+
+            int checksum = buffer.getInt(4);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 8, entry.length - 8);
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("Damaged thumbnail of " + key);
+
+                return null;
+            }
+
+            int imageOffset = ENTRY_HEADER_SIZE + buffer.getInt(24);
+
+            return decode(new ByteArrayInputStream(buffer.array(), imageOffset, entry.length - imageOffset));
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a thumbnail to the file and makes it the thumbnail of its capture. The file is compacted once it is too
+     * large.
+     */
+    private void write(String key, long lastModified, BufferedImage thumbnail) {
+        try {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            byte[] image = encode(thumbnail);
+
+            int length = ENTRY_HEADER_SIZE + keyBytes.length + image.length;
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            buffer.putInt(length - 8).putInt(0).putLong(lastModified).putInt(thumbnail.getWidth())
+                    .putInt(thumbnail.getHeight()).putInt(keyBytes.length).put(keyBytes).put(image);
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 8, length - 8);
+            buffer.putInt(4, (int) crc.getValue());
+            buffer.flip();
+
+            lock.writeLock().lock();
+            try {
+                if (!channel.isOpen()) {
+                    return;
+                }
+
+                long position = channel.size();
+                channel.position(position);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+
+                index(key, new Entry(position, length, lastModified));
+
+                if (needsCompaction()) {
+                    compact();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Indexes the entries of the file and cuts off a damaged end. Only the headers of the entries are read, the
+     * images are skipped.
+     *
+     * @return False if the file is empty or of an unknown format and has to be started again.
+     */
+    private boolean readEntries() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return false;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        readFully(header, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            System.err.println("Unknown thumbnail file, creating thumbnails again");
+
+            return false;
+        }
+
+        long position = HEADER_SIZE;
+        while (position + ENTRY_HEADER_SIZE <= size) {
+            readFully(header, position, ENTRY_HEADER_SIZE);
+
+            int length = header.getInt(0) + 8;
+            int keyLength = header.getInt(24);
+            if (length <= ENTRY_HEADER_SIZE || length > MAX_ENTRY_SIZE || keyLength <= 0 ||
+                    keyLength > length - ENTRY_HEADER_SIZE || position + length > size) {
+                break;
+            }
+
+            ByteBuffer keyBytes = ByteBuffer.allocate(keyLength);
+            readFully(keyBytes, position + ENTRY_HEADER_SIZE, keyLength);
+
+            index(new String(keyBytes.array(), StandardCharsets.UTF_8),
+                    new Entry(position, length, header.getLong(8)));
+            position += length;
+        }
+
+        if (position < size) {
+            System.err.println("Removing " + (size - position) + " damaged bytes from the thumbnail file");
+
+            channel.truncate(position);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return True if the file is larger than its maximum size, or if more than half of a file that is worth
+     * compacting holds thumbnails that were replaced since.
+     */
+    private boolean needsCompaction() throws IOException {
+        long size = channel.size();
+
+        return size > maxFileSize || size > MIN_COMPACT_SIZE && size - HEADER_SIZE > liveBytes * 2;
+    }
+
+    /**
+     * Rewrites the file with only the newest thumbnail of every capture that still exists. If those do not fit into
+     * half of the maximum size, only the thumbnails of the most recently modified captures are kept, so that the file
+     * is not compacted again right away. The file is replaced atomically, so a crash leaves either the old or the new
+     * file.
+     */
+    private void compact() throws IOException {
+        List<Map.Entry<String, Entry>> kept = new ArrayList<>();
+        for (Map.Entry<String, Entry> kv : entries.entrySet()) {
+            if (new File(kv.getKey()).exists()) {
+                kept.add(kv);
+            }
+        }
+        kept.sort(Comparator.comparingLong((Map.Entry<String, Entry> e) -> e.getValue().lastModified).reversed());
+
+        Path tempFile = Paths.get(file + ".tmp");
+        Map<String, Entry> compacted = new HashMap<>();
+        long keptBytes = 0;
+
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+
+            long position = HEADER_SIZE;
+            for (Map.Entry<String, Entry> kv : kept) {
+                Entry entry = kv.getValue();
+                if (keptBytes + entry.length > maxFileSize / 2) {
+                    break;
+                }
+
+                for (long copied = 0; copied < entry.length; ) {
+                    copied += channel.transferTo(entry.position + copied, entry.length - copied, out);
+                }
+
+                compacted.put(kv.getKey(), new Entry(position, entry.length, entry.lastModified));
+                position += entry.length;
+                keptBytes += entry.length;
+            }
+
+            out.force(false);
+        }
+
+        channel.close();
+
+        try {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        channel = open(file);
+        entries.clear();
+        entries.putAll(compacted);
+        liveBytes = keptBytes;
+    }
+
+    private void startFile() throws IOException {
+        channel.truncate(0);
+        entries.clear();
+        liveBytes = 0;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private void index(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            liveBytes -= previous.length;
+        }
+
+        liveBytes += entry.length;
+    }
+
+    private void readFully(ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Encodes a thumbnail as a JPEG in memory, without the temporary file that {@link ImageIO} would otherwise use.
+     */
+    private static byte[] encode(BufferedImage thumbnail) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+
+        try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(thumbnail, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static BufferedImage decode(ByteArrayInputStream data) throws IOException {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+
+        try (MemoryCacheImageInputStream in = new MemoryCacheImageInputStream(data)) {
+            reader.setInput(in, true, true);
+
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Where the newest thumbnail of a capture is in the file.
+     */
+    private static class Entry {
+        private final long position;
+        private final int length;
+        private final long lastModified;
+
+        private Entry(long position, int length, long lastModified) {
+            this.position = position;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * A decoded thumbnail and the version of the capture it was created from.
+     */
+    private static class Thumbnail {
+        private final BufferedImage image;
+        private final long lastModified;
+
+        private Thumbnail(BufferedImage image, long lastModified) {
+            this.image = image;
+            this.lastModified = lastModified;
+        }
+
+        private long getBytes() {
+            return (long) image.getWidth() * image.getHeight() * 4;
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package localServer;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsExchange;
+import org.json.JSONObject;
+import tools.Constants;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A self-contained replacement for server/upload_image.php that needs neither PHP nor MySQL.
+ * <p>
+ * The server accepts the same multipart request as the PHP script, checks the same 'uploadpassword' header, stores the
+ * image in a local directory and answers with the same JSON. Images are served back at '/ss/&lt;hash&gt;', so the
+ * returned URLs work as they would with the PHP setup. Since the URL the client uploads to is set by the user, a POST
+ * to any path is treated as an upload.
+ * <p>
+ * The server is built on {@link HttpServer}, whose selector thread accepts and parses every connection without
+ * blocking while the request bodies are streamed to disk on a pool of worker threads. This keeps hundreds of
+ * concurrent uploads cheap, and the chunked requests sent by the streaming upload of the client are decoded for us.
+ * <p>
+ * For load tests, a fixed or random latency and a rate of injected failures can be configured.
+ *
+ * @since 1.2
+ */
+public class LocalUploadServer {
+    /**
+     * The same types that are accepted by upload_image.php.
+     */
+    private static final List<String> ACCEPTED_FILE_TYPES = Arrays.asList("png", "jpeg", "jpg", "gif");
+
+    private static final String UPLOAD_FIELD = "uploaded_image";
+    private static final String URL_PATH = "/ss/";
+    private static final String INDEX_FILE = "index.json";
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int BACKLOG = 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final String password;
+    private final long latency;
+    private final long latencyJitter;
+    private final double errorRate;
+
+    private final UploadIndex index;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final AtomicLong uploadCounter = new AtomicLong();
+    private final AtomicLong failedUploads = new AtomicLong();
+
+    /**
+     * @param port          The port to listen on.
+     * @param directory     The directory the images and the index are stored in.
+     * @param password      The password clients must send in the 'uploadpassword' header. If empty, clients that
+     *                      send no password are accepted.
+     * @param latency       The delay in milliseconds added before every response.
+     * @param latencyJitter The maximum random delay in milliseconds added on top of the latency.
+     * @param errorRate     The fraction of uploads, between 0 and 1, that are answered with an error.
+     * @throws IOException If the directory could not be created, or if the port could not be bound.
+     */
+    public LocalUploadServer(int port, Path directory, String password, long latency, long latencyJitter,
+                             double errorRate) throws IOException {
+        this.directory = directory;
+        this.password = password;
+        this.latency = latency;
+        this.latencyJitter = latencyJitter;
+        this.errorRate = errorRate;
+
+        Files.createDirectories(directory);
+        index = new UploadIndex(directory.resolve(INDEX_FILE));
+
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, Constants.PROGRAM_NAME + "-server-" + count.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Runs the server until the process is stopped.
+     * <p>
+     * Arguments: [--port port] [--directory path] [--password password] [--latency ms] [--jitter ms]
+     * [--error-rate fraction]
+     *
+     * @param args The command line arguments.
+     * @throws IOException If the server could not be started.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        Path directory = Paths.get("uploads");
+        String password = "";
+        long latency = 0;
+        long jitter = 0;
+        double errorRate = 0;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--directory":
+                    directory = Paths.get(value);
+                    break;
+                case "--password":
+                    password = value;
+                    break;
+                case "--latency":
+                    latency = Long.parseLong(value);
+                    break;
+                case "--jitter":
+                    jitter = Long.parseLong(value);
+                    break;
+                case "--error-rate":
+                    errorRate = Double.parseDouble(value);
+                    break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    break;
+            }
+        }
+
+        LocalUploadServer server = new LocalUploadServer(port, directory, password, latency, jitter, errorRate);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+
+        System.out.println(Constants.PROGRAM_NAME + " upload server listening on port " + server.getPort() +
+                ", storing images in " + directory.toAbsolutePath());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting uploads, gives running uploads a second to finish and closes the index.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+            index.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return The port the server is listening on, useful if it was started on port 0.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The amount of uploads that were stored since the server started.
+     */
+    public long getUploadCount() {
+        return uploadCounter.get();
+    }
+
+    /**
+     * @return The amount of uploads that were rejected or failed since the server started.
+     */
+    public long getFailedUploadCount() {
+        return failedUploads.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+
+            if (method.equals("POST")) {
+                handleUpload(exchange);
+            } else if (method.equals("GET") || method.equals("HEAD")) {
+                handleImage(exchange);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Follows the same steps as upload_image.php: the password is checked, the file type is validated, the image is
+     * stored under its hash, added to the index and its URL is returned.
+     *
+     * @param exchange The upload request.
+     * @throws IOException If the response could not be sent.
+     */
+    private void handleUpload(HttpExchange exchange) throws IOException {
+        Headers headers = exchange.getRequestHeaders();
+
+        String uploadPassword = headers.getFirst("uploadpassword");
+        if (uploadPassword == null ? !password.isEmpty() : !uploadPassword.equals(password)) {
+            sendOutput(exchange, false, "Invalid password.");
+            return;
+        }
+
+        String boundary = MultipartReader.getBoundary(headers.getFirst("Content-Type"));
+        if (boundary == null) {
+            sendOutput(exchange, false, "The request is not multipart/form-data.");
+            return;
+        }
+
+        String title = headers.getFirst("title");
+        if (title == null) {
+            title = "";
+        }
+
+        Path temporaryFile = null;
+        try {
+            MultipartReader reader = new MultipartReader(exchange.getRequestBody(), boundary);
+
+            String imageType = null;
+            long size = -1;
+            while (reader.nextPart()) {
+                if (!UPLOAD_FIELD.equals(reader.getName()) || size >= 0) {
+                    continue;
+                }
+
+                imageType = reader.getContentType() != null ? reader.getContentType() : "";
+
+                String extension = getExtension(imageType);
+                if (!ACCEPTED_FILE_TYPES.contains(extension)) {
+                    sendOutput(exchange, false, "File format not accepted. Must be one of: \"" +
+                            String.join("/", ACCEPTED_FILE_TYPES) + "\".");
+                    return;
+                }
+
+                temporaryFile = Files.createTempFile(directory, "upload", ".tmp");
+                try (OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+                    size = reader.copyPart(outputStream);
+                }
+            }
+
+            if (temporaryFile == null) {
+                sendOutput(exchange, false, "File not uploaded. The request contains no \"" + UPLOAD_FIELD + "\".");
+                return;
+            }
+
+            delay();
+
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                sendOutput(exchange, false, "Injected failure.");
+                return;
+            }
+
+            long timestamp = System.currentTimeMillis() / 1000;
+            String formattedSize = formatSizeUnits(size);
+            String hash = sha1(formattedSize + timestamp + uploadCounter.incrementAndGet() + System.nanoTime());
+            String fileName = hash + "." + getExtension(imageType);
+
+            Path imagePath = directory.resolve(fileName);
+            Files.move(temporaryFile, imagePath, StandardCopyOption.ATOMIC_MOVE);
+            temporaryFile = null;
+
+            int[] dimensions = readDimensions(imagePath);
+            index.add(timestamp, hash, fileName, imageType, dimensions[0], dimensions[1], formattedSize, title);
+
+            sendOutput(exchange, true, getScheme(exchange) + "://" + getHost(exchange) + URL_PATH + hash);
+        } catch (IOException e) {
+            sendOutput(exchange, false, "File not uploaded. " + e.getMessage());
+        } finally {
+            if (temporaryFile != null) {
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+    }
+
+    /**
+     * Serves a stored image at '/ss/&lt;hash&gt;', with or without its extension.
+     *
+     * @param exchange The image request.
+     * @throws IOException If the response could not be sent.
+     */
+    private void handleImage(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (!path.startsWith(URL_PATH)) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        String hash = path.substring(URL_PATH.length());
+        int dot = hash.indexOf('.');
+        if (dot >= 0) {
+            hash = hash.substring(0, dot);
+        }
+
+        String fileName = index.getFileName(hash);
+        if (fileName == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        Path imagePath = directory.resolve(fileName);
+        String extension = getExtension(fileName);
+        exchange.getResponseHeaders().set("Content-Type", "image/" + (extension.equals("jpg") ? "jpeg" : extension));
+
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(200, Files.size(imagePath));
+
+        try (InputStream inputStream = Files.newInputStream(imagePath);
+             OutputStream outputStream = exchange.getResponseBody()) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Drains what is left of the request and sends the JSON object that upload_image.php would send.
+     *
+     * @param exchange The request to answer.
+     * @param success  Whether the upload was stored.
+     * @param output   The URL of the image if successful, otherwise the error.
+     * @throws IOException If the response could not be sent.
+     */
+    private void sendOutput(HttpExchange exchange, boolean success, String output) throws IOException {
+        if (!success) {
+            failedUploads.incrementAndGet();
+        }
+
+        InputStream requestBody = exchange.getRequestBody();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        while (requestBody.read(buffer) >= 0) {
+            // skip the rest of the request so that the connection can be reused
+        }
+
+        JSONObject obj = new JSONObject();
+        obj.put("success", success);
+        obj.put(success ? "output" : "error", output);
+
+        byte[] response = obj.toString().getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(response);
+        }
+    }
+
+    private void delay() {
+        long delay = latency + (latencyJitter > 0 ? ThreadLocalRandom.current().nextLong(latencyJitter + 1) : 0);
+        if (delay <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the size of an image from its header without decoding it.
+     *
+     * @param imagePath The stored image.
+     * @return The width and height, or zeros if the image could not be read.
+     */
+    private static int[] readDimensions(Path imagePath) {
+        try (ImageInputStream inputStream = ImageIO.createImageInputStream(imagePath.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+            if (readers.hasNext()) {
+                ImageReader reader = readers.next();
+
+                try {
+                    reader.setInput(inputStream, true, true);
+
+                    return new int[]{reader.getWidth(0), reader.getHeight(0)};
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return new int[]{0, 0};
+    }
+
+    /**
+     * Same as 'end(explode('/', $imageType))' in upload_image.php, but also handles file names.
+     *
+     * @param type A content type such as 'image/png', or a file name.
+     * @return The part after the last '/' or '.', in lower case.
+     */
+    private static String getExtension(String type) {
+        int index = Math.max(type.lastIndexOf('/'), type.lastIndexOf('.'));
+
+        return type.substring(index + 1).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Same as 'formatSizeUnits' in upload_image.php.
+     *
+     * @param bytes The size in bytes.
+     * @return The formatted size.
+     */
+    private static String formatSizeUnits(long bytes) {
+        if (bytes >= 1073741824) {
+            return String.format(Locale.ROOT, "%,.2f GB", bytes / 1073741824.0);
+        } else if (bytes >= 1048576) {
+            return String.format(Locale.ROOT, "%,.2f MB", bytes / 1048576.0);
+        } else if (bytes >= 1024) {
+            return String.format(Locale.ROOT, "%,.2f kB", bytes / 1024.0);
+        } else if (bytes > 1) {
+            return bytes + " bytes";
+        } else if (bytes == 1) {
+            return bytes + " byte";
+        } else {
+            return "0 bytes";
+        }
+    }
+
+    private static String sha1(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8));
+
+            return String.format("%040x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String getScheme(HttpExchange exchange) {
+        return exchange instanceof HttpsExchange ? "https" : "http";
+    }
+
+    private static String getHost(HttpExchange exchange) {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+
+        return host != null ? host : "localhost:" + exchange.getLocalAddress().getPort();
+    }
+}
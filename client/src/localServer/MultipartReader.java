@@ -0,0 +1,320 @@
+package localServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads a multipart/form-data request body one part at a time without holding a whole part in memory.
+ * <p>
+ * Every call to {@link #nextPart()} moves to the next part and parses its headers, after which the body of the part
+ * can be streamed with {@link #copyPart(OutputStream)} or skipped with {@link #skipPart()}.
+ *
+ * @since 1.2
+ */
+class MultipartReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_LENGTH = 8 * 1024;
+
+    private final InputStream inputStream;
+    private final byte[] delimiter;
+    private final byte[] firstDelimiter;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    private boolean started;
+    private boolean inPart;
+    private boolean finished;
+
+    private Map<String, String> headers = new HashMap<>();
+
+    /**
+     * @param inputStream The request body.
+     * @param boundary    The boundary from the Content-Type header of the request.
+     */
+    MultipartReader(InputStream inputStream, String boundary) {
+        this.inputStream = inputStream;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.firstDelimiter = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Retrieves the boundary from the Content-Type header of a request.
+     *
+     * @param contentType The Content-Type header.
+     * @return The boundary, or null if the request is not multipart.
+     */
+    static String getBoundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            return null;
+        }
+
+        String value = getParameter(contentType, "boundary");
+
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Moves to the next part, skipping the rest of the current part if it was not read.
+     *
+     * @return False if there are no more parts.
+     * @throws IOException If the body ended early or is not valid multipart.
+     */
+    boolean nextPart() throws IOException {
+        if (finished) {
+            return false;
+        }
+
+        if (!started) {
+            started = true;
+
+            if (!copyUntil(firstDelimiter, null)) {
+                throw new IOException("The request body contains no parts.");
+            }
+        } else if (inPart) {
+            skipPart();
+        }
+
+        if (!fill(2)) {
+            throw new IOException("Unexpected end of the request body.");
+        }
+
+        if (buffer[position] == '-' && buffer[position + 1] == '-') {
+            finished = true;
+
+            return false;
+        }
+
+        skipLine();
+        readHeaders();
+
+        inPart = true;
+
+        return true;
+    }
+
+    /**
+     * Streams the body of the current part.
+     *
+     * @param outputStream Where the body is written.
+     * @return The size of the body in bytes.
+     * @throws IOException If the body ended early or could not be written.
+     */
+    long copyPart(OutputStream outputStream) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(outputStream);
+
+        if (!copyUntil(delimiter, counter)) {
+            throw new IOException("Unexpected end of the request body.");
+        }
+
+        inPart = false;
+
+        return counter.count;
+    }
+
+    void skipPart() throws IOException {
+        copyPart(null);
+    }
+
+    /**
+     * @return The name of the current part from its Content-Disposition header.
+     */
+    String getName() {
+        return getParameter(headers.get("content-disposition"), "name");
+    }
+
+    /**
+     * @return The Content-Type header of the current part, or null if it has none.
+     */
+    String getContentType() {
+        return headers.get("content-type");
+    }
+
+    /**
+     * Copies everything up to the delimiter and moves past the delimiter.
+     *
+     * @param pattern      The delimiter.
+     * @param outputStream Where the bytes before the delimiter are written, or null to discard them.
+     * @return False if the body ended before the delimiter was found.
+     * @throws IOException If the body could not be read or the bytes could not be written.
+     */
+    private boolean copyUntil(byte[] pattern, OutputStream outputStream) throws IOException {
+        while (true) {
+            int index = indexOf(pattern);
+            if (index >= 0) {
+                if (outputStream != null) {
+                    outputStream.write(buffer, position, index - position);
+                }
+
+                position = index + pattern.length;
+
+                return true;
+            }
+
+            int safe = Math.max(limit - pattern.length + 1, position);
+            if (outputStream != null) {
+                outputStream.write(buffer, position, safe - position);
+            }
+            position = safe;
+
+            if (!fill(pattern.length + 1)) {
+                return false;
+            }
+        }
+    }
+
+    private int indexOf(byte[] pattern) {
+        int last = limit - pattern.length;
+        byte first = pattern[0];
+
+        for (int i = position; i <= last; i++) {
+            if (buffer[i] != first) {
+                continue;
+            }
+
+            int j = 1;
+            while (j < pattern.length && buffer[i + j] == pattern[j]) {
+                j++;
+            }
+
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads from the request until the buffer holds at least the requested amount of unread bytes.
+     *
+     * @param required The amount of unread bytes required.
+     * @return False if the request ended first.
+     * @throws IOException If the request could not be read.
+     */
+    private boolean fill(int required) throws IOException {
+        if (limit - position >= required) {
+            return true;
+        }
+
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+
+        while (limit < required) {
+            int read = inputStream.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                return false;
+            }
+
+            limit += read;
+        }
+
+        return true;
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        while (true) {
+            if (!fill(1)) {
+                throw new IOException("Unexpected end of the part headers.");
+            }
+
+            byte b = buffer[position++];
+            if (b == '\n') {
+                break;
+            } else if (b != '\r') {
+                line.write(b);
+            }
+
+            if (line.size() > MAX_HEADER_LENGTH) {
+                throw new IOException("The part headers are too long.");
+            }
+        }
+
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void skipLine() throws IOException {
+        readLine();
+    }
+
+    private void readHeaders() throws IOException {
+        headers = new HashMap<>();
+
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+    }
+
+    /**
+     * Retrieves a parameter such as 'name="value"' from a header.
+     *
+     * @param header The header value.
+     * @param name   The name of the parameter.
+     * @return The value without quotes, or null if the header or parameter does not exist.
+     */
+    private static String getParameter(String header, String name) {
+        if (header == null) {
+            return null;
+        }
+
+        for (String parameter : header.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0 || !parameter.substring(0, equals).trim().equalsIgnoreCase(name)) {
+                continue;
+            }
+
+            String value = parameter.substring(equals + 1).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+
+            return value;
+        }
+
+        return null;
+    }
+
+    /**
+     * Counts the bytes written and discards them if there is no underlying stream.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream outputStream;
+        private long count;
+
+        private CountingOutputStream(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            count++;
+
+            if (outputStream != null) {
+                outputStream.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+
+            if (outputStream != null) {
+                outputStream.write(b, off, len);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package localServer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replaces the MySQL table of upload_image.php with a file that holds one JSON object per upload.
+ * <p>
+ * The file is only ever appended to, so a crash can at most lose the last line. The hashes and file names are also
+ * kept in memory so that stored images can be served without reading the file.
+ *
+ * @since 1.2
+ */
+class UploadIndex implements AutoCloseable {
+    private final FileChannel channel;
+    private final Map<String, String> fileNames = new ConcurrentHashMap<>();
+
+    /**
+     * Opens the index and loads every existing entry into memory.
+     *
+     * @param file The index file, created if it does not exist.
+     * @throws IOException If the index could not be read or opened.
+     */
+    UploadIndex(Path file) throws IOException {
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        JSONObject entry = new JSONObject(line);
+
+                        fileNames.put(entry.getString("hash"), entry.getString("fileName"));
+                    } catch (JSONException e) {
+                        System.err.println("Skipping damaged index entry: " + line);
+                    }
+                }
+            }
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Appends an upload to the index. The columns match the table created by upload_image.php.
+     *
+     * @param timestamp The time of the upload in seconds.
+     * @param hash      The hash that identifies the upload in its URL.
+     * @param fileName  The name of the stored file.
+     * @param fileType  The content type of the upload.
+     * @param width     The width of the image, or 0 if it could not be read.
+     * @param height    The height of the image, or 0 if it could not be read.
+     * @param size      The size of the upload, formatted like upload_image.php does.
+     * @param title     The title of the window the image was captured from.
+     * @throws IOException If the index could not be written.
+     */
+    void add(long timestamp, String hash, String fileName, String fileType, int width, int height, String size,
+             String title) throws IOException {
+        JSONObject entry = new JSONObject();
+        entry.put("timestamp", timestamp);
+        entry.put("hash", hash);
+        entry.put("fileName", fileName);
+        entry.put("fileType", fileType);
+        entry.put("width", width);
+        entry.put("height", height);
+        entry.put("size", size);
+        entry.put("title", title);
+
+        ByteBuffer line = ByteBuffer.wrap((entry.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+
+        synchronized (channel) {
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+        }
+
+        fileNames.put(hash, fileName);
+    }
+
+    /**
+     * @param hash The hash from the URL of an upload.
+     * @return The name of the stored file, or null if there is no upload with this hash.
+     */
+    String getFileName(String hash) {
+        return fileNames.get(hash);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
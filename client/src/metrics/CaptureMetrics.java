@@ -0,0 +1,345 @@
+package metrics;
+
+import org.json.JSONObject;
+import tools.Constants;
+import tools.ExecutionRuntime;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records where the time goes between a hotkey and the URL in the clipboard, along with frame counts of GIF
+ * recordings.
+ * <p>
+ * Every {@link Latency} is kept in a {@link Histogram} of microseconds and every {@link Count} in a
+ * {@link LongAdder}, so recording from the capture, encode and upload threads never blocks. Once {@link #start()} is
+ * called, the metrics are available over JMX and written to {@link Constants#METRICS_FILE} every
+ * {@link #FLUSH_INTERVAL} seconds and on exit, so that runs of different releases can be compared.
+ *
+ * @since 1.2
+ */
+public class CaptureMetrics implements CaptureMetricsMXBean {
+    /**
+     * Seconds between writes of {@link Constants#METRICS_FILE}.
+     */
+    private static final long FLUSH_INTERVAL = 60;
+
+    private static final CaptureMetrics INSTANCE = new CaptureMetrics();
+
+    private final Map<Latency, Histogram> latencies = new EnumMap<>(Latency.class);
+    private final Map<Count, LongAdder> counts = new EnumMap<>(Count.class);
+
+    private ScheduledFuture<?> flushTask;
+
+    /**
+     * The timed steps of a capture.
+     */
+    public enum Latency {
+        /**
+         * Handling a key press on the thread of the native hook, including the request for a capture.
+         */
+        HOTKEY("hotkey"),
+
+        /**
+         * From the accepted capture request until the overlay is visible.
+         */
+        OVERLAY("overlay"),
+
+        CAPTURE("capture"),
+        ENCODE("encode"),
+        UPLOAD("upload"),
+        NOTIFY("notify"),
+
+        /**
+         * From the end of the request body until the response of the server has been read.
+         */
+        SERVER_RESPONSE("serverResponse"),
+
+        /**
+         * Time spent writing the archive file of a capture in total.
+         */
+        ARCHIVE_WRITE("archiveWrite"),
+
+        /**
+         * From the selected region until the URL is in the clipboard. For GIFs, this includes the recording.
+         */
+        SELECTION_TO_URL("selectionToURL"),
+
+        /**
+         * From the last encoded byte until the URL is in the clipboard.
+         */
+        ENCODED_TO_URL("encodedToURL"),
+
+        FRAME_CAPTURE("frameCapture"),
+        FRAME_ENCODE("frameEncode"),
+
+        /**
+         * Comparing a GIF frame with the frame before it and building its colour table in the
+         * {@link capture.captureGIF.GifOptimizer}, without encoding it.
+         */
+        FRAME_OPTIMIZE("frameOptimize");
+
+        private final String name;
+
+        Latency(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * The counted events of captures.
+     */
+    public enum Count {
+        CAPTURES("captures"),
+        UPLOADS_FAILED("uploadsFailed"),
+        FRAMES_CAPTURED("framesCaptured"),
+
+        /**
+         * Frame ticks that were dropped because the frame before them was still being captured or written, e.g.
+         * while the upload was behind, so that ticks do not queue up behind a slow frame.
+         */
+        FRAMES_DROPPED("framesDropped"),
+
+        /**
+         * Frame ticks that were skipped on purpose to stay within the size budget.
+         */
+        FRAMES_SKIPPED("framesSkipped"),
+        ENCODED_BYTES("encodedBytes"),
+
+        /**
+         * GIF frames that were the same as the frame before them, which the {@link capture.captureGIF.GifOptimizer}
+         * merged into it.
+         */
+        FRAMES_MERGED("framesMerged"),
+
+        /**
+         * The estimated bytes that the {@link capture.captureGIF.GifOptimizer} saved.
+         */
+        OPTIMIZER_BYTES_SAVED("optimizerBytesSaved");
+
+        private final String name;
+
+        Count(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private CaptureMetrics() {
+        for (Latency latency : Latency.values()) {
+            latencies.put(latency, new Histogram());
+        }
+
+        for (Count count : Count.values()) {
+            counts.put(count, new LongAdder());
+        }
+    }
+
+    /**
+     * @param latency  The step that was timed.
+     * @param duration The duration of the step in nanoseconds.
+     */
+    public static void record(Latency latency, long duration) {
+        INSTANCE.latencies.get(latency).record(TimeUnit.NANOSECONDS.toMicros(duration));
+    }
+
+    /**
+     * Records the time from the given start until now.
+     *
+     * @param latency   The step that was timed.
+     * @param startTime The {@link System#nanoTime()} when the step began.
+     */
+    public static void recordSince(Latency latency, long startTime) {
+        record(latency, System.nanoTime() - startTime);
+    }
+
+    public static void add(Count count, long amount) {
+        INSTANCE.counts.get(count).add(amount);
+    }
+
+    public static void increment(Count count) {
+        INSTANCE.counts.get(count).increment();
+    }
+
+    /**
+     * Registers the metrics with the platform {@link MBeanServer} and begins writing
+     * {@link Constants#METRICS_FILE} periodically. Loading JMX takes a moment, so this should be called after startup.
+     */
+    public static synchronized void start() {
+        if (INSTANCE.flushTask != null) {
+            return;
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(INSTANCE, new ObjectName(Constants.PROGRAM_NAME + ":type=CaptureMetrics"));
+        } catch (InstanceAlreadyExistsException ignored) {
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+
+        INSTANCE.flushTask = ExecutionRuntime.scheduler().scheduleAtFixedRate(() ->
+                        ExecutionRuntime.io().execute(CaptureMetrics::flush), FLUSH_INTERVAL, FLUSH_INTERVAL,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic writes and writes {@link Constants#METRICS_FILE} a last time on the calling thread.
+     */
+    public static synchronized void stop() {
+        if (INSTANCE.flushTask == null) {
+            return;
+        }
+
+        INSTANCE.flushTask.cancel(false);
+        INSTANCE.flushTask = null;
+
+        flush();
+    }
+
+    /**
+     * Replaces {@link Constants#METRICS_FILE} with the current report.
+     */
+    public static synchronized void flush() {
+        try {
+            File metricsFile = new File(Constants.METRICS_FILE);
+            metricsFile.getParentFile().mkdirs();
+
+            File tempFile = new File(Constants.METRICS_FILE + ".tmp");
+            BufferedWriter w = new BufferedWriter(new FileWriter(tempFile));
+            w.write(INSTANCE.getReport());
+            w.newLine();
+            w.close();
+
+            try {
+                Files.move(tempFile.toPath(), metricsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), metricsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        for (Count count : Count.values()) {
+            counters.put(count.getName(), counts.get(count).sum());
+        }
+
+        return counters;
+    }
+
+    @Override
+    public Map<String, Long> getSampleCounts() {
+        Map<String, Long> sampleCounts = new LinkedHashMap<>();
+        for (Latency latency : Latency.values()) {
+            sampleCounts.put(latency.getName(), latencies.get(latency).getCount());
+        }
+
+        return sampleCounts;
+    }
+
+    @Override
+    public Map<String, Double> getMedianMillis() {
+        return getPercentileMillis(50);
+    }
+
+    @Override
+    public Map<String, Double> getP99Millis() {
+        return getPercentileMillis(99);
+    }
+
+    @Override
+    public Map<String, Double> getMaxMillis() {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Latency latency : Latency.values()) {
+            values.put(latency.getName(), toMillis(latencies.get(latency).getMax()));
+        }
+
+        return values;
+    }
+
+    private Map<String, Double> getPercentileMillis(double percentile) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Latency latency : Latency.values()) {
+            values.put(latency.getName(), toMillis(latencies.get(latency).getValueAtPercentile(percentile)));
+        }
+
+        return values;
+    }
+
+    @Override
+    public String getReport() {
+        JSONObject latencyReport = new JSONObject();
+        for (Latency latency : Latency.values()) {
+            Histogram histogram = latencies.get(latency);
+
+            JSONObject values = new JSONObject();
+            values.put("count", histogram.getCount());
+            values.put("mean", toMillis((long) histogram.getMean()));
+            values.put("p50", toMillis(histogram.getValueAtPercentile(50)));
+            values.put("p90", toMillis(histogram.getValueAtPercentile(90)));
+            values.put("p99", toMillis(histogram.getValueAtPercentile(99)));
+            values.put("p999", toMillis(histogram.getValueAtPercentile(99.9)));
+            values.put("max", toMillis(histogram.getMax()));
+
+            latencyReport.put(latency.getName(), values);
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("uptime", ManagementFactory.getRuntimeMXBean().getUptime());
+        report.put("javaVersion", System.getProperty("java.version"));
+        report.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version"));
+        report.put("latencyUnit", "ms");
+        report.put("latencies", latencyReport);
+        report.put("counters", new JSONObject(getCounters()));
+
+        return report.toString(4);
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+
+        for (LongAdder count : counts.values()) {
+            count.reset();
+        }
+    }
+
+    /**
+     * @param micros A value of a latency {@link Histogram}.
+     * @return The value in milliseconds, rounded to microseconds.
+     */
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+}
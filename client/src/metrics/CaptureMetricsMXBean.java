@@ -0,0 +1,31 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link CaptureMetrics}, which can be viewed in JConsole or VisualVM under the name of the
+ * program. Latencies are reported in milliseconds and keyed by the name of the {@link CaptureMetrics.Latency}.
+ *
+ * @since 1.2
+ */
+public interface CaptureMetricsMXBean {
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getSampleCounts();
+
+    Map<String, Double> getMedianMillis();
+
+    Map<String, Double> getP99Millis();
+
+    Map<String, Double> getMaxMillis();
+
+    /**
+     * @return Everything that is written to {@link tools.Constants#METRICS_FILE}, as JSON.
+     */
+    String getReport();
+
+    /**
+     * Forgets all recorded latencies and counts.
+     */
+    void reset();
+}
@@ -0,0 +1,119 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values with a fixed relative precision, in the style of HdrHistogram.
+ * <p>
+ * Values below {@link #SUB_BUCKET_COUNT} are counted exactly. Every larger power of two is split into
+ * {@link #SUB_BUCKET_COUNT} / 2 buckets of equal width, so a reported value is never more than 1/64 (about 1.6%) above
+ * the recorded one. Recording is a handful of arithmetic instructions and one atomic increment, so it can be done on
+ * every frame from any thread without locking. Values above {@link #MAX_VALUE} are counted as {@link #MAX_VALUE}.
+ *
+ * @since 1.2
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1;
+
+    /**
+     * The largest value that is counted in its own bucket, e.g. about 12 days in microseconds.
+     */
+    public static final long MAX_VALUE = 1L << 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(getIndex(MAX_VALUE) + 1);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value The value to count. Negative values are counted as 0.
+     */
+    public void record(long value) {
+        value = Math.min(Math.max(value, 0), MAX_VALUE);
+
+        counts.incrementAndGet(getIndex(value));
+        totalCount.increment();
+        sum.add(value);
+
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.sum();
+
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * @param percentile The percentile between 0 and 100.
+     * @return The highest value that is counted in the same bucket as the value at the percentile, or 0 if nothing was
+     * recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.sum();
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+
+            if (seen >= target) {
+                return Math.min(getHighestValue(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Forgets every recorded value. Values that are recorded at the same time may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+
+        totalCount.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+        return (shift << SUB_BUCKET_HALF_BITS) + (int) (value >>> shift);
+    }
+
+    private static long getHighestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = (index >>> SUB_BUCKET_HALF_BITS) - 1;
+        long subBucket = index - ((long) shift << SUB_BUCKET_HALF_BITS);
+
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
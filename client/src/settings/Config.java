@@ -4,10 +4,18 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import tools.Constants;
 import tools.Encryption;
+import tools.ExecutionRuntime;
+import tools.Logging;
 
 import javax.crypto.spec.SecretKeySpec;
-import javax.swing.*;
-import java.io.*;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.GeneralSecurityException;
 
 /**
@@ -16,7 +24,7 @@ import java.security.GeneralSecurityException;
  * <p>
  * This class contains the designated server where images will be uploaded to, the password for that server if it
  * exists, and an option to enable GIF uploading to Gfycat instead of uploading to the designated server due to the
- * large file sizes. If {@link #enableGfycatUpload} is set to true, the Gfycat Client ID and Client Secret are
+ * large file sizes. If {@link #isEnableGfycatUpload()} is true, the Gfycat Client ID and Client Secret are
  * required to upload the GIF.
  * <p>
  * All configuration data saves to {@link Constants#CONFIG_FILE} which by default is named "config.json".
@@ -24,31 +32,54 @@ import java.security.GeneralSecurityException;
  * @since 1.0
  */
 public class Config {
+    /**
+     * The version of the file format. Version 2 keeps the salt across saves, so fields can be added or changed without
+     * deriving a new key, and fields that this version does not know about are kept when the file is written.
+     */
+    private static final int FORMAT_VERSION = 2;
+
     private String salt;
+    private SecretKeySpec key;
+
+    /**
+     * The contents of the file as last read or written, including fields that this version does not know about.
+     */
+    private JSONObject json = new JSONObject();
+
+    /**
+     * The current values, which are replaced as a whole when they are saved or the file is changed.
+     */
+    private volatile Values values = new Values("", "", true, "", "");
 
-    private String server = "";
-    private String serverPassword = "";
-    private boolean enableGfycatUpload = true;
-    private String gfycatClientID = "";
-    private String gfycatClientSecret = "";
+    /**
+     * The modification time and length of {@link Constants#CONFIG_FILE} when it was last read or written, so that
+     * {@link #reload()} can tell whether the file was changed by someone else.
+     */
+    private long loadedModified;
+    private long loadedLength;
 
     /**
-     * Checks if configuration data file already exists. If it does not then a file will be created storing the
-     * default values. If the file does exist, the default values will be replaced by the data contained in the file.
+     * Checks if configuration data file already exists. If the file does exist, the default values will be replaced
+     * by the data contained in the file.
+     * <p>
+     * As of 1.2, the default values are only written once they are saved through {@link #saveConfig}, so that a
+     * missing file still means that the program has not been set up yet.
      */
     public Config() {
         File configFile = new File(Constants.CONFIG_FILE);
 
         if (configFile.exists()) {
             updateConfig();
-        } else {
-            saveConfig(server, serverPassword, enableGfycatUpload, gfycatClientID, gfycatClientSecret);
         }
     }
 
     /**
      * This method allows for current configuration data to be updated and will also store all data in the file
      * designated by {@link Constants#CONFIG_FILE}.
+     * <p>
+     * The values are available right away while the file is encrypted and written on an I/O thread, since this is
+     * called from the settings dialog. Every write stores the values at the time it runs, so the file always ends up
+     * with the latest values.
      *
      * @param server             The designated server which accepts uploaded images.
      * @param serverPassword     The password for that server if it exists.
@@ -58,34 +89,50 @@ public class Config {
      */
     public void saveConfig(String server, String serverPassword, boolean enableGfycatUpload, String gfycatClientID,
                            String gfycatClientSecret) {
-        this.server = server;
-        this.serverPassword = serverPassword;
-        this.enableGfycatUpload = enableGfycatUpload;
-        this.gfycatClientID = gfycatClientID;
-        this.gfycatClientSecret = gfycatClientSecret;
+        values = new Values(server, serverPassword, enableGfycatUpload, gfycatClientID, gfycatClientSecret);
+
+        ExecutionRuntime.io().execute(this::writeConfig);
+    }
 
+    /**
+     * Encrypts the current values with the key of the session and replaces {@link Constants#CONFIG_FILE} with a
+     * temporary file in one step, so that the file is never left half written.
+     */
+    private synchronized void writeConfig() {
         try {
             File configFile = new File(Constants.CONFIG_FILE);
             configFile.getParentFile().mkdirs();
-            configFile.createNewFile();
-
-            salt = new String(Encryption.generateRandomSalt());
 
-            SecretKeySpec key = Encryption.createSecretKey(salt.getBytes());
+            if (key == null) {
+                salt = new String(Encryption.generateRandomSalt());
+                key = Encryption.createSecretKey(salt.getBytes());
+            }
 
-            JSONObject json = new JSONObject();
+            Values current = values;
 
+            json.put("version", FORMAT_VERSION);
             json.put("salt", salt);
-            json.put("server", Encryption.encrypt(server, key));
-            json.put("serverPassword", Encryption.encrypt(serverPassword, key));
-            json.put("enableGfycatUpload", enableGfycatUpload);
-            json.put("gfycatClientID", Encryption.encrypt(gfycatClientID, key));
-            json.put("gfycatClientSecret", Encryption.encrypt(gfycatClientSecret, key));
+            putEncrypted("server", current.server);
+            putEncrypted("serverPassword", current.serverPassword);
+            json.put("enableGfycatUpload", current.enableGfycatUpload);
+            putEncrypted("gfycatClientID", current.gfycatClientID);
+            putEncrypted("gfycatClientSecret", current.gfycatClientSecret);
 
-            BufferedWriter w = new BufferedWriter(new FileWriter(Constants.CONFIG_FILE));
+            File tempFile = new File(Constants.CONFIG_FILE + ".tmp");
+            BufferedWriter w = new BufferedWriter(new FileWriter(tempFile));
             w.write(json.toString(6));
             w.newLine();
             w.close();
+
+            try {
+                Files.move(tempFile.toPath(), configFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), configFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            loadedModified = configFile.lastModified();
+            loadedLength = configFile.length();
         } catch (IOException | GeneralSecurityException e) {
             e.printStackTrace();
         }
@@ -95,79 +142,143 @@ public class Config {
      * Reads all data in the configuration file located at {@link Constants#CONFIG_FILE}.
      *
      * All encrypted data will first be decrypted by the salt contained in the configuration file and the
-     * {@link Encryption} class.
+     * {@link Encryption} class. The key is kept so that later saves do not derive it again.
      *
      * If an {@link IOException} is caught, the file will be recreated and all default data will be stored in that file.
      */
-    private void updateConfig() {
-        StringBuilder stringBuilder = new StringBuilder();
+    private synchronized void updateConfig() {
         File configFile = new File(Constants.CONFIG_FILE);
 
         try {
-            BufferedReader r = new BufferedReader(new FileReader(configFile));
-            String s;
-            while ((s = r.readLine()) != null)
-                stringBuilder.append(s);
-            r.close();
-
-            try {
-                JSONObject json = new JSONObject(stringBuilder.toString());
-                salt = json.getString("salt");
-
-                SecretKeySpec key = Encryption.createSecretKey(salt.getBytes());
-
-                if (!json.isNull("server")) {
-                    server = Encryption.decrypt(json.getString("server"), key);
-                } else {
-                    server = "";
-                }
-                if (!json.isNull("serverPassword")) {
-                    serverPassword = Encryption.decrypt(json.getString("serverPassword"), key);
-                } else {
-                    serverPassword = "";
-                }
-                enableGfycatUpload = json.isNull("enableGfycatUpload") || json.getBoolean("enableGfycatUpload");
-                if (!json.isNull("gfycatClientID")) {
-                    gfycatClientID = Encryption.decrypt(json.getString("gfycatClientID"), key);
-                } else {
-                    gfycatClientID = "";
-                }
-                if (!json.isNull("gfycatClientSecret")) {
-                    gfycatClientSecret = Encryption.decrypt(json.getString("gfycatClientSecret"), key);
-                } else {
-                    gfycatClientID = "";
-                }
-            } catch (GeneralSecurityException e) {
-                e.printStackTrace();
-            }
+            values = readConfig(configFile);
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
         } catch (IOException | JSONException e) {
             if (configFile.exists()) {
                 configFile.delete();
             }
 
-            JOptionPane.showMessageDialog(null, "The config file is corrupted! All values have been reset.");
+            json = new JSONObject();
+            salt = null;
+            key = null;
+
+            Logging.showMessage("The config file is corrupted! All values have been reset.");
 
-            saveConfig(server, serverPassword, enableGfycatUpload, gfycatClientID, gfycatClientSecret);
+            Values current = values;
+            saveConfig(current.server, current.serverPassword, current.enableGfycatUpload, current.gfycatClientID,
+                    current.gfycatClientSecret);
         }
     }
 
+    /**
+     * Reads {@link Constants#CONFIG_FILE} again if it was changed since it was last read or written. A file that
+     * cannot be read or decrypted is left alone and the current values are kept, since it may still be in the middle
+     * of being written.
+     *
+     * @return True if new values were read.
+     */
+    public synchronized boolean reload() {
+        File configFile = new File(Constants.CONFIG_FILE);
+        if (!configFile.exists() ||
+                (configFile.lastModified() == loadedModified && configFile.length() == loadedLength)) {
+            return false;
+        }
+
+        try {
+            values = readConfig(configFile);
+
+            return true;
+        } catch (IOException | JSONException | GeneralSecurityException e) {
+            e.printStackTrace();
+
+            return false;
+        }
+    }
+
+    /**
+     * Parses and decrypts the file. The parsed file, salt and key only replace the current ones if the whole file
+     * could be read.
+     *
+     * @param configFile The file to read.
+     * @return The values of the file.
+     */
+    private Values readConfig(File configFile) throws IOException, GeneralSecurityException {
+        long modified = configFile.lastModified();
+        long length = configFile.length();
+
+        JSONObject json = new JSONObject(new String(Files.readAllBytes(configFile.toPath()), StandardCharsets.UTF_8));
+        String salt = json.getString("salt");
+        SecretKeySpec key = Encryption.createSecretKey(salt.getBytes());
+
+        Values values = new Values(
+                getDecrypted(json, "server", key),
+                getDecrypted(json, "serverPassword", key),
+                json.isNull("enableGfycatUpload") || json.getBoolean("enableGfycatUpload"),
+                getDecrypted(json, "gfycatClientID", key),
+                getDecrypted(json, "gfycatClientSecret", key));
+
+        this.json = json;
+        this.salt = salt;
+        this.key = key;
+
+        loadedModified = modified;
+        loadedLength = length;
+
+        return values;
+    }
+
+    private void putEncrypted(String name, String value) throws GeneralSecurityException, IOException {
+        json.put(name, Encryption.encrypt(value, key));
+    }
+
+    /**
+     * @param json The contents of the file.
+     * @param name The name of an encrypted field.
+     * @param key  The key of the file.
+     * @return The decrypted value, or an empty {@link String} if the file does not have the field.
+     */
+    private static String getDecrypted(JSONObject json, String name, SecretKeySpec key)
+            throws GeneralSecurityException, IOException {
+        return json.isNull(name) ? "" : Encryption.decrypt(json.getString(name), key);
+    }
+
     public String getServer() {
-        return server;
+        return values.server;
     }
 
     public String getServerPassword() {
-        return serverPassword;
+        return values.serverPassword;
     }
 
     public boolean isEnableGfycatUpload() {
-        return enableGfycatUpload;
+        return values.enableGfycatUpload;
     }
 
     public String getGfycatClientID() {
-        return gfycatClientID;
+        return values.gfycatClientID;
     }
 
     public String getGfycatClientSecret() {
-        return gfycatClientSecret;
+        return values.gfycatClientSecret;
+    }
+
+    /**
+     * The decrypted values of the configuration at one point in time.
+     */
+    private static final class Values {
+        private final String server;
+        private final String serverPassword;
+        private final boolean enableGfycatUpload;
+        private final String gfycatClientID;
+        private final String gfycatClientSecret;
+
+        private Values(String server, String serverPassword, boolean enableGfycatUpload, String gfycatClientID,
+                       String gfycatClientSecret) {
+            this.server = server;
+            this.serverPassword = serverPassword;
+            this.enableGfycatUpload = enableGfycatUpload;
+            this.gfycatClientID = gfycatClientID;
+            this.gfycatClientSecret = gfycatClientSecret;
+        }
     }
 }
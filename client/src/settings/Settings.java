@@ -1,19 +1,28 @@
 package settings;
 
+import capture.imageProcessing.Dithering;
 import captureSettings.CaptureSettings;
 import javafx.application.Platform;
 import javafx.scene.input.KeyCode;
 import tools.Constants;
 
 import javax.swing.*;
+import java.awt.Dimension;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Contains all settings data pertaining to the usage of the main functions of the program.
@@ -23,21 +32,27 @@ import java.util.Properties;
  * @since 1.0
  */
 public class Settings {
+    /**
+     * The values that are used until they are replaced by the contents of {@link Constants#SETTINGS_FILE}, which are
+     * the initial values of a {@link Snapshot.Builder}.
+     */
+    private static final Snapshot DEFAULTS = new Snapshot.Builder().build();
+
     private Properties mySettings;
 
-    private boolean enableGIF = true;
-    private boolean saveAllImages = true;
-    private String saveDirectory = Constants.DEFAULT_ALL_IMAGES_FOLDER;
-    private boolean enableImageShortcut = true;
-    private boolean enableGIFShortcut = true;
-    private String captureImageShortcut = Constants.DEFAULT_IMAGE_SHORTCUT;
-    private String captureGIFShortcut = Constants.DEFAULT_GIF_SHORTCUT;
-    private List<String> keys = getListFromString(captureImageShortcut);
-    private List<String> keys2 = getListFromString(captureGIFShortcut);
-    private List<KeyCode> keyCodes = stringToKeyCodes(captureImageShortcut);
-    private List<KeyCode> keyCodes2 = stringToKeyCodes(captureGIFShortcut);
-    private boolean enablePrintScreen = true;
-    private boolean enableSound = true;
+    /**
+     * The current values. Readers only ever see a complete {@link Snapshot}, which is replaced in one step whenever the
+     * settings are saved or the file is changed.
+     */
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(DEFAULTS);
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The modification time and length of {@link Constants#SETTINGS_FILE} when it was last read or written, so that
+     * {@link #reload()} can tell whether the file was changed by someone else.
+     */
+    private long loadedModified;
+    private long loadedLength;
 
     /**
      * Checks if settings data file already exists. If the file does exist, the default values will be replaced by the
@@ -54,8 +69,7 @@ public class Settings {
         if (new File(Constants.SETTINGS_FILE).exists()) {
             updateSettings();
         } else {
-            saveSettings(enableGIF, saveAllImages, saveDirectory, enableImageShortcut, keyCodes, enableGIFShortcut,
-                    keyCodes2, enablePrintScreen, enableSound);
+            saveSettings(DEFAULTS);
         }
 
         if (!new File(Constants.CONFIG_FILE).exists()) {
@@ -76,54 +90,87 @@ public class Settings {
      * @param enableGIF             True if GIF capturing capabilities is enabled.
      * @param saveAllImages         True if the user would like to save all images to a folder as well as upload it to
      *                              a website.
-     * @param saveDirectory         The directory which to save those images. Only applicable if {@link #saveAllImages}
-     *                              is true.
+     * @param saveDirectory         The directory which to save those images. Only applicable if
+     *                              {@link #isSaveAllImages()} is true.
      * @param enableImageShortcut   True if the use would like to enable an image capturing key shortcut.
      * @param imageShortcutKeycodes The list of {@link KeyCode} that make up the desired key combination to enable image
-     *                              screen capture. Only applicable if {@link #enableImageShortcut} is true.
+     *                              screen capture. Only applicable if {@link #isEnableImageShortcut()} is true.
      * @param enableGIFShortcut     True if the use would like to enable a GIF capturing key shortcut.
      * @param gifShortcutKeycodes   The list of {@link KeyCode} that make up the desired key combination to enable GIF
-     *                              screen capture. Only applicable if {@link #enableGIFShortcut} is true.
+     *                              screen capture. Only applicable if {@link #isEnableGIFShortcut()} is true.
      * @param enablePrintScreen     True if the print screen key should initiate image screen capturing.
      * @param enableSound           True if a sound should be played after screen capturing is completed.
      */
     public void saveSettings(boolean enableGIF, boolean saveAllImages, String saveDirectory,
                              boolean enableImageShortcut, List<KeyCode> imageShortcutKeycodes, boolean enableGIFShortcut,
                              List<KeyCode> gifShortcutKeycodes, boolean enablePrintScreen, boolean enableSound) {
-        this.enableGIF = enableGIF;
-        this.saveAllImages = saveAllImages;
-        this.saveDirectory = saveDirectory.equals("") ? Constants.DEFAULT_ALL_IMAGES_FOLDER : saveDirectory;
-        this.enableImageShortcut = enableImageShortcut;
-        this.enableGIFShortcut = enableGIFShortcut;
-        this.keyCodes = imageShortcutKeycodes;
-        this.keyCodes2 = gifShortcutKeycodes;
-        this.enablePrintScreen = enablePrintScreen;
-        this.enableSound = enableSound;
+        Snapshot current = snapshot.get();
+
+        saveSettings(new Snapshot.Builder(current)
+                .enableGIF(enableGIF)
+                .saveAllImages(saveAllImages)
+                .saveDirectory(saveDirectory == null || saveDirectory.equals("") ? Constants.DEFAULT_ALL_IMAGES_FOLDER :
+                        saveDirectory)
+                .enableImageShortcut(enableImageShortcut)
+                .keyCodes(imageShortcutKeycodes)
+                .enableGIFShortcut(enableGIFShortcut)
+                .keyCodes2(gifShortcutKeycodes)
+                .enablePrintScreen(enablePrintScreen)
+                .enableSound(enableSound)
+                .build());
+    }
+
+    /**
+     * Publishes the values and writes them to a temporary file that then replaces {@link Constants#SETTINGS_FILE}, so
+     * that {@link #reload()} never reads a half written file.
+     *
+     * @param values The new values.
+     */
+    private synchronized void saveSettings(Snapshot values) {
+        publish(values);
 
         try {
             File settingsFile = new File(Constants.SETTINGS_FILE);
             settingsFile.getParentFile().mkdirs();
-            settingsFile.createNewFile();
-
-            String keyCodesString = keyCodesToString(imageShortcutKeycodes);
-            String keyCodesString2 = keyCodesToString(gifShortcutKeycodes);
 
-            if (saveDirectory == null || saveDirectory.equals(""))
-                saveDirectory = this.saveDirectory;
-
-            new File(saveDirectory).mkdirs();
-
-            mySettings.setProperty("enableGIF", Boolean.toString(enableGIF));
-            mySettings.setProperty("saveAllImages", Boolean.toString(saveAllImages));
-            mySettings.setProperty("enablePrintScreen", Boolean.toString(enablePrintScreen));
-            mySettings.setProperty("enableSound", Boolean.toString(enableSound));
-            mySettings.setProperty("saveDirectory", saveDirectory);
-            mySettings.setProperty("enableImageShortcut", Boolean.toString(enableImageShortcut));
-            mySettings.setProperty("enableGIFShortcut", Boolean.toString(enableGIFShortcut));
-            mySettings.setProperty("keyCodes", keyCodesString);
-            mySettings.setProperty("keyCodes2", keyCodesString2);
+            new File(values.saveDirectory).mkdirs();
+
+            mySettings.setProperty("enableGIF", Boolean.toString(values.enableGIF));
+            mySettings.setProperty("saveAllImages", Boolean.toString(values.saveAllImages));
+            mySettings.setProperty("enablePrintScreen", Boolean.toString(values.enablePrintScreen));
+            mySettings.setProperty("enableSound", Boolean.toString(values.enableSound));
+            mySettings.setProperty("saveDirectory", values.saveDirectory);
+            mySettings.setProperty("enableImageShortcut", Boolean.toString(values.enableImageShortcut));
+            mySettings.setProperty("enableGIFShortcut", Boolean.toString(values.enableGIFShortcut));
+            mySettings.setProperty("keyCodes", values.captureImageShortcut);
+            mySettings.setProperty("keyCodes2", values.captureGIFShortcut);
+            mySettings.setProperty("pngSizeBudget", Long.toString(values.pngSizeBudget));
+            mySettings.setProperty("gifSizeBudget", Long.toString(values.gifSizeBudget));
+            mySettings.setProperty("enableInstantReplay", Boolean.toString(values.enableInstantReplay));
+            mySettings.setProperty("keyCodes3", values.instantReplayShortcut);
+            mySettings.setProperty("instantReplaySeconds", Long.toString(values.instantReplaySeconds));
+            mySettings.setProperty("instantReplayMemory", Long.toString(values.instantReplayMemory));
+            mySettings.setProperty("gifOptimizeThreshold", Long.toString(values.gifOptimizeThreshold));
+            mySettings.setProperty("outputScale", Long.toString(values.outputScale));
+            mySettings.setProperty("outputMaxSize", Long.toString(values.outputMaxSize));
+            mySettings.setProperty("gifDithering", values.gifDithering);
+            mySettings.setProperty("gifMaxSeconds", Long.toString(values.gifMaxSeconds));
+            mySettings.setProperty("gifMaxMemory", Long.toString(values.gifMaxMemory));
+
+            File tempFile = new File(Constants.SETTINGS_FILE + ".tmp");
+            FileOutputStream out = new FileOutputStream(tempFile, false);
+            mySettings.store(out, Long.toString(System.currentTimeMillis()));
+            out.close();
+
+            try {
+                Files.move(tempFile.toPath(), settingsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), settingsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
 
-            mySettings.store(new FileOutputStream(settingsFile, false), Long.toString(System.currentTimeMillis()));
+            loadedModified = settingsFile.lastModified();
+            loadedLength = settingsFile.length();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -135,28 +182,12 @@ public class Settings {
      * <p>
      * If an {@link IOException} is caught, the file will be recreated and all default data will be stored in that file.
      */
-    private void updateSettings() {
+    private synchronized void updateSettings() {
         File settingsFile = new File(Constants.SETTINGS_FILE);
 
         try {
-            mySettings.load(new FileInputStream(settingsFile));
-
-            enableGIF = getBooleanProperty("enableGIF", enableGIF);
-            keys = getListStringProperty("keyCodes", keys);
-            keys2 = getListStringProperty("keyCodes2", keys2);
-            keyCodes = getKeyCodeProperty("keyCodes", keyCodes);
-            keyCodes2 = getKeyCodeProperty("keyCodes2", keyCodes2);
-            saveAllImages = getBooleanProperty("saveAllImages", saveAllImages);
-            saveDirectory = getProperty("saveDirectory", saveDirectory);
-            enableImageShortcut = getBooleanProperty("enableImageShortcut", enableImageShortcut);
-            enableGIFShortcut = getBooleanProperty("enableGIFShortcut", enableGIFShortcut);
-            captureImageShortcut = getProperty("keyCodes", captureImageShortcut);
-            captureGIFShortcut = getProperty("keyCodes2", captureGIFShortcut);
-            enablePrintScreen = getBooleanProperty("enablePrintScreen", enablePrintScreen);
-            enableSound = getBooleanProperty("enableSound", enableSound);
-
-            new File(saveDirectory).mkdirs();
-        } catch (IOException e) {
+            publish(readSettings(settingsFile));
+        } catch (IOException | IllegalArgumentException e) {
             if (settingsFile.exists()) {
                 settingsFile.delete();
             }
@@ -164,25 +195,142 @@ public class Settings {
             JOptionPane.showMessageDialog(null, "The settings file is corrupted! All values have been reset.");
             System.err.println("Settings file is corrupted. File deleted and will be set to default values.");
 
-            saveSettings(enableGIF, saveAllImages, saveDirectory, enableImageShortcut, keyCodes, enableGIFShortcut,
-                    keyCodes2, enablePrintScreen, enableSound);
+            saveSettings(snapshot.get());
+        }
+    }
+
+    /**
+     * Reads {@link Constants#SETTINGS_FILE} again if it was changed since it was last read or written, e.g. by the
+     * user in a text editor. Unlike at startup, a file that cannot be read is left alone and the current values are
+     * kept, since it may still be in the middle of being written.
+     *
+     * @return True if new values were published.
+     */
+    public synchronized boolean reload() {
+        File settingsFile = new File(Constants.SETTINGS_FILE);
+        if (!settingsFile.exists() ||
+                (settingsFile.lastModified() == loadedModified && settingsFile.length() == loadedLength)) {
+            return false;
+        }
+
+        try {
+            publish(readSettings(settingsFile));
+
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+
+            return false;
+        }
+    }
+
+    /**
+     * Parses the file into a new {@link Snapshot}. Values that are missing or invalid, such as a shortcut with an
+     * unknown key, keep their current value.
+     *
+     * @param settingsFile The file to read.
+     * @return The values of the file.
+     */
+    private Snapshot readSettings(File settingsFile) throws IOException {
+        long modified = settingsFile.lastModified();
+        long length = settingsFile.length();
+
+        mySettings = new Properties();
+        FileInputStream in = new FileInputStream(settingsFile);
+        try {
+            mySettings.load(in);
+        } finally {
+            in.close();
+        }
+
+        Snapshot current = snapshot.get();
+        Snapshot values = new Snapshot.Builder(current)
+                .enableGIF(getBooleanProperty("enableGIF", current.enableGIF))
+                .saveAllImages(getBooleanProperty("saveAllImages", current.saveAllImages))
+                .saveDirectory(getProperty("saveDirectory", current.saveDirectory))
+                .enableImageShortcut(getBooleanProperty("enableImageShortcut", current.enableImageShortcut))
+                .keyCodes(getKeyCodeProperty("keyCodes", current.keyCodes))
+                .enableGIFShortcut(getBooleanProperty("enableGIFShortcut", current.enableGIFShortcut))
+                .keyCodes2(getKeyCodeProperty("keyCodes2", current.keyCodes2))
+                .enablePrintScreen(getBooleanProperty("enablePrintScreen", current.enablePrintScreen))
+                .enableSound(getBooleanProperty("enableSound", current.enableSound))
+                .pngSizeBudget(getLongProperty("pngSizeBudget", current.pngSizeBudget))
+                .gifSizeBudget(getLongProperty("gifSizeBudget", current.gifSizeBudget))
+                .enableInstantReplay(getBooleanProperty("enableInstantReplay", current.enableInstantReplay))
+                .keyCodes3(getKeyCodeProperty("keyCodes3", current.keyCodes3))
+                .instantReplaySeconds(getLongProperty("instantReplaySeconds", current.instantReplaySeconds))
+                .instantReplayMemory(getLongProperty("instantReplayMemory", current.instantReplayMemory))
+                .gifOptimizeThreshold(getLongProperty("gifOptimizeThreshold", current.gifOptimizeThreshold))
+                .outputScale(getLongProperty("outputScale", current.outputScale))
+                .outputMaxSize(getLongProperty("outputMaxSize", current.outputMaxSize))
+                .gifDithering(getProperty("gifDithering", current.gifDithering))
+                .gifMaxSeconds(getLongProperty("gifMaxSeconds", current.gifMaxSeconds))
+                .gifMaxMemory(getLongProperty("gifMaxMemory", current.gifMaxMemory))
+                .build();
+
+        new File(values.saveDirectory).mkdirs();
+
+        loadedModified = modified;
+        loadedLength = length;
+
+        return values;
+    }
+
+    /**
+     * Replaces the current values and passes them to every listener on the calling thread.
+     */
+    private void publish(Snapshot values) {
+        snapshot.set(values);
+
+        for (Consumer<Snapshot> listener : listeners) {
+            listener.accept(values);
         }
     }
 
+    /**
+     * Adds a listener that receives the new values whenever the settings are saved or reloaded. It is called on the
+     * thread that saved or reloaded them.
+     *
+     * @param listener The listener.
+     */
+    public void addListener(Consumer<Snapshot> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Snapshot> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return The current values. They never change, so a capture can read all of its settings from one snapshot.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot.get();
+    }
+
 	private String getProperty(String property, String currentValue){
-		return mySettings.getProperty(property) == null ? currentValue : mySettings.getProperty(property);
+		String value = mySettings.getProperty(property);
+		return value == null || value.trim().equals("") ? currentValue : value;
 	}
 
 	private boolean getBooleanProperty(String property, boolean currentValue){
-		return mySettings.getProperty(property) == null ? currentValue : Boolean.parseBoolean(mySettings.getProperty(property));
+		return mySettings.getProperty(property) == null ? currentValue : Boolean.parseBoolean(mySettings.getProperty(property).trim());
 	}
 
-	private List<String> getListStringProperty(String property, List<String> currentValue){
-		return mySettings.getProperty(property) == null ? currentValue : getListFromString(mySettings.getProperty(property));
+	private long getLongProperty(String property, long currentValue){
+		try {
+			return mySettings.getProperty(property) == null ? currentValue : Long.parseLong(mySettings.getProperty(property).trim());
+		} catch (NumberFormatException e) {
+			return currentValue;
+		}
 	}
 
 	private List<KeyCode> getKeyCodeProperty(String property, List<KeyCode> currentValue){
-		return mySettings.getProperty(property) == null ? currentValue : stringToKeyCodes(mySettings.getProperty(property));
+		if (mySettings.getProperty(property) == null)
+			return currentValue;
+
+		List<KeyCode> keyCodes = stringToKeyCodes(mySettings.getProperty(property).trim());
+		return keyCodes.contains(null) ? currentValue : keyCodes;
 	}
 
     /**
@@ -191,11 +339,13 @@ public class Settings {
      * @param text The key combination in {@link String} format separated by " " (one space character).
      * @return A list of {@link KeyCode} objects that make up the combination of keys in order.
      */
-    private List<KeyCode> stringToKeyCodes(String text) {
+    private static List<KeyCode> stringToKeyCodes(String text) {
         List<KeyCode> keys = new ArrayList<>();
         String[] split = text.split(" ");
         for (int i = 0; i < split.length; i++) {
-            keys.add(KeyCode.getKeyCode(split[i]));
+            if (!split[i].equals("")) {
+                keys.add(KeyCode.getKeyCode(split[i]));
+            }
         }
 
         return keys;
@@ -208,7 +358,7 @@ public class Settings {
      *                 character) in the same order as the {@link List}.
      * @return A {@link String} of keys that are separated by " ".
      */
-    private String keyCodesToString(List<KeyCode> keyCodes) {
+    private static String keyCodesToString(List<KeyCode> keyCodes) {
         if (keyCodes.size() == 0)
             return "";
 
@@ -226,7 +376,7 @@ public class Settings {
      * @param text The {@link String} that is separated by " " (one space character).
      * @return A {@link List<String>} of key combinations.
      */
-    private List<String> getListFromString(String text) {
+    private static List<String> getListFromString(String text) {
         String[] split = text.split(" ");
 
         return new ArrayList<>(Arrays.asList(split));
@@ -251,54 +401,546 @@ public class Settings {
     }
 
     public boolean isEnableGIF() {
-        return enableGIF;
+        return snapshot.get().enableGIF;
     }
 
     public boolean isSaveAllImages() {
-        return saveAllImages;
+        return snapshot.get().saveAllImages;
     }
 
     public String getSaveDirectory() {
-        return saveDirectory;
+        return snapshot.get().saveDirectory;
     }
 
     public boolean isEnableImageShortcut() {
-        return enableImageShortcut;
+        return snapshot.get().enableImageShortcut;
     }
 
     public boolean isEnableGIFShortcut() {
-        return enableGIFShortcut;
+        return snapshot.get().enableGIFShortcut;
     }
 
     public String getCaptureImageShortcut() {
-        return captureImageShortcut;
+        return snapshot.get().captureImageShortcut;
     }
 
     public String getCaptureGIFShortcut() {
-        return captureGIFShortcut;
+        return snapshot.get().captureGIFShortcut;
     }
 
     public List<String> getKeys() {
-        return keys;
+        return snapshot.get().keys;
     }
 
     public List<String> getKeys2() {
-        return keys2;
+        return snapshot.get().keys2;
     }
 
     public List<KeyCode> getKeyCodes() {
-        return keyCodes;
+        return snapshot.get().keyCodes;
     }
 
     public List<KeyCode> getKeyCodes2() {
-        return keyCodes2;
+        return snapshot.get().keyCodes2;
     }
 
     public boolean isEnablePrintScreen() {
-        return enablePrintScreen;
+        return snapshot.get().enablePrintScreen;
     }
 
     public boolean isEnableSound() {
-        return enableSound;
+        return snapshot.get().enableSound;
+    }
+
+    /**
+     * @return The size budget for PNG captures in bytes, or 0 if there is no budget.
+     */
+    public long getPNGSizeBudget() {
+        return snapshot.get().getPNGSizeBudget();
+    }
+
+    /**
+     * @return The size budget for GIF captures in bytes, or 0 if there is no budget.
+     */
+    public long getGIFSizeBudget() {
+        return snapshot.get().getGIFSizeBudget();
+    }
+
+    /**
+     * @return The longest a GIF recording may be in seconds, or 0 if there is no limit.
+     * @since 1.2
+     */
+    public long getGIFMaxSeconds() {
+        return snapshot.get().getGIFMaxSeconds();
+    }
+
+    /**
+     * @return The most memory the frames and encoded bytes of a GIF recording that wait to be written or sent may use
+     * in bytes, or 0 if there is no limit.
+     * @since 1.2
+     */
+    public long getGIFMaxMemory() {
+        return snapshot.get().getGIFMaxMemory();
+    }
+
+    /**
+     * @since 1.2
+     */
+    public boolean isEnableInstantReplay() {
+        return snapshot.get().enableInstantReplay;
+    }
+
+    /**
+     * @return The length of an instant replay in seconds.
+     * @since 1.2
+     */
+    public long getInstantReplaySeconds() {
+        return snapshot.get().getInstantReplaySeconds();
+    }
+
+    /**
+     * @return The size in bytes after which the frames of a GIF are optimized, or -1 if they never are.
+     * @since 1.2
+     */
+    public long getGIFOptimizeThreshold() {
+        return snapshot.get().getGIFOptimizeThreshold();
+    }
+
+    /**
+     * @return How GIF frames with more colours than a GIF has are dithered.
+     * @since 1.2
+     */
+    public Dithering getGIFDithering() {
+        return snapshot.get().getGIFDithering();
+    }
+
+    /**
+     * An immutable set of all settings. The key lists cannot be modified.
+     *
+     * @since 1.2
+     */
+    public static final class Snapshot {
+        private final boolean enableGIF;
+        private final boolean saveAllImages;
+        private final String saveDirectory;
+        private final boolean enableImageShortcut;
+        private final boolean enableGIFShortcut;
+        private final String captureImageShortcut;
+        private final String captureGIFShortcut;
+        private final List<String> keys;
+        private final List<String> keys2;
+        private final List<KeyCode> keyCodes;
+        private final List<KeyCode> keyCodes2;
+        private final boolean enablePrintScreen;
+        private final boolean enableSound;
+
+        /**
+         * The size budgets in kilobytes that captures are optimized to fit before they are uploaded. A budget of 0
+         * disables the optimization. These are only configurable through {@link Constants#SETTINGS_FILE}.
+         */
+        private final long pngSizeBudget;
+        private final long gifSizeBudget;
+
+        /**
+         * Whether the screen is recorded in the background by {@link capture.captureGIF.InstantReplay}, the shortcut
+         * that uploads the last seconds, how many seconds that is, and the memory of the recording in megabytes. These
+         * are only configurable through {@link Constants#SETTINGS_FILE}.
+         */
+        private final boolean enableInstantReplay;
+        private final List<KeyCode> keyCodes3;
+        private final String instantReplayShortcut;
+        private final long instantReplaySeconds;
+        private final long instantReplayMemory;
+
+        /**
+         * The size in kilobytes after which the frames of a GIF are written by the
+         * {@link capture.captureGIF.GifOptimizer}, or a negative value to never optimize them, which is the default.
+         * This is only configurable through {@link Constants#SETTINGS_FILE}.
+         */
+        private final long gifOptimizeThreshold;
+
+        /**
+         * The size of captures in percent of the captured pixels, and the most pixels of their longer side or 0 if
+         * there is no limit, e.g. to undo the scaling of HiDPI displays. These are only configurable through
+         * {@link Constants#SETTINGS_FILE}.
+         */
+        private final long outputScale;
+        private final long outputMaxSize;
+
+        /**
+         * The name of the {@link Dithering} of GIF frames. This is only configurable through
+         * {@link Constants#SETTINGS_FILE}.
+         */
+        private final String gifDithering;
+
+        /**
+         * The longest a GIF recording may be in seconds and the most memory in megabytes that its frames and encoded
+         * bytes that wait to be written or sent may use, or 0 if there is no limit. A recording that reaches one of
+         * them, or {@link #gifSizeBudget}, is finished by {@link capture.captureGIF.RecordingBudget}. These are only
+         * configurable through {@link Constants#SETTINGS_FILE}.
+         */
+        private final long gifMaxSeconds;
+        private final long gifMaxMemory;
+
+        private Snapshot(Builder builder) {
+            this.enableGIF = builder.enableGIF;
+            this.saveAllImages = builder.saveAllImages;
+            this.saveDirectory = builder.saveDirectory;
+            this.enableImageShortcut = builder.enableImageShortcut;
+            this.enableGIFShortcut = builder.enableGIFShortcut;
+            this.keyCodes = Collections.unmodifiableList(new ArrayList<>(builder.keyCodes));
+            this.keyCodes2 = Collections.unmodifiableList(new ArrayList<>(builder.keyCodes2));
+            this.captureImageShortcut = keyCodesToString(this.keyCodes);
+            this.captureGIFShortcut = keyCodesToString(this.keyCodes2);
+            this.keys = Collections.unmodifiableList(getListFromString(captureImageShortcut));
+            this.keys2 = Collections.unmodifiableList(getListFromString(captureGIFShortcut));
+            this.enablePrintScreen = builder.enablePrintScreen;
+            this.enableSound = builder.enableSound;
+            this.pngSizeBudget = builder.pngSizeBudget;
+            this.gifSizeBudget = builder.gifSizeBudget;
+            this.enableInstantReplay = builder.enableInstantReplay;
+            this.keyCodes3 = Collections.unmodifiableList(new ArrayList<>(builder.keyCodes3));
+            this.instantReplayShortcut = keyCodesToString(this.keyCodes3);
+            this.instantReplaySeconds = builder.instantReplaySeconds;
+            this.instantReplayMemory = builder.instantReplayMemory;
+            this.gifOptimizeThreshold = builder.gifOptimizeThreshold;
+            this.outputScale = builder.outputScale;
+            this.outputMaxSize = builder.outputMaxSize;
+            this.gifDithering = builder.gifDithering;
+            this.gifMaxSeconds = builder.gifMaxSeconds;
+            this.gifMaxMemory = builder.gifMaxMemory;
+        }
+
+        public boolean isEnableGIF() {
+            return enableGIF;
+        }
+
+        public boolean isSaveAllImages() {
+            return saveAllImages;
+        }
+
+        public String getSaveDirectory() {
+            return saveDirectory;
+        }
+
+        public boolean isEnableImageShortcut() {
+            return enableImageShortcut;
+        }
+
+        public boolean isEnableGIFShortcut() {
+            return enableGIFShortcut;
+        }
+
+        public String getCaptureImageShortcut() {
+            return captureImageShortcut;
+        }
+
+        public String getCaptureGIFShortcut() {
+            return captureGIFShortcut;
+        }
+
+        public List<String> getKeys() {
+            return keys;
+        }
+
+        public List<String> getKeys2() {
+            return keys2;
+        }
+
+        public List<KeyCode> getKeyCodes() {
+            return keyCodes;
+        }
+
+        public List<KeyCode> getKeyCodes2() {
+            return keyCodes2;
+        }
+
+        public boolean isEnablePrintScreen() {
+            return enablePrintScreen;
+        }
+
+        public boolean isEnableSound() {
+            return enableSound;
+        }
+
+        /**
+         * @return The size budget for PNG captures in bytes, or 0 if there is no budget.
+         */
+        public long getPNGSizeBudget() {
+            return pngSizeBudget * 1024;
+        }
+
+        /**
+         * @return The size budget for GIF captures in bytes, or 0 if there is no budget.
+         */
+        public long getGIFSizeBudget() {
+            return gifSizeBudget * 1024;
+        }
+
+        /**
+         * @return The longest a GIF recording may be in seconds, or 0 if there is no limit.
+         */
+        public long getGIFMaxSeconds() {
+            return Math.max(0, gifMaxSeconds);
+        }
+
+        /**
+         * @return The most memory the frames and encoded bytes of a GIF recording that wait to be written or sent may
+         * use in bytes, or 0 if there is no limit.
+         */
+        public long getGIFMaxMemory() {
+            return Math.max(0, gifMaxMemory) * 1024 * 1024;
+        }
+
+        public boolean isEnableInstantReplay() {
+            return enableInstantReplay;
+        }
+
+        public List<KeyCode> getKeyCodes3() {
+            return keyCodes3;
+        }
+
+        public String getInstantReplayShortcut() {
+            return instantReplayShortcut;
+        }
+
+        /**
+         * @return The length of an instant replay in seconds, at least 1.
+         */
+        public long getInstantReplaySeconds() {
+            return Math.max(1, instantReplaySeconds);
+        }
+
+        /**
+         * @return The memory of the instant replay recording in bytes.
+         */
+        public long getInstantReplayMemory() {
+            return Math.max(0, instantReplayMemory) * 1024 * 1024;
+        }
+
+        /**
+         * @return The size in bytes after which the frames of a GIF are optimized, or -1 if they never are.
+         */
+        public long getGIFOptimizeThreshold() {
+            return gifOptimizeThreshold < 0 ? -1 : gifOptimizeThreshold * 1024;
+        }
+
+        /**
+         * @return How GIF frames with more colours than a GIF has are dithered, {@link Dithering#NONE} if the name is
+         * unknown.
+         */
+        public Dithering getGIFDithering() {
+            return Dithering.fromName(gifDithering);
+        }
+
+        /**
+         * Applies the output scale and the most pixels of the longer side to the size of a capture. Captures are never
+         * enlarged.
+         *
+         * @param width  The width of the captured pixels.
+         * @param height The height of the captured pixels.
+         * @return The size the capture should be downscaled to, which is the same size if it should not be.
+         */
+        public Dimension getOutputSize(int width, int height) {
+            double scale = Math.min(1, Math.max(1, outputScale) / 100.0);
+            if (outputMaxSize > 0) {
+                scale = Math.min(scale, (double) outputMaxSize / Math.max(width, height));
+            }
+
+            if (scale >= 1) {
+                return new Dimension(width, height);
+            }
+
+            return new Dimension(Math.max(1, (int) Math.round(width * scale)),
+                    Math.max(1, (int) Math.round(height * scale)));
+        }
+
+        /**
+         * Collects the values of a {@link Snapshot} by name. A new builder starts with the default values, and one
+         * that copies a snapshot starts with its values, so that only the values that change have to be set.
+         */
+        private static final class Builder {
+            private boolean enableGIF = true;
+            private boolean saveAllImages = true;
+            private String saveDirectory = Constants.DEFAULT_ALL_IMAGES_FOLDER;
+            private boolean enableImageShortcut = true;
+            private List<KeyCode> keyCodes = stringToKeyCodes(Constants.DEFAULT_IMAGE_SHORTCUT);
+            private boolean enableGIFShortcut = true;
+            private List<KeyCode> keyCodes2 = stringToKeyCodes(Constants.DEFAULT_GIF_SHORTCUT);
+            private boolean enablePrintScreen = true;
+            private boolean enableSound = true;
+            private long pngSizeBudget = 0;
+            private long gifSizeBudget = 0;
+            private boolean enableInstantReplay = false;
+            private List<KeyCode> keyCodes3 = stringToKeyCodes(Constants.DEFAULT_REPLAY_SHORTCUT);
+            private long instantReplaySeconds = 30;
+            private long instantReplayMemory = 64;
+            private long gifOptimizeThreshold = -1;
+            private long outputScale = 100;
+            private long outputMaxSize = 0;
+            private String gifDithering = Dithering.NONE.getName();
+            private long gifMaxSeconds = 600;
+            private long gifMaxMemory = 64;
+
+            private Builder() {
+            }
+
+            /**
+             * @param values The values the builder starts with.
+             */
+            private Builder(Snapshot values) {
+                enableGIF = values.enableGIF;
+                saveAllImages = values.saveAllImages;
+                saveDirectory = values.saveDirectory;
+                enableImageShortcut = values.enableImageShortcut;
+                keyCodes = values.keyCodes;
+                enableGIFShortcut = values.enableGIFShortcut;
+                keyCodes2 = values.keyCodes2;
+                enablePrintScreen = values.enablePrintScreen;
+                enableSound = values.enableSound;
+                pngSizeBudget = values.pngSizeBudget;
+                gifSizeBudget = values.gifSizeBudget;
+                enableInstantReplay = values.enableInstantReplay;
+                keyCodes3 = values.keyCodes3;
+                instantReplaySeconds = values.instantReplaySeconds;
+                instantReplayMemory = values.instantReplayMemory;
+                gifOptimizeThreshold = values.gifOptimizeThreshold;
+                outputScale = values.outputScale;
+                outputMaxSize = values.outputMaxSize;
+                gifDithering = values.gifDithering;
+                gifMaxSeconds = values.gifMaxSeconds;
+                gifMaxMemory = values.gifMaxMemory;
+            }
+
+            private Builder enableGIF(boolean enableGIF) {
+                this.enableGIF = enableGIF;
+
+                return this;
+            }
+
+            private Builder saveAllImages(boolean saveAllImages) {
+                this.saveAllImages = saveAllImages;
+
+                return this;
+            }
+
+            private Builder saveDirectory(String saveDirectory) {
+                this.saveDirectory = saveDirectory;
+
+                return this;
+            }
+
+            private Builder enableImageShortcut(boolean enableImageShortcut) {
+                this.enableImageShortcut = enableImageShortcut;
+
+                return this;
+            }
+
+            private Builder keyCodes(List<KeyCode> keyCodes) {
+                this.keyCodes = keyCodes;
+
+                return this;
+            }
+
+            private Builder enableGIFShortcut(boolean enableGIFShortcut) {
+                this.enableGIFShortcut = enableGIFShortcut;
+
+                return this;
+            }
+
+            private Builder keyCodes2(List<KeyCode> keyCodes2) {
+                this.keyCodes2 = keyCodes2;
+
+                return this;
+            }
+
+            private Builder enablePrintScreen(boolean enablePrintScreen) {
+                this.enablePrintScreen = enablePrintScreen;
+
+                return this;
+            }
+
+            private Builder enableSound(boolean enableSound) {
+                this.enableSound = enableSound;
+
+                return this;
+            }
+
+            private Builder pngSizeBudget(long pngSizeBudget) {
+                this.pngSizeBudget = pngSizeBudget;
+
+                return this;
+            }
+
+            private Builder gifSizeBudget(long gifSizeBudget) {
+                this.gifSizeBudget = gifSizeBudget;
+
+                return this;
+            }
+
+            private Builder enableInstantReplay(boolean enableInstantReplay) {
+                this.enableInstantReplay = enableInstantReplay;
+
+                return this;
+            }
+
+            private Builder keyCodes3(List<KeyCode> keyCodes3) {
+                this.keyCodes3 = keyCodes3;
+
+                return this;
+            }
+
+            private Builder instantReplaySeconds(long instantReplaySeconds) {
+                this.instantReplaySeconds = instantReplaySeconds;
+
+                return this;
+            }
+
+            private Builder instantReplayMemory(long instantReplayMemory) {
+                this.instantReplayMemory = instantReplayMemory;
+
+                return this;
+            }
+
+            private Builder gifOptimizeThreshold(long gifOptimizeThreshold) {
+                this.gifOptimizeThreshold = gifOptimizeThreshold;
+
+                return this;
+            }
+
+            private Builder outputScale(long outputScale) {
+                this.outputScale = outputScale;
+
+                return this;
+            }
+
+            private Builder outputMaxSize(long outputMaxSize) {
+                this.outputMaxSize = outputMaxSize;
+
+                return this;
+            }
+
+            private Builder gifDithering(String gifDithering) {
+                this.gifDithering = gifDithering;
+
+                return this;
+            }
+
+            private Builder gifMaxSeconds(long gifMaxSeconds) {
+                this.gifMaxSeconds = gifMaxSeconds;
+
+                return this;
+            }
+
+            private Builder gifMaxMemory(long gifMaxMemory) {
+                this.gifMaxMemory = gifMaxMemory;
+
+                return this;
+            }
+
+            private Snapshot build() {
+                return new Snapshot(this);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+package settings;
+
+import tools.Constants;
+import tools.ExecutionRuntime;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads {@link Settings} and {@link Config} when {@link Constants#SETTINGS_FILE} or {@link Constants#CONFIG_FILE}
+ * is changed outside of the program, e.g. in a text editor or by another instance of the settings dialog.
+ * <p>
+ * The directory of both files is observed with a {@link WatchService}, so nothing happens until a file changes. Editors
+ * usually write a file in several steps, so a reload only happens once the file has not changed for
+ * {@link #SETTLE_DELAY} milliseconds. Writes of the program itself are recognized by {@link Settings#reload()} and
+ * {@link Config#reload()} and do not cause a reload.
+ *
+ * @since 1.2
+ */
+public class SettingsWatcher {
+    /**
+     * Milliseconds to wait after the last change of a file before it is reloaded.
+     */
+    private static final long SETTLE_DELAY = 200;
+
+    private static WatchService watchService;
+
+    private static ScheduledFuture<?> pendingSettingsReload;
+    private static ScheduledFuture<?> pendingConfigReload;
+
+    /**
+     * Begins observing the files of the given {@link Settings} and {@link Config}. Does nothing if they are already
+     * observed.
+     *
+     * @param settings The settings that are reloaded when {@link Constants#SETTINGS_FILE} changes.
+     * @param config   The config that is reloaded when {@link Constants#CONFIG_FILE} changes.
+     */
+    public static synchronized void beginWatching(Settings settings, Config config) {
+        if (watchService != null) {
+            return;
+        }
+
+        File settingsFile = new File(Constants.SETTINGS_FILE);
+        File configFile = new File(Constants.CONFIG_FILE);
+        Path directory = settingsFile.getAbsoluteFile().getParentFile().toPath();
+
+        try {
+            directory.toFile().mkdirs();
+
+            WatchService service = FileSystems.getDefault().newWatchService();
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+            watchService = service;
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            return;
+        }
+
+        String settingsName = settingsFile.getName();
+        String configName = configFile.getName();
+        WatchService service = watchService;
+
+        ExecutionRuntime.startDedicatedThread("settings-watcher", () -> {
+            try {
+                while (true) {
+                    WatchKey key = service.take();
+
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        Object context = event.context();
+                        if (!(context instanceof Path)) {
+                            continue;
+                        }
+
+                        String name = context.toString();
+                        if (name.equals(settingsName)) {
+                            scheduleSettingsReload(settings);
+                        } else if (name.equals(configName)) {
+                            scheduleConfigReload(config);
+                        }
+                    }
+
+                    if (!key.reset()) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            }
+        });
+    }
+
+    /**
+     * Stops observing the files.
+     */
+    public static synchronized void endWatching() {
+        if (watchService == null) {
+            return;
+        }
+
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        watchService = null;
+    }
+
+    private static synchronized void scheduleSettingsReload(Settings settings) {
+        if (pendingSettingsReload != null) {
+            pendingSettingsReload.cancel(false);
+        }
+
+        pendingSettingsReload = ExecutionRuntime.schedule(ExecutionRuntime.io(), settings::reload, SETTLE_DELAY,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized void scheduleConfigReload(Config config) {
+        if (pendingConfigReload != null) {
+            pendingConfigReload.cancel(false);
+        }
+
+        pendingConfigReload = ExecutionRuntime.schedule(ExecutionRuntime.io(), config::reload, SETTLE_DELAY,
+                TimeUnit.MILLISECONDS);
+    }
+}
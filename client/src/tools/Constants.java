@@ -36,6 +36,11 @@ public class Constants {
      */
     public static final String DEFAULT_GIF_SHORTCUT = "Ctrl Shift G";
 
+    /**
+     * The default keyboard shortcut to upload the last seconds of the instant replay.
+     */
+    public static final String DEFAULT_REPLAY_SHORTCUT = "Ctrl Shift R";
+
     /**
      * The default settings file save location
      */
@@ -45,4 +50,24 @@ public class Constants {
      * The default configuration file save location
      */
     public static final String CONFIG_FILE = SAVE_DIRECTORY + "config.json";
+
+    /**
+     * The log that the phase timings of every startup are appended to.
+     */
+    public static final String STARTUP_LOG_FILE = SAVE_DIRECTORY + "startup.log";
+
+    /**
+     * The file that the latencies and counters of {@link metrics.CaptureMetrics} are written to.
+     */
+    public static final String METRICS_FILE = SAVE_DIRECTORY + "metrics.json";
+
+    /**
+     * The append-only log of every capture that is kept by {@link history.CaptureHistory}.
+     */
+    public static final String HISTORY_FILE = SAVE_DIRECTORY + "history.log";
+
+    /**
+     * The packed thumbnails of saved captures that are kept by {@link history.ThumbnailCache}.
+     */
+    public static final String THUMBNAIL_FILE = SAVE_DIRECTORY + "thumbnails.pack";
 }
@@ -3,7 +3,8 @@
  * Question: https://stackoverflow.com/questions/1132567
  * Answer: https://stackoverflow.com/a/1133815
  * Author: Johannes Brodwall (https://stackoverflow.com/users/27658/johannes-brodwall)
- * Changes: Creation of randomized salt rather than a salt that is constant.
+ * Changes: Creation of randomized salt rather than a salt that is constant. Derived keys are cached and ciphers are
+ *          reused per thread.
  *
  * This work is licensed under a Creative Commons Attribution-ShareAlike 3.0 Unported License.
  * Licence: https://creativecommons.org/licenses/by-sa/3.0/
@@ -19,12 +20,14 @@ import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.security.AlgorithmParameters;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Base64;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class manages the encryption and decryption of all sensitive data including the direct link to upload server,
@@ -38,6 +41,9 @@ public class Encryption {
     private static int iterationCount = 4000;
     private static int keyLength = 128;
 
+    private static final Map<String, SecretKeySpec> keyCache = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Cipher> cipherCache = new ThreadLocal<>();
+
     /**
      * Generates a random salt composed of numbers entirely.
      *
@@ -53,30 +59,78 @@ public class Encryption {
         return salt.toString().getBytes();
     }
 
+    /**
+     * Derives the AES key for a salt. PBKDF2 is deliberately slow, so each key is derived once per session and kept in
+     * memory afterwards.
+     *
+     * @param salt The salt stored with the encrypted data.
+     * @return The key for that salt.
+     */
     public static SecretKeySpec createSecretKey(byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        String cacheKey = new String(salt, StandardCharsets.ISO_8859_1);
+
+        SecretKeySpec cached = keyCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        SecretKeySpec key = deriveSecretKey(salt);
+        SecretKeySpec previous = keyCache.putIfAbsent(cacheKey, key);
+
+        return previous != null ? previous : key;
+    }
+
+    /**
+     * Derives the AES key for a salt without looking at the cache of {@link #createSecretKey(byte[])}, which the
+     * benchmarks use to measure the derivation itself.
+     *
+     * @param salt The salt stored with the encrypted data.
+     * @return A new key for that salt.
+     */
+    public static SecretKeySpec deriveSecretKey(byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
         SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
         PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, iterationCount, keyLength);
         SecretKey secretKey = secretKeyFactory.generateSecret(keySpec);
+        keySpec.clearPassword();
 
         return new SecretKeySpec(secretKey.getEncoded(), "AES");
     }
 
     public static String encrypt(String property, SecretKeySpec key) throws GeneralSecurityException, UnsupportedEncodingException {
-        Cipher pbeCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        Cipher pbeCipher = getCipher();
         pbeCipher.init(Cipher.ENCRYPT_MODE, key);
-        AlgorithmParameters parameters = pbeCipher.getParameters();
-        IvParameterSpec ivParameterSpec = parameters.getParameterSpec(IvParameterSpec.class);
-        byte[] cryptoText = pbeCipher.doFinal(property.getBytes("UTF-8"));
-        byte[] iv = ivParameterSpec.getIV();
+        byte[] cryptoText = pbeCipher.doFinal(property.getBytes(StandardCharsets.UTF_8));
+        byte[] iv = pbeCipher.getIV();
         return base64Encode(iv) + ":" + base64Encode(cryptoText);
     }
 
     public static String decrypt(String string, SecretKeySpec key) throws GeneralSecurityException, IOException {
-        String iv = string.split(":")[0];
-        String property = string.split(":")[1];
-        Cipher pbeCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        int separator = string.indexOf(':');
+        if (separator < 0) {
+            throw new GeneralSecurityException("Missing initialization vector");
+        }
+
+        String iv = string.substring(0, separator);
+        String property = string.substring(separator + 1);
+        Cipher pbeCipher = getCipher();
         pbeCipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(base64Decode(iv)));
-        return new String(pbeCipher.doFinal(base64Decode(property)), "UTF-8");
+        return new String(pbeCipher.doFinal(base64Decode(property)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A {@link Cipher} is not thread safe but can be initialized again for every use, so each thread keeps one instead
+     * of looking up the provider for every value.
+     *
+     * @return The cipher of the current thread.
+     */
+    private static Cipher getCipher() throws GeneralSecurityException {
+        Cipher cipher = cipherCache.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipherCache.set(cipher);
+        }
+
+        return cipher;
     }
 
     private static String base64Encode(byte[] bytes) {
@@ -0,0 +1,312 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Owns every thread of the application so that work is not spread over ad-hoc {@link Thread}s, {@link java.util.Timer}s
+ * and pools that are never shut down.
+ * <p>
+ * Work is split into groups that are sized for what they do:
+ * <ul>
+ * <li>{@link #io()} grows with the amount of blocking tasks such as uploads, sounds and polling, and shrinks again
+ * once they are done.</li>
+ * <li>{@link #compute()} has a thread per core for encoding.</li>
+ * <li>{@link #capture()} and {@link #notifier()} run one task at a time.</li>
+ * <li>{@link #scheduler()} is a single small pool that is only meant for timing, e.g. GIF frame ticks. Tasks that
+ * block should be handed to another group with {@link #schedule(Executor, Runnable, long, TimeUnit)}.</li>
+ * </ul>
+ * Threads that spend their whole life in a native event loop are started with
+ * {@link #startDedicatedThread(String, Runnable)}. All threads are daemons in the {@link ThreadGroup} of the program,
+ * and {@link #getMetrics()} reports live thread and task counts of every group.
+ *
+ * @since 1.2
+ */
+public class ExecutionRuntime {
+    private static final ThreadGroup THREAD_GROUP = new ThreadGroup(Constants.PROGRAM_NAME);
+
+    /**
+     * Idle threads of the elastic {@link #io()} group are stopped after this many seconds.
+     */
+    private static final long IO_KEEP_ALIVE_SECONDS = 30;
+
+    private static final TaskGroup SCHEDULER = new TaskGroup("scheduler", 2, true, false);
+    private static final TaskGroup CAPTURE = new TaskGroup("capture", 1, false, false);
+    private static final TaskGroup COMPUTE = new TaskGroup("encode", Runtime.getRuntime().availableProcessors(),
+            false, false);
+    private static final TaskGroup IO = new TaskGroup("io", 0, false, true);
+    private static final TaskGroup NOTIFY = new TaskGroup("notify", 1, false, false);
+
+    /**
+     * The order in which the groups are shut down, so that no group is stopped before the groups that feed it.
+     */
+    private static final List<TaskGroup> GROUPS = Collections.unmodifiableList(Arrays.asList(SCHEDULER, CAPTURE,
+            COMPUTE, IO, NOTIFY));
+
+    private static final ThreadGroup DEDICATED_THREAD_GROUP = new ThreadGroup(THREAD_GROUP, "dedicated");
+    private static final AtomicInteger dedicatedThreadCount = new AtomicInteger();
+
+    public static ExecutorService io() {
+        return IO.executor;
+    }
+
+    public static ExecutorService compute() {
+        return COMPUTE.executor;
+    }
+
+    public static ExecutorService capture() {
+        return CAPTURE.executor;
+    }
+
+    public static ExecutorService notifier() {
+        return NOTIFY.executor;
+    }
+
+    public static ScheduledExecutorService scheduler() {
+        return (ScheduledExecutorService) SCHEDULER.executor;
+    }
+
+    /**
+     * Waits on the {@link #scheduler()} and then runs the task on another group, so that blocking tasks do not hold up
+     * the timing of other tasks.
+     *
+     * @param executor The group the task runs on.
+     * @param task     The task.
+     * @param delay    The delay before the task is handed to the group.
+     * @param unit     The unit of the delay.
+     * @return The future of the delay. Cancelling it before the delay has passed keeps the task from running.
+     */
+    public static ScheduledFuture<?> schedule(Executor executor, Runnable task, long delay, TimeUnit unit) {
+        return scheduler().schedule(() -> executor.execute(task), delay, unit);
+    }
+
+    /**
+     * Starts a daemon thread that is not part of a pool, for work that blocks in a native event loop for the whole
+     * life of the program.
+     *
+     * @param name The name of the thread after the name of the program.
+     * @param task The loop of the thread.
+     * @return The started thread.
+     */
+    public static Thread startDedicatedThread(String name, Runnable task) {
+        Thread thread = new Thread(DEDICATED_THREAD_GROUP, task, Constants.PROGRAM_NAME + "-" + name);
+        thread.setDaemon(true);
+        thread.start();
+
+        dedicatedThreadCount.incrementAndGet();
+
+        return thread;
+    }
+
+    /**
+     * Stops accepting tasks and lets running and queued tasks finish within the timeout. Tasks that are still running
+     * after the timeout are interrupted.
+     * <p>
+     * Delayed and periodic tasks of the {@link #scheduler()} that have not started yet, such as token refreshes, polls
+     * and frame ticks, are dropped instead of waited for, so that the timeout is left to the groups that do the work,
+     * in particular uploads on {@link #io()}.
+     *
+     * @param timeout The time to wait for all groups together.
+     * @param unit    The unit of the timeout.
+     * @return True if every group finished in time.
+     */
+    public static boolean shutdown(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean finished = true;
+
+        for (TaskGroup group : GROUPS) {
+            group.executor.shutdown();
+
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (!group.executor.awaitTermination(Math.max(remaining, 0), TimeUnit.NANOSECONDS)) {
+                    group.executor.shutdownNow();
+                    finished = false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                group.executor.shutdownNow();
+                finished = false;
+            }
+        }
+
+        return finished;
+    }
+
+    /**
+     * @return A snapshot of the thread and task counts of every group.
+     */
+    public static List<GroupMetrics> getMetrics() {
+        List<GroupMetrics> metrics = new ArrayList<>();
+        for (TaskGroup group : GROUPS) {
+            metrics.add(group.getMetrics());
+        }
+
+        metrics.add(new GroupMetrics("dedicated", DEDICATED_THREAD_GROUP.activeCount(), 0, 0,
+                dedicatedThreadCount.get(), 0, 0));
+
+        return metrics;
+    }
+
+    /**
+     * A pool of threads of the runtime whose tasks are counted.
+     */
+    private static class TaskGroup {
+        private final String name;
+        private final ThreadPoolExecutor executor;
+        private final LongAdder failedTasks = new LongAdder();
+
+        /**
+         * @param name      The name of the group, used in the names of its threads.
+         * @param threads   The amount of threads of the group. Ignored if the group is elastic.
+         * @param scheduled True if tasks can be scheduled on the group.
+         * @param elastic   True if the group creates threads on demand and stops them when idle.
+         */
+        private TaskGroup(String name, int threads, boolean scheduled, boolean elastic) {
+            this.name = name;
+
+            ThreadGroup threadGroup = new ThreadGroup(THREAD_GROUP, name);
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(threadGroup, runnable,
+                        Constants.PROGRAM_NAME + "-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            };
+
+            if (scheduled) {
+                executor = new ScheduledThreadPoolExecutor(threads, threadFactory) {
+                    @Override
+                    protected void afterExecute(Runnable task, Throwable throwable) {
+                        countFailure(task, throwable);
+                    }
+                };
+
+                ScheduledThreadPoolExecutor scheduledExecutor = (ScheduledThreadPoolExecutor) executor;
+                scheduledExecutor.setRemoveOnCancelPolicy(true);
+                scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+                scheduledExecutor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+            } else if (elastic) {
+                executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, IO_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                        new SynchronousQueue<>(), threadFactory) {
+                    @Override
+                    protected void afterExecute(Runnable task, Throwable throwable) {
+                        countFailure(task, throwable);
+                    }
+                };
+            } else {
+                executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(), threadFactory) {
+                    @Override
+                    protected void afterExecute(Runnable task, Throwable throwable) {
+                        countFailure(task, throwable);
+                    }
+                };
+            }
+        }
+
+        /**
+         * Counts a task as failed if it threw, including tasks submitted as a {@link Future} which keep their
+         * exception to themselves. Periodic tasks are only inspected once they are done.
+         */
+        private void countFailure(Runnable task, Throwable throwable) {
+            if (throwable == null && task instanceof Future<?> && ((Future<?>) task).isDone()) {
+                try {
+                    ((Future<?>) task).get();
+                } catch (CancellationException ignored) {
+                } catch (ExecutionException e) {
+                    throwable = e.getCause();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (throwable != null) {
+                failedTasks.increment();
+            }
+        }
+
+        private GroupMetrics getMetrics() {
+            return new GroupMetrics(name, executor.getPoolSize(), executor.getActiveCount(),
+                    executor.getQueue().size(), executor.getTaskCount(), executor.getCompletedTaskCount(),
+                    failedTasks.sum());
+        }
+    }
+
+    /**
+     * The thread and task counts of a group at one point in time.
+     */
+    public static class GroupMetrics {
+        private final String name;
+        private final int threads;
+        private final int activeThreads;
+        private final int queuedTasks;
+        private final long submittedTasks;
+        private final long completedTasks;
+        private final long failedTasks;
+
+        private GroupMetrics(String name, int threads, int activeThreads, int queuedTasks, long submittedTasks,
+                             long completedTasks, long failedTasks) {
+            this.name = name;
+            this.threads = threads;
+            this.activeThreads = activeThreads;
+            this.queuedTasks = queuedTasks;
+            this.submittedTasks = submittedTasks;
+            this.completedTasks = completedTasks;
+            this.failedTasks = failedTasks;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public int getActiveThreads() {
+            return activeThreads;
+        }
+
+        public int getQueuedTasks() {
+            return queuedTasks;
+        }
+
+        public long getSubmittedTasks() {
+            return submittedTasks;
+        }
+
+        public long getCompletedTasks() {
+            return completedTasks;
+        }
+
+        public long getFailedTasks() {
+            return failedTasks;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": threads=" + threads + ", active=" + activeThreads + ", queued=" + queuedTasks +
+                    ", submitted=" + submittedTasks + ", completed=" + completedTasks + ", failed=" + failedTasks;
+        }
+    }
+}
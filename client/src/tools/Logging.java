@@ -14,11 +14,21 @@ public class Logging {
     /**
      * Creates a {@link JOptionPane} with the error text on the top and a {@link JTextArea} with the
      * {@link Exception#stackTrace}.
+     * <p>
+     * As of 1.2, the text and the stack trace are printed to the standard error stream instead if there is no display,
+     * e.g. in {@link batch.BatchConverter}.
      *
      * @param text The error text to assist in debugging.
      * @param e    The {@link Exception} that may also assist in debugging.
      */
     public static void log(String text, Exception e) {
+        if (GraphicsEnvironment.isHeadless()) {
+            System.err.println(text);
+            e.printStackTrace();
+
+            return;
+        }
+
         StringWriter sw = new StringWriter();
         e.printStackTrace(new PrintWriter(sw));
         String exception = sw.toString();
@@ -37,4 +47,18 @@ public class Logging {
 
         JOptionPane.showMessageDialog(null, panel, "Error!", JOptionPane.ERROR_MESSAGE);
     }
+
+    /**
+     * Shows a message to the user in a dialog, or prints it to the standard error stream if there is no display.
+     *
+     * @param text The message.
+     * @since 1.2
+     */
+    public static void showMessage(String text) {
+        if (GraphicsEnvironment.isHeadless()) {
+            System.err.println(text);
+        } else {
+            JOptionPane.showMessageDialog(null, text);
+        }
+    }
 }
@@ -0,0 +1,202 @@
+package tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Times the phases of startup and writes a breakdown to {@link Constants#STARTUP_LOG_FILE} once the program is ready
+ * to capture.
+ * <p>
+ * Phases can run on any thread, so the log shows when each phase started relative to the start of {@code main}, how
+ * long it took, and on which thread it ran. Milestones such as the tray icon being shown are recorded as a single point in
+ * time.
+ *
+ * @since 1.2
+ */
+public class StartupProfiler {
+    /**
+     * All times are measured from the moment this class is first used, which is the start of {@code main}.
+     */
+    private static final long ORIGIN = System.nanoTime();
+    private static final long ORIGIN_MILLIS = System.currentTimeMillis();
+
+    /**
+     * Seconds to wait after {@link #finish()} before the log is written, so that deferred phases can be included.
+     */
+    private static final long LOG_DELAY = 2;
+
+    private static final List<Entry> entries = new ArrayList<>();
+    private static boolean finished;
+
+    /**
+     * Starts a phase that ends when {@link Phase#end()} is called.
+     *
+     * @param name The name of the phase in the log.
+     * @return The running phase.
+     */
+    public static Phase begin(String name) {
+        return new Phase(name);
+    }
+
+    /**
+     * Runs a phase on the current thread.
+     *
+     * @param name  The name of the phase in the log.
+     * @param phase The work of the phase.
+     * @return The result of the phase.
+     */
+    public static <T> T time(String name, Supplier<T> phase) {
+        Phase timer = begin(name);
+        try {
+            return phase.get();
+        } finally {
+            timer.end();
+        }
+    }
+
+    /**
+     * Runs a phase without a result on the current thread.
+     *
+     * @param name  The name of the phase in the log.
+     * @param phase The work of the phase.
+     */
+    public static void run(String name, Runnable phase) {
+        Phase timer = begin(name);
+        try {
+            phase.run();
+        } finally {
+            timer.end();
+        }
+    }
+
+    /**
+     * Records that startup has reached a point, e.g. that the tray icon is visible.
+     *
+     * @param name The name of the milestone in the log.
+     */
+    public static void milestone(String name) {
+        long now = System.nanoTime() - ORIGIN;
+
+        add(new Entry(name, now, -1, Thread.currentThread().getName()));
+    }
+
+    /**
+     * Ends profiling and writes the log in the background after {@link #LOG_DELAY}. Deferred phases that are still
+     * running are included as long as they end before the log is written. Later calls do nothing.
+     */
+    public static void finish() {
+        synchronized (entries) {
+            if (finished) {
+                return;
+            }
+
+            finished = true;
+        }
+
+        ExecutionRuntime.schedule(ExecutionRuntime.io(), StartupProfiler::writeLog, LOG_DELAY, TimeUnit.SECONDS);
+    }
+
+    private static void add(Entry entry) {
+        synchronized (entries) {
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Appends the breakdown of this startup to {@link Constants#STARTUP_LOG_FILE}. The time between the start of the
+     * JVM and {@code main} is read here rather than at startup, since loading the management classes is not free.
+     */
+    private static void writeLog() {
+        List<Entry> snapshot;
+        synchronized (entries) {
+            snapshot = new ArrayList<>(entries);
+        }
+
+        snapshot.sort((a, b) -> Long.compare(a.start, b.start));
+
+        long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        try {
+            File logFile = new File(Constants.STARTUP_LOG_FILE);
+            logFile.getParentFile().mkdirs();
+
+            BufferedWriter w = new BufferedWriter(new FileWriter(logFile, true));
+            w.write("Startup at " + new Date(ORIGIN_MILLIS) + ", JVM to main: " + (ORIGIN_MILLIS - jvmStart) + " ms");
+            w.newLine();
+
+            for (Entry entry : snapshot) {
+                w.write(entry.toString());
+                w.newLine();
+            }
+
+            w.newLine();
+            w.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%8.1f ms", nanos / 1e6);
+    }
+
+    /**
+     * A phase of startup that is currently running.
+     */
+    public static class Phase {
+        private final String name;
+        private final long start = System.nanoTime() - ORIGIN;
+        private boolean ended;
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Ends the phase. Only the first call is recorded.
+         */
+        public void end() {
+            if (ended) {
+                return;
+            }
+
+            ended = true;
+
+            add(new Entry(name, start, System.nanoTime() - ORIGIN - start, Thread.currentThread().getName()));
+        }
+    }
+
+    /**
+     * A phase or milestone as it appears in the log. Milestones have no duration.
+     */
+    private static class Entry {
+        private final String name;
+        private final long start;
+        private final long duration;
+        private final String thread;
+
+        private Entry(String name, long start, long duration, String thread) {
+            this.name = name;
+            this.start = start;
+            this.duration = duration;
+            this.thread = thread;
+        }
+
+        @Override
+        public String toString() {
+            if (duration < 0) {
+                return String.format("  at %s  %-24s [%s]", toMillis(start), "* " + name, thread);
+            }
+
+            return String.format("  at %s  %-24s %s  [%s]", toMillis(start), name, toMillis(duration), thread);
+        }
+    }
+}
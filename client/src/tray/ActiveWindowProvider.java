@@ -0,0 +1,27 @@
+package tray;
+
+import java.util.function.Consumer;
+
+/**
+ * Reports the title of the active window whenever it changes, so that it can be sent along with an upload.
+ * <p>
+ * Implementations are expected to wait for the window system to announce changes instead of polling, so that an idle
+ * desktop costs nothing.
+ *
+ * @since 1.2
+ */
+public interface ActiveWindowProvider {
+    /**
+     * Begins observing the active window on a background thread. The listener is called with the current title right
+     * away and again whenever another window is activated or the title of the active window changes.
+     *
+     * @param listener Receives the raw title of the active window. Called on the thread of the provider.
+     * @return False if the window system could not be observed.
+     */
+    boolean start(Consumer<String> listener);
+
+    /**
+     * Stops observing the active window and releases the resources of the provider.
+     */
+    void stop();
+}
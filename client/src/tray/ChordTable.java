@@ -0,0 +1,266 @@
+package tray;
+
+import javafx.scene.input.KeyCode;
+import org.jnativehook.keyboard.NativeKeyEvent;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps key combinations to actions so that a combination is found with a single lookup, no matter how many shortcuts
+ * are bound.
+ * <p>
+ * Every native key code is given a bit, and a combination of keys (a chord) is the set of bits of its keys. The keys
+ * that are held down are tracked the same way, so finding the action for the held keys is a hash lookup on a few
+ * longs. Left and right modifiers share a bit, so both Ctrl keys match 'Ctrl' like before.
+ * <p>
+ * Lookups do not allocate, which keeps the native key hook thread free of garbage.
+ *
+ * @since 1.2
+ */
+class ChordTable {
+    /**
+     * The bit of every native key code plus one, or 0 if the key code has no bit.
+     */
+    private static final short[] KEY_BITS = new short[0x10000];
+
+    /**
+     * The native key code of every {@link KeyCode} name after {@link #normalize(String)}.
+     */
+    private static final Map<String, Integer> NATIVE_KEY_CODES = new HashMap<>();
+
+    /**
+     * The amount of longs in a chord.
+     */
+    static final int WORDS;
+
+    static {
+        Map<String, Integer> bits = new HashMap<>();
+
+        for (Field field : NativeKeyEvent.class.getFields()) {
+            if (!field.getName().startsWith("VC_") || !Modifier.isStatic(field.getModifiers()) ||
+                    field.getType() != int.class) {
+                continue;
+            }
+
+            int keyCode;
+            try {
+                keyCode = field.getInt(null);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+
+            if (keyCode == NativeKeyEvent.VC_UNDEFINED || keyCode >= KEY_BITS.length) {
+                continue;
+            }
+
+            String name = field.getName().substring(3);
+            if (name.endsWith("_L") || name.endsWith("_R")) {
+                name = name.substring(0, name.length() - 2);
+            }
+            name = normalize(name);
+
+            Integer bit = bits.get(name);
+            if (bit == null) {
+                bit = bits.size();
+                bits.put(name, bit);
+            }
+
+            KEY_BITS[keyCode] = (short) (bit + 1);
+            NATIVE_KEY_CODES.putIfAbsent(name, keyCode);
+        }
+
+        WORDS = (bits.size() + 63) / 64;
+
+        addAlias("WINDOWS", "META");
+        addAlias("COMMAND", "META");
+        addAlias("CAPS", "CAPSLOCK");
+        addAlias("MULTIPLY", "KPMULTIPLY");
+        addAlias("ADD", "KPADD");
+        addAlias("SUBTRACT", "KPSUBTRACT");
+        addAlias("DIVIDE", "KPDIVIDE");
+        addAlias("DECIMAL", "KPSEPARATOR");
+        for (int i = 0; i <= 9; i++) {
+            addAlias("DIGIT" + i, Integer.toString(i));
+            addAlias("NUMPAD" + i, "KP" + i);
+        }
+    }
+
+    private long[] chords = new long[0];
+    private Runnable[] actions = new Runnable[0];
+    private int size;
+
+    /**
+     * Binds an action to a combination of keys, replacing any action that was bound to the same combination.
+     *
+     * @param keyCodes The keys that must be held down together, in any order.
+     * @param action   The action to run when the last of the keys is pressed.
+     * @return False if the combination is empty or contains a key that cannot be detected.
+     */
+    boolean bind(List<KeyCode> keyCodes, Runnable action) {
+        long[] chord = new long[WORDS];
+
+        for (KeyCode keyCode : keyCodes) {
+            Integer nativeKeyCode = keyCode == null ? null : NATIVE_KEY_CODES.get(normalize(keyCode.name()));
+            if (nativeKeyCode == null || getBit(nativeKeyCode) < 0) {
+                return false;
+            }
+
+            set(chord, nativeKeyCode);
+        }
+
+        if (isEmpty(chord)) {
+            return false;
+        }
+
+        if ((size + 1) * 2 > actions.length) {
+            resize(Math.max(16, actions.length * 2));
+        }
+
+        int index = indexOf(chord, 0);
+        if (actions[index] == null) {
+            size++;
+        }
+
+        System.arraycopy(chord, 0, chords, index * WORDS, WORDS);
+        actions[index] = action;
+
+        return true;
+    }
+
+    /**
+     * Finds the action bound to exactly the given keys.
+     *
+     * @param keys The keys that are held down.
+     * @return The action, or null if no action is bound to this combination.
+     */
+    Runnable get(long[] keys) {
+        if (size == 0) {
+            return null;
+        }
+
+        return actions[indexOf(keys, 0)];
+    }
+
+    /**
+     * Adds a native key code to a set of keys.
+     *
+     * @param keys          The set of keys, {@link #WORDS} long.
+     * @param nativeKeyCode The native key code from {@link NativeKeyEvent#getKeyCode()}.
+     * @return False if the key was already in the set or if it cannot be part of a chord.
+     */
+    static boolean set(long[] keys, int nativeKeyCode) {
+        int bit = getBit(nativeKeyCode);
+        if (bit < 0) {
+            return false;
+        }
+
+        long mask = 1L << bit;
+        long word = keys[bit >>> 6];
+        keys[bit >>> 6] = word | mask;
+
+        return (word & mask) == 0;
+    }
+
+    /**
+     * Removes a native key code from a set of keys.
+     *
+     * @param keys          The set of keys, {@link #WORDS} long.
+     * @param nativeKeyCode The native key code from {@link NativeKeyEvent#getKeyCode()}.
+     */
+    static void clear(long[] keys, int nativeKeyCode) {
+        int bit = getBit(nativeKeyCode);
+        if (bit >= 0) {
+            keys[bit >>> 6] &= ~(1L << bit);
+        }
+    }
+
+    private static int getBit(int nativeKeyCode) {
+        if (nativeKeyCode < 0 || nativeKeyCode >= KEY_BITS.length) {
+            return -1;
+        }
+
+        return KEY_BITS[nativeKeyCode] - 1;
+    }
+
+    private static boolean isEmpty(long[] keys) {
+        for (long word : keys) {
+            if (word != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void resize(int capacity) {
+        long[] oldChords = chords;
+        Runnable[] oldActions = actions;
+
+        chords = new long[capacity * WORDS];
+        actions = new Runnable[capacity];
+
+        for (int i = 0; i < oldActions.length; i++) {
+            if (oldActions[i] != null) {
+                int index = indexOf(oldChords, i * WORDS);
+
+                System.arraycopy(oldChords, i * WORDS, chords, index * WORDS, WORDS);
+                actions[index] = oldActions[i];
+            }
+        }
+    }
+
+    /**
+     * Finds the slot of a chord with linear probing.
+     *
+     * @param keys   The array holding the chord to find.
+     * @param offset The position of the chord in the array.
+     * @return The slot holding the chord, or the empty slot it would be put in.
+     */
+    private int indexOf(long[] keys, int offset) {
+        long hash = 0;
+        for (int i = 0; i < WORDS; i++) {
+            hash = (hash ^ keys[offset + i]) * 0x9E3779B97F4A7C15L;
+        }
+
+        int mask = actions.length - 1;
+        int index = (int) (hash ^ (hash >>> 32)) & mask;
+
+        while (true) {
+            if (actions[index] == null || matches(chords, index * WORDS, keys, offset)) {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+    }
+
+    private static boolean matches(long[] table, int tableOffset, long[] keys, int offset) {
+        for (int i = 0; i < WORDS; i++) {
+            if (table[tableOffset + i] != keys[offset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void addAlias(String alias, String name) {
+        Integer keyCode = NATIVE_KEY_CODES.get(name);
+        if (keyCode != null) {
+            NATIVE_KEY_CODES.putIfAbsent(alias, keyCode);
+        }
+    }
+
+    /**
+     * Makes the names of {@link KeyCode} and the VC_ constants of {@link NativeKeyEvent} comparable, e.g. 'BACK_SPACE'
+     * and 'BACKSPACE'.
+     */
+    private static String normalize(String name) {
+        return name.replace("_", "").toUpperCase(Locale.ROOT);
+    }
+}
@@ -1,15 +1,23 @@
 package tray;
 
-import capture.CaptureScreen;
+import capture.CaptureCoordinator;
 import capture.captureGIF.CaptureGIF;
+import capture.captureGIF.InstantReplay;
 import capture.captureImage.CaptureImage;
+import capture.captureScroll.CaptureScroll;
 import captureSettings.CaptureSettings;
+import history.CaptureHistory;
+import history.ThumbnailCache;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
+import metrics.CaptureMetrics;
 import settings.Config;
 import settings.Settings;
+import settings.SettingsWatcher;
+import tools.ExecutionRuntime;
+import tools.StartupProfiler;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -19,8 +27,9 @@ import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class for the screen capturing program.
@@ -38,6 +47,8 @@ public class CreateTrayIcon extends Application {
 
     private JMenuItem captureImage = new JMenuItem();
     private JMenuItem captureGIF = new JMenuItem();
+    private JMenuItem captureScroll = new JMenuItem("Capture Scrolling");
+    private JMenuItem saveReplay = new JMenuItem();
     private JMenuItem viewAllImages = new JMenuItem("View All Images");
     private JMenuItem settingsTray = new JMenuItem("Settings");
     private JMenuItem exit = new JMenuItem("Exit");
@@ -48,58 +59,118 @@ public class CreateTrayIcon extends Application {
     private final Font TRAY_FONT_REGULAR = new Font("Segoe UI", Font.PLAIN, 16);
     private final Font TRAY_FONT_BOLD = TRAY_FONT_REGULAR.deriveFont(Font.BOLD);
 
+    /**
+     * Seconds that running uploads and encodes are given to finish when the program is exited.
+     */
+    private static final long EXIT_TIMEOUT = 5;
+
     /**
      * Primarily loads the {@link GlobalKeyListener} which listens for user keyboard input, {@link Settings} which holds
      * all settings that do not need to be hashed, and {@link Config} which contains all the important information that
      * requires hashing.
      * <p>
      * This method then creates the {@link TrayIconAWT} which will be located on the System Tray.
+     * <p>
+     * As of 1.2, the independent phases of startup run concurrently: {@link Config} derives its key on the encode
+     * threads, the native hook is registered on an I/O thread, and the icon is scaled in the background while
+     * {@link Settings} is loaded and the menu is built. The tray icon is shown as soon as its image is ready, and the
+     * capture actions are enabled once {@link Config} is loaded. Observing the active window, exporting
+     * {@link CaptureMetrics}, loading the {@link CaptureHistory} and starting the {@link InstantReplay} are deferred
+     * until after the tray icon appears.
+     * Each phase is timed by {@link StartupProfiler}.
      *
      * @param stage The primary {@link Stage} that is included by default when extending {@link Application}.
      * @throws Exception All exceptions are thrown by default for any {@link Application] implementation.
      */
     @Override
     public void start(Stage stage) throws Exception {
-        initializeJavaFX(stage);
+        StartupProfiler.milestone("javafx started");
 
-        settingsClass = new Settings();
-        config = new Config();
+        CompletableFuture<Config> configFuture = CompletableFuture.supplyAsync(() ->
+                StartupProfiler.time("config", Config::new), ExecutionRuntime.compute());
+        CompletableFuture<Void> hookFuture = CompletableFuture.runAsync(() ->
+                StartupProfiler.run("native hook", GlobalKeyListener::registerNativeHook), ExecutionRuntime.io());
+        CompletableFuture<Image> iconFuture = CompletableFuture.supplyAsync(() ->
+                StartupProfiler.time("icon", this::createIconImage), ExecutionRuntime.compute());
 
-        GlobalKeyListener.beginListening(settingsClass, config);
+        StartupProfiler.run("javafx", () -> initializeJavaFX(stage));
 
-        captureGIF = new JMenuItem("Capture GIF (" +
-                settingsClass.getCaptureGIFShortcut().replaceAll(" ", " + ") + ")");
+        settingsClass = StartupProfiler.time("settings", Settings::new);
+
+        StartupProfiler.Phase menuPhase = StartupProfiler.begin("menu");
+
+        updateMenuLabels(settingsClass.getSnapshot());
 
         captureImage.setFont(TRAY_FONT_BOLD);
         captureGIF.setFont(TRAY_FONT_BOLD);
+        captureScroll.setFont(TRAY_FONT_REGULAR);
+        saveReplay.setFont(TRAY_FONT_REGULAR);
         viewAllImages.setFont(TRAY_FONT_REGULAR);
         settingsTray.setFont(TRAY_FONT_REGULAR);
         exit.setFont(TRAY_FONT_REGULAR);
 
+        captureImage.setEnabled(false);
+        captureGIF.setEnabled(false);
+        captureScroll.setEnabled(false);
+        saveReplay.setEnabled(false);
+        settingsTray.setEnabled(false);
+
         JPopupMenu popup = new JPopupMenu();
         popup.add(captureImage);
         popup.add(captureGIF);
+        popup.add(captureScroll);
+        popup.add(saveReplay);
         popup.addSeparator();
         popup.add(viewAllImages);
         popup.add(settingsTray);
         popup.addSeparator();
         popup.add(exit);
 
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            public void run() {
-                captureImage.setText("Capture Image (" +
-                        settingsClass.getCaptureImageShortcut().replaceAll(" ", " + ") + ")");
-                captureGIF.setText("Capture GIF (" +
-                        settingsClass.getCaptureGIFShortcut().replaceAll(" ", " + ") + ")");
+        menuPhase.end();
+
+        TrayIconAWT icon = new TrayIconAWT(iconFuture.join(), popup);
+
+        SystemTray tray = SystemTray.getSystemTray();
+        StartupProfiler.run("tray", () -> {
+            try {
+                tray.add(icon);
+            } catch (AWTException e) {
+                e.printStackTrace();
             }
-        }, 1, 1000);
+        });
+
+        StartupProfiler.milestone("tray icon shown");
 
-        BufferedImage tempImage = ImageIO.read(this.getClass().getResourceAsStream("/images/icon.png"));
-        int tempWidth = new TrayIcon(tempImage).getSize().width;
-        Image iconImage = tempImage.getScaledInstance(tempWidth, -1, Image.SCALE_SMOOTH);
+        ExecutionRuntime.io().execute(() ->
+                StartupProfiler.run("window observer", WindowInformation::beginObservingWindows));
+
+        viewAllImages.addActionListener(e -> {
+            try {
+                Desktop.getDesktop().open(new File(settingsClass.getSaveDirectory()));
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+        });
+        exit.addActionListener(e -> {
+            CaptureCoordinator.cancelActiveCapture();
+            tray.remove(icon);
+
+            WindowInformation.endObservingWindows();
+            SettingsWatcher.endWatching();
+            InstantReplay.end();
+            CaptureMetrics.stop();
+            ExecutionRuntime.shutdown(EXIT_TIMEOUT, TimeUnit.SECONDS);
+            CaptureHistory.close();
+            ThumbnailCache.close();
+
+            System.exit(0);
+        });
+
+        config = configFuture.join();
+        hookFuture.join();
+
+        GlobalKeyListener.beginListening(settingsClass, config);
 
-        TrayIconAWT icon = new TrayIconAWT(iconImage, popup);
         icon.addMouseListener(new MouseListener() {
             /**
              * Listener for when {@link TrayIconAWT} is clicked. By default, clicking the {@link TrayIconAWT} will open
@@ -111,7 +182,7 @@ public class CreateTrayIcon extends Application {
                 viewAllImages.setEnabled(settingsClass.isSaveAllImages());
 
                 if (SwingUtilities.isLeftMouseButton(e)) {
-                    CaptureScreen.createInstance(new CaptureImage(settingsClass, config));
+                    CaptureCoordinator.requestCapture(() -> new CaptureImage(settingsClass, config));
                 }
             }
 
@@ -132,24 +203,73 @@ public class CreateTrayIcon extends Application {
             }
         });
 
-        SystemTray tray = SystemTray.getSystemTray();
-        tray.add(icon);
-
-        captureImage.addActionListener(e -> CaptureScreen.createInstance(new CaptureImage(settingsClass, config)));
-        captureGIF.addActionListener(e -> CaptureScreen.createInstance(new CaptureGIF(settingsClass, config)));
-        viewAllImages.addActionListener(e -> {
-            try {
-                Desktop.getDesktop().open(new File(settingsClass.getSaveDirectory()));
-            } catch (IOException e1) {
-                e1.printStackTrace();
-            }
-        });
+        captureImage.addActionListener(e ->
+                CaptureCoordinator.requestCapture(() -> new CaptureImage(settingsClass, config)));
+        captureGIF.addActionListener(e ->
+                CaptureCoordinator.requestCapture(() -> new CaptureGIF(settingsClass, config)));
+        captureScroll.addActionListener(e ->
+                CaptureCoordinator.requestCapture(() -> new CaptureScroll(settingsClass, config)));
+        saveReplay.addActionListener(e -> InstantReplay.save());
         settingsTray.addActionListener(e ->
                 Platform.runLater(() -> CaptureSettings.createInstance(settingsClass, config)));
-        exit.addActionListener(e -> {
-            tray.remove(icon);
-            System.exit(0);
-        });
+
+        captureImage.setEnabled(true);
+        captureGIF.setEnabled(settingsClass.isEnableGIF());
+        captureScroll.setEnabled(true);
+        saveReplay.setEnabled(true);
+        settingsTray.setEnabled(true);
+
+        StartupProfiler.milestone("capture ready");
+        StartupProfiler.finish();
+
+        settingsClass.addListener(snapshot -> SwingUtilities.invokeLater(() -> updateMenuLabels(snapshot)));
+        settingsClass.addListener(snapshot -> ExecutionRuntime.io().execute(() ->
+                InstantReplay.update(settingsClass, config)));
+        SettingsWatcher.beginWatching(settingsClass, config);
+
+        ExecutionRuntime.io().execute(() -> StartupProfiler.run("metrics", CaptureMetrics::start));
+        StartupProfiler.Phase historyPhase = StartupProfiler.begin("history");
+        CaptureHistory.load(settingsClass.getSaveDirectory()).whenComplete((history, e) -> historyPhase.end());
+        ExecutionRuntime.io().execute(() -> InstantReplay.update(settingsClass, config));
+    }
+
+    /**
+     * Shows the current shortcuts in the labels of the capture items. Only called when the settings change.
+     *
+     * @param snapshot The current settings.
+     */
+    private void updateMenuLabels(Settings.Snapshot snapshot) {
+        captureImage.setText("Capture Image (" + snapshot.getCaptureImageShortcut().replace(" ", " + ") + ")");
+        captureGIF.setText("Capture GIF (" + snapshot.getCaptureGIFShortcut().replace(" ", " + ") + ")");
+        saveReplay.setText("Save Instant Replay (" + snapshot.getInstantReplayShortcut().replace(" ", " + ") + ")");
+        saveReplay.setVisible(snapshot.isEnableInstantReplay());
+    }
+
+    /**
+     * Scales the icon to the size of the system tray once, instead of handing the tray an image from
+     * {@link Image#getScaledInstance(int, int, int)} that is scaled lazily whenever it is first drawn.
+     *
+     * @return The icon at the width of the system tray, keeping its aspect ratio.
+     */
+    private Image createIconImage() {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(this.getClass().getResourceAsStream("/images/icon.png"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        int width = SystemTray.getSystemTray().getTrayIconSize().width;
+        int height = Math.max(1, image.getHeight() * width / image.getWidth());
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+
+        return scaled;
     }
 
     /**
@@ -172,12 +292,15 @@ public class CreateTrayIcon extends Application {
      * @param args No arguments are supplied/utilized.
      */
     public static void main(String[] args) {
-        WindowInformation.beginObservingWindows();
-        try {
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException |
-                UnsupportedLookAndFeelException ignored) {
-        }
+        StartupProfiler.milestone("main");
+
+        StartupProfiler.run("look and feel", () -> {
+            try {
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException |
+                    UnsupportedLookAndFeelException ignored) {
+            }
+        });
 
         Application.launch();
     }
@@ -1,8 +1,10 @@
 package tray;
 
-import capture.CaptureScreen;
+import capture.CaptureCoordinator;
 import capture.captureGIF.CaptureGIF;
+import capture.captureGIF.InstantReplay;
 import capture.captureImage.CaptureImage;
+import metrics.CaptureMetrics;
 import org.jnativehook.GlobalScreen;
 import org.jnativehook.NativeHookException;
 import org.jnativehook.keyboard.NativeKeyEvent;
@@ -10,9 +12,6 @@ import org.jnativehook.keyboard.NativeKeyListener;
 import settings.Config;
 import settings.Settings;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,7 +27,17 @@ import java.util.logging.Logger;
 public class GlobalKeyListener implements NativeKeyListener {
     private Settings settings;
     private Config config;
-    private List<String> keys = new ArrayList<>();
+
+    /**
+     * The keys that have been pressed without having been released, as a set of {@link ChordTable} bits.
+     */
+    private final long[] keys = new long[ChordTable.WORDS];
+
+    /**
+     * The shortcuts of {@link #settings}, compiled again by {@link #compileChords(Settings.Snapshot)} whenever the
+     * settings change so that a key press only has to read them.
+     */
+    private volatile ChordTable chords;
 
     /**
      * Sets the class {@link Settings} and {@link Config} classes to match the one passed in by {@link CreateTrayIcon}.
@@ -39,93 +48,54 @@ public class GlobalKeyListener implements NativeKeyListener {
     private GlobalKeyListener(Settings settings, Config config) {
         this.settings = settings;
         this.config = config;
+
+        chords = compileChords(settings.getSnapshot());
+        settings.addListener(snapshot -> chords = compileChords(snapshot));
     }
 
     /**
      * Primarily, the pressed key is added to {@link #keys} which contains all keys that have been pressed without
-     * having been released.
+     * having been released. When a key is newly pressed, the action bound to exactly the keys that are held down is
+     * run.
      * <p>
-     * If {@link Settings#enableImageShortcut} is enabled and the and the list of keys match
+     * If {@link Settings#enableImageShortcut} is enabled and the and the keys match
      * {@link Settings#captureImageShortcut}, the {@link CaptureImage} GUI will be instantiated.
      * <p>
      * The {@link CaptureImage} GUI will also be instantiated by clicking on the "Print Screen" key if
      * {@link Settings#enablePrintScreen} is true.
      * <p>
-     * Similarly, if {@link Settings#enableGIFShortcut} is enabled and the and the list of keys match
+     * Similarly, if {@link Settings#enableGIFShortcut} is enabled and the and the keys match
      * {@link Settings#captureGIFShortcut}, the {@link CaptureGIF} GUI will be instantiated. This also requires
      * {@link Settings#enableGIF} to be true.
+     * <p>
+     * As of 1.2, the instant replay shortcut uploads the last seconds of the {@link InstantReplay} if it is enabled.
      *
      * @param keyEvent Information about the key that was pressed.
      */
     public void nativeKeyPressed(NativeKeyEvent keyEvent) {
-        String key = NativeKeyEvent.getKeyText(keyEvent.getKeyCode());
-        if (key.equalsIgnoreCase("Left Control") || key.equalsIgnoreCase("Right Control")) {
-            key = "Ctrl";
-        } else if (key.equalsIgnoreCase("Left Shift") || key.equalsIgnoreCase("Right Shift")) {
-            key = "Shift";
-        }
-
-        if (!keys.contains(key)) {
-            keys.add(key);
+        if (!ChordTable.set(keys, keyEvent.getKeyCode())) {
+            return;
         }
 
-        if (settings.isEnableImageShortcut()) {
-            if (keys.size() == settings.getKeyCodes().size()) {
-                boolean[] allOuterBooleans = new boolean[keys.size()];
-                Arrays.fill(allOuterBooleans, false);
-
-                for (int i = 0; i < keys.size(); i++) {
-                    boolean innerBoolean = false;
-
-                    for (int j = 0; j < settings.getKeyCodes().size(); j++) {
-                        String clickedKey = keys.get(i);
-                        String savedKey = settings.getKeyCodes().get(j).getName();
-                        if (clickedKey.equalsIgnoreCase(savedKey)) {
-                            innerBoolean = true;
-                            break;
-                        }
-                    }
-
-                    allOuterBooleans[i] = innerBoolean;
-                }
-
-                if (areAllTrue(allOuterBooleans)) {
-                    CaptureScreen.createInstance(new CaptureImage(settings, config));
-                }
-            }
-        }
+        long startTime = System.nanoTime();
+        boolean requested = false;
 
-        if (settings.isEnableGIF() && settings.isEnableGIFShortcut()) {
-            if (keys.size() == settings.getKeyCodes2().size()) {
-                boolean[] allOuterBooleans = new boolean[keys.size()];
-                Arrays.fill(allOuterBooleans, false);
-
-                for (int i = 0; i < keys.size(); i++) {
-                    boolean innerBoolean = false;
-
-                    for (int j = 0; j < settings.getKeyCodes2().size(); j++) {
-                        String clickedKey = keys.get(i);
-                        String savedKey = settings.getKeyCodes2().get(j).getName();
-                        if (clickedKey.equalsIgnoreCase(savedKey)) {
-                            innerBoolean = true;
-                            break;
-                        }
-                    }
-
-                    allOuterBooleans[i] = innerBoolean;
-                }
-
-                if (areAllTrue(allOuterBooleans)) {
-                    CaptureScreen.createInstance(new CaptureGIF(settings, config));
-                }
-            }
+        Runnable action = chords.get(keys);
+        if (action != null) {
+            action.run();
+            requested = true;
         }
 
         if (settings.isEnablePrintScreen()) {
             if (keyEvent.getKeyCode() == NativeKeyEvent.VC_PRINTSCREEN) {
-                CaptureScreen.createInstance(new CaptureImage(settings, config));
+                CaptureCoordinator.requestCapture(() -> new CaptureImage(settings, config));
+                requested = true;
             }
         }
+
+        if (requested) {
+            CaptureMetrics.recordSince(CaptureMetrics.Latency.HOTKEY, startTime);
+        }
     }
 
     /**
@@ -134,48 +104,62 @@ public class GlobalKeyListener implements NativeKeyListener {
      * @param keyEvent Information about the key that was released.
      */
     public void nativeKeyReleased(NativeKeyEvent keyEvent) {
-        String key = NativeKeyEvent.getKeyText(keyEvent.getKeyCode());
-        if (key.equalsIgnoreCase("Left Control") || key.equalsIgnoreCase("Right Control")) {
-            key = "Ctrl";
-        } else if (key.equalsIgnoreCase("Left Shift") || key.equalsIgnoreCase("Right Shift")) {
-            key = "Shift";
-        }
-
-        keys.remove(key);
+        ChordTable.clear(keys, keyEvent.getKeyCode());
     }
 
     public void nativeKeyTyped(NativeKeyEvent e) {
     }
 
     /**
-     * Checks if every entry in inputted boolean array is true.
+     * Compiles the shortcuts of the settings into a {@link ChordTable}.
      *
-     * @param array The {@link Boolean} array that is to be checked.
-     * @return Returns true if all entries in the array are true.
+     * @param snapshot The settings to compile.
+     * @return The shortcuts that are enabled in the settings.
      */
-    private static boolean areAllTrue(boolean[] array) {
-        for (boolean b : array) {
-            if (!b) {
-                return false;
-            }
+    private ChordTable compileChords(Settings.Snapshot snapshot) {
+        ChordTable table = new ChordTable();
+        if (snapshot.isEnableImageShortcut()) {
+            table.bind(snapshot.getKeyCodes(), () ->
+                    CaptureCoordinator.requestCapture(() -> new CaptureImage(settings, config)));
+        }
+        if (snapshot.isEnableGIF() && snapshot.isEnableGIFShortcut()) {
+            table.bind(snapshot.getKeyCodes2(), () ->
+                    CaptureCoordinator.requestCapture(() -> new CaptureGIF(settings, config)));
+        }
+        if (snapshot.isEnableInstantReplay()) {
+            table.bind(snapshot.getKeyCodes3(), InstantReplay::save);
         }
 
-        return true;
+        return table;
     }
 
     /**
-     * Adds a new instance of {@link GlobalKeyListener} to the global key listener.
-     *
-     * @param settings The settings class that is passed in from {@link CreateTrayIcon}.
-     * @param config   The config class that is passed in from {@link CreateTrayIcon}.
+     * Registers the native keyboard hook. This does not depend on {@link Settings} or {@link Config}, so it can be done
+     * while they are being loaded. Does nothing if the hook is already registered.
      */
-    public static void beginListening(Settings settings, Config config) {
+    public static void registerNativeHook() {
+        if (GlobalScreen.isNativeHookRegistered()) {
+            return;
+        }
+
         Logger.getLogger(GlobalScreen.class.getPackage().getName()).setLevel(Level.OFF);
         try {
             GlobalScreen.registerNativeHook();
         } catch (NativeHookException e) {
             e.printStackTrace();
         }
+    }
+
+    /**
+     * Adds a new instance of {@link GlobalKeyListener} to the global key listener, registering the native hook first
+     * if {@link #registerNativeHook()} has not been called yet.
+     *
+     * @param settings The settings class that is passed in from {@link CreateTrayIcon}.
+     * @param config   The config class that is passed in from {@link CreateTrayIcon}.
+     */
+    public static void beginListening(Settings settings, Config config) {
+        registerNativeHook();
+
         GlobalScreen.addNativeKeyListener(new GlobalKeyListener(settings, config));
     }
 }
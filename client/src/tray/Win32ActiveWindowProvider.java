@@ -0,0 +1,147 @@
+package tray;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.platform.win32.Kernel32;
+import com.sun.jna.platform.win32.WinDef.HWND;
+import com.sun.jna.platform.win32.WinDef.LPARAM;
+import com.sun.jna.platform.win32.WinDef.WPARAM;
+import com.sun.jna.platform.win32.WinNT.HANDLE;
+import com.sun.jna.platform.win32.WinUser;
+import com.sun.jna.win32.StdCallLibrary;
+import com.sun.jna.win32.W32APIOptions;
+import tools.ExecutionRuntime;
+
+import java.util.function.Consumer;
+
+/**
+ * Observes the active window on Windows with a WinEvent hook instead of polling GetForegroundWindow.
+ * <p>
+ * The hook reports EVENT_SYSTEM_FOREGROUND when another window is activated and EVENT_OBJECT_NAMECHANGE when a title
+ * changes. Both are delivered to the message loop of the provider's thread, which sleeps in GetMessage in between.
+ * The title buffer is allocated once and reused.
+ *
+ * @since 1.2
+ */
+class Win32ActiveWindowProvider implements ActiveWindowProvider {
+    /**
+     * Max length of window title.
+     */
+    private static final int MAX_TITLE_LENGTH = 1024;
+
+    private static final int EVENT_SYSTEM_FOREGROUND = 0x0003;
+    private static final int EVENT_OBJECT_NAMECHANGE = 0x800C;
+    private static final int WINEVENT_OUTOFCONTEXT = 0x0000;
+    private static final int WINEVENT_SKIPOWNPROCESS = 0x0002;
+    private static final int OBJID_WINDOW = 0;
+
+    private final char[] titleBuffer = new char[MAX_TITLE_LENGTH];
+
+    /**
+     * Kept in a field so that the callback is not garbage collected while the hook is installed.
+     */
+    private final User32.WinEventProc callback = this::onWinEvent;
+
+    private Consumer<String> listener;
+    private volatile int threadId;
+    private volatile boolean stopped;
+
+    @Override
+    public boolean start(Consumer<String> listener) {
+        this.listener = listener;
+
+        ExecutionRuntime.startDedicatedThread("window", this::run);
+
+        return true;
+    }
+
+    /**
+     * Ends the message loop, which removes the hooks on the provider's thread.
+     */
+    @Override
+    public void stop() {
+        stopped = true;
+
+        if (threadId != 0) {
+            User32.INSTANCE.PostThreadMessage(threadId, WinUser.WM_QUIT, new WPARAM(0), new LPARAM(0));
+        }
+    }
+
+    /**
+     * Installs the hooks and pumps messages, which is required for out of context hooks to be called.
+     */
+    private void run() {
+        threadId = Kernel32.INSTANCE.GetCurrentThreadId();
+
+        HANDLE foregroundHook = User32.INSTANCE.SetWinEventHook(EVENT_SYSTEM_FOREGROUND, EVENT_SYSTEM_FOREGROUND,
+                null, callback, 0, 0, WINEVENT_OUTOFCONTEXT | WINEVENT_SKIPOWNPROCESS);
+        HANDLE nameHook = User32.INSTANCE.SetWinEventHook(EVENT_OBJECT_NAMECHANGE, EVENT_OBJECT_NAMECHANGE,
+                null, callback, 0, 0, WINEVENT_OUTOFCONTEXT | WINEVENT_SKIPOWNPROCESS);
+
+        try {
+            report(User32.INSTANCE.GetForegroundWindow());
+
+            WinUser.MSG message = new WinUser.MSG();
+            while (!stopped && User32.INSTANCE.GetMessage(message, null, 0, 0) > 0) {
+                User32.INSTANCE.TranslateMessage(message);
+                User32.INSTANCE.DispatchMessage(message);
+            }
+        } finally {
+            User32.INSTANCE.UnhookWinEvent(foregroundHook);
+            User32.INSTANCE.UnhookWinEvent(nameHook);
+        }
+    }
+
+    private void onWinEvent(HANDLE hook, int event, HWND window, int objectId, int childId, int eventThread,
+                            int eventTime) {
+        if (window == null || objectId != OBJID_WINDOW) {
+            return;
+        }
+
+        if (event == EVENT_SYSTEM_FOREGROUND ||
+                (event == EVENT_OBJECT_NAMECHANGE && window.equals(User32.INSTANCE.GetForegroundWindow()))) {
+            report(window);
+        }
+    }
+
+    private void report(HWND window) {
+        if (window == null) {
+            return;
+        }
+
+        int length = User32.INSTANCE.GetWindowText(window, titleBuffer, titleBuffer.length);
+        if (length > 0) {
+            listener.accept(new String(titleBuffer, 0, length));
+        }
+    }
+
+    /**
+     * The functions of user32.dll that are needed for the WinEvent hook, since the User32 of JNA does not map
+     * SetWinEventHook.
+     */
+    private interface User32 extends StdCallLibrary {
+        User32 INSTANCE = (User32) Native.loadLibrary("user32", User32.class, W32APIOptions.DEFAULT_OPTIONS);
+
+        interface WinEventProc extends StdCallCallback {
+            void callback(HANDLE hook, int event, HWND window, int objectId, int childId, int eventThread,
+                          int eventTime);
+        }
+
+        HANDLE SetWinEventHook(int eventMin, int eventMax, Pointer module, WinEventProc callback, int processId,
+                               int threadId, int flags);
+
+        boolean UnhookWinEvent(HANDLE hook);
+
+        boolean PostThreadMessage(int threadId, int message, WPARAM wParam, LPARAM lParam);
+
+        HWND GetForegroundWindow();
+
+        int GetWindowText(HWND window, char[] text, int maxCount);
+
+        int GetMessage(WinUser.MSG message, HWND window, int filterMin, int filterMax);
+
+        boolean TranslateMessage(WinUser.MSG message);
+
+        Pointer DispatchMessage(WinUser.MSG message);
+    }
+}
@@ -1,70 +1,82 @@
 package tray;
 
-import com.sun.jna.Native;
-import com.sun.jna.platform.win32.WinDef.HWND;
-
-import java.util.Timer;
-import java.util.TimerTask;
+import com.sun.jna.Platform;
 
 /**
  * Constantly captures the latest active window and saves the title of that window it to {@link #ACTIVE_WINDOW}.
+ * <p>
+ * As of 1.2, the title is reported by an {@link ActiveWindowProvider} for the current platform whenever it changes
+ * instead of being polled.
  *
  * @since 1.0
  */
 public class WindowInformation {
-    public static String ACTIVE_WINDOW = "";
+    public static volatile String ACTIVE_WINDOW = "";
 
-    /**
-     * Max length of window title.
-     */
-    private static final int MAX_TITLE_LENGTH = 1024;
+    private static ActiveWindowProvider provider;
 
     /**
-     * Time in milliseconds to wait until updating the latest {@link #ACTIVE_WINDOW}.
+     * Starts the {@link ActiveWindowProvider} of the current platform, which updates {@link #ACTIVE_WINDOW} whenever
+     * the active window changes. Nothing happens on platforms that have no provider.
      */
-    private static final int TIME_TO_WAIT = 100;
+    public static synchronized void beginObservingWindows() {
+        if (provider != null) {
+            return;
+        }
 
-    /**
-     * Creates and schedules a timer to continuously check the active window title and update {@link #ACTIVE_WINDOW} if
-     * the new window has changed.
-     * <p>
-     * which repeats every {@link #TIME_TO_WAIT} milliseconds.
-     */
-    public static void beginObservingWindows() {
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            public void run() {
-                String newWindow = getActiveWindowTitle();
-                if (!newWindow.equalsIgnoreCase(ACTIVE_WINDOW) && !newWindow.equals("")) {
-                    ACTIVE_WINDOW = newWindow.replaceAll("\\P{Print}", "");
-                }
+        if (Platform.isWindows()) {
+            provider = new Win32ActiveWindowProvider();
+        } else if (Platform.isX11()) {
+            provider = new X11ActiveWindowProvider();
+        } else {
+            return;
+        }
+
+        try {
+            if (!provider.start(WindowInformation::onWindowChanged)) {
+                provider = null;
             }
-        }, 1, TIME_TO_WAIT);
+        } catch (UnsatisfiedLinkError e) {
+            e.printStackTrace();
+
+            provider = null;
+        }
     }
 
     /**
-     * Retrieves the title of the active window.
-     *
-     * @return The title of the window.
+     * Stops observing the active window.
      */
-    private static String getActiveWindowTitle() {
-        char[] buffer = new char[MAX_TITLE_LENGTH * 2];
-        HWND foregroundWindow = User32.GetForegroundWindow();
-        User32.GetWindowTextW(foregroundWindow, buffer, MAX_TITLE_LENGTH);
-
-        return Native.toString(buffer);
+    public static synchronized void endObservingWindows() {
+        if (provider != null) {
+            provider.stop();
+            provider = null;
+        }
     }
 
     /**
-     * Uses JNA to get the active window title using User32.dll
+     * Keeps only the printable ASCII characters of the title, since it is sent as an HTTP header. This is the same as
+     * removing "\\P{Print}" with a regular expression but without compiling a pattern for every title.
+     *
+     * @param title The raw title from the {@link ActiveWindowProvider}.
      */
-    private static class User32 {
-        static {
-            Native.register("user32");
-        }
+    private static void onWindowChanged(String title) {
+        StringBuilder printable = null;
 
-        public static native HWND GetForegroundWindow();
+        for (int i = 0; i < title.length(); i++) {
+            char c = title.charAt(i);
+            boolean isPrintable = c >= 0x20 && c <= 0x7E;
 
-        public static native int GetWindowTextW(HWND hWnd, char[] lpString, int nMaxCount);
+            if (!isPrintable && printable == null) {
+                printable = new StringBuilder(title.length());
+                printable.append(title, 0, i);
+            } else if (isPrintable && printable != null) {
+                printable.append(c);
+            }
+        }
+
+        String newWindow = printable == null ? title : printable.toString();
+        if (!newWindow.equals("") && !newWindow.equalsIgnoreCase(ACTIVE_WINDOW)) {
+            ACTIVE_WINDOW = newWindow;
+        }
     }
 }
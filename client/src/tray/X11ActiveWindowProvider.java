@@ -0,0 +1,267 @@
+package tray;
+
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.platform.unix.X11;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.NativeLongByReference;
+import com.sun.jna.ptr.PointerByReference;
+import tools.Constants;
+import tools.ExecutionRuntime;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Observes the active window on X11 through the '_NET_ACTIVE_WINDOW' property that EWMH compliant window managers set
+ * on the root window.
+ * <p>
+ * The provider subscribes to PropertyNotify events of the root window and of the active window, and then blocks in
+ * XNextEvent on its own display connection. It is only woken up when focus moves or the title of the active window
+ * changes. The event structure and all property buffers are allocated once and reused.
+ *
+ * @since 1.2
+ */
+class X11ActiveWindowProvider implements ActiveWindowProvider {
+    /**
+     * The longest title that is read, in bytes.
+     */
+    private static final int MAX_TITLE_LENGTH = 1024;
+
+    private static final NativeLong PROPERTY_CHANGE_MASK = new NativeLong(X11.PropertyChangeMask);
+    private static final NativeLong NO_EVENT_MASK = new NativeLong(X11.NoEventMask);
+    private static final NativeLong NO_OFFSET = new NativeLong(0);
+
+    private static final X11 x11 = X11.INSTANCE;
+
+    private static volatile X11.XErrorHandler previousErrorHandler;
+    private static volatile Pointer ignoredDisplay;
+
+    /**
+     * The X error handler that is installed while the active window is queried. Errors on our display, such as a
+     * window that was destroyed before its title was read, are ignored while every other error is passed to the
+     * handler it replaced, e.g. the one of AWT. It is kept in a field so that the callback is not garbage collected.
+     */
+    private static final X11.XErrorHandler errorHandler = (errorDisplay, errorEvent) -> {
+        if (errorDisplay != null && errorDisplay.getPointer().equals(ignoredDisplay)) {
+            return 0;
+        }
+
+        X11.XErrorHandler previous = previousErrorHandler;
+
+        return previous != null ? previous.apply(errorDisplay, errorEvent) : 0;
+    };
+
+    private X11.Display display;
+    private X11.Window root;
+    private X11.Window wakeUpWindow;
+    private X11.Window activeWindow;
+
+    private X11.Atom netActiveWindow;
+    private X11.Atom netWmName;
+    private X11.Atom wmName;
+    private X11.Atom utf8String;
+    private X11.Atom stopMessage;
+
+    private final X11.XEvent event = new X11.XEvent();
+    private final X11.AtomByReference actualType = new X11.AtomByReference();
+    private final IntByReference actualFormat = new IntByReference();
+    private final NativeLongByReference itemCount = new NativeLongByReference();
+    private final NativeLongByReference bytesAfter = new NativeLongByReference();
+    private final PointerByReference property = new PointerByReference();
+    private final byte[] titleBuffer = new byte[MAX_TITLE_LENGTH];
+
+    private Consumer<String> listener;
+    private volatile boolean stopped;
+
+    @Override
+    public boolean start(Consumer<String> listener) {
+        this.listener = listener;
+
+        display = x11.XOpenDisplay(null);
+        if (display == null) {
+            return false;
+        }
+
+        root = x11.XDefaultRootWindow(display);
+        netActiveWindow = x11.XInternAtom(display, "_NET_ACTIVE_WINDOW", false);
+        netWmName = x11.XInternAtom(display, "_NET_WM_NAME", false);
+        wmName = x11.XInternAtom(display, "WM_NAME", false);
+        utf8String = x11.XInternAtom(display, "UTF8_STRING", false);
+        stopMessage = x11.XInternAtom(display, Constants.PROGRAM_NAME.toUpperCase() + "_STOP", false);
+
+        wakeUpWindow = x11.XCreateSimpleWindow(display, root, 0, 0, 1, 1, 0, 0, 0);
+        x11.XSelectInput(display, root, PROPERTY_CHANGE_MASK);
+
+        event.setType(X11.XPropertyEvent.class);
+
+        ExecutionRuntime.startDedicatedThread("window", this::run);
+
+        return true;
+    }
+
+    /**
+     * Wakes up the event thread by sending it a message from a separate connection, since Xlib connections must not
+     * be used from two threads at once.
+     */
+    @Override
+    public void stop() {
+        if (stopped || display == null) {
+            return;
+        }
+
+        stopped = true;
+
+        X11.Display sender = x11.XOpenDisplay(null);
+        if (sender == null) {
+            return;
+        }
+
+        X11.XEvent message = new X11.XEvent();
+        message.setType(X11.XClientMessageEvent.class);
+        message.xclient.type = X11.ClientMessage;
+        message.xclient.window = wakeUpWindow;
+        message.xclient.message_type = stopMessage;
+        message.xclient.format = 32;
+        message.write();
+
+        x11.XSendEvent(sender, wakeUpWindow, 0, NO_EVENT_MASK, message);
+        x11.XFlush(sender);
+        x11.XCloseDisplay(sender);
+    }
+
+    private void run() {
+        try {
+            query(this::updateActiveWindow);
+
+            while (!stopped) {
+                x11.XNextEvent(display, event);
+
+                X11.XPropertyEvent propertyEvent = event.xproperty;
+                if (propertyEvent.type != X11.PropertyNotify) {
+                    continue;
+                }
+
+                if (root.equals(propertyEvent.window) && netActiveWindow.equals(propertyEvent.atom)) {
+                    query(this::updateActiveWindow);
+                } else if (propertyEvent.window != null && propertyEvent.window.equals(activeWindow) &&
+                        (netWmName.equals(propertyEvent.atom) || wmName.equals(propertyEvent.atom))) {
+                    query(this::updateTitle);
+                }
+            }
+        } finally {
+            x11.XDestroyWindow(display, wakeUpWindow);
+            x11.XCloseDisplay(display);
+        }
+    }
+
+    /**
+     * Reads '_NET_ACTIVE_WINDOW' from the root window, moves the title subscription to the new window and reports its
+     * title.
+     */
+    private void updateActiveWindow() {
+        X11.Window window = null;
+
+        Pointer value = getProperty(root, netActiveWindow, X11.XA_WINDOW, 1);
+        if (value != null) {
+            long id = value.getNativeLong(0).longValue();
+            x11.XFree(value);
+
+            if (id != 0) {
+                window = new X11.Window(id);
+            }
+        }
+
+        if (window == null ? activeWindow == null : window.equals(activeWindow)) {
+            return;
+        }
+
+        if (activeWindow != null) {
+            x11.XSelectInput(display, activeWindow, NO_EVENT_MASK);
+        }
+
+        activeWindow = window;
+
+        if (activeWindow != null) {
+            x11.XSelectInput(display, activeWindow, PROPERTY_CHANGE_MASK);
+            updateTitle();
+        }
+    }
+
+    private void updateTitle() {
+        String title = readTitle(netWmName, utf8String);
+        if (title == null) {
+            title = readTitle(wmName, X11.XA_STRING);
+        }
+
+        if (title != null) {
+            listener.accept(title);
+        }
+    }
+
+    private String readTitle(X11.Atom name, X11.Atom type) {
+        Pointer value = getProperty(activeWindow, name, type, MAX_TITLE_LENGTH / 4);
+        if (value == null) {
+            return null;
+        }
+
+        int length = (int) Math.min(itemCount.getValue().longValue(), titleBuffer.length);
+        value.read(0, titleBuffer, 0, length);
+        x11.XFree(value);
+
+        return new String(titleBuffer, 0, length,
+                type == X11.XA_STRING ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a property with the reused out-parameters.
+     *
+     * @param window The window to read from.
+     * @param name   The property.
+     * @param type   The expected type of the property.
+     * @param length The maximum length to read in 32-bit units.
+     * @return The value which has to be freed with XFree, or null if the window does not have the property.
+     */
+    private Pointer getProperty(X11.Window window, X11.Atom name, X11.Atom type, int length) {
+        int status = x11.XGetWindowProperty(display, window, name, NO_OFFSET, new NativeLong(length), false,
+                type, actualType, actualFormat, itemCount, bytesAfter, property);
+
+        Pointer value = property.getValue();
+        if (status != 0 || value == null) {
+            return null;
+        }
+
+        if (itemCount.getValue().longValue() == 0) {
+            x11.XFree(value);
+
+            return null;
+        }
+
+        return value;
+    }
+
+    /**
+     * Runs a query of the active window with {@link #errorHandler} installed and restores the previous X error handler
+     * of the process afterwards. The display is synchronized before the handler is restored, so that the errors of
+     * requests without a reply, such as XSelectInput on a window that no longer exists, arrive while the errors of our
+     * display are still ignored.
+     *
+     * @param query The query, which may only make requests on {@link #display}.
+     */
+    private void query(Runnable query) {
+        synchronized (X11ActiveWindowProvider.class) {
+            ignoredDisplay = display.getPointer();
+            previousErrorHandler = x11.XSetErrorHandler(errorHandler);
+
+            try {
+                query.run();
+                x11.XSync(display, false);
+            } finally {
+                x11.XSetErrorHandler(previousErrorHandler);
+
+                previousErrorHandler = null;
+                ignoredDisplay = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package upload;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import tools.ExecutionRuntime;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the Gfycat oAuth key for as long as it is valid instead of requesting a new key for every GIF.
+ * <p>
+ * Shortly before the key expires it is refreshed in the background, but only if it was used since it was retrieved so
+ * that an idle client stops talking to Gfycat.
+ *
+ * @since 1.2
+ */
+class GfycatTokenCache {
+    /**
+     * The lifetime in seconds assumed when Gfycat does not send "expires_in".
+     */
+    private static final long DEFAULT_LIFETIME = 3600;
+
+    /**
+     * How long in milliseconds before it expires the key is refreshed.
+     */
+    private static final long REFRESH_MARGIN = 60 * 1000;
+
+    private final String tokenEndpoint;
+
+    private String clientID;
+    private String clientSecret;
+    private String accessToken;
+    private long expiresAt;
+    private boolean usedSinceRetrieval;
+
+    /**
+     * @param tokenEndpoint The URL that hands out oAuth keys.
+     */
+    GfycatTokenCache(String tokenEndpoint) {
+        this.tokenEndpoint = tokenEndpoint;
+    }
+
+    /**
+     * Returns the cached oAuth key if it is still valid for the given credentials, otherwise a new key is requested
+     * which blocks the calling thread.
+     *
+     * @param clientID     The Gfycat Client ID.
+     * @param clientSecret The Gfycat Client Secret.
+     * @return The oAuth key that allows for permission to upload a GIF.
+     * @throws IOException If Gfycat could not be reached or refused the credentials.
+     */
+    synchronized String getToken(String clientID, String clientSecret) throws IOException {
+        boolean sameCredentials = clientID.equals(this.clientID) && clientSecret.equals(this.clientSecret);
+
+        if (accessToken == null || !sameCredentials || System.currentTimeMillis() >= expiresAt) {
+            retrieveToken(clientID, clientSecret);
+        }
+
+        usedSinceRetrieval = true;
+
+        return accessToken;
+    }
+
+    /**
+     * Forgets the cached key, for example after Gfycat rejected it.
+     */
+    synchronized void invalidate() {
+        accessToken = null;
+    }
+
+    /**
+     * Requests a new oAuth key and schedules its refresh.
+     *
+     * @param clientID     The Gfycat Client ID.
+     * @param clientSecret The Gfycat Client Secret.
+     * @throws IOException If Gfycat could not be reached or refused the credentials.
+     */
+    private void retrieveToken(String clientID, String clientSecret) throws IOException {
+        HttpClient httpClient = HttpClients.createMinimal();
+
+        JSONObject input = new JSONObject();
+        input.put("client_id", clientID);
+        input.put("client_secret", clientSecret);
+        input.put("grant_type", "client_credentials");
+
+        HttpPost request = new HttpPost(tokenEndpoint);
+        request.addHeader("content-type", "application/x-www-form-urlencoded");
+        request.setEntity(new StringEntity(input.toString()));
+
+        HttpResponse response = httpClient.execute(request);
+        HttpEntity entity = response.getEntity();
+        String responseString = EntityUtils.toString(entity, "UTF-8");
+
+        EntityUtils.consume(entity);
+
+        JSONObject obj;
+        try {
+            obj = new JSONObject(responseString);
+        } catch (JSONException e) {
+            throw new IOException("Gfycat responded with: " + responseString, e);
+        }
+
+        if (obj.isNull("access_token")) {
+            JSONObject errorMessage = obj.optJSONObject("errorMessage");
+            if (errorMessage == null) {
+                throw new IOException("Gfycat responded with: " + responseString);
+            }
+
+            throw new GfycatException(errorMessage.optString("code"), errorMessage.optString("description"));
+        }
+
+        long lifetime = obj.optLong("expires_in", DEFAULT_LIFETIME) * 1000;
+
+        this.clientID = clientID;
+        this.clientSecret = clientSecret;
+        this.accessToken = obj.getString("access_token");
+        this.expiresAt = System.currentTimeMillis() + lifetime;
+        this.usedSinceRetrieval = false;
+
+        String scheduledToken = accessToken;
+        ExecutionRuntime.schedule(ExecutionRuntime.io(), () -> refresh(scheduledToken),
+                Math.max(lifetime - REFRESH_MARGIN, 0), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Refreshes the key ahead of its expiry if it is still the cached key and it was used.
+     *
+     * @param scheduledToken The key the refresh was scheduled for.
+     */
+    private synchronized void refresh(String scheduledToken) {
+        if (!scheduledToken.equals(accessToken)) {
+            return;
+        }
+
+        if (!usedSinceRetrieval) {
+            accessToken = null;
+
+            return;
+        }
+
+        try {
+            retrieveToken(clientID, clientSecret);
+        } catch (IOException e) {
+            accessToken = null;
+
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Thrown when Gfycat refuses to hand out an oAuth key.
+     */
+    static class GfycatException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final String code;
+        private final String description;
+
+        GfycatException(String code, String description) {
+            super(code + ": " + description);
+
+            this.code = code;
+            this.description = description;
+        }
+
+        String getCode() {
+            return code;
+        }
+
+        String getDescription() {
+            return description;
+        }
+    }
+}
@@ -1,102 +1,143 @@
 package upload;
 
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.InputStreamBody;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 import settings.Config;
+import tools.ExecutionRuntime;
+import tools.Logging;
 
-import javax.swing.*;
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Allows for GIFs to be uploaded to Gfycat through the official Gfycat API.
  * <p>
- * This method of uploading a GIF image to Gfycat is blocking and not asynchronous.
+ * Sending the GIF blocks the calling thread but waiting for Gfycat to finish encoding it does not. The status of the
+ * GIF is polled with an increasing delay by tasks that are timed by the scheduler of the {@link ExecutionRuntime}, so
+ * uploads that are waiting on Gfycat do not hold on to a thread in between checks. The oAuth key is cached by
+ * {@link GfycatTokenCache}.
  * <p>
  * For reference, a slug is defined as the designated ID of an uploaded image.
  */
 public class GfycatUpload {
-    private static String API_ENDPOINT = "https://api.gfycat.com/v1/";
-    private static String API_ENDPOINT_POST_KEY = API_ENDPOINT + "gfycats";
-    private static String API_ENDPOINT_GET_STATUS = API_ENDPOINT + "gfycats/fetch/status/";
+    public static final String API_ENDPOINT = "https://api.gfycat.com/v1/";
 
-    private static String URL_START = "https://gfycat.com/";
-    // private static String API_ENDPOINT_GET_INFORMATION = API_ENDPOINT + "gfycats/";
+    /**
+     * The system property that replaces {@link #API_ENDPOINT} for the uploads of {@link Upload}, e.g. with a mock of
+     * the API on the loopback interface.
+     *
+     * @since 1.2
+     */
+    public static final String API_ENDPOINT_PROPERTY = "jyazo.gfycat.apiEndpoint";
 
-    private Config config;
+    private static final String URL_START = "https://gfycat.com/";
 
-    private String gfyURL;
+    /**
+     * Delay in milliseconds before the status is checked for the first time, and the bounds of the delay between
+     * every check after that. The delay grows by {@link #POLL_BACKOFF} after every check.
+     */
+    private static final long INITIAL_POLL_DELAY = 2000;
+    private static final long MIN_POLL_DELAY = 1000;
+    private static final long MAX_POLL_DELAY = 15000;
+    private static final double POLL_BACKOFF = 1.5;
 
     /**
-     * @param config  The config class from {@link tray.CreateTrayIcon}. {@link Config#gfycatClientID} and
-     *                {@link Config#gfycatClientSecret} are both required for uploading an image.
-     * @param gifFile The GIF file that is to be uploaded.
+     * Time in milliseconds after which the GIF is given up on if Gfycat has not finished encoding it.
      */
-    public GfycatUpload(Config config, File gifFile) {
-        this.config = config;
+    private static final long POLL_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
 
-        String oAuthKey = generateOAuthKey();
-        GfycatUploadData uploadInformation = retrieveUploadInformation(oAuthKey);
+    /**
+     * Time in milliseconds that a single request to the API may take.
+     */
+    private static final int REQUEST_TIMEOUT = 15000;
 
-        gfyURL = URL_START + upload(uploadInformation, gifFile);
+    private final String apiEndpointPostKey;
+    private final String apiEndpointGetStatus;
+    private final GfycatTokenCache tokenCache;
+
+    /**
+     * @param apiEndpoint The base URL of the Gfycat API which is {@link #API_ENDPOINT} unless a local copy of the API
+     *                    is used for testing.
+     */
+    public GfycatUpload(String apiEndpoint) {
+        this.apiEndpointPostKey = apiEndpoint + "gfycats";
+        this.apiEndpointGetStatus = apiEndpoint + "gfycats/fetch/status/";
+        this.tokenCache = new GfycatTokenCache(apiEndpoint + "oauth/token");
     }
 
     /**
-     * Retrieves an oAuth key through the API allowing for one image upload. Requires both a valid Client ID stored at
-     * {@link Config#gfycatClientID}, and a valid Client Secret stored at {@link Config#gfycatClientSecret}.
+     * Uploads the GIF and returns once it has been sent. The returned {@link CompletableFuture} completes with the URL
+     * of the GIF once Gfycat has finished encoding it, or with an empty {@link String} if the upload failed. Cancelling
+     * it stops the status checks.
      *
-     * @return The oAuth key that allows for permission to upload a GIF.
+     * @param config    The config class from {@link tray.CreateTrayIcon}. {@link Config#gfycatClientID} and
+     *                  {@link Config#gfycatClientSecret} are both required for uploading an image.
+     * @param gifStream The GIF that is to be uploaded. It is read while it is being uploaded.
+     * @param fileName  The file name of the GIF.
+     * @return The URL of the GIF once it is ready for viewing.
      */
-    private String generateOAuthKey() {
-        HttpClient httpClient = HttpClients.createMinimal();
+    public CompletableFuture<String> upload(Config config, InputStream gifStream, String fileName) {
+        return upload(config.getGfycatClientID(), config.getGfycatClientSecret(), gifStream, fileName);
+    }
 
+    /**
+     * Uploads the GIF with the given credentials, see {@link #upload(Config, InputStream, String)}.
+     *
+     * @param clientID     The Gfycat Client ID.
+     * @param clientSecret The Gfycat Client Secret.
+     * @param gifStream    The GIF that is to be uploaded. It is read while it is being uploaded.
+     * @param fileName     The file name of the GIF.
+     * @return The URL of the GIF once it is ready for viewing.
+     * @since 1.2
+     */
+    public CompletableFuture<String> upload(String clientID, String clientSecret, InputStream gifStream,
+                                            String fileName) {
+        GfycatUploadData uploadInformation;
         try {
-            JSONObject input = new JSONObject();
-            input.put("client_id", config.getGfycatClientID());
-            input.put("client_secret", config.getGfycatClientSecret());
-            input.put("grant_type", "client_credentials");
+            String oAuthKey = tokenCache.getToken(clientID, clientSecret);
 
-            HttpPost request = new HttpPost("https://api.gfycat.com/v1/oauth/token");
-            StringEntity params = new StringEntity(input.toString());
-            request.addHeader("content-type", "application/x-www-form-urlencoded");
-            request.setEntity(params);
-            HttpResponse response = httpClient.execute(request);
-            HttpEntity entity = response.getEntity();
-            String responseString = EntityUtils.toString(entity, "UTF-8");
+            uploadInformation = retrieveUploadInformation(oAuthKey);
+        } catch (GfycatTokenCache.GfycatException e) {
+            Logging.showMessage("Error Code: " + e.getCode() +
+                    "\nError Message: \"" + e.getDescription() + "\"");
 
-            EntityUtils.consume(entity);
+            return CompletableFuture.completedFuture("");
+        } catch (IOException | JSONException e) {
+            tokenCache.invalidate();
 
-            JSONObject obj = new JSONObject(responseString);
-
-            try {
-                return obj.getString("access_token");
-            } catch (JSONException e) {
-                JSONObject errorMessage = obj.getJSONObject("errorMessage");
+            e.printStackTrace();
 
-                JOptionPane.showMessageDialog(null, "Error Code: " + errorMessage.getString("code") +
-                        "\nError Message: \"" + errorMessage.getString("description") + "\"");
+            return CompletableFuture.completedFuture("");
+        }
 
-                System.exit(0);
-            }
+        try {
+            sendFile(uploadInformation, gifStream, fileName);
         } catch (IOException e) {
             e.printStackTrace();
+
+            return CompletableFuture.completedFuture("");
         }
 
-        return "";
+        CompletableFuture<String> result = new CompletableFuture<>();
+        long deadline = System.currentTimeMillis() + POLL_TIMEOUT;
+
+        schedulePoll(result, apiEndpointGetStatus + uploadInformation.getSlug(), INITIAL_POLL_DELAY, deadline);
+
+        return result;
     }
 
     /**
@@ -104,121 +145,134 @@ public class GfycatUpload {
      *
      * @param oAuthKey Requires the oAuthKey to retrieve this information from the API.
      * @return Returns {@link GfycatUploadData} which contains the designated slug and the desired upload url.
+     * @throws IOException If Gfycat could not be reached.
      */
-    private GfycatUploadData retrieveUploadInformation(String oAuthKey) {
-        try {
-            URL urlObject = new URL(API_ENDPOINT_POST_KEY);
-            HttpURLConnection con = (HttpURLConnection) urlObject.openConnection();
-            con.setRequestProperty("Authorization", "Bearer " + oAuthKey);
-            con.setRequestProperty("Content-Type", "application/json");
-            con.setRequestMethod("POST");
+    private GfycatUploadData retrieveUploadInformation(String oAuthKey) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(apiEndpointPostKey).openConnection();
+        con.setConnectTimeout(REQUEST_TIMEOUT);
+        con.setReadTimeout(REQUEST_TIMEOUT);
+        con.setRequestProperty("Authorization", "Bearer " + oAuthKey);
+        con.setRequestProperty("Content-Type", "application/json");
+        con.setRequestMethod("POST");
+
+        JSONObject obj = readJSON(con);
+        String gfyName = obj.getString("gfyname");
+        String uploadType = obj.getString("uploadType");
+        String postGIFURL = uploadType.startsWith("http") ? uploadType : "https://" + uploadType;
+
+        return new GfycatUploadData(gfyName, postGIFURL);
+    }
 
-            BufferedReader r = new BufferedReader(new InputStreamReader(con.getInputStream()));
-            String inputLine;
-            StringBuffer response = new StringBuffer();
-            while ((inputLine = r.readLine()) != null)
-                response.append(inputLine);
-            r.close();
+    /**
+     * Uploads the image to the URL designated by Gfycat's API services.
+     *
+     * @param uploadData Contains the slug of the image and the url where the file should be uploaded.
+     * @param gifStream  The GIF that is to be uploaded.
+     * @param fileName   The file name of the GIF.
+     * @throws IOException If the GIF could not be sent.
+     */
+    private void sendFile(GfycatUploadData uploadData, InputStream gifStream, String fileName) throws IOException {
+        HttpClient httpClient = HttpClients.createMinimal();
+        HttpPost uploadFile = new HttpPost(uploadData.getURL());
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
 
-            JSONObject obj = new JSONObject(response.toString());
-            String gfyName = obj.getString("gfyname");
-            String postGIFURL = "https://" + obj.getString("uploadType");
+        builder.addTextBody("key", uploadData.getSlug());
+        builder.addPart("file", new InputStreamBody(gifStream, fileName));
 
-            return new GfycatUploadData(gfyName, postGIFURL);
-        } catch (IOException e) {
-            e.printStackTrace();
+        HttpEntity multipartEntity = builder.build();
+        uploadFile.setEntity(multipartEntity);
+        EntityUtils.consume(httpClient.execute(uploadFile).getEntity());
+    }
+
+    /**
+     * Checks the status of the GIF after the given delay unless the upload has already completed or been cancelled.
+     *
+     * @param result   The result of the upload.
+     * @param url      The status URL of the GIF.
+     * @param delay    Delay in milliseconds until the check.
+     * @param deadline Time in milliseconds since the epoch after which the upload is given up on.
+     */
+    private void schedulePoll(CompletableFuture<String> result, String url, long delay, long deadline) {
+        if (result.isDone()) {
+            return;
         }
 
-        return null;
+        ExecutionRuntime.schedule(ExecutionRuntime.io(), () -> poll(result, url, delay, deadline), delay,
+                TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Uploads the image to the URL designated by Gfycat's API services.
-     * <p>
-     * This method then checks for the status of the URL and will continue to block until the status of that image has
-     * completed encoding and is ready for viewing.
+     * Checks the status of the GIF once. The result is completed if Gfycat finished encoding, otherwise another check
+     * is scheduled with a longer delay.
      *
-     * @param uploadData Contains the slug of the image and the url where the file should be uploaded.
-     * @param gifFile    The file that is to be uploaded.
-     * @return Returns the slug of the uploaded GIF.
+     * @param result   The result of the upload.
+     * @param url      The status URL of the GIF.
+     * @param delay    Delay in milliseconds that preceded this check.
+     * @param deadline Time in milliseconds since the epoch after which the upload is given up on.
      */
-    private String upload(GfycatUploadData uploadData, File gifFile) {
-        try {
-            HttpClient httpClient = HttpClients.createMinimal();
-            HttpPost uploadFile = new HttpPost(uploadData.getURL());
-            MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+    private void poll(CompletableFuture<String> result, String url, long delay, long deadline) {
+        if (result.isDone()) {
+            return;
+        }
 
-            builder.addTextBody("key", uploadData.getSlug());
-            builder.addPart("file", new FileBody(gifFile));
+        if (System.currentTimeMillis() >= deadline) {
+            new TimeoutException("Gfycat did not finish encoding the GIF in time.").printStackTrace();
 
-            HttpEntity multipartEntity = builder.build();
-            uploadFile.setEntity(multipartEntity);
-            httpClient.execute(uploadFile);
+            result.complete("");
 
-            EntityUtils.consume(multipartEntity);
-        } catch (IOException e) {
-            e.printStackTrace();
+            return;
         }
 
         try {
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+            HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+            urlConnection.setConnectTimeout(REQUEST_TIMEOUT);
+            urlConnection.setReadTimeout(REQUEST_TIMEOUT);
 
-        String gfySlug;
-        String getURLFull = API_ENDPOINT_GET_STATUS + uploadData.getSlug();
+            JSONObject obj = readJSON(urlConnection);
 
-        URL getUrl;
-        try {
-            getUrl = new URL(getURLFull);
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
+            String task = obj.getString("task");
+            if (task.equals("complete")) {
+                result.complete(URL_START + obj.getString("gfyname"));
 
-            return "";
-        }
+                return;
+            } else if (!obj.isNull("mobileUrl")) {
+                result.complete(URL_START + obj.getString("gfyName"));
+
+                return;
+            } else if (task.equals("error")) {
+                new IOException("Gfycat could not encode the GIF: " + obj).printStackTrace();
 
-        while (true) {
-            try {
-                HttpURLConnection urlConnection = (HttpURLConnection) getUrl.openConnection();
-
-                BufferedReader r = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-                String inputLine;
-                StringBuilder response = new StringBuilder();
-                while ((inputLine = r.readLine()) != null)
-                    response.append(inputLine);
-                r.close();
-
-                JSONObject obj = new JSONObject(response.toString());
-
-                String task = obj.getString("task");
-                if (task.equals("encoding")) {
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                } else if (task.equals("complete")) {
-                    gfySlug = obj.getString("gfyname");
-
-                    break;
-                }
-
-                if (!obj.isNull("mobileUrl")) {
-                    gfySlug = obj.getString("gfyName");
-
-                    break;
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+                result.complete("");
+
+                return;
             }
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
         }
 
-        return gfySlug;
+        long nextDelay = Math.min(Math.max((long) (delay * POLL_BACKOFF), MIN_POLL_DELAY), MAX_POLL_DELAY);
+        nextDelay = Math.min(nextDelay, Math.max(deadline - System.currentTimeMillis(), 0));
+
+        schedulePoll(result, url, nextDelay, deadline);
     }
 
-    public String getGfyURL() {
-        return gfyURL;
+    /**
+     * Reads the response of the connection as a {@link JSONObject}.
+     *
+     * @param connection The connection to read.
+     * @return The response.
+     * @throws IOException If the response could not be read.
+     */
+    private static JSONObject readJSON(HttpURLConnection connection) throws IOException {
+        StringBuilder response = new StringBuilder();
+
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"))) {
+            String inputLine;
+            while ((inputLine = r.readLine()) != null)
+                response.append(inputLine);
+        }
+
+        return new JSONObject(response.toString());
     }
 
     private class GfycatUploadData {
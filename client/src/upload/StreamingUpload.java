@@ -0,0 +1,223 @@
+package upload;
+
+import metrics.CaptureMetrics;
+import settings.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * An upload that begins before the image has finished encoding.
+ * <p>
+ * The encoder writes into {@link #getOutputStream()} and the bytes are sent to the server as they are produced through
+ * an {@link UploadPipe}, so the capture is never written to a temporary file. If an archive file is supplied, every
+ * byte is also written to that file which is the only time the capture touches the disk. The bytes are hashed on the
+ * way, so that the capture can be identified in the {@link history.CaptureHistory}.
+ *
+ * @since 1.2
+ */
+public class StreamingUpload {
+    private final UploadPipe pipe = new UploadPipe();
+    private final OutputStream outputStream;
+    private final CompletableFuture<String> result;
+    private volatile CompletableFuture<String> pendingResult;
+
+    private final File archiveFile;
+    private final OutputStream archiveStream;
+
+    private final MessageDigest digest;
+    private volatile byte[] contentHash;
+
+    /**
+     * Starts the upload on the given {@link Executor}. The upload will block until bytes are written to
+     * {@link #getOutputStream()}.
+     *
+     * @param fileName    The name of the uploaded file. The extension decides where the file is uploaded.
+     * @param archiveFile The file the capture should also be saved to, or null if it should not be saved.
+     * @param config      The config class retrieved from {@link tray.CreateTrayIcon}.
+     * @param executor    The {@link Executor} the blocking upload runs on.
+     * @throws IOException If the archive file could not be created.
+     */
+    StreamingUpload(String fileName, File archiveFile, Config config, Executor executor) throws IOException {
+        this.archiveFile = archiveFile;
+
+        OutputStream encodedStream;
+        if (archiveFile == null) {
+            archiveStream = null;
+            encodedStream = pipe.getOutputStream();
+        } else {
+            archiveFile.getParentFile().mkdirs();
+
+            archiveStream = new BufferedOutputStream(new FileOutputStream(archiveFile));
+            encodedStream = new ArchivingOutputStream(pipe.getOutputStream(), archiveStream);
+        }
+
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        outputStream = new DigestOutputStream(encodedStream, digest);
+
+        result = CompletableFuture.supplyAsync(() -> {
+            try {
+                pendingResult = Upload.uploadStream(pipe.getInputStream(), fileName, config);
+
+                return pendingResult;
+            } finally {
+                pipe.cancel();
+            }
+        }, executor).thenCompose(pending -> pending);
+    }
+
+    /**
+     * @return The stream the encoder should write the image to.
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * @return The URL of the uploaded image once the upload completes, or an empty {@link String} if it failed.
+     */
+    public CompletableFuture<String> getResult() {
+        return result;
+    }
+
+    /**
+     * @return The amount of encoded bytes that were handed to the upload so far.
+     */
+    public long getBytesWritten() {
+        return pipe.getBytesWritten();
+    }
+
+    /**
+     * @return The amount of encoded bytes that are waiting to be sent.
+     */
+    public long getBufferedBytes() {
+        return pipe.getBufferedBytes();
+    }
+
+    /**
+     * Marks the end of the image. The upload completes once the remaining buffered bytes are sent.
+     *
+     * @throws IOException If the archive file could not be written.
+     */
+    public void finish() throws IOException {
+        contentHash = digest.digest();
+
+        outputStream.close();
+    }
+
+    /**
+     * @return The SHA-1 hash of the encoded image, or null if {@link #finish()} was not called yet.
+     */
+    public byte[] getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @return The file the image is saved to, or null if it is only uploaded.
+     */
+    public File getArchiveFile() {
+        return archiveFile;
+    }
+
+    /**
+     * Aborts the upload and removes the partially written archive file if there is one.
+     */
+    public void cancel() {
+        pipe.cancel();
+
+        CompletableFuture<String> pending = pendingResult;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+
+        if (archiveStream != null) {
+            try {
+                archiveStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            archiveFile.delete();
+        }
+    }
+
+    /**
+     * Writes every byte to both the upload pipe and the archive file. If the upload fails, the archive file is still
+     * written to completion. The total time spent on the archive file is recorded in {@link CaptureMetrics} once it is
+     * closed.
+     */
+    private static class ArchivingOutputStream extends OutputStream {
+        private final OutputStream upload;
+        private final OutputStream archive;
+        private boolean uploadFailed;
+        private long archiveTime;
+
+        private ArchivingOutputStream(OutputStream upload, OutputStream archive) {
+            this.upload = upload;
+            this.archive = archive;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long startTime = System.nanoTime();
+            archive.write(b);
+            archiveTime += System.nanoTime() - startTime;
+
+            if (!uploadFailed) {
+                try {
+                    upload.write(b);
+                } catch (IOException e) {
+                    uploadFailed = true;
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long startTime = System.nanoTime();
+            archive.write(b, off, len);
+            archiveTime += System.nanoTime() - startTime;
+
+            if (!uploadFailed) {
+                try {
+                    upload.write(b, off, len);
+                } catch (IOException e) {
+                    uploadFailed = true;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long startTime = System.nanoTime();
+            archive.flush();
+            archiveTime += System.nanoTime() - startTime;
+        }
+
+        @Override
+        public void close() throws IOException {
+            long startTime = System.nanoTime();
+            try {
+                archive.close();
+            } finally {
+                CaptureMetrics.record(CaptureMetrics.Latency.ARCHIVE_WRITE,
+                        archiveTime + System.nanoTime() - startTime);
+
+                upload.close();
+            }
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package upload;
 
+import metrics.CaptureMetrics;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.client.HttpClients;
@@ -15,22 +17,24 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import settings.Config;
 import settings.Settings;
+import tools.ExecutionRuntime;
 import tools.Logging;
 import tray.WindowInformation;
 
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
-import javax.swing.*;
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * This class is responsible for handling where the created image should be uploaded.
@@ -38,43 +42,67 @@ import java.nio.file.Paths;
  * @since 1.0
  */
 public class Upload {
+    private static final GfycatUpload GFYCAT_UPLOAD = new GfycatUpload(System.getProperty(
+            GfycatUpload.API_ENDPOINT_PROPERTY, GfycatUpload.API_ENDPOINT));
+
+    /**
+     * Starts uploading an image that has not been encoded yet. The encoder writes to
+     * {@link StreamingUpload#getOutputStream()} and the upload sends the bytes as they are produced.
+     *
+     * @param fileName    The name of the uploaded file. GIF files are uploaded to Gfycat.
+     * @param archiveFile The file the image should also be saved to, or null if it should only be uploaded.
+     * @param config      The config class retrieved from {@link tray.CreateTrayIcon}.
+     * @param executor    The {@link Executor} the blocking upload runs on.
+     * @return The {@link StreamingUpload} which accepts the encoded image.
+     * @throws IOException If the archive file could not be created.
+     */
+    public static StreamingUpload beginUpload(String fileName, File archiveFile, Config config, Executor executor)
+            throws IOException {
+        return new StreamingUpload(fileName, archiveFile, config, executor);
+    }
+
     /**
      * Checks if the image is a GIF and if so, will upload the image to Gfycat's servers. If the image is not a GIF,
      * the image will be uploaded to the main server designated by {@link Config#server}.
+     * <p>
+     * This method blocks until the image has been sent. Waiting for the URL afterwards, which Gfycat may take a while
+     * to provide, does not block.
      *
-     * @param imageFile The image that will be uploaded.
-     * @param settings  The settings class retrieved from {@link tray.CreateTrayIcon}.
-     * @param config    The config class retrieved from {@link tray.CreateTrayIcon}.
+     * @param inputStream The encoded image that will be uploaded. It is read until the end of the stream.
+     * @param fileName    The name of the uploaded file.
+     * @param config      The config class retrieved from {@link tray.CreateTrayIcon}.
+     * @return Returns the URL to the image or an empty {@link String} if the upload failed.
      */
-    public static void uploadFile(File imageFile, Settings settings, Config config) {
-        String result;
-
-        if (imageFile.getName().endsWith("gif")) {
-            GfycatUpload gfycatUpload = new GfycatUpload(config, imageFile);
-
-            result = gfycatUpload.getGfyURL();
+    public static CompletableFuture<String> uploadStream(InputStream inputStream, String fileName, Config config) {
+        if (fileName.endsWith("gif")) {
+            return GFYCAT_UPLOAD.upload(config, inputStream, fileName);
         } else {
-            result = uploadToServer(imageFile, config);
+            return CompletableFuture.completedFuture(uploadToServer(inputStream, fileName, config));
         }
+    }
 
-        if (!result.equals("")) {
-            playSound(settings);
-
-            copyToClipboard(result);
-            openLink(result);
+    /**
+     * Lets the user know the upload completed by playing a sound, copying the URL to the clipboard and opening it in
+     * the browser.
+     *
+     * @param url      The URL of the uploaded image.
+     * @param settings The settings class retrieved from {@link tray.CreateTrayIcon}.
+     */
+    public static void notifyUploaded(String url, Settings settings) {
+        playSound(settings);
 
-            imageFile.delete();
-        }
+        copyToClipboard(url);
+        openLink(url);
     }
 
     /**
-     * Plays sound on a new thread if {@link Settings#enableSound} is true.
+     * Plays sound on the I/O group of the {@link ExecutionRuntime} if {@link Settings#enableSound} is true.
      *
      * @param settings The settings class retrieved from {@link tray.CreateTrayIcon}.
      */
     private static void playSound(Settings settings) {
         if (settings.isEnableSound()) {
-            new Thread(() -> {
+            ExecutionRuntime.io().execute(() -> {
                 try {
                     Clip clip = AudioSystem.getClip();
                     AudioInputStream inputStream = AudioSystem.getAudioInputStream(Upload.class
@@ -84,7 +112,7 @@ public class Upload {
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
-            }).start();
+            });
         }
     }
 
@@ -94,43 +122,70 @@ public class Upload {
      * {@link WindowInformation#ACTIVE_WINDOW}.
      * <p>
      * For an example of a php web script file, please check {@link tools.Constants#GITHUB} for more information.
+     * <p>
+     * The time the server takes to respond once the image has been sent is recorded in {@link CaptureMetrics}.
      *
-     * @param imageFile The image file that is to be uploaded.
-     * @param config    The config class with the data for the server and
+     * @param inputStream The encoded image that is to be uploaded.
+     * @param fileName    The name of the uploaded file. The extension decides the content type.
+     * @param config      The config class with the data for the server and
      * @return Returns the URL to the image
      */
-    private static String uploadToServer(File imageFile, Config config) {
+    private static String uploadToServer(InputStream inputStream, String fileName, Config config) {
+        return uploadToServer(inputStream, fileName, config.getServer(), config.getServerPassword());
+    }
+
+    /**
+     * Uploads the image to a server that accepts the request of the php web script, such as
+     * {@link localServer.LocalUploadServer}.
+     *
+     * @param inputStream    The encoded image that is to be uploaded.
+     * @param fileName       The name of the uploaded file. The extension decides the content type.
+     * @param server         The URL the image is posted to.
+     * @param serverPassword The password for that server, or an empty {@link String} if it has none.
+     * @return Returns the URL to the image or an empty {@link String} if the upload failed.
+     * @since 1.2
+     */
+    public static String uploadToServer(InputStream inputStream, String fileName, String server,
+                                        String serverPassword) {
         JSONObject obj = null;
         try {
             Header[] headers;
-            if (config.getServerPassword() == null || config.getServerPassword().equals("")) {
+            if (serverPassword == null || serverPassword.equals("")) {
                 headers = new Header[2];
             } else {
                 headers = new Header[3];
 
-                headers[2] = new BasicHeader("uploadpassword", config.getServerPassword());
+                headers[2] = new BasicHeader("uploadpassword", serverPassword);
             }
 
             String boundary = "-------------" + System.currentTimeMillis();
             headers[0] = new BasicHeader("Content-Type", "multipart/form-data; boundary=" + boundary);
             headers[1] = new BasicHeader("title", WindowInformation.ACTIVE_WINDOW);
 
-            ContentType contentType = ContentType.create(Files.probeContentType(Paths.get(imageFile.getAbsolutePath())));
-
             HttpClient httpClient = HttpClients.createMinimal();
-            HttpEntity httpEntity = MultipartEntityBuilder.create()
-                    .addBinaryBody("uploaded_image", imageFile, contentType, imageFile.getName())
-                    .setMode(HttpMultipartMode.BROWSER_COMPATIBLE)
-                    .setBoundary(boundary)
-                    .build();
+            HttpEntity httpEntity = createMultipartEntity(inputStream, fileName, boundary);
+
+            long[] sentTime = new long[1];
+            HttpEntity timedEntity = new HttpEntityWrapper(httpEntity) {
+                @Override
+                public void writeTo(OutputStream outStream) throws IOException {
+                    super.writeTo(outStream);
+
+                    sentTime[0] = System.nanoTime();
+                }
+            };
 
-            HttpPost httpRequest = new HttpPost(config.getServer());
+            HttpPost httpRequest = new HttpPost(server);
             httpRequest.setHeaders(headers);
-            httpRequest.setEntity(httpEntity);
+            httpRequest.setEntity(timedEntity);
 
             HttpResponse httpResponse = httpClient.execute(httpRequest);
             String response = EntityUtils.toString(httpResponse.getEntity());
 
+            if (sentTime[0] != 0) {
+                CaptureMetrics.recordSince(CaptureMetrics.Latency.SERVER_RESPONSE, sentTime[0]);
+            }
+
             try {
                 obj = new JSONObject(response);
             } catch (JSONException e) {
@@ -148,14 +203,46 @@ public class Upload {
             return obj.getString("output");
         } else {
             if (obj != null) {
-                JOptionPane.showMessageDialog(null, "The server responded with:\n" +
-                        obj.getString("error"));
+                Logging.showMessage("The server responded with:\n" + obj.getString("error"));
             }
 
             return "";
         }
     }
 
+    /**
+     * Builds the multipart body of an upload, with the image in the 'uploaded_image' field that the php web script
+     * reads.
+     *
+     * @param inputStream The encoded image. It is read while the entity is written.
+     * @param fileName    The name of the uploaded file. The extension decides the content type.
+     * @param boundary    The boundary between the parts, which must also be sent in the Content-Type header.
+     * @return The entity of the request.
+     * @since 1.2
+     */
+    public static HttpEntity createMultipartEntity(InputStream inputStream, String fileName, String boundary) {
+        ContentType contentType = ContentType.create(getContentType(fileName));
+
+        return MultipartEntityBuilder.create()
+                .addBinaryBody("uploaded_image", inputStream, contentType, fileName)
+                .setMode(HttpMultipartMode.BROWSER_COMPATIBLE)
+                .setBoundary(boundary)
+                .build();
+    }
+
+    /**
+     * Retrieves the content type from the extension of the file name. The image is never on the disk while it is
+     * uploaded so it cannot be probed.
+     *
+     * @param fileName The name of the uploaded file.
+     * @return The MIME type of the image.
+     */
+    private static String getContentType(String fileName) {
+        String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
+
+        return extension.equals("jpg") ? "image/jpeg" : "image/" + extension;
+    }
+
     /**
      * Copy the url to the clipboard.
      *
@@ -0,0 +1,230 @@
+package upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A bounded in-memory pipe that connects an encoder writing on one thread to an upload reading on another.
+ * <p>
+ * Unlike {@link java.io.PipedInputStream}, this pipe is not bound to the threads that use it, so the encoder may write
+ * from any thread of a pool. Writes block while the buffer is full which keeps the memory used by an upload bounded
+ * by {@link #BUFFER_SIZE} no matter how slow the connection is.
+ *
+ * @since 1.2
+ */
+class UploadPipe {
+    /**
+     * The amount of encoded bytes that may be waiting to be sent before the encoder is blocked.
+     */
+    private static final int BUFFER_SIZE = 512 * 1024;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int readPosition;
+    private int count;
+    private long bytesWritten;
+
+    private boolean closed;
+    private boolean cancelled;
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writeBytes(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeWriter();
+        }
+    };
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            return readByte();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return readBytes(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return availableBytes();
+        }
+
+        @Override
+        public void close() {
+            cancel();
+        }
+    };
+
+    /**
+     * The {@link OutputStream} that the encoder writes to. Closing it signals the end of the file to the reader.
+     *
+     * @return The writing end of the pipe.
+     */
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * The {@link InputStream} that the upload reads from. Closing it before the end of the file is reached cancels the
+     * pipe so that a blocked writer is released.
+     *
+     * @return The reading end of the pipe.
+     */
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * @return The total amount of bytes that were written to the pipe.
+     */
+    synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return The amount of bytes that were written but not read yet.
+     */
+    synchronized int getBufferedBytes() {
+        return count;
+    }
+
+    /**
+     * Discards all buffered bytes and makes every further read or write fail with an {@link IOException}.
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        count = 0;
+
+        notifyAll();
+    }
+
+    private synchronized void writeByte(int b) throws IOException {
+        awaitSpace();
+
+        buffer[(readPosition + count) % BUFFER_SIZE] = (byte) b;
+        count++;
+        bytesWritten++;
+
+        notifyAll();
+    }
+
+    private synchronized void writeBytes(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            awaitSpace();
+
+            int writePosition = (readPosition + count) % BUFFER_SIZE;
+            int length = Math.min(len, Math.min(BUFFER_SIZE - count, BUFFER_SIZE - writePosition));
+
+            System.arraycopy(b, off, buffer, writePosition, length);
+            count += length;
+            bytesWritten += length;
+            off += length;
+            len -= length;
+
+            notifyAll();
+        }
+    }
+
+    private synchronized int readByte() throws IOException {
+        if (!awaitData()) {
+            return -1;
+        }
+
+        int b = buffer[readPosition] & 0xFF;
+        readPosition = (readPosition + 1) % BUFFER_SIZE;
+        count--;
+
+        notifyAll();
+
+        return b;
+    }
+
+    private synchronized int readBytes(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!awaitData()) {
+            return -1;
+        }
+
+        int length = Math.min(len, Math.min(count, BUFFER_SIZE - readPosition));
+
+        System.arraycopy(buffer, readPosition, b, off, length);
+        readPosition = (readPosition + length) % BUFFER_SIZE;
+        count -= length;
+
+        notifyAll();
+
+        return length;
+    }
+
+    private synchronized int availableBytes() {
+        return count;
+    }
+
+    private synchronized void closeWriter() {
+        closed = true;
+
+        notifyAll();
+    }
+
+    /**
+     * Blocks the writer until there is room in {@link #buffer}.
+     *
+     * @throws IOException If the pipe was cancelled or closed, or if the writing thread was interrupted.
+     */
+    private void awaitSpace() throws IOException {
+        while (count == BUFFER_SIZE && !cancelled) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new InterruptedIOException("Interrupted while waiting for the upload.");
+            }
+        }
+
+        if (cancelled) {
+            throw new IOException("The upload was cancelled.");
+        } else if (closed) {
+            throw new IOException("The upload pipe is closed.");
+        }
+    }
+
+    /**
+     * Blocks the reader until there are bytes in {@link #buffer} or the writer has closed the pipe.
+     *
+     * @return False if the end of the file was reached.
+     * @throws IOException If the pipe was cancelled, or if the reading thread was interrupted.
+     */
+    private boolean awaitData() throws IOException {
+        while (count == 0 && !closed && !cancelled) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new InterruptedIOException("Interrupted while waiting for the encoder.");
+            }
+        }
+
+        if (cancelled) {
+            throw new IOException("The upload was cancelled.");
+        }
+
+        return count > 0;
+    }
+}